@@ -0,0 +1,166 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.nc2.bench;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generates the files the benchmarks read, so they run offline and read the same bytes on every run.
+ * Files go in the directory given by the "bench.dir" system property, default java.io.tmpdir/cdm-bench,
+ * and are made only if missing. Change VERSION when the contents change.
+ */
+public class BenchFiles {
+  private static final String VERSION = "v1";
+
+  /** Shape of the 3D variables: 64 x 256 x 256 floats, 16 MB. */
+  public static final int NT = 64, NY = 256, NX = 256;
+  public static final int[] SHAPE = {NT, NY, NX};
+  public static final int[] CHUNK = {8, 64, 64};
+
+  public static final short PACKED_FILL = -32767;
+  public static final float PACKED_SCALE = 0.01f;
+  public static final float PACKED_OFFSET = 273.15f;
+
+  private static File getDir() throws IOException {
+    File dir = new File(System.getProperty("bench.dir", System.getProperty("java.io.tmpdir") + "/cdm-bench"));
+    if (!dir.exists() && !dir.mkdirs())
+      throw new IOException("cant create " + dir);
+    return dir;
+  }
+
+  /**
+   * A smooth field plus noise, like a temperature field.
+   */
+  public static float[] makeField() {
+    Random r = new Random(17);
+    float[] result = new float[NT * NY * NX];
+    int i = 0;
+    for (int t = 0; t < NT; t++)
+      for (int y = 0; y < NY; y++)
+        for (int x = 0; x < NX; x++)
+          result[i++] = (float) (15 + 10 * Math.sin(x / 40.0 + t / 10.0) * Math.cos(y / 30.0)) + r.nextFloat() / 10;
+    return result;
+  }
+
+  /**
+   * The field as big endian floats, without any header.
+   */
+  public static synchronized File getRawFile() throws IOException {
+    File f = new File(getDir(), "raw-" + VERSION + ".dat");
+    if (f.exists()) return f;
+
+    File temp = new File(f.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+      for (float v : makeField()) out.writeFloat(v);
+    }
+    rename(temp, f);
+    return f;
+  }
+
+  /**
+   * A netCDF-3 file with the float variable "data"(time, y, x), and the short variable "packed"(time, y, x)
+   * with scale_factor, add_offset and _FillValue. About 1% of "packed" is missing.
+   */
+  public static synchronized File getNetcdf3File() throws IOException {
+    File f = new File(getDir(), "bench-" + VERSION + ".nc");
+    if (f.exists()) return f;
+
+    float[] field = makeField();
+    short[] packed = new short[field.length];
+    Random r = new Random(19);
+    for (int i = 0; i < field.length; i++)
+      packed[i] = (r.nextInt(100) == 0) ? PACKED_FILL : (short) Math.round(field[i] / PACKED_SCALE);
+
+    File temp = new File(f.getPath() + ".tmp");
+    NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, temp.getPath());
+    try {
+      writer.addDimension(null, "time", NT);
+      writer.addDimension(null, "y", NY);
+      writer.addDimension(null, "x", NX);
+      Variable data = writer.addVariable(null, "data", DataType.FLOAT, "time y x");
+      writer.addVariableAttribute(data, new Attribute("units", "degC"));
+      Variable pv = writer.addVariable(null, "packed", DataType.SHORT, "time y x");
+      writer.addVariableAttribute(pv, new Attribute("units", "K"));
+      writer.addVariableAttribute(pv, new Attribute("scale_factor", PACKED_SCALE));
+      writer.addVariableAttribute(pv, new Attribute("add_offset", PACKED_OFFSET));
+      writer.addVariableAttribute(pv, new Attribute("_FillValue", PACKED_FILL));
+      writer.create();
+
+      writer.write(data, Array.factory(DataType.FLOAT, SHAPE, field));
+      writer.write(pv, Array.factory(DataType.SHORT, SHAPE, packed));
+    } catch (InvalidRangeException e) {
+      throw new IllegalStateException(e);
+    } finally {
+      writer.close();
+    }
+    rename(temp, f);
+    return f;
+  }
+
+  /**
+   * An HDF5 file with the same field stored three ways: "contiguous", "chunked", and "deflate" (chunked,
+   * deflate level 4). Chunks are 8 x 64 x 64.
+   */
+  public static synchronized File getHdf5File() throws IOException {
+    File f = new File(getDir(), "bench-" + VERSION + ".h5");
+    if (f.exists()) return f;
+
+    float[] field = makeField();
+    File temp = new File(f.getPath() + ".tmp");
+    new Hdf5Writer()
+            .addFloat("contiguous", SHAPE, field, null, 0)
+            .addFloat("chunked", SHAPE, field, CHUNK, 0)
+            .addFloat("deflate", SHAPE, field, CHUNK, 4)
+            .write(temp);
+    rename(temp, f);
+    return f;
+  }
+
+  // so a killed run never leaves a partial file behind
+  private static void rename(File temp, File f) throws IOException {
+    if (!temp.renameTo(f))
+      throw new IOException("cant rename " + temp + " to " + f);
+  }
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.nc2.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a minimal HDF5 file of float variables in the root group, so the HDF5 benchmarks need neither test data
+ * nor the HDF5 C library. Variables are contiguous, or chunked with optional shuffle, deflate and fletcher32 filters.
+ * <p>
+ * Uses the version 2 superblock and object headers, with the links stored in the root group's object header,
+ * and a version 1 B-tree to index the chunks. Little endian, 8 byte offsets and lengths. No attributes,
+ * no fill values.
+ */
+public class Hdf5Writer {
+  private static final long UNDEF = -1L;
+  private static final int BTREE_K = 32;  // entries in a chunk B-tree node, at most 2K
+
+  private static class Var {
+    String name;
+    int[] shape;
+    float[] data;
+    int[] chunk;  // null if contiguous
+    int deflate;  // 0 for no filter
+    boolean shuffle, fletcher32;
+  }
+
+  private final List<Var> vars = new ArrayList<>();
+
+  /**
+   * Add a float variable.
+   *
+   * @param name    variable name
+   * @param shape   variable shape
+   * @param data    the values, in row major order
+   * @param chunk   chunk shape, or null for contiguous storage
+   * @param deflate deflate level 1-9, or 0 for no compression; only used when chunked
+   * @return this
+   */
+  public Hdf5Writer addFloat(String name, int[] shape, float[] data, int[] chunk, int deflate) {
+    return addFloat(name, shape, data, chunk, deflate, false, false);
+  }
+
+  /**
+   * Add a float variable, with the filters applied in the order shuffle, deflate, fletcher32.
+   *
+   * @param name       variable name
+   * @param shape      variable shape
+   * @param data       the values, in row major order
+   * @param chunk      chunk shape, or null for contiguous storage
+   * @param deflate    deflate level 1-9, or 0 for no compression; only used when chunked
+   * @param shuffle    shuffle the bytes of the values; only used when chunked
+   * @param fletcher32 add a checksum; only used when chunked
+   * @return this
+   */
+  public Hdf5Writer addFloat(String name, int[] shape, float[] data, int[] chunk, int deflate, boolean shuffle,
+                             boolean fletcher32) {
+    Var v = new Var();
+    v.name = name;
+    v.shape = shape.clone();
+    v.data = data;
+    v.chunk = (chunk == null) ? null : chunk.clone();
+    v.deflate = (chunk == null) ? 0 : deflate;
+    v.shuffle = (chunk != null) && shuffle;
+    v.fletcher32 = (chunk != null) && fletcher32;
+    vars.add(v);
+    return this;
+  }
+
+  public void write(File file) throws IOException {
+    Buf out = new Buf();
+    out.skip(48);  // superblock, written last
+
+    long[] objectAddress = new long[vars.size()];
+    for (int i = 0; i < vars.size(); i++)
+      objectAddress[i] = writeVariable(out, vars.get(i));
+
+    // root group: link info, group info, and a hard link for each variable
+    Buf mess = new Buf();
+    message(mess, 2, 18);
+    mess.putByte(0);
+    mess.putByte(0);
+    mess.putLong(UNDEF);     // no fractal heap
+    mess.putLong(UNDEF);     // no name index
+    message(mess, 10, 2);
+    mess.putByte(0);
+    mess.putByte(0);
+    for (int i = 0; i < vars.size(); i++) {
+      byte[] name = vars.get(i).name.getBytes("UTF-8");
+      message(mess, 6, 3 + name.length + 8);
+      mess.putByte(1);
+      mess.putByte(0);       // 1 byte name length, hard link
+      mess.putByte(name.length);
+      mess.putBytes(name);
+      mess.putLong(objectAddress[i]);
+    }
+    long rootAddress = objectHeader(out, mess);
+
+    // superblock version 2
+    long eof = out.size();
+    out.seek(0);
+    out.putBytes(new byte[]{(byte) 0x89, 'H', 'D', 'F', '\r', '\n', 0x1a, '\n'});
+    out.putByte(2);
+    out.putByte(8);
+    out.putByte(8);
+    out.putByte(0);
+    out.putLong(0);          // base address
+    out.putLong(UNDEF);      // no superblock extension
+    out.putLong(eof);
+    out.putLong(rootAddress);
+    out.putInt(lookup3(out.bytes(), 0, 44));
+
+    try (FileOutputStream fos = new FileOutputStream(file)) {
+      fos.write(out.bytes(), 0, out.size());
+    }
+  }
+
+  // write the data and the object header, return the object header address
+  private long writeVariable(Buf out, Var v) throws IOException {
+    int rank = v.shape.length;
+    Buf mess = new Buf();
+
+    // dataspace version 2
+    message(mess, 1, 4 + 8 * rank);
+    mess.putByte(2);
+    mess.putByte(rank);
+    mess.putByte(0);
+    mess.putByte(1);
+    for (int len : v.shape) mess.putLong(len);
+
+    // datatype version 1, IEEE little endian float
+    message(mess, 3, 20);
+    mess.putByte(0x11);
+    mess.putByte(0x20);
+    mess.putByte(31);
+    mess.putByte(0);
+    mess.putInt(4);
+    mess.putShort(0);
+    mess.putShort(32);
+    mess.putByte(23);
+    mess.putByte(8);
+    mess.putByte(0);
+    mess.putByte(23);
+    mess.putInt(127);
+
+    if (v.chunk == null) {
+      long dataAddress = out.size();
+      for (float f : v.data) out.putFloat(f);
+
+      message(mess, 8, 18);  // layout version 3, contiguous
+      mess.putByte(3);
+      mess.putByte(1);
+      mess.putLong(dataAddress);
+      mess.putLong(4L * v.data.length);
+
+    } else {
+      long btreeAddress = writeChunks(out, v);
+
+      int nfilters = (v.shuffle ? 1 : 0) + (v.deflate > 0 ? 1 : 0) + (v.fletcher32 ? 1 : 0);
+      if (nfilters > 0) {
+        int size = 2 + (v.shuffle ? 10 : 0) + (v.deflate > 0 ? 10 : 0) + (v.fletcher32 ? 6 : 0);
+        message(mess, 11, size);  // filter pipeline version 2
+        mess.putByte(2);
+        mess.putByte(nfilters);
+        if (v.shuffle) {
+          mess.putShort(2);
+          mess.putShort(0);
+          mess.putShort(1);
+          mess.putInt(4);       // element size
+        }
+        if (v.deflate > 0) {
+          mess.putShort(1);
+          mess.putShort(0);
+          mess.putShort(1);
+          mess.putInt(v.deflate);
+        }
+        if (v.fletcher32) {
+          mess.putShort(3);
+          mess.putShort(0);
+          mess.putShort(0);
+        }
+      }
+
+      message(mess, 8, 3 + 8 + 4 * (rank + 1));  // layout version 3, chunked
+      mess.putByte(3);
+      mess.putByte(2);
+      mess.putByte(rank + 1);
+      mess.putLong(btreeAddress);
+      for (int len : v.chunk) mess.putInt(len);
+      mess.putInt(4);  // element size
+    }
+
+    return objectHeader(out, mess);
+  }
+
+  // write all the chunks, then the B-tree, return the B-tree root address
+  private long writeChunks(Buf out, Var v) throws IOException {
+    int rank = v.shape.length;
+    int[] nchunks = new int[rank];
+    int total = 1;
+    for (int d = 0; d < rank; d++) {
+      nchunks[d] = (v.shape[d] + v.chunk[d] - 1) / v.chunk[d];
+      total *= nchunks[d];
+    }
+    int chunkLen = 1;
+    for (int len : v.chunk) chunkLen *= len;
+
+    long[][] keys = new long[total][];  // chunk offsets, plus 0 for the element dimension
+    long[] address = new long[total];
+    int[] size = new int[total];
+    float[] chunkData = new float[chunkLen];
+    Buf raw = new Buf();
+    int[] counter = new int[rank];
+
+    for (int c = 0; c < total; c++) {
+      long[] offset = new long[rank + 1];
+      for (int d = 0; d < rank; d++) offset[d] = (long) counter[d] * v.chunk[d];
+      keys[c] = offset;
+
+      // copy the chunk, edge chunks are padded with 0
+      Arrays.fill(chunkData, 0);
+      copyChunk(v, offset, chunkData);
+      raw.seek(0);
+      for (float f : chunkData) raw.putFloat(f);
+      byte[] bytes = Arrays.copyOf(raw.bytes(), 4 * chunkLen);
+      if (v.shuffle) bytes = shuffle(bytes, 4);
+      if (v.deflate > 0) bytes = deflate(bytes, v.deflate);
+      if (v.fletcher32) bytes = fletcher32(bytes);
+
+      address[c] = out.size();
+      size[c] = bytes.length;
+      out.putBytes(bytes);
+
+      for (int d = rank - 1; d >= 0; d--) {  // row major order
+        if (++counter[d] < nchunks[d]) break;
+        counter[d] = 0;
+      }
+    }
+
+    // the key past the last chunk
+    long[] end = new long[rank + 1];
+    for (int d = 0; d < rank; d++) end[d] = (long) nchunks[d] * v.chunk[d];
+
+    // leaves, then each level up to a single root
+    int level = 0;
+    while (true) {
+      int nnodes = (total + 2 * BTREE_K - 1) / (2 * BTREE_K);
+      long[][] nodeKeys = new long[nnodes][];
+      long[] nodeAddress = new long[nnodes];
+      int[] nodeSize = new int[nnodes];
+      for (int n = 0; n < nnodes; n++) {
+        int start = n * 2 * BTREE_K;
+        int count = Math.min(2 * BTREE_K, total - start);
+        long[] last = (start + count < total) ? keys[start + count] : end;
+        nodeKeys[n] = keys[start];
+        nodeAddress[n] = out.size();
+        nodeSize[n] = size[start];
+
+        out.putBytes(new byte[]{'T', 'R', 'E', 'E'});
+        out.putByte(1);  // raw data chunks
+        out.putByte(level);
+        out.putShort(count);
+        out.putLong(UNDEF);
+        out.putLong(UNDEF);
+        for (int i = start; i < start + count; i++) {
+          putKey(out, size[i], keys[i]);
+          out.putLong(address[i]);
+        }
+        putKey(out, 0, last);
+      }
+      if (nnodes == 1) return nodeAddress[0];
+      keys = nodeKeys;
+      address = nodeAddress;
+      size = nodeSize;
+      total = nnodes;
+      level++;
+    }
+  }
+
+  private void putKey(Buf out, int size, long[] offset) {
+    out.putInt(size);
+    out.putInt(0);  // filter mask
+    for (long o : offset) out.putLong(o);
+  }
+
+  private void copyChunk(Var v, long[] offset, float[] chunkData) {
+    int rank = v.shape.length;
+    int[] idx = new int[rank];
+    int n = chunkData.length;
+    for (int i = 0; i < n; i++) {
+      boolean inside = true;
+      int pos = 0;
+      for (int d = 0; d < rank; d++) {
+        int g = (int) offset[d] + idx[d];
+        if (g >= v.shape[d]) {
+          inside = false;
+          break;
+        }
+        pos = pos * v.shape[d] + g;
+      }
+      if (inside) chunkData[i] = v.data[pos];
+      for (int d = rank - 1; d >= 0; d--) {
+        if (++idx[d] < v.chunk[d]) break;
+        idx[d] = 0;
+      }
+    }
+  }
+
+  private byte[] deflate(byte[] bytes, int level) {
+    Deflater deflater = new Deflater(level);
+    deflater.setInput(bytes);
+    deflater.finish();
+    byte[] buff = new byte[bytes.length + 64];
+    Buf result = new Buf();
+    while (!deflater.finished()) {
+      int n = deflater.deflate(buff);
+      result.putBytes(Arrays.copyOf(buff, n));
+    }
+    deflater.end();
+    return Arrays.copyOf(result.bytes(), result.size());
+  }
+
+  // all the first bytes of the elements, then all the second bytes, etc
+  private byte[] shuffle(byte[] bytes, int elemSize) {
+    int n = bytes.length / elemSize;
+    byte[] result = new byte[bytes.length];
+    for (int i = 0; i < n; i++)
+      for (int k = 0; k < elemSize; k++)
+        result[k * n + i] = bytes[i * elemSize + k];
+    return result;
+  }
+
+  // append the HDF5 fletcher32 checksum, little endian
+  private byte[] fletcher32(byte[] bytes) {
+    int sum1 = 0, sum2 = 0;
+    int i = 0;
+    int nwords = bytes.length / 2;
+    while (nwords > 0) {
+      int n = Math.min(nwords, 360);
+      nwords -= n;
+      for (int k = 0; k < n; k++, i += 2) {
+        sum1 += ((bytes[i] & 0xff) << 8) | (bytes[i + 1] & 0xff);
+        sum2 += sum1;
+      }
+      sum1 = (sum1 & 0xffff) + (sum1 >>> 16);
+      sum2 = (sum2 & 0xffff) + (sum2 >>> 16);
+    }
+    if (bytes.length % 2 != 0) {
+      sum1 += (bytes[i] & 0xff) << 8;
+      sum2 += sum1;
+      sum1 = (sum1 & 0xffff) + (sum1 >>> 16);
+      sum2 = (sum2 & 0xffff) + (sum2 >>> 16);
+    }
+    sum1 = (sum1 & 0xffff) + (sum1 >>> 16);
+    sum2 = (sum2 & 0xffff) + (sum2 >>> 16);
+    int checksum = (sum2 << 16) | sum1;
+
+    byte[] result = Arrays.copyOf(bytes, bytes.length + 4);
+    for (int k = 0; k < 4; k++)
+      result[bytes.length + k] = (byte) (checksum >>> (8 * k));
+    return result;
+  }
+
+  private void message(Buf mess, int type, int size) {
+    mess.putByte(type);
+    mess.putShort(size);
+    mess.putByte(0);
+  }
+
+  // object header version 2, with a 4 byte chunk size; return its address
+  private long objectHeader(Buf out, Buf mess) {
+    long address = out.size();
+    out.putBytes(new byte[]{'O', 'H', 'D', 'R'});
+    out.putByte(2);
+    out.putByte(2);
+    out.putInt(mess.size());
+    out.putBytes(Arrays.copyOf(mess.bytes(), mess.size()));
+    out.putInt(lookup3(out.bytes(), (int) address, (int) (out.size() - address)));
+    return address;
+  }
+
+  /**
+   * Jenkins' lookup3 hashlittle(), the HDF5 metadata checksum.
+   */
+  static int lookup3(byte[] k, int offset, int length) {
+    int a, b, c;
+    a = b = c = 0xdeadbeef + length;
+    int i = offset;
+    while (length > 12) {
+      a += (k[i] & 0xff) + ((k[i + 1] & 0xff) << 8) + ((k[i + 2] & 0xff) << 16) + ((k[i + 3] & 0xff) << 24);
+      b += (k[i + 4] & 0xff) + ((k[i + 5] & 0xff) << 8) + ((k[i + 6] & 0xff) << 16) + ((k[i + 7] & 0xff) << 24);
+      c += (k[i + 8] & 0xff) + ((k[i + 9] & 0xff) << 8) + ((k[i + 10] & 0xff) << 16) + ((k[i + 11] & 0xff) << 24);
+
+      a -= c;  a ^= Integer.rotateLeft(c, 4);   c += b;
+      b -= a;  b ^= Integer.rotateLeft(a, 6);   a += c;
+      c -= b;  c ^= Integer.rotateLeft(b, 8);   b += a;
+      a -= c;  a ^= Integer.rotateLeft(c, 16);  c += b;
+      b -= a;  b ^= Integer.rotateLeft(a, 19);  a += c;
+      c -= b;  c ^= Integer.rotateLeft(b, 4);   b += a;
+
+      length -= 12;
+      i += 12;
+    }
+
+    switch (length) {
+      case 12: c += (k[i + 11] & 0xff) << 24;
+      case 11: c += (k[i + 10] & 0xff) << 16;
+      case 10: c += (k[i + 9] & 0xff) << 8;
+      case 9:  c += (k[i + 8] & 0xff);
+      case 8:  b += (k[i + 7] & 0xff) << 24;
+      case 7:  b += (k[i + 6] & 0xff) << 16;
+      case 6:  b += (k[i + 5] & 0xff) << 8;
+      case 5:  b += (k[i + 4] & 0xff);
+      case 4:  a += (k[i + 3] & 0xff) << 24;
+      case 3:  a += (k[i + 2] & 0xff) << 16;
+      case 2:  a += (k[i + 1] & 0xff) << 8;
+      case 1:  a += (k[i] & 0xff);
+        break;
+      case 0:
+        return c;
+    }
+
+    c ^= b;  c -= Integer.rotateLeft(b, 14);
+    a ^= c;  a -= Integer.rotateLeft(c, 11);
+    b ^= a;  b -= Integer.rotateLeft(a, 25);
+    c ^= b;  c -= Integer.rotateLeft(b, 16);
+    a ^= c;  a -= Integer.rotateLeft(c, 4);
+    b ^= a;  b -= Integer.rotateLeft(a, 14);
+    c ^= b;  c -= Integer.rotateLeft(b, 24);
+    return c;
+  }
+
+  // little endian, growable, with random access for patching
+  private static class Buf {
+    private byte[] buff = new byte[1024];
+    private int pos, size;
+
+    void ensure(int n) {
+      if (pos + n > buff.length)
+        buff = Arrays.copyOf(buff, Math.max(2 * buff.length, pos + n));
+    }
+
+    void seek(int p) {
+      pos = p;
+    }
+
+    void skip(int n) {
+      ensure(n);
+      pos += n;
+      size = Math.max(size, pos);
+    }
+
+    void putByte(int b) {
+      ensure(1);
+      buff[pos++] = (byte) b;
+      size = Math.max(size, pos);
+    }
+
+    void putShort(int v) {
+      putByte(v);
+      putByte(v >> 8);
+    }
+
+    void putInt(int v) {
+      putShort(v);
+      putShort(v >> 16);
+    }
+
+    void putLong(long v) {
+      putInt((int) v);
+      putInt((int) (v >> 32));
+    }
+
+    void putFloat(float f) {
+      putInt(Float.floatToIntBits(f));
+    }
+
+    void putBytes(byte[] b) {
+      ensure(b.length);
+      System.arraycopy(b, 0, buff, pos, b.length);
+      pos += b.length;
+      size = Math.max(size, pos);
+    }
+
+    int size() {
+      return size;
+    }
+
+    byte[] bytes() {
+      return buff;
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.bench.dataset;
+
+import org.openjdk.jmh.annotations.*;
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.bench.BenchFiles;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dataset.VariableDS;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a packed short variable (scale_factor, add_offset, _FillValue) through NetcdfDataset, with no
+ * enhancement, with ScaleMissing, and with ScaleMissingDefer plus VariableDS.convertScaleOffsetMissing().
+ * countMissing() adds the per-element isMissing() test.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EnhanceBench {
+
+  @Param({"none", "ScaleMissing", "ScaleMissingDefer"})
+  public String enhance;
+
+  private String location;
+  private NetcdfDataset ncd;
+  private VariableDS packed;
+
+  @Setup
+  public void setup() throws IOException {
+    location = BenchFiles.getNetcdf3File().getPath();
+    Set<NetcdfDataset.Enhance> mode = enhance.equals("none") ? Collections.<NetcdfDataset.Enhance>emptySet()
+            : EnumSet.of(NetcdfDataset.Enhance.valueOf(enhance));
+    ncd = NetcdfDataset.wrap(NetcdfFile.open(location), mode);
+    packed = (VariableDS) ncd.findVariable("packed");
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    ncd.close();
+  }
+
+  @Benchmark
+  public Array read() throws IOException {
+    Array data = packed.read();
+    return enhance.equals("ScaleMissingDefer") ? packed.convertScaleOffsetMissing(data) : data;
+  }
+
+  @Benchmark
+  public Array readSlice() throws IOException, InvalidRangeException {
+    Array data = packed.read("32,:,:");
+    return enhance.equals("ScaleMissingDefer") ? packed.convertScaleOffsetMissing(data) : data;
+  }
+
+  @Benchmark
+  public int countMissing() throws IOException {
+    Array data = packed.read();
+    if (enhance.equals("ScaleMissingDefer"))
+      data = packed.convertScaleOffsetMissing(data);
+    int count = 0;
+    while (data.hasNext())
+      if (packed.isMissing(data.nextDouble())) count++;
+    return count;
+  }
+}
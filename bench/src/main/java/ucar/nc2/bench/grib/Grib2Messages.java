@@ -0,0 +1,347 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.bench.grib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Writes sections 5, 6 and 7 of a GRIB2 message (data representation, bitmap, data) for a synthetic field,
+ * with simple packing (template 5.0), complex packing (5.2) or complex packing and second order spatial
+ * differencing (5.3). Groups have a fixed length, which is how most NCEP messages are split.
+ * No bitmap and no missing values.
+ * writeMessage() adds the other sections, for a global lat/lon grid (template 3.0) and an analysis
+ * product (template 4.0), to make a complete message.
+ */
+public class Grib2Messages {
+  private static final int GROUP = 16;
+
+  /**
+   * A smooth field plus noise, like a temperature or height field, as scaled integers.
+   */
+  public static int[] makeField(int nx, int ny, int range, long seed) {
+    Random r = new Random(seed);
+    int[] result = new int[nx * ny];
+    for (int j = 0; j < ny; j++)
+      for (int i = 0; i < nx; i++)
+        result[j * nx + i] = (int) (range * (1 + Math.sin(i / 50.0) * Math.cos(j / 70.0))) + r.nextInt(8);
+    return result;
+  }
+
+  /**
+   * Write sections 5, 6 and 7 for this field.
+   *
+   * @param template data representation template: 0, 2 or 3
+   * @param scaled   the scaled integer values, all non-negative
+   * @return the sections, starting with section 5
+   */
+  public static byte[] write(int template, int[] scaled) throws IOException {
+    switch (template) {
+      case 0:
+        return simple(scaled);
+      case 2:
+        return complex(2, scaled);
+      case 3:
+        return complex(3, scaled);
+      default:
+        throw new IllegalArgumentException("unsupported template " + template);
+    }
+  }
+
+  /**
+   * Write a complete GRIB2 message for this field, on a global lat/lon grid.
+   *
+   * @param template data representation template: 0, 2 or 3
+   * @param nx       number of points along a parallel
+   * @param ny       number of points along a meridian
+   * @param scaled   the scaled integer values, all non-negative
+   * @return the message
+   */
+  public static byte[] writeMessage(int template, int nx, int ny, int[] scaled) throws IOException {
+    byte[] sections567 = write(template, scaled);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(sections567.length + 200);
+    DataOutputStream out = new DataOutputStream(bos);
+
+    // section 1: identification
+    out.writeInt(21);
+    out.write(1);
+    out.writeShort(7);     // NCEP
+    out.writeShort(0);
+    out.write(2);          // master table version
+    out.write(1);          // local table version
+    out.write(1);          // reference time is the start of the forecast
+    out.writeShort(2016);
+    out.write(11);
+    out.write(1);
+    out.write(0);
+    out.write(0);
+    out.write(0);
+    out.write(0);          // operational products
+    out.write(1);          // forecast products
+
+    // section 3: grid definition, template 3.0
+    out.writeInt(72);
+    out.write(3);
+    out.write(0);
+    out.writeInt(nx * ny);
+    out.write(0);
+    out.write(0);
+    out.writeShort(0);
+    out.write(6);          // spherical earth, radius 6371229 m
+    out.write(0);
+    out.writeInt(0);
+    out.write(0);
+    out.writeInt(0);
+    out.write(0);
+    out.writeInt(0);
+    out.writeInt(nx);
+    out.writeInt(ny);
+    out.writeInt(0);       // basic angle
+    out.writeInt(-1);      // subdivisions of basic angle (missing)
+    int di = 360 * 1000 * 1000 / nx;
+    int dj = 180 * 1000 * 1000 / (ny - 1);
+    out.writeInt(signed(90 * 1000 * 1000));     // La1
+    out.writeInt(0);                            // Lo1
+    out.write(48);                              // resolution and component flags
+    out.writeInt(signed(-90 * 1000 * 1000));    // La2
+    out.writeInt((nx - 1) * di);                // Lo2
+    out.writeInt(di);
+    out.writeInt(dj);
+    out.write(0);                               // scan +i, -j
+
+    // section 4: product definition, template 4.0
+    out.writeInt(34);
+    out.write(4);
+    out.writeShort(0);
+    out.writeShort(0);
+    out.write(0);          // temperature
+    out.write(0);
+    out.write(2);          // forecast
+    out.write(0);
+    out.write(96);
+    out.writeShort(0);
+    out.write(0);
+    out.write(1);          // hours
+    out.writeInt(0);
+    out.write(1);          // surface
+    out.write(0);
+    out.writeInt(0);
+    out.write(255);        // no second surface
+    out.write(0);
+    out.writeInt(0);
+
+    out.write(sections567);
+    out.writeBytes("7777");
+    out.flush();
+    byte[] body = bos.toByteArray();
+
+    // section 0: indicator
+    ByteArrayOutputStream msg = new ByteArrayOutputStream(body.length + 16);
+    DataOutputStream mout = new DataOutputStream(msg);
+    mout.writeBytes("GRIB");
+    mout.writeShort(0);
+    mout.write(0);         // meteorological products
+    mout.write(2);
+    mout.writeLong(16 + body.length);
+    mout.write(body);
+    mout.flush();
+    return msg.toByteArray();
+  }
+
+  // GRIB2 sign and magnitude
+  private static int signed(int val) {
+    return (val < 0) ? (0x80000000 | -val) : val;
+  }
+
+  private static byte[] simple(int[] scaled) throws IOException {
+    int max = 0;
+    for (int v : scaled) max = Math.max(max, v);
+    int nb = bits(max);
+
+    BitWriter data = new BitWriter(scaled.length * nb / 8 + 8);
+    for (int v : scaled) data.write(v, nb);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+    out.writeInt(21);
+    out.write(5);
+    out.writeInt(scaled.length);
+    out.writeShort(0);
+    writeType0(out, nb);
+    writeSections67(out, data.toBytes());
+    return bos.toByteArray();
+  }
+
+  private static byte[] complex(int template, int[] scaled) throws IOException {
+    int npts = scaled.length;
+    int order = (template == 3) ? 2 : 0;
+
+    // second order differences, less their minimum
+    int[] x = new int[npts];
+    int min = 0;
+    if (order == 2) {
+      min = Integer.MAX_VALUE;
+      for (int i = 2; i < npts; i++) {
+        x[i] = scaled[i] - 2 * scaled[i - 1] + scaled[i - 2];
+        min = Math.min(min, x[i]);
+      }
+      for (int i = 2; i < npts; i++)
+        x[i] -= min;
+    } else {
+      System.arraycopy(scaled, 0, x, 0, npts);
+    }
+
+    int ng = (npts + GROUP - 1) / GROUP;
+    int[] ref = new int[ng];
+    int[] width = new int[ng];
+    int maxRef = 0, maxWidth = 0;
+    for (int g = 0; g < ng; g++) {
+      int lo = Integer.MAX_VALUE, hi = 0;
+      for (int i = g * GROUP; i < Math.min(npts, (g + 1) * GROUP); i++) {
+        lo = Math.min(lo, x[i]);
+        hi = Math.max(hi, x[i]);
+      }
+      ref[g] = lo;
+      width[g] = bits(hi - lo);
+      maxRef = Math.max(maxRef, lo);
+      maxWidth = Math.max(maxWidth, width[g]);
+    }
+    int nbRef = bits(maxRef);
+    int nbWidth = bits(maxWidth);
+    int nbytesd = 4;
+
+    BitWriter data = new BitWriter(npts * maxWidth / 8 + ng * 2 + 64);
+    if (order == 2) {
+      data.writeSigned(scaled[0], 8 * nbytesd);
+      data.writeSigned(scaled[1], 8 * nbytesd);
+      data.writeSigned(min, 8 * nbytesd);
+      data.align();
+    }
+    for (int g = 0; g < ng; g++)
+      data.write(ref[g], nbRef);
+    data.align();
+    for (int g = 0; g < ng; g++)
+      data.write(width[g], nbWidth);
+    data.align(); // group lengths are all the same, and take no bits
+    for (int g = 0; g < ng; g++)
+      for (int i = g * GROUP; i < Math.min(npts, (g + 1) * GROUP); i++)
+        data.write(x[i] - ref[g], width[g]);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+    out.writeInt(template == 3 ? 49 : 47);
+    out.write(5);
+    out.writeInt(npts);
+    out.writeShort(template);
+    writeType0(out, nbRef);
+    out.write(1);                           // splitting method
+    out.write(0);                           // missing value management
+    out.writeFloat(0);
+    out.writeFloat(0);
+    out.writeInt(ng);
+    out.write(0);                           // reference for group widths
+    out.write(nbWidth);
+    out.writeInt(GROUP);                    // reference for group lengths
+    out.write(1);                           // length increment
+    out.writeInt(npts - (ng - 1) * GROUP);  // true length of last group
+    out.write(0);                           // bits for scaled group lengths
+    if (template == 3) {
+      out.write(order);
+      out.write(nbytesd);
+    }
+    writeSections67(out, data.toBytes());
+    return bos.toByteArray();
+  }
+
+  // reference value 0, binary scale -2, decimal scale 1
+  private static void writeType0(DataOutputStream out, int nb) throws IOException {
+    out.writeFloat(0.0f);
+    out.writeShort(0x8000 | 2);
+    out.writeShort(1);
+    out.write(nb);
+    out.write(0);
+  }
+
+  private static void writeSections67(DataOutputStream out, byte[] data) throws IOException {
+    out.writeInt(6);  // no bitmap
+    out.write(6);
+    out.write(255);
+    out.writeInt(5 + data.length);
+    out.write(7);
+    out.write(data);
+  }
+
+  private static int bits(int val) {
+    return 32 - Integer.numberOfLeadingZeros(val);
+  }
+
+  private static class BitWriter {
+    private final ByteArrayOutputStream out;
+    private long acc;
+    private int nacc;
+
+    BitWriter(int size) {
+      out = new ByteArrayOutputStream(size);
+    }
+
+    void write(long val, int nb) {
+      for (int i = nb - 1; i >= 0; i--) {
+        acc = (acc << 1) | ((val >>> i) & 1);
+        if (++nacc == 8) {
+          out.write((int) acc);
+          acc = 0;
+          nacc = 0;
+        }
+      }
+    }
+
+    // sign and magnitude
+    void writeSigned(int val, int nb) {
+      write(val < 0 ? 1 : 0, 1);
+      write(Math.abs(val), nb - 1);
+    }
+
+    void align() {
+      if (nacc > 0) write(0, 8 - nacc);
+    }
+
+    byte[] toBytes() {
+      align();
+      return out.toByteArray();
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.bench.grib;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ucar.nc2.grib.grib2.*;
+import ucar.unidata.io.InMemoryRandomAccessFile;
+import ucar.unidata.io.RandomAccessFile;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unpack GRIB2 data sections with simple packing (template 5.0), complex packing (5.2),
+ * and complex packing with spatial differencing (5.3), alone or through Grib2Record.readData().
+ * The messages are written by {@link Grib2Messages}, so this runs without any test data.
+ * Besides messages per second, reports "packedMB" and "unpackedMB" per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class Grib2UnpackBench {
+
+  @Param({"0", "2", "3"})
+  public int template;
+
+  // 0.25 degree global grid
+  @Param({"1440"})
+  public int nx;
+
+  @Param({"721"})
+  public int ny;
+
+  private RandomAccessFile raf;
+  private Grib2Record record;
+  private Grib2SectionBitMap bms;
+  private Grib2Drs gdrs;
+  private Grib2SectionDataRepresentation drs;
+  private Grib2SectionData dataSection;
+  private final Grib2DataReader2.UnpackBuffers buffers = new Grib2DataReader2.UnpackBuffers();
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Bytes {
+    public double packedMB;
+    public double unpackedMB;
+  }
+
+  @Setup
+  public void setup() throws IOException {
+    byte[] message = Grib2Messages.writeMessage(template, nx, ny, Grib2Messages.makeField(nx, ny, 5000, 17));
+    raf = new InMemoryRandomAccessFile("Grib2UnpackBench", message);
+    Grib2RecordScanner scanner = new Grib2RecordScanner(raf);
+    if (!scanner.hasNext())
+      throw new IllegalStateException("no GRIB2 record");
+    record = scanner.next();
+    drs = record.getDataRepresentationSection();
+    bms = record.getBitmapSection();
+    dataSection = record.getDataSection();
+    gdrs = drs.getDrs(raf);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    raf.close();
+  }
+
+  @Benchmark
+  public void unpack(Bytes bytes, Blackhole bh) throws IOException {
+    Grib2DataReader2 reader = new Grib2DataReader2(template, nx * ny, drs.getDataPoints(), 0, nx,
+            dataSection.getStartingPosition(), dataSection.getMsgLength());
+    float[] data = reader.setBuffers(buffers).getData(raf, bms, gdrs);
+    bh.consume(data);
+    bytes.packedMB += dataSection.getMsgLength() * 1.0e-6;
+    bytes.unpackedMB += data.length * 4.0e-6;
+  }
+
+  /**
+   * Same, using the calling thread's buffers, as the IOSP does.
+   */
+  @Benchmark
+  public void unpackThreadBuffers(Bytes bytes, Blackhole bh) throws IOException {
+    Grib2DataReader2 reader = new Grib2DataReader2(template, nx * ny, drs.getDataPoints(), 0, nx,
+            dataSection.getStartingPosition(), dataSection.getMsgLength());
+    float[] data = reader.getData(raf, bms, gdrs);
+    bh.consume(data);
+    bytes.packedMB += dataSection.getMsgLength() * 1.0e-6;
+    bytes.unpackedMB += data.length * 4.0e-6;
+  }
+
+  /**
+   * The whole record, as the IOSP reads it: section parsing, then unpacking.
+   */
+  @Benchmark
+  public void readData(Bytes bytes, Blackhole bh) throws IOException {
+    float[] data = record.readData(raf);
+    bh.consume(data);
+    bytes.packedMB += dataSection.getMsgLength() * 1.0e-6;
+    bytes.unpackedMB += data.length * 4.0e-6;
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.bench.io;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ucar.nc2.bench.BenchFiles;
+import ucar.unidata.io.MMapRandomAccessFile;
+import ucar.unidata.io.RandomAccessFile;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Primitive reads through RandomAccessFile and MMapRandomAccessFile, on a 16 MB local file:
+ * readInt() one value at a time, readFloat() into an array, and short reads at random positions.
+ * Each operation reads the whole file, or 4096 random positions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RandomAccessFileBench {
+  private static final int NSEEKS = 4096;
+
+  @Param({"plain", "mmap"})
+  public String type;
+
+  @Param({"8092"})
+  public int bufferSize;
+
+  private RandomAccessFile raf;
+  private int nvalues;
+  private float[] values;
+  private long[] positions;
+  private final byte[] record = new byte[64];
+
+  @Setup
+  public void setup() throws IOException {
+    String location = BenchFiles.getRawFile().getPath();
+    raf = type.equals("mmap") ? new MMapRandomAccessFile(location, bufferSize) : new RandomAccessFile(location, "r", bufferSize);
+    nvalues = (int) (raf.length() / 4);
+    values = new float[nvalues];
+
+    Random r = new Random(23);
+    positions = new long[NSEEKS];
+    for (int i = 0; i < NSEEKS; i++)
+      positions[i] = (long) r.nextInt((int) raf.length() - record.length);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    raf.close();
+  }
+
+  @Benchmark
+  public int readIntSequential() throws IOException {
+    raf.seek(0);
+    int sum = 0;
+    for (int i = 0; i < nvalues; i++)
+      sum += raf.readInt();
+    return sum;
+  }
+
+  @Benchmark
+  public float[] readFloatArray() throws IOException {
+    raf.seek(0);
+    raf.readFloat(values, 0, nvalues);
+    return values;
+  }
+
+  @Benchmark
+  public void readRandom(Blackhole bh) throws IOException {
+    for (long pos : positions) {
+      raf.seek(pos);
+      raf.readFully(record);
+      bh.consume(record);
+    }
+  }
+}
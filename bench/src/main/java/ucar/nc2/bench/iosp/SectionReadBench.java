@@ -0,0 +1,98 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.bench.iosp;
+
+import org.openjdk.jmh.annotations.*;
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import ucar.nc2.bench.BenchFiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Variable.read(section) through N3iosp and H5iosp, for the same 64 x 256 x 256 float field stored contiguous
+ * in netCDF-3 and HDF5, and chunked (8 x 64 x 64) with and without deflate in HDF5.
+ * The sections are the whole variable, one time slice, one column through all times,
+ * and every fourth point in x and y.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SectionReadBench {
+
+  @Param({"nc3/data", "h5/contiguous", "h5/chunked", "h5/deflate"})
+  public String variable;
+
+  @Param({"all", "slice", "column", "strided"})
+  public String section;
+
+  private NetcdfFile ncfile;
+  private Variable v;
+  private String sectionSpec;
+
+  @Setup
+  public void setup() throws IOException {
+    String[] parts = variable.split("/");
+    File f = parts[0].equals("nc3") ? BenchFiles.getNetcdf3File() : BenchFiles.getHdf5File();
+    ncfile = NetcdfFile.open(f.getPath());
+    v = ncfile.findVariable(parts[1]);
+    if (v == null)
+      throw new IllegalStateException("no variable " + parts[1] + " in " + f);
+
+    switch (section) {
+      case "all": sectionSpec = null; break;
+      case "slice": sectionSpec = "32,:,:"; break;
+      case "column": sectionSpec = ":,128,128"; break;
+      case "strided": sectionSpec = ":,0:255:4,0:255:4"; break;
+      default: throw new IllegalArgumentException("unknown section " + section);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    ncfile.close();
+  }
+
+  @Benchmark
+  public Array read() throws IOException, InvalidRangeException {
+    return (sectionSpec == null) ? v.read() : v.read(sectionSpec);
+  }
+}
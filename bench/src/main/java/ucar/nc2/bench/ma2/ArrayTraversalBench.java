@@ -0,0 +1,127 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.bench.ma2;
+
+import org.openjdk.jmh.annotations.*;
+import ucar.ma2.*;
+import ucar.nc2.bench.BenchFiles;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ways of traversing a 64 x 256 x 256 ArrayFloat: Index.set() and getFloat(Index), IndexIterator,
+ * getFloat(int) on the flat array, an IndexIterator over a strided section and over a transposed array,
+ * and copyTo1DJavaArray() for the contiguous and the transposed case.
+ * Each operation visits every element (a sixteenth of them for the strided section).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ArrayTraversalBench {
+  private ArrayFloat.D3 data;
+  private Array strided;
+  private Array transposed;
+
+  @Setup
+  public void setup() throws InvalidRangeException {
+    data = (ArrayFloat.D3) Array.factory(DataType.FLOAT, BenchFiles.SHAPE, BenchFiles.makeField());
+    strided = data.section(new int[] {0, 0, 0}, new int[] {BenchFiles.NT, BenchFiles.NY / 4, BenchFiles.NX / 4}, new int[] {1, 4, 4});
+    transposed = data.transpose(1, 2);
+  }
+
+  @Benchmark
+  public double index() {
+    Index ima = data.getIndex();
+    double sum = 0;
+    for (int t = 0; t < BenchFiles.NT; t++)
+      for (int y = 0; y < BenchFiles.NY; y++)
+        for (int x = 0; x < BenchFiles.NX; x++)
+          sum += data.getFloat(ima.set(t, y, x));
+    return sum;
+  }
+
+  @Benchmark
+  public double indexD3() {
+    double sum = 0;
+    for (int t = 0; t < BenchFiles.NT; t++)
+      for (int y = 0; y < BenchFiles.NY; y++)
+        for (int x = 0; x < BenchFiles.NX; x++)
+          sum += data.get(t, y, x);
+    return sum;
+  }
+
+  @Benchmark
+  public double iterator() {
+    return sum(data.getIndexIterator());
+  }
+
+  @Benchmark
+  public double flat() {
+    double sum = 0;
+    int n = (int) data.getSize();
+    for (int i = 0; i < n; i++)
+      sum += data.getFloat(i);
+    return sum;
+  }
+
+  @Benchmark
+  public double stridedIterator() {
+    return sum(strided.getIndexIterator());
+  }
+
+  @Benchmark
+  public double transposedIterator() {
+    return sum(transposed.getIndexIterator());
+  }
+
+  @Benchmark
+  public Object copyTo1DJavaArray() {
+    return data.copyTo1DJavaArray();
+  }
+
+  @Benchmark
+  public Object copyTo1DJavaArrayTransposed() {
+    return transposed.copyTo1DJavaArray();
+  }
+
+  private static double sum(IndexIterator iter) {
+    double sum = 0;
+    while (iter.hasNext())
+      sum += iter.getFloatNext();
+    return sum;
+  }
+}
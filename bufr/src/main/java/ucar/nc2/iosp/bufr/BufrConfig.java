@@ -113,7 +113,7 @@ public class BufrConfig {
   private BufrConfig(RandomAccessFile raf, Message m) throws IOException {
     this.filename =  raf.getLocation();
     this.messHash = m.hashCode();
-    this.rootConverter = new FieldConverter(m.ids.getCenterId(), m.getRootDataDescriptor());
+    this.rootConverter = new FieldConverter(m.ids.getCenterId(), m.getOwnRootDataDescriptor()); // Construct2 modifies the tree
     standardFields = StandardFields.extract(m);
   }
 
@@ -32,6 +32,7 @@
  */
 package ucar.nc2.iosp.bufr;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.jdom2.Element;
 import ucar.nc2.constants.DataFormatType;
 import ucar.ma2.*;
@@ -40,10 +41,12 @@ import ucar.nc2.*;
 import ucar.nc2.iosp.AbstractIOServiceProvider;
 import ucar.nc2.util.CancelTask;
 
+import ucar.unidata.io.InMemoryRandomAccessFile;
 import ucar.unidata.io.RandomAccessFile;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * IOSP for BUFR data - version 2, use the preprocessor
@@ -68,6 +71,49 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
 
   //static public final Set<NetcdfDataset.Enhance> enhance = Collections.unmodifiableSet(EnumSet.of(NetcdfDataset.Enhance.ScaleMissing));
 
+  // decoding messages is CPU bound; the pool is shared by all files
+  static private int decodeThreads = 1;
+  static private ExecutorService decodePool;
+
+  /**
+   * Set the number of threads used to decode the messages of a file when iterating over its observations.
+   * The messages are found and read from the file on the iterating thread, a bounded number ahead,
+   * and decoded concurrently; the observations are still returned in file order.
+   *
+   * @param nthreads number of threads shared by all files; if <= 1 (the default), decode on the iterating thread.
+   */
+  static public synchronized void setDecodeThreads(int nthreads) {
+    if (nthreads == decodeThreads) return;
+    decodeThreads = nthreads;
+    if (decodePool != null) {
+      decodePool.shutdown();
+      decodePool = null;
+    }
+  }
+
+  static public synchronized int getDecodeThreads() {
+    return decodeThreads;
+  }
+
+  static private synchronized ExecutorService getDecodePool() {
+    if (decodeThreads <= 1) return null;
+    if (decodePool == null) {
+      decodePool = Executors.newFixedThreadPool(decodeThreads,
+              new ThreadFactoryBuilder().setNameFormat("BufrDecoder-%d").setDaemon(true).build());
+    }
+    return decodePool;
+  }
+
+  /**
+   * Release the decoding threads.
+   */
+  static public synchronized void shutdown() {
+    if (decodePool != null) {
+      decodePool.shutdown();
+      decodePool = null;
+    }
+  }
+
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
@@ -160,6 +206,9 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
   private class SeqIter implements StructureDataIterator {
     StructureDataIterator currIter;
     int recnum = 0;
+    ExecutorService pool; // null means decode on this thread
+    int window;           // max number of messages being decoded
+    Deque<Future<ArrayStructure>> pending = new ArrayDeque<>(); // messages being decoded, in file order
 
     SeqIter() {
       reset();
@@ -169,6 +218,9 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
     public StructureDataIterator reset() {
       recnum = 0;
       currIter = null;
+      cancelPending();
+      pool = getDecodePool();
+      window = 2 * getDecodeThreads();
       scanner.reset();
       return this;
     }
@@ -198,6 +250,26 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
     }
 
     private StructureDataIterator readNextMessage() throws IOException {
+      ArrayStructure as;
+      if (pool == null) {
+        Message m = nextDataMessage();
+        if (m == null) return null;
+        as = readMessage(m, raf);
+
+      } else {
+        while (pending.size() < window) { // scan ahead of the decoding
+          Message m = nextDataMessage();
+          if (m == null) break;
+          pending.add(submit(m));
+        }
+        if (pending.isEmpty()) return null;
+        as = take(pending.remove());
+      }
+      return as.getStructureDataIterator();
+    }
+
+    // the next message with the same type as the proto message, or null if none
+    private Message nextDataMessage() throws IOException {
       if (!scanner.hasNext()) return null;
       Message m = scanner.next();
       if (m == null) {
@@ -205,7 +277,7 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
           return null;
       }
       if (m.containsBufrTable()) // data messages only
-        return readNextMessage();
+        return nextDataMessage();
 
       // mixed messages
       if (!protoMessage.equals(m)) {
@@ -214,14 +286,56 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
           log.warn("File " + raf.getLocation() + " has different BUFR message types hash=" + protoMessage.hashCode() + "; skipping");
           messHash.add(m.hashCode());
         }
-        return readNextMessage();
+        return nextDataMessage();
       }
+      return m;
+    }
 
-      ArrayStructure as = readMessage(m);
-      return as.getStructureDataIterator();
+    // read the message bytes here, decode them on the pool
+    private Future<ArrayStructure> submit(Message m) throws IOException {
+      final RandomAccessFile memRaf = new InMemoryRandomAccessFile(raf.getLocation(), scanner.getMessageBytes(m));
+      final Message copy = m.copyInMemory(memRaf);
+      Callable<ArrayStructure> task = new Callable<ArrayStructure>() {
+        public ArrayStructure call() throws IOException {
+          try {
+            return readMessage(copy, memRaf);
+          } finally {
+            memRaf.close();
+          }
+        }
+      };
+
+      try {
+        return pool.submit(task);
+      } catch (RejectedExecutionException e) { // pool was shut down
+        FutureTask<ArrayStructure> future = new FutureTask<>(task);
+        future.run();
+        return future;
+      }
+    }
+
+    private ArrayStructure take(Future<ArrayStructure> future) throws IOException {
+      try {
+        return future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("BUFR read interrupted on " + raf.getLocation());
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) throw (IOException) cause;
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new IllegalStateException(cause);
+      }
+    }
+
+    private void cancelPending() {
+      for (Future<ArrayStructure> future : pending)
+        future.cancel(false);
+      pending.clear();
     }
 
-    private ArrayStructure readMessage(Message m) throws IOException {
+    private ArrayStructure readMessage(Message m, RandomAccessFile raf) throws IOException {
       ArrayStructure as;
       if (m.dds.isCompressed()) {
         MessageCompressedDataReader reader = new MessageCompressedDataReader();
@@ -242,6 +356,7 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
     public void close() {
       if (currIter != null) currIter.close();
       currIter = null;
+      cancelPending();
       if (debugIter) System.out.printf("BUFR read recnum %d%n", recnum);
     }
   }
@@ -163,12 +163,18 @@ public class BufrTableLookup {
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
   private TableLookup tlookup;
+  private boolean embedded; // tlookup was set from tables in the file
 
   private void init() {
   }
 
   public void setTableLookup(TableLookup tlookup) {
     this.tlookup = tlookup;
+    this.embedded = true;
+  }
+
+  boolean usesEmbeddedTables() {
+    return embedded;
   }
 
   public TableB.Descriptor getDescriptorTableB(short fxy) {
@@ -0,0 +1,144 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.nc2.iosp.bufr;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns the DataDescriptor trees made by DataDescriptorTreeConstructor.
+ * A tree depends only on the tables used and the message's list of descriptors, and a feed typically has
+ * a handful of distinct descriptor lists repeated in thousands of messages. So messages with the same
+ * center, subcenter, table versions, category and descriptors share one tree, which must not be modified.
+ * Messages using tables embedded in the file are not cached.
+ *
+ * @see Message#getRootDataDescriptor()
+ */
+@ThreadSafe
+class DataDescriptorTreeCache {
+  static private final int MAX_TREES = 1000;
+
+  // access order, so the least recently used tree is removed first
+  static private final Map<Key, DataDescriptor> trees = new LinkedHashMap<Key, DataDescriptor>(100, .75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, DataDescriptor> eldest) {
+      return size() > MAX_TREES;
+    }
+  };
+
+  /**
+   * The key for a message's tree.
+   *
+   * @return key, or null if the tree cant be cached
+   */
+  static Key makeKey(BufrTableLookup lookup, BufrDataDescriptionSection dds) {
+    if (lookup.usesEmbeddedTables()) return null;
+    return new Key(lookup.getCenter(), lookup.getSubCenter(), lookup.getMasterTableVersion(), lookup.getLocalTableVersion(),
+            lookup.getCategory(), dds.getDataDescriptors());
+  }
+
+  /**
+   * Get the shared tree for this key, making it if needed.
+   *
+   * @param key    from makeKey(), may be null
+   * @param lookup tables for the message
+   * @param dds    descriptors of the message
+   * @return root of the tree, shared if key is not null
+   */
+  static DataDescriptor getTree(Key key, BufrTableLookup lookup, BufrDataDescriptionSection dds) {
+    if (key == null)
+      return new DataDescriptorTreeConstructor().factory(lookup, dds);
+
+    synchronized (trees) {
+      DataDescriptor root = trees.get(key);
+      if (root != null) return root;
+    }
+
+    // make it outside the lock; if another thread got there first, use its tree
+    DataDescriptor root = new DataDescriptorTreeConstructor().factory(lookup, dds);
+    synchronized (trees) {
+      DataDescriptor prev = trees.get(key);
+      if (prev != null) return prev;
+      trees.put(key, root);
+    }
+    return root;
+  }
+
+  static void clear() {
+    synchronized (trees) {
+      trees.clear();
+    }
+  }
+
+  @Immutable
+  static final class Key {
+    private final int center, subCenter, masterVersion, localVersion, category;
+    private final List<Short> descriptors;
+    private final int hashCode;
+
+    private Key(int center, int subCenter, int masterVersion, int localVersion, int category, List<Short> descriptors) {
+      this.center = center;
+      this.subCenter = subCenter;
+      this.masterVersion = masterVersion;
+      this.localVersion = localVersion;
+      this.category = category;
+      this.descriptors = descriptors;
+
+      int result = center;
+      result = 31 * result + subCenter;
+      result = 31 * result + masterVersion;
+      result = 31 * result + localVersion;
+      result = 31 * result + category;
+      result = 31 * result + descriptors.hashCode();
+      this.hashCode = result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key that = (Key) o;
+      return hashCode == that.hashCode && center == that.center && subCenter == that.subCenter &&
+              masterVersion == that.masterVersion && localVersion == that.localVersion &&
+              category == that.category && descriptors.equals(that.descriptors);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
@@ -60,6 +60,8 @@ public class Message {
   private RandomAccessFile raf;
   private BufrTableLookup lookup;
   private DataDescriptor root;
+  private boolean ownsRoot; // else root may be shared with other messages
+  private DataDescriptorTreeCache.Key rootKey;
 
   private String header; // wmo header
   private long startPos; // starting pos in raf
@@ -79,6 +81,33 @@ public class Message {
     lookup = BufrTableLookup.factory(this);
   }
 
+  // copy of from, reading from raf. shares the sections, lookup and data descriptors of from
+  private Message(Message from, RandomAccessFile raf, BufrDataSection dataSection) {
+    this.raf = raf;
+    this.is = from.is;
+    this.ids = from.ids;
+    this.dds = from.dds;
+    this.dataSection = dataSection;
+    this.lookup = from.lookup;
+    this.root = from.getRootDataDescriptor();
+    this.rootKey = from.rootKey;
+    this.header = from.header;
+    this.startPos = from.startPos;
+  }
+
+  /**
+   * Make a copy of this message whose data is read from memory instead of the file, so it can be
+   * decoded on another thread. The DataDescriptor tree is found or made here, on the calling thread,
+   * and shared with the copy.
+   *
+   * @param memRaf holds the bytes of the entire message, from MessageScanner.getMessageBytes()
+   * @return copy of this message, reading from memRaf
+   */
+  Message copyInMemory(RandomAccessFile memRaf) {
+    long offset = dataSection.getDataPos() - startPos;
+    return new Message(this, memRaf, new BufrDataSection(offset, dataSection.getDataLength()));
+  }
+
   void setTableLookup(TableLookup lookup) {
     this.lookup.setTableLookup(lookup);
   }
@@ -147,15 +176,53 @@ public class Message {
 
   /**
    * Get the root of the DataDescriptor tree.
+   * Messages with the same tables and descriptors share one tree, so it must not be modified.
    *
    * @return root DataDescriptor
    */
   public DataDescriptor getRootDataDescriptor() {
-    if (root == null)
+    if (root == null) {
+      rootKey = DataDescriptorTreeCache.makeKey(lookup, dds);
+      root = DataDescriptorTreeCache.getTree(rootKey, lookup, dds);
+      ownsRoot = (rootKey == null);
+    }
+    return root;
+  }
+
+  /**
+   * Get a DataDescriptor tree that is not shared with any other message, so it can be modified,
+   * eg by Construct2, which names the nodes and attaches the Variables to them.
+   *
+   * @return root DataDescriptor, owned by this message
+   */
+  DataDescriptor getOwnRootDataDescriptor() {
+    getRootDataDescriptor(); // sets rootKey
+    if (!ownsRoot) {
       root = new DataDescriptorTreeConstructor().factory(lookup, dds);
+      ownsRoot = true;
+    }
     return root;
   }
 
+  /**
+   * Use the DataDescriptor tree of the proto message, if it was made from the same tables and descriptors.
+   * The proto's tree has been named by Construct2, so this message can then be read without transferring
+   * the info from the proto.
+   *
+   * @param proto prototype message, has been processed
+   * @return true if this message now uses the proto's tree
+   */
+  boolean useProtoRootDataDescriptor(Message proto) {
+    if (proto == this) return true;
+    getRootDataDescriptor(); // sets rootKey
+    proto.getRootDataDescriptor();
+    if (rootKey == null || !rootKey.equals(proto.rootKey))
+      return false;
+    root = proto.root;
+    ownsRoot = false;
+    return true;
+  }
+
   public boolean usesLocalTable() throws IOException {
     DataDescriptor root = getRootDataDescriptor();
     return usesLocalTable(root);
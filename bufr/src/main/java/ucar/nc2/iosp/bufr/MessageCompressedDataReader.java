@@ -117,7 +117,8 @@ public class MessageCompressedDataReader {
    */
   public ArrayStructure readEntireMessage(Structure s, Message proto, Message m, RandomAccessFile raf, Formatter f) throws IOException {
     // transfer info (refersTo, name) from the proto message
-    DataDescriptor.transferInfo(proto.getRootDataDescriptor().getSubKeys(), m.getRootDataDescriptor().getSubKeys());
+    if (!m.useProtoRootDataDescriptor(proto))
+      DataDescriptor.transferInfo(proto.getRootDataDescriptor().getSubKeys(), m.getOwnRootDataDescriptor().getSubKeys());
 
     // allocate ArrayStructureMA for outer structure
     int n = m.getNumberDatasets();
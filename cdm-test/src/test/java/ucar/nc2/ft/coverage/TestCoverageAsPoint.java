@@ -0,0 +1,202 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.ft.coverage;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.StructureData;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.ft.*;
+import ucar.nc2.ft.point.writer.CFPointWriter;
+import ucar.nc2.ft2.coverage.*;
+import ucar.nc2.ft2.coverage.writer.CoverageAsPoint;
+import ucar.unidata.geoloc.LatLonPointImpl;
+import ucar.unidata.util.test.TestDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+
+/**
+ * CoverageAsPoint on local data: the time series at the point must match the coverage data read at the point.
+ */
+public class TestCoverageAsPoint {
+  private static final String filename = TestDir.cdmLocalTestDataDir + "testCFGridWriter.nc4";
+  private static final List<String> covList = Lists.newArrayList("Temperature_surface");
+
+  @Test
+  public void testTimeSeries() throws IOException, InvalidRangeException {
+    try (FeatureDatasetCoverage cc = CoverageDatasetFactory.open(filename)) {
+      Assert.assertNotNull(filename, cc);
+      CoverageCollection gds = cc.getCoverageCollections().get(0);
+      SubsetParams params = makeParams();
+
+      List<Array> want = new ArrayList<>();
+      CoverageCoordAxis1D timeAxis = null;
+      for (String covName : covList) {
+        GeoReferencedArray geo = gds.findCoverage(covName).readData(params);
+        want.add(geo.getData());
+        timeAxis = (CoverageCoordAxis1D) geo.getCoordSysForData().getTimeAxis();
+      }
+      int ntimes = (int) want.get(0).getSize();
+      Assert.assertEquals(16, ntimes);
+      Assert.assertFalse(Double.isNaN(want.get(0).getDouble(0)));
+
+      CoverageAsPoint covp = new CoverageAsPoint(gds, covList, params);
+      try (FeatureDatasetPoint fdp = covp.asFeatureDatasetPoint()) {
+        StationTimeSeriesFeatureCollection stColl = (StationTimeSeriesFeatureCollection) fdp.getPointFeatureCollectionList().get(0);
+        Assert.assertEquals(1, stColl.getStationFeatures().size());
+
+        // iterate twice
+        for (int pass = 0; pass < 2; pass++) {
+          int count = 0;
+          for (StationTimeSeriesFeature stn : stColl) {
+            for (PointFeature pf : stn) {
+              Assert.assertEquals(timeAxis.getCoordMidpoint(count), pf.getObservationTime(), 0.0);
+              StructureData sdata = pf.getDataAll();
+              for (int i = 0; i < covList.size(); i++)
+                Assert.assertEquals(want.get(i).getDouble(count), sdata.convertScalarDouble(covList.get(i)), 0.0);
+              count++;
+            }
+          }
+          Assert.assertEquals(ntimes, count);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testWriteFile() throws IOException, InvalidRangeException {
+    File tempFile = TestDir.getTempFile();
+    Array want;
+    try (FeatureDatasetCoverage cc = CoverageDatasetFactory.open(filename)) {
+      CoverageCollection gds = cc.getCoverageCollections().get(0);
+      want = gds.findCoverage(covList.get(0)).readData(makeParams()).getData();
+      CoverageAsPoint covp = new CoverageAsPoint(gds, covList, makeParams());
+      try (FeatureDatasetPoint fdp = covp.asFeatureDatasetPoint()) {
+        CFPointWriter.writeFeatureCollection(fdp, tempFile.getPath(), NetcdfFileWriter.Version.netcdf3);
+      }
+    }
+
+    Formatter errlog = new Formatter();
+    try (FeatureDataset fd = FeatureDatasetFactoryManager.open(FeatureType.STATION, tempFile.getPath(), null, errlog)) {
+      Assert.assertNotNull(errlog.toString(), fd);
+      StationTimeSeriesFeatureCollection stColl = (StationTimeSeriesFeatureCollection) ((FeatureDatasetPoint) fd).getPointFeatureCollectionList().get(0);
+      int count = 0;
+      for (StationTimeSeriesFeature stn : stColl) {
+        for (PointFeature pf : stn) {
+          StructureData sdata = pf.getDataAll();
+          Assert.assertEquals(want.getDouble(count), sdata.convertScalarDouble(covList.get(0)), 0.0);
+          count++;
+        }
+      }
+      Assert.assertEquals(16, count);
+    }
+  }
+
+  // full4(time=2, z=4, y=5, x=3), withZ1(time=2, z1=1, y=5, x=3)
+  private static final String rankTest = TestDir.cdmLocalTestDataDir + "rankTest.nc";
+
+  @Test
+  public void testVerticalLevels() throws IOException, InvalidRangeException {
+    try (FeatureDatasetCoverage cc = CoverageDatasetFactory.open(rankTest)) {
+      CoverageCollection gds = cc.getCoverageCollections().get(0);
+      SubsetParams params = new SubsetParams();
+      params.setVariables(Lists.newArrayList("full4"));
+      params.setLatLonPoint(new LatLonPointImpl(6.0, 5.0));
+
+      try {
+        new CoverageAsPoint(gds, Lists.newArrayList("full4"), params);
+        Assert.fail("4 vertical levels at each time");
+      } catch (IllegalArgumentException e) {
+        Assert.assertTrue(e.getMessage(), e.getMessage().contains("full4"));
+      }
+
+      // a single level is a time series
+      params.setVertCoord(20.0);
+      CoverageAsPoint covp = new CoverageAsPoint(gds, Lists.newArrayList("full4"), params);
+      try (FeatureDatasetPoint fdp = covp.asFeatureDatasetPoint()) {
+        StationTimeSeriesFeatureCollection stColl = (StationTimeSeriesFeatureCollection) fdp.getPointFeatureCollectionList().get(0);
+        int count = 0;
+        for (StationTimeSeriesFeature stn : stColl) {
+          for (PointFeature pf : stn) {
+            Assert.assertEquals(3600.0 * count, pf.getObservationTime(), 0.0);
+            Assert.assertEquals(1000.0 * count + 221.0, pf.getDataAll().convertScalarDouble("full4"), 0.0); // z=20, y=6, x=5
+            count++;
+          }
+        }
+        Assert.assertEquals(2, count);
+      }
+    }
+  }
+
+  @Test
+  public void testPointResolvedOnce() throws IOException, InvalidRangeException {
+    try (FeatureDatasetCoverage cc = CoverageDatasetFactory.open(rankTest)) {
+      CoverageCollection gds = cc.getCoverageCollections().get(0);
+      SubsetParams params = new SubsetParams();
+      params.setLatLonPoint(new LatLonPointImpl(6.0, 5.0));
+
+      HorizCoordSys hcs = gds.getHorizCoordSys();
+      HorizCoordSys subset = hcs.subset(params).get();
+      Assert.assertSame(subset, hcs.subset(params).get());
+      Assert.assertEquals(1, subset.getXAxis().getNcoords());
+      Assert.assertEquals(1, subset.getYAxis().getNcoords());
+
+      // every coverage shares it
+      for (String name : Lists.newArrayList("full4", "withZ1")) {
+        Coverage cov = gds.findCoverage(name);
+        Assert.assertSame(hcs, cov.getCoordSys().getHorizCoordSys());
+        Assert.assertEquals(2 * ("full4".equals(name) ? 4 : 1), cov.readData(params).getData().getSize());
+      }
+
+      // a different point is resolved again
+      params.setLatLonPoint(new LatLonPointImpl(9.0, 10.0));
+      Assert.assertNotSame(subset, hcs.subset(params).get());
+    }
+  }
+
+  private SubsetParams makeParams() {
+    SubsetParams params = new SubsetParams();
+    params.setVariables(covList);
+    params.setLatLonPoint(new LatLonPointImpl(40.1, -105.2));
+    return params;
+  }
+}
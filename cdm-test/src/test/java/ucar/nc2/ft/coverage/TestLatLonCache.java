@@ -0,0 +1,236 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.ft.coverage;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.Array;
+import ucar.ma2.ArrayFloat;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.*;
+import ucar.nc2.constants.CDM;
+import ucar.nc2.constants.CF;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.ft2.coverage.*;
+import ucar.nc2.ft2.coverage.writer.CFGridCoverageWriter2;
+import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.ProjectionImpl;
+import ucar.unidata.geoloc.ProjectionPointImpl;
+import ucar.unidata.geoloc.projection.LambertConformal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LatLonCache and the 2D lat/lon written by CFGridCoverageWriter2: must match projecting each point.
+ */
+public class TestLatLonCache {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static double[] makeCoords(int n, double start, double incr) {
+    double[] result = new double[n];
+    for (int i = 0; i < n; i++)
+      result[i] = start + i * incr;
+    return result;
+  }
+
+  private static void checkLatLon(ProjectionImpl proj, double[] x, double[] y, double[] lat, double[] lon) {
+    Assert.assertEquals(x.length * y.length, lat.length);
+    Assert.assertEquals(x.length * y.length, lon.length);
+    int k = 0;
+    for (double yval : y) {
+      for (double xval : x) {
+        LatLonPoint llpt = proj.projToLatLon(new ProjectionPointImpl(xval, yval));
+        Assert.assertEquals(llpt.getLatitude(), lat[k], 1.0e-6);
+        Assert.assertEquals(llpt.getLongitude(), lon[k], 1.0e-6);
+        k++;
+      }
+    }
+  }
+
+  @Test
+  public void testCompute() {
+    // big enough to be computed in several blocks
+    ProjectionImpl proj = new LambertConformal(25.0, -95.0, 25.0, 25.0);
+    double[] x = makeCoords(401, -4000.0, 20.0);
+    double[] y = makeCoords(301, -3000.0, 20.0);
+    double[][] latlon = LatLonCache.compute(proj, x, y);
+    checkLatLon(proj, x, y, latlon[0], latlon[1]);
+  }
+
+  @Test
+  public void testCache() {
+    ProjectionImpl proj = new LambertConformal(25.0, -95.0, 25.0, 25.0);
+    double[] x = makeCoords(100, -1000.0, 20.0);
+    double[] y = makeCoords(50, -500.0, 20.0);
+    LatLonCache cache = new LatLonCache(LatLonCache.DEFAULT_MAX_BYTES);
+    Assert.assertNull(cache.getIfPresent(proj, x, y));
+
+    double[][] latlon = cache.get(proj, x, y);
+    checkLatLon(proj, x, y, latlon[0], latlon[1]);
+    Assert.assertTrue(cache.getSizeBytes() >= 16 * x.length * y.length);
+
+    // same projection and coordinates, different objects
+    double[][] latlon2 = cache.get(new LambertConformal(25.0, -95.0, 25.0, 25.0), x.clone(), y.clone());
+    Assert.assertSame(latlon, latlon2);
+
+    // different projection
+    double[][] latlon3 = cache.get(new LambertConformal(25.0, -90.0, 25.0, 25.0), x, y);
+    Assert.assertNotSame(latlon, latlon3);
+
+    cache.clear();
+    Assert.assertNull(cache.getIfPresent(proj, x, y));
+  }
+
+  // a small projected grid, so it doesnt need the test data
+  private File makeProjectedFile(int nx, int ny) throws IOException, InvalidRangeException {
+    File file = tempFolder.newFile("projected.nc");
+    NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, file.getPath());
+    writer.addGroupAttribute(null, new Attribute(CDM.CONVENTIONS, "CF-1.6"));
+    writer.addDimension(null, "time", 1);
+    writer.addDimension(null, "y", ny);
+    writer.addDimension(null, "x", nx);
+
+    Variable proj = writer.addVariable(null, "LambertConformal_Projection", DataType.INT, "");
+    proj.addAttribute(new Attribute(CF.GRID_MAPPING_NAME, CF.LAMBERT_CONFORMAL_CONIC));
+    proj.addAttribute(new Attribute(CF.LATITUDE_OF_PROJECTION_ORIGIN, 25.0));
+    proj.addAttribute(new Attribute(CF.LONGITUDE_OF_CENTRAL_MERIDIAN, -95.0));
+    proj.addAttribute(new Attribute(CF.STANDARD_PARALLEL, 25.0));
+
+    Variable time = writer.addVariable(null, "time", DataType.DOUBLE, "time");
+    time.addAttribute(new Attribute(CDM.UNITS, "hours since 2016-01-01T00:00:00Z"));
+    time.addAttribute(new Attribute(CF.STANDARD_NAME, "time"));
+
+    Variable y = writer.addVariable(null, "y", DataType.DOUBLE, "y");
+    y.addAttribute(new Attribute(CDM.UNITS, "km"));
+    y.addAttribute(new Attribute(CF.STANDARD_NAME, CF.PROJECTION_Y_COORDINATE));
+
+    Variable x = writer.addVariable(null, "x", DataType.DOUBLE, "x");
+    x.addAttribute(new Attribute(CDM.UNITS, "km"));
+    x.addAttribute(new Attribute(CF.STANDARD_NAME, CF.PROJECTION_X_COORDINATE));
+
+    Variable temp = writer.addVariable(null, "Temperature", DataType.FLOAT, "time y x");
+    temp.addAttribute(new Attribute(CDM.UNITS, "K"));
+    temp.addAttribute(new Attribute(CF.GRID_MAPPING, "LambertConformal_Projection"));
+
+    writer.create();
+    writer.write(time, Array.factory(DataType.DOUBLE, new int[]{1}, new double[]{0.0}));
+    writer.write(y, Array.factory(DataType.DOUBLE, new int[]{ny}, makeCoords(ny, -500.0, 20.0)));
+    writer.write(x, Array.factory(DataType.DOUBLE, new int[]{nx}, makeCoords(nx, -1000.0, 20.0)));
+    ArrayFloat.D3 data = new ArrayFloat.D3(1, ny, nx);
+    writer.write(temp, data);
+    writer.close();
+    return file;
+  }
+
+  @Test
+  public void testWriteLatLon() throws IOException, InvalidRangeException {
+    File org = makeProjectedFile(40, 30);
+    File out = tempFolder.newFile("subset.nc");
+
+    ucar.nc2.util.Optional<FeatureDatasetCoverage> opt = CoverageDatasetFactory.openCoverageDataset(org.getPath());
+    Assert.assertTrue(opt.getErrorMessage(), opt.isPresent());
+    try (FeatureDatasetCoverage cc = opt.get()) {
+      CoverageCollection gcs = cc.getCoverageCollections().get(0);
+      HorizCoordSys hcs = gcs.getHorizCoordSys();
+      Assert.assertTrue(hcs.getIsProjection());
+
+      SubsetParams params = new SubsetParams().setHorizStride(3);
+      NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, out.getPath());
+      ucar.nc2.util.Optional<Long> size =
+              CFGridCoverageWriter2.writeOrTestSize(gcs, Lists.newArrayList("Temperature"), params, true, false, writer);
+      Assert.assertTrue(size.getErrorMessage(), size.isPresent());
+    }
+
+    try (NetcdfDataset ncd = NetcdfDataset.openDataset(out.getPath())) {
+      Variable temp = ncd.findVariable("Temperature");
+      Assert.assertNotNull(temp);
+      Assert.assertTrue(temp.findAttribute(CF.COORDINATES).getStringValue().contains("lat lon"));
+
+      Variable lat = ncd.findVariable("lat");
+      Variable lon = ncd.findVariable("lon");
+      Assert.assertNotNull(lat);
+      Assert.assertNotNull(lon);
+      Assert.assertEquals(2, lat.getRank());
+
+      double[] x = (double[]) ncd.findVariable("x").read().get1DJavaArray(double.class);
+      double[] y = (double[]) ncd.findVariable("y").read().get1DJavaArray(double.class);
+      Assert.assertEquals(14, x.length); // every third of 40
+      Assert.assertEquals(10, y.length);
+      Assert.assertArrayEquals(new int[]{y.length, x.length}, lat.getShape());
+
+      ProjectionImpl proj = new LambertConformal(25.0, -95.0, 25.0, 25.0);
+      checkLatLon(proj, x, y, (double[]) lat.read().get1DJavaArray(double.class),
+              (double[]) lon.read().get1DJavaArray(double.class));
+    }
+  }
+
+  @Test
+  public void testSubsetNotCached() throws IOException, InvalidRangeException {
+    File org = makeProjectedFile(40, 30);
+    LatLonCache saveCache = HorizCoordSys.getLatLonCache();
+    LatLonCache small = new LatLonCache(1000); // too small for the 40 x 30 grid
+    Assert.assertFalse(small.fits(40, 30));
+    Assert.assertTrue(small.fits(4, 3));
+
+    try (FeatureDatasetCoverage cc = CoverageDatasetFactory.openCoverageDataset(org.getPath()).get()) {
+      HorizCoordSys hcs = cc.getCoverageCollections().get(0).getHorizCoordSys();
+      HorizCoordSys subset = hcs.subset(new SubsetParams().setHorizStride(3)).get();
+      ProjectionImpl proj = new LambertConformal(25.0, -95.0, 25.0, 25.0);
+      double[] x = new double[14];
+      double[] y = new double[10];
+      for (int i = 0; i < x.length; i++) x[i] = subset.getXAxis().getCoordMidpoint(i);
+      for (int j = 0; j < y.length; j++) y[j] = subset.getYAxis().getCoordMidpoint(j);
+
+      for (LatLonCache cache : new LatLonCache[]{null, small}) {
+        HorizCoordSys.setLatLonCache(cache);
+        double[][] latlon = hcs.getLatLonCoords(subset);
+        checkLatLon(proj, x, y, latlon[0], latlon[1]);
+      }
+      Assert.assertEquals(0, small.getSizeBytes());
+
+    } finally {
+      HorizCoordSys.setLatLonCache(saveCache);
+    }
+  }
+
+}
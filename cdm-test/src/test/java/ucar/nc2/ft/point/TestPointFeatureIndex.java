@@ -0,0 +1,263 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.ft.point;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.StructureData;
+import ucar.ma2.StructureMembers;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.ft.*;
+import ucar.nc2.ft.point.standard.PointFeatureIndex;
+import ucar.nc2.time.CalendarDate;
+import ucar.nc2.time.CalendarDateRange;
+import ucar.nc2.time.CalendarPeriod;
+import ucar.nc2.util.DiskCache2;
+import ucar.unidata.geoloc.LatLonPointImpl;
+import ucar.unidata.geoloc.LatLonRect;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Formatter;
+import java.util.List;
+
+/**
+ * Subsets using a PointFeatureIndex must return the same features as without one.
+ */
+public class TestPointFeatureIndex {
+  static private final int NOBS = 5000;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private DiskCache2 saveCache;
+  private File cacheDir;
+
+  @Before
+  public void setup() throws IOException {
+    saveCache = PointFeatureIndex.getDiskCache2();
+    cacheDir = tempFolder.newFolder("cache");
+    DiskCache2 dc = new DiskCache2(cacheDir.getPath(), false, 0, 0);
+    dc.setAlwaysUseCache(true);
+    PointFeatureIndex.setDiskCache2(dc);
+  }
+
+  @After
+  public void cleanup() {
+    PointFeatureIndex.setEnabled(false);
+    PointFeatureIndex.setDiskCache2(saveCache);
+  }
+
+  @Test
+  public void testPoint() throws IOException {
+    String filename = makePointFile();
+    LatLonRect bb = new LatLonRect(new LatLonPointImpl(-20, 150), new LatLonPointImpl(40, -160)); // crosses the dateline
+    CalendarDateRange range = CalendarDateRange.of(CalendarDate.parseISOformat(null, "2000-01-01T10:00:00Z"),
+            CalendarDate.parseISOformat(null, "2000-01-02T20:00:00Z"));
+
+    List<String> want = readPoints(filename, false, bb, range);
+    Assert.assertTrue(want.size() > 0);
+    Assert.assertEquals(want, readPoints(filename, true, bb, range));
+    Assert.assertEquals(1, countIndexFiles(cacheDir));
+
+    // second time reads the index file
+    Assert.assertEquals(want, readPoints(filename, true, bb, range));
+
+    // no time or space restriction
+    Assert.assertEquals(readPoints(filename, false, null, range), readPoints(filename, true, null, range));
+    Assert.assertEquals(readPoints(filename, false, bb, null), readPoints(filename, true, bb, null));
+  }
+
+  @Test
+  public void testStaleIndex() throws IOException {
+    String filename = makePointFile();
+    CalendarDateRange range = CalendarDateRange.of(CalendarDate.parseISOformat(null, "2000-01-02T00:00:00Z"),
+            CalendarDate.parseISOformat(null, "2000-01-02T01:00:00Z"));
+    List<String> want = readPoints(filename, true, null, range);
+    Assert.assertEquals(61, want.size());
+
+    // rewrite the data file with times shifted by one hour, the old index must not be used
+    File file = new File(filename);
+    Assert.assertTrue(file.delete());
+    writePointFile(filename, 3600);
+    Assert.assertTrue(file.setLastModified(file.lastModified() + 2000));
+
+    List<String> got = readPoints(filename, true, null, range);
+    Assert.assertEquals(readPoints(filename, false, null, range), got);
+    Assert.assertNotEquals(want, got);
+  }
+
+  @Test
+  public void testStation() throws IOException {
+    for (Object[] args : TestCFPointDatasets.getStationDatasets()) {
+      String location = (String) args[0];
+      for (CalendarDateRange range : getRanges(location)) {
+        List<String> want = readStations(location, false, range);
+        Assert.assertEquals(location + " " + range, want, readStations(location, true, range));
+        Assert.assertEquals(location + " " + range, want, readStations(location, true, range));
+      }
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////
+
+  // time ranges that select nothing, one time and the middle of the dataset
+  private List<CalendarDateRange> getRanges(String location) throws IOException {
+    List<CalendarDate> dates = new ArrayList<>();
+    try (FeatureDatasetPoint fdp = open(location, FeatureType.STATION)) {
+      StationTimeSeriesFeatureCollection sfc = (StationTimeSeriesFeatureCollection) fdp.getPointFeatureCollectionList().get(0);
+      for (StationTimeSeriesFeature s : sfc) {
+        for (PointFeature pf : s)
+          dates.add(pf.getObservationTimeAsCalendarDate());
+      }
+    }
+    Collections.sort(dates);
+    CalendarDate first = dates.get(0);
+    CalendarDate mid = dates.get(dates.size() / 2);
+
+    List<CalendarDateRange> result = new ArrayList<>();
+    result.add(CalendarDateRange.of(first.add(-2000, CalendarPeriod.Field.Day), first.add(-1000, CalendarPeriod.Field.Day)));
+    result.add(CalendarDateRange.of(mid, mid));
+    result.add(CalendarDateRange.of(dates.get(dates.size() / 4), dates.get(3 * dates.size() / 4)));
+    return result;
+  }
+
+  private List<String> readStations(String location, boolean useIndex, CalendarDateRange range) throws IOException {
+    PointFeatureIndex.setEnabled(useIndex);
+    List<String> result = new ArrayList<>();
+    try (FeatureDatasetPoint fdp = open(location, FeatureType.STATION)) {
+      StationTimeSeriesFeatureCollection sfc = (StationTimeSeriesFeatureCollection) fdp.getPointFeatureCollectionList().get(0);
+      for (StationTimeSeriesFeature s : sfc) {
+        for (PointFeature pf : s.subset(range))
+          result.add(s.getName() + " " + toString(pf));
+      }
+    }
+    return result;
+  }
+
+  private List<String> readPoints(String location, boolean useIndex, LatLonRect bb, CalendarDateRange range) throws IOException {
+    PointFeatureIndex.setEnabled(useIndex);
+    List<String> result = new ArrayList<>();
+    try (FeatureDatasetPoint fdp = open(location, FeatureType.POINT)) {
+      PointFeatureCollection pfc = (PointFeatureCollection) fdp.getPointFeatureCollectionList().get(0);
+      for (PointFeature pf : pfc.subset(bb, range))
+        result.add(toString(pf));
+    }
+    return result;
+  }
+
+  private FeatureDatasetPoint open(String location, FeatureType ftype) throws IOException {
+    Formatter errlog = new Formatter();
+    FeatureDatasetPoint fdp = (FeatureDatasetPoint) FeatureDatasetFactoryManager.open(ftype, location, null, errlog);
+    Assert.assertNotNull(errlog.toString(), fdp);
+    return fdp;
+  }
+
+  private String toString(PointFeature pf) throws IOException {
+    Formatter f = new Formatter();
+    f.format("%s %s", pf.getObservationTimeAsCalendarDate(), pf.getLocation().getLatLon());
+    StructureData sdata = pf.getDataAll();
+    for (StructureMembers.Member m : sdata.getMembers())
+      f.format(" %s=%s", m.getName(), sdata.getArray(m).toString().trim());
+    return f.toString();
+  }
+
+  private int countIndexFiles(File dir) {
+    int count = 0;
+    for (File f : dir.listFiles()) {
+      if (f.isDirectory()) count += countIndexFiles(f);
+      else if (f.getName().endsWith(PointFeatureIndex.SUFFIX)) count++;
+    }
+    return count;
+  }
+
+  private String makePointFile() throws IOException {
+    String filename = tempFolder.newFile("points.nc").getPath();
+    Assert.assertTrue(new File(filename).delete());
+    writePointFile(filename, 0);
+    return filename;
+  }
+
+  // one observation a minute, scattered around the globe
+  private void writePointFile(String filename, int offsetSecs) throws IOException {
+    try (NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, filename)) {
+      writer.addGroupAttribute(null, new Attribute("Conventions", "CF-1.6"));
+      writer.addGroupAttribute(null, new Attribute("featureType", "point"));
+      writer.addDimension(null, "obs", NOBS);
+
+      Variable time = writer.addVariable(null, "time", DataType.INT, "obs");
+      time.addAttribute(new Attribute("units", "seconds since 2000-01-01T00:00:00Z"));
+      Variable lat = writer.addVariable(null, "lat", DataType.FLOAT, "obs");
+      lat.addAttribute(new Attribute("units", "degrees_north"));
+      Variable lon = writer.addVariable(null, "lon", DataType.FLOAT, "obs");
+      lon.addAttribute(new Attribute("units", "degrees_east"));
+      Variable temp = writer.addVariable(null, "temp", DataType.FLOAT, "obs");
+      temp.addAttribute(new Attribute("units", "K"));
+      temp.addAttribute(new Attribute("coordinates", "time lat lon"));
+      writer.create();
+
+      int[] times = new int[NOBS];
+      float[] lats = new float[NOBS];
+      float[] lons = new float[NOBS];
+      float[] temps = new float[NOBS];
+      for (int i = 0; i < NOBS; i++) {
+        times[i] = i * 60 + offsetSecs;
+        lats[i] = -80 + (i * 37) % 160;
+        lons[i] = -180 + (i * 53) % 360;
+        temps[i] = 250 + i % 50;
+      }
+      int[] shape = new int[] {NOBS};
+      try {
+        writer.write(time, Array.factory(DataType.INT, shape, times));
+        writer.write(lat, Array.factory(DataType.FLOAT, shape, lats));
+        writer.write(lon, Array.factory(DataType.FLOAT, shape, lons));
+        writer.write(temp, Array.factory(DataType.FLOAT, shape, temps));
+      } catch (InvalidRangeException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.ft.point.writer;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.ft.*;
+import ucar.nc2.ft.point.TestCFPointDatasets;
+import ucar.nc2.jni.netcdf.Nc4Iosp;
+import ucar.nc2.util.CompareNetcdf2;
+import ucar.unidata.util.test.TestDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+
+/**
+ * Check that writing records in batches gives the same file as writing them one at a time.
+ */
+@RunWith(Parameterized.class)
+public class TestCFPointWriterBatch {
+
+  @Parameterized.Parameters(name="{0} {3}")
+  public static List<Object[]> getTestParameters() {
+    List<Object[]> datasets = new ArrayList<>();
+
+    datasets.addAll(TestCFPointDatasets.getPointDatasets());
+    datasets.addAll(TestCFPointDatasets.getStationDatasets());
+    datasets.addAll(TestCFPointDatasets.getProfileDatasets());
+    datasets.addAll(TestCFPointDatasets.getTrajectoryDatasets());
+    datasets.addAll(TestCFPointDatasets.getStationProfileDatasets());
+    datasets.addAll(TestCFPointDatasets.getSectionDatasets());
+
+    List<Object[]> result = new ArrayList<>();
+    for (NetcdfFileWriter.Version version : new NetcdfFileWriter.Version[] {NetcdfFileWriter.Version.netcdf3,
+            NetcdfFileWriter.Version.netcdf4_classic, NetcdfFileWriter.Version.netcdf4}) {
+      for (Object[] dataset : datasets)
+        result.add(new Object[] {dataset[0], dataset[1], dataset[2], version});
+    }
+    return result;
+  }
+
+  String location;
+  FeatureType ftype;
+  int countExpected;
+  NetcdfFileWriter.Version version;
+
+  public TestCFPointWriterBatch(String location, FeatureType ftype, int countExpected, NetcdfFileWriter.Version version) {
+    this.location = location;
+    this.ftype = ftype;
+    this.countExpected = countExpected;
+    this.version = version;
+  }
+
+  @Test
+  public void testBatchSameAsUnbatched() throws IOException {
+    if (version.isNetdf4format())
+      Assume.assumeTrue("NetCDF-4 C library not present.", Nc4Iosp.isClibraryPresent());
+
+    File expected = write(1);
+    try {
+      // 2 makes most batches flush when full, and leaves a partial batch for finish()
+      for (int batchSize : new int[] {2, 1000}) {
+        File result = write(batchSize);
+        try {
+          if (version.isNetdf4format())
+            compareData(expected, result, batchSize);
+          else
+            Assert.assertArrayEquals(location + " batchSize=" + batchSize,
+                    Files.readAllBytes(expected.toPath()), Files.readAllBytes(result.toPath()));
+        } finally {
+          result.delete();
+        }
+      }
+    } finally {
+      expected.delete();
+    }
+  }
+
+  // HDF5 files are not byte for byte reproducible, so compare the metadata and data
+  private void compareData(File expected, File result, int batchSize) throws IOException {
+    try (NetcdfFile org = NetcdfFile.open(expected.getPath()); NetcdfFile copy = NetcdfFile.open(result.getPath())) {
+      Formatter f = new Formatter();
+      boolean ok = new CompareNetcdf2(f, false, false, true).compare(org, copy);
+      Assert.assertTrue(location + " " + version + " batchSize=" + batchSize + "\n" + f, ok);
+    }
+  }
+
+  private File write(int batchSize) throws IOException {
+    File fileOut = TestDir.getTempFile();
+    Formatter errlog = new Formatter();
+    try (FeatureDataset fdataset = FeatureDatasetFactoryManager.open(ftype, location, null, errlog)) {
+      Assert.assertNotNull(errlog.toString(), fdataset);
+      // no time coverage attributes, they may be set to the present time
+      CFPointWriterConfig config = new CFPointWriterConfig(version).setNoTimeCoverage(true).setBatchSize(batchSize);
+      int count = CFPointWriter.writeFeatureCollection((FeatureDatasetPoint) fdataset, fileOut.getPath(), config);
+      Assert.assertEquals(location, countExpected, count);
+    }
+    return fileOut;
+  }
+}
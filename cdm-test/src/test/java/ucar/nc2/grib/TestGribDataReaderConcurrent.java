@@ -0,0 +1,91 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.nc2.grib;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.grib.collection.GribDataReader;
+import ucar.unidata.util.test.TestDir;
+import ucar.unidata.util.test.category.NeedsCdmUnitTest;
+
+import java.io.IOException;
+
+/**
+ * Concurrent record decoding must return the same data as serial decoding.
+ */
+@Category(NeedsCdmUnitTest.class)
+public class TestGribDataReaderConcurrent {
+
+  @After
+  public void reset() {
+    GribDataReader.setDefaultConcurrency(1);
+  }
+
+  @Test
+  public void testCollection() throws IOException, InvalidRangeException {
+    compare(TestDir.cdmUnitTestDir + "gribCollections/gfs_conus80/gfsConus80_file.ncx4", "Best/Temperature_height_above_ground", null);
+  }
+
+  @Test
+  public void testMrutp() throws IOException, InvalidRangeException {
+    compare(TestDir.cdmUnitTestDir + "gribCollections/tp/GFSonedega.ncx4", "Relative_humidity_sigma", "0:9, 0, :, :");
+  }
+
+  private void compare(String endpoint, String varName, String section) throws IOException, InvalidRangeException {
+    GribDataReader.setDefaultConcurrency(1);
+    float[] serial = read(endpoint, varName, section);
+
+    GribDataReader.setDefaultConcurrency(4);
+    float[] concurrent = read(endpoint, varName, section);
+
+    Assert.assertEquals(serial.length, concurrent.length);
+    for (int i = 0; i < serial.length; i++)  // NaN must match NaN
+      Assert.assertEquals(varName + " at " + i, Float.floatToIntBits(serial[i]), Float.floatToIntBits(concurrent[i]));
+  }
+
+  // open each time, so the data is not cached in the Variable
+  private float[] read(String endpoint, String varName, String section) throws IOException, InvalidRangeException {
+    try (NetcdfDataset ds = NetcdfDataset.openDataset(endpoint)) {
+      Variable v = ds.findVariable(null, varName);
+      Assert.assertNotNull(varName, v);
+      Array data = (section == null) ? v.read() : v.read(section);
+      return (float[]) data.get1DJavaArray(float.class);
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.nc2.iosp.bufr;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.StructureData;
+import ucar.ma2.StructureDataIterator;
+import ucar.ma2.StructureMembers;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Sequence;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Check that decoding BUFR messages concurrently gives the same observations, in the same order, as decoding serially.
+ */
+public class TestBufrParallelRead {
+  static final int NMESS = 40;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @After
+  public void after() {
+    BufrIosp2.setDecodeThreads(1);
+  }
+
+  @Test
+  public void testSameAsSerial() throws IOException {
+    File file = writeFile();
+
+    BufrIosp2.setDecodeThreads(1);
+    List<String> serial = readAll(file, -1);
+    Assert.assertEquals(expected(), serial);
+
+    BufrIosp2.setDecodeThreads(4);
+    List<String> parallel = readAll(file, -1);
+    Assert.assertEquals(serial, parallel);
+  }
+
+  @Test
+  public void testCloseEarly() throws IOException {
+    File file = writeFile();
+    BufrIosp2.setDecodeThreads(4);
+
+    List<String> some = readAll(file, 7);
+    Assert.assertEquals(expected().subList(0, 7), some);
+    Assert.assertEquals(expected(), readAll(file, -1));
+  }
+
+  // the observations as strings, in file order; stop after max obs if max >= 0
+  private List<String> readAll(File file, int max) throws IOException {
+    List<String> result = new ArrayList<>();
+    try (NetcdfFile ncfile = NetcdfFile.open(file.getPath())) {
+      Sequence obs = (Sequence) ncfile.findVariable(BufrIosp2.obsRecord);
+      Assert.assertNotNull(obs);
+      try (StructureDataIterator iter = obs.getStructureIterator()) {
+        while (iter.hasNext() && (max < 0 || result.size() < max)) {
+          StructureData sdata = iter.next();
+          StringBuilder sbuff = new StringBuilder();
+          for (StructureMembers.Member m : sdata.getMembers())
+            sbuff.append(sdata.getArray(m).getInt(0)).append(" ");
+          result.add(sbuff.toString().trim());
+        }
+      }
+    }
+    return result;
+  }
+
+  private List<String> expected() {
+    List<String> result = new ArrayList<>();
+    for (int i = 0; i < NMESS; i++) {
+      for (int j = 0; j < nobs(i); j++)
+        result.add(i + " " + j + " " + temperature(i, j));
+    }
+    return result;
+  }
+
+  static int nobs(int messno) {
+    return 1 + messno % 5;
+  }
+
+  static int temperature(int messno, int obsno) {
+    return 27315 + 10 * messno + obsno;
+  }
+
+  private File writeFile() throws IOException {
+    File file = tempFolder.newFile("parallel.bufr");
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+      for (int i = 0; i < NMESS; i++)
+        out.write(makeMessage(i, 0));
+    }
+    return file;
+  }
+
+  // edition 4, uncompressed: WMO block number (0-01-001), station number (0-01-002), temperature (0-12-101)
+  static byte[] makeMessage(int messno, int category) throws IOException {
+    int nobs = nobs(messno);
+    short[] fxys = {0x0101, 0x0102, 0x0C65};
+
+    BitWriter data = new BitWriter();
+    for (int j = 0; j < nobs; j++) {
+      data.write(messno, 7);
+      data.write(j, 10);
+      data.write(temperature(messno, j), 16);
+    }
+    byte[] dataBytes = data.toByteArray();
+
+    ByteArrayOutputStream sections = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(sections);
+
+    // section 1
+    write3(out, 22);
+    out.write(0);           // master table
+    out.writeShort(7);      // center
+    out.writeShort(0);      // subcenter
+    out.write(0);           // update sequence
+    out.write(0);           // no optional section
+    out.write(category);    // 0 = surface data - land
+    out.write(0);
+    out.write(0);
+    out.write(14);          // master table version
+    out.write(0);           // local table version
+    out.writeShort(2016);
+    out.write(1);
+    out.write(2);
+    out.write(messno % 24);
+    out.write(0);
+    out.write(0);
+
+    // section 3
+    write3(out, 7 + 2 * fxys.length);
+    out.write(0);
+    out.writeShort(nobs);
+    out.write(0x80);        // observed, not compressed
+    for (short fxy : fxys)
+      out.writeShort(fxy);
+
+    // section 4
+    write3(out, 4 + dataBytes.length);
+    out.write(0);
+    out.write(dataBytes);
+
+    // section 5
+    out.writeBytes("7777");
+    out.flush();
+
+    byte[] body = sections.toByteArray();
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    DataOutputStream rout = new DataOutputStream(result);
+    rout.writeBytes("BUFR");
+    write3(rout, 8 + body.length);
+    rout.write(4);          // edition
+    rout.write(body);
+    rout.flush();
+    return result.toByteArray();
+  }
+
+  static private void write3(DataOutputStream out, int value) throws IOException {
+    out.write((value >> 16) & 0xff);
+    out.write((value >> 8) & 0xff);
+    out.write(value & 0xff);
+  }
+
+  private static class BitWriter {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    int current, nbits;
+
+    void write(int value, int width) {
+      for (int i = width - 1; i >= 0; i--) {
+        current = (current << 1) | ((value >> i) & 1);
+        if (++nbits == 8) {
+          bytes.write(current);
+          current = 0;
+          nbits = 0;
+        }
+      }
+    }
+
+    // pad to an even number of bytes
+    byte[] toByteArray() {
+      if (nbits > 0)
+        write(0, 8 - nbits);
+      if (bytes.size() % 2 != 0)
+        bytes.write(0);
+      return bytes.toByteArray();
+    }
+  }
+
+}
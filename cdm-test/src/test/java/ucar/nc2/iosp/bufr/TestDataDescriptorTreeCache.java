@@ -0,0 +1,160 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.nc2.iosp.bufr;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.StructureData;
+import ucar.ma2.StructureDataIterator;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Sequence;
+import ucar.unidata.io.InMemoryRandomAccessFile;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Check that messages with the same tables and descriptors share one DataDescriptor tree,
+ * and that the shared trees are not modified by opening and reading files.
+ */
+public class TestDataDescriptorTreeCache {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Before
+  public void before() {
+    DataDescriptorTreeCache.clear();
+  }
+
+  @Test
+  public void testShared() throws IOException {
+    List<Message> messages = scan(0, 0, 0, 2, 2, 0);
+    DataDescriptor root0 = messages.get(0).getRootDataDescriptor();
+    DataDescriptor root2 = messages.get(3).getRootDataDescriptor();
+    Assert.assertNotSame(root0, root2); // category is part of the key
+    for (Message m : messages) {
+      int category = m.ids.getCategory();
+      Assert.assertSame(category == 0 ? root0 : root2, m.getRootDataDescriptor());
+    }
+  }
+
+  @Test
+  public void testOwnTree() throws IOException {
+    List<Message> messages = scan(0, 0);
+    Message m0 = messages.get(0);
+    Message m1 = messages.get(1);
+    DataDescriptor shared = m1.getRootDataDescriptor();
+
+    DataDescriptor own = m0.getOwnRootDataDescriptor();
+    Assert.assertNotSame(shared, own);
+    Assert.assertSame(own, m0.getRootDataDescriptor());
+    Assert.assertSame(own, m0.getOwnRootDataDescriptor());
+    Assert.assertEquals(shared.hashCode2(), own.hashCode2());
+
+    own.getSubKeys().get(0).name = "changed";
+    Assert.assertNotEquals("changed", shared.getSubKeys().get(0).getName());
+
+    // a message with the same key reads with the proto's tree
+    Assert.assertTrue(m1.useProtoRootDataDescriptor(m0));
+    Assert.assertSame(own, m1.getRootDataDescriptor());
+  }
+
+  @Test
+  public void testReadDoesntModifySharedTree() throws IOException {
+    File file1 = writeFile("one.bufr", 10);
+    File file2 = writeFile("two.bufr", 10);
+    DataDescriptor shared = scan(0).get(0).getRootDataDescriptor();
+    List<String> names = new ArrayList<>();
+    for (DataDescriptor dd : shared.getSubKeys())
+      names.add(dd.getName());
+
+    // read both files at once
+    try (NetcdfFile ncfile1 = NetcdfFile.open(file1.getPath());
+         NetcdfFile ncfile2 = NetcdfFile.open(file2.getPath())) {
+      Sequence obs1 = (Sequence) ncfile1.findVariable(BufrIosp2.obsRecord);
+      Sequence obs2 = (Sequence) ncfile2.findVariable(BufrIosp2.obsRecord);
+      try (StructureDataIterator iter1 = obs1.getStructureIterator();
+           StructureDataIterator iter2 = obs2.getStructureIterator()) {
+        int count = 0;
+        while (iter1.hasNext()) {
+          Assert.assertTrue(iter2.hasNext());
+          StructureData sdata1 = iter1.next();
+          StructureData sdata2 = iter2.next();
+          Assert.assertEquals(sdata1.getMembers().size(), sdata2.getMembers().size());
+          for (int i = 0; i < sdata1.getMembers().size(); i++)
+            Assert.assertEquals(sdata1.getArray(sdata1.getMembers().get(i)).getInt(0),
+                    sdata2.getArray(sdata2.getMembers().get(i)).getInt(0));
+          count++;
+        }
+        Assert.assertFalse(iter2.hasNext());
+        Assert.assertTrue(count > 10);
+      }
+    }
+
+    Assert.assertSame(shared, scan(0).get(0).getRootDataDescriptor());
+    for (int i = 0; i < names.size(); i++) {
+      DataDescriptor dd = shared.getSubKeys().get(i);
+      Assert.assertEquals(names.get(i), dd.getName());
+      Assert.assertNull(dd.refersTo);
+    }
+  }
+
+  // one message for each category
+  private List<Message> scan(int... categories) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (int i = 0; i < categories.length; i++)
+      bytes.write(TestBufrParallelRead.makeMessage(i, categories[i]));
+
+    List<Message> result = new ArrayList<>();
+    MessageScanner scanner = new MessageScanner(new InMemoryRandomAccessFile("test", bytes.toByteArray()));
+    while (scanner.hasNext())
+      result.add(scanner.next());
+    Assert.assertEquals(categories.length, result.size());
+    return result;
+  }
+
+  private File writeFile(String name, int nmess) throws IOException {
+    File file = tempFolder.newFile(name);
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+      for (int i = 0; i < nmess; i++)
+        out.write(TestBufrParallelRead.makeMessage(i, 0));
+    }
+    return file;
+  }
+
+}
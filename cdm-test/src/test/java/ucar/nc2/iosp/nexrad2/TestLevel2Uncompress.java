@@ -0,0 +1,145 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.nc2.iosp.nexrad2;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.unidata.io.InMemoryRandomAccessFile;
+import ucar.unidata.io.RandomAccessFile;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Uncompress a synthetic AR2V0006 file serially, concurrently and into memory, and compare with the original bytes.
+ */
+public class TestLevel2Uncompress {
+  private static final int NBLOCKS = 12;
+  private static final int RECORDS_PER_BLOCK = 40;
+  private static final int RADAR_DATA_SIZE = 2432; // same as Level2Record
+  private static final int CTM_HEADER_SIZE = 12;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private File compressed;
+  private byte[] expected;
+
+  @Before
+  public void makeFile() throws IOException {
+    NexradStationDB.init();
+    Random random = new Random(17);
+    ByteArrayOutputStream all = new ByteArrayOutputStream();
+    ByteArrayOutputStream file = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(file);
+
+    byte[] header = new byte[Level2Record.FILE_HEADER_SIZE];
+    System.arraycopy("AR2V0006.   ".getBytes("US-ASCII"), 0, header, 0, 12);
+    System.arraycopy("KFTG".getBytes("US-ASCII"), 0, header, 20, 4);
+    out.write(header);
+    all.write(header);
+
+    for (int b = 0; b < NBLOCKS; b++) {
+      byte[] block = new byte[RECORDS_PER_BLOCK * RADAR_DATA_SIZE];
+      for (int r = 0; r < RECORDS_PER_BLOCK; r++) {
+        int start = r * RADAR_DATA_SIZE;
+        for (int i = start + CTM_HEADER_SIZE + 16; i < start + RADAR_DATA_SIZE; i++)
+          block[i] = (byte) (random.nextInt(8)); // compressible, but not trivially
+        block[start + CTM_HEADER_SIZE + 3] = 2; // message type 2 (status), skipped by the reader
+      }
+      all.write(block);
+
+      ByteArrayOutputStream bz = new ByteArrayOutputStream();
+      try (BZip2CompressorOutputStream bzout = new BZip2CompressorOutputStream(bz)) {
+        bzout.write(block);
+      }
+      byte[] cbytes = bz.toByteArray(); // starts with "BZ"
+      out.writeInt(b == NBLOCKS - 1 ? -cbytes.length : cbytes.length); // last block is negated
+      out.write(cbytes);
+    }
+    out.flush();
+    expected = all.toByteArray();
+
+    compressed = tempFolder.newFile("KFTG_test.ar2v");
+    try (FileOutputStream fos = new FileOutputStream(compressed)) {
+      fos.write(file.toByteArray());
+    }
+  }
+
+  @After
+  public void reset() {
+    Level2VolumeScan.setDefaultConcurrency(1);
+    Level2VolumeScan.setUncompressInMemory(false);
+  }
+
+  @Test
+  public void testSerial() throws IOException {
+    check(1, false);
+  }
+
+  @Test
+  public void testConcurrent() throws IOException {
+    check(4, false);
+  }
+
+  @Test
+  public void testInMemory() throws IOException {
+    check(1, true);
+    check(4, true);
+  }
+
+  private void check(int concurrency, boolean inMemory) throws IOException {
+    Level2VolumeScan.setDefaultConcurrency(concurrency);
+    Level2VolumeScan.setUncompressInMemory(inMemory);
+
+    RandomAccessFile raf = RandomAccessFile.acquire(compressed.getPath());
+    Level2VolumeScan scan = new Level2VolumeScan(raf, null);
+    try {
+      Assert.assertEquals(inMemory, scan.raf instanceof InMemoryRandomAccessFile);
+      Assert.assertEquals(expected.length, scan.raf.length());
+      byte[] got = new byte[expected.length];
+      scan.raf.seek(0);
+      scan.raf.readFully(got);
+      Assert.assertArrayEquals(expected, got);
+    } finally {
+      scan.raf.close();
+      File ufile = new File(compressed.getPath() + ".uncompress");
+      if (ufile.exists()) Assert.assertTrue(ufile.delete());
+    }
+  }
+}
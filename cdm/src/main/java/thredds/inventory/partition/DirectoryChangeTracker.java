@@ -0,0 +1,420 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package thredds.inventory.partition;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the directories of a partitioned collection, and records which files were added, removed or
+ * modified in each directory, so that an update only needs to look at the directories that changed.
+ * <p>
+ * Events are drained from the WatchService by a daemon thread as they happen, and kept until takeChanges().
+ * New subdirectories are watched as they are created. If the WatchService loses events (OVERFLOW),
+ * the next Changes is not complete, and the caller must check every directory.
+ * If an update that took some Changes fails, it must give them back with restoreChanges(), so that the
+ * next update tries those directories again.
+ */
+public class DirectoryChangeTracker implements Closeable {
+
+  /**
+   * The changes in one directory.
+   */
+  public static class DirectoryChanges {
+    private final Path dir;
+    private final Set<Path> added = new HashSet<>();
+    private final Set<Path> removed = new HashSet<>();
+    private final Set<Path> modified = new HashSet<>();
+    private long lastEvent; // time of the latest event, msecs
+
+    DirectoryChanges(Path dir) {
+      this.dir = dir;
+    }
+
+    public Path getDirectory() {
+      return dir;
+    }
+
+    public Set<Path> getAdded() {
+      return added;
+    }
+
+    public Set<Path> getRemoved() {
+      return removed;
+    }
+
+    public Set<Path> getModified() {
+      return modified;
+    }
+
+    void add(Path p) {
+      if (removed.remove(p)) modified.add(p);
+      else added.add(p);
+    }
+
+    void modify(Path p) {
+      if (!added.contains(p)) modified.add(p);
+    }
+
+    void remove(Path p) {
+      modified.remove(p);
+      if (!added.remove(p)) removed.add(p);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: added=%d removed=%d modified=%d", dir, added.size(), removed.size(), modified.size());
+    }
+  }
+
+  /**
+   * The changes taken from the tracker.
+   */
+  public static class Changes {
+    private final boolean complete;
+    private final Map<Path, DirectoryChanges> dirs;
+    private volatile boolean failed;
+
+    Changes(boolean complete, Map<Path, DirectoryChanges> dirs) {
+      this.complete = complete;
+      this.dirs = dirs;
+    }
+
+    /**
+     * @return false if events were lost, so that any directory may have changed
+     */
+    public boolean isComplete() {
+      return complete;
+    }
+
+    /**
+     * @return true if complete and nothing changed
+     */
+    public boolean isEmpty() {
+      return complete && dirs.isEmpty();
+    }
+
+    public Collection<DirectoryChanges> getDirectories() {
+      return dirs.values();
+    }
+
+    /**
+     * Did anything change in this directory, or in the directories under it?
+     *
+     * @param dir the directory of a partition or collection
+     * @return true if it, or any directory under it, changed, or if not complete
+     */
+    public boolean affects(Path dir) {
+      if (!complete) return true;
+      dir = dir.toAbsolutePath().normalize();
+      for (Path changed : dirs.keySet()) {
+        if (changed.startsWith(dir)) return true;
+      }
+      return false;
+    }
+
+    /**
+     * Record that the update using these changes failed somewhere, so they must be restored.
+     */
+    public void setFailed() {
+      failed = true;
+    }
+
+    public boolean isFailed() {
+      return failed;
+    }
+
+    @Override
+    public String toString() {
+      return complete ? dirs.values().toString() : "incomplete";
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////
+
+  private final Path root;
+  private final DirectoryStream.Filter<Path> filter;
+  private final org.slf4j.Logger logger;
+  private final WatchService watcher;
+  private final Thread thread;
+
+  // guarded by this
+  private final Map<WatchKey, Path> keys = new HashMap<>();
+  private final Set<Path> watched = new HashSet<>();
+  private Map<Path, DirectoryChanges> changes = new HashMap<>();
+  private boolean overflow;
+
+  /**
+   * Start watching root and all the directories under it.
+   *
+   * @param root   top directory of the collection
+   * @param filter only files accepted by this are tracked (directories are always tracked); may be null
+   * @param logger log here
+   * @throws IOException if the directories cannot be watched
+   */
+  public DirectoryChangeTracker(Path root, DirectoryStream.Filter<Path> filter, org.slf4j.Logger logger) throws IOException {
+    this.root = root.toAbsolutePath().normalize();
+    this.filter = filter;
+    this.logger = logger;
+    this.watcher = this.root.getFileSystem().newWatchService();
+    try {
+      registerAll(this.root, false);
+    } catch (IOException e) {
+      watcher.close();
+      throw e;
+    }
+
+    thread = new Thread(new Runnable() {
+      public void run() {
+        processEvents();
+      }
+    }, "DirectoryChangeTracker-" + this.root.getFileName());
+    thread.setDaemon(true);
+    thread.start();
+    logger.debug("DirectoryChangeTracker watching {} directories under {}", watched.size(), this.root);
+  }
+
+  public Path getRoot() {
+    return root;
+  }
+
+  /**
+   * Take the changes recorded so far; they are removed from the tracker.
+   * Directories that changed less than olderThanMillis ago are left for a later call, so that their
+   * new files are old enough to be included when the directory is rescanned.
+   *
+   * @param olderThanMillis only take directories whose latest change is at least this old; if <= 0, take all
+   * @return the changes
+   */
+  public synchronized Changes takeChanges(long olderThanMillis) {
+    if (overflow) {
+      overflow = false;
+      changes = new HashMap<>();
+      return new Changes(false, Collections.<Path, DirectoryChanges>emptyMap());
+    }
+
+    Map<Path, DirectoryChanges> result = new HashMap<>();
+    long cutoff = System.currentTimeMillis() - olderThanMillis;
+    Iterator<DirectoryChanges> iter = changes.values().iterator();
+    while (iter.hasNext()) {
+      DirectoryChanges dc = iter.next();
+      if (olderThanMillis <= 0 || dc.lastEvent <= cutoff) {
+        result.put(dc.dir, dc);
+        iter.remove();
+      }
+    }
+    return new Changes(true, result);
+  }
+
+  /**
+   * Take all the changes recorded so far, for an update that checks every directory anyway.
+   *
+   * @return Changes that are not complete, so that they affect every directory
+   */
+  public synchronized Changes takeAll() {
+    overflow = false;
+    changes = new HashMap<>();
+    return new Changes(false, Collections.<Path, DirectoryChanges>emptyMap());
+  }
+
+  /**
+   * Give back changes that were taken by an update that failed, so that the next takeChanges() includes them.
+   * If they were not complete, the next Changes is not complete either.
+   *
+   * @param taken returned by takeChanges() or takeAll()
+   */
+  public synchronized void restoreChanges(Changes taken) {
+    if (!taken.complete) {
+      overflow = true;
+      return;
+    }
+    for (DirectoryChanges dc : taken.dirs.values()) {
+      DirectoryChanges later = changes.get(dc.dir);
+      changes.put(dc.dir, dc);
+      if (later != null) { // apply the changes made since dc was taken
+        for (Path p : later.removed) dc.remove(p);
+        for (Path p : later.added) dc.add(p);
+        for (Path p : later.modified) dc.modify(p);
+        dc.lastEvent = later.lastEvent;
+      }
+    }
+  }
+
+  /**
+   * Are there changes in this directory that have not been taken yet?
+   *
+   * @param dir the directory
+   * @return true if dir changed since the last takeChanges() that included it
+   */
+  public synchronized boolean hasChanges(Path dir) {
+    return changes.containsKey(dir.toAbsolutePath().normalize());
+  }
+
+  @Override
+  public void close() throws IOException {
+    watcher.close(); // ends the thread
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////
+
+  // watch dir and its subdirectories; if isNew, also record them and their files as added
+  private void registerAll(Path start, final boolean isNew) throws IOException {
+    Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        WatchKey key = dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        synchronized (DirectoryChangeTracker.this) {
+          keys.put(key, dir);
+          watched.add(dir);
+          if (isNew) getChanges(dir);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        if (isNew && accept(file)) {
+          synchronized (DirectoryChangeTracker.this) {
+            getChanges(file.getParent()).add(file);
+          }
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException exc) {
+        logger.warn("DirectoryChangeTracker cant watch {}: {}", file, exc.getMessage());
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  // must hold lock
+  private DirectoryChanges getChanges(Path dir) {
+    DirectoryChanges dc = changes.get(dir);
+    if (dc == null) {
+      dc = new DirectoryChanges(dir);
+      changes.put(dir, dc);
+    }
+    dc.lastEvent = System.currentTimeMillis();
+    return dc;
+  }
+
+  private boolean accept(Path file) {
+    try {
+      return filter == null || filter.accept(file);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private void processEvents() {
+    while (true) {
+      WatchKey key;
+      try {
+        key = watcher.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+
+      Path dir;
+      synchronized (this) {
+        dir = keys.get(key);
+      }
+      if (dir == null) {
+        key.cancel();
+        continue;
+      }
+
+      for (WatchEvent<?> event : key.pollEvents()) {
+        WatchEvent.Kind<?> kind = event.kind();
+        if (kind == OVERFLOW) {
+          logger.warn("DirectoryChangeTracker lost events in {}", dir);
+          synchronized (this) {
+            overflow = true;
+          }
+          continue;
+        }
+
+        Path child = dir.resolve((Path) event.context());
+        try {
+          handle(kind, dir, child);
+        } catch (IOException e) {
+          logger.warn("DirectoryChangeTracker cant watch {}: {}", child, e.getMessage());
+          synchronized (this) {
+            overflow = true; // we may have missed files
+          }
+        }
+      }
+
+      if (!key.reset()) { // directory was removed
+        synchronized (this) {
+          keys.remove(key);
+          watched.remove(dir);
+        }
+      }
+    }
+  }
+
+  private void handle(WatchEvent.Kind<?> kind, Path dir, Path child) throws IOException {
+    if (kind == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+      synchronized (this) {
+        getChanges(dir).add(child);
+      }
+      registerAll(child, true);
+      return;
+    }
+
+    synchronized (this) {
+      if (watched.contains(child)) { // a subdirectory
+        if (kind == ENTRY_DELETE) {
+          watched.remove(child);
+          getChanges(dir).remove(child);
+        }
+        return;
+      }
+      if (!accept(child)) return;
+
+      if (kind == ENTRY_CREATE) getChanges(dir).add(child);
+      else if (kind == ENTRY_MODIFY) getChanges(dir).modify(child);
+      else if (kind == ENTRY_DELETE) getChanges(dir).remove(child);
+    }
+  }
+
+}
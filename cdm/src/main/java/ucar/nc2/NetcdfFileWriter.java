@@ -887,6 +887,27 @@ public class NetcdfFileWriter implements Closeable {
     defineMode = false;
   }
 
+  /**
+   * Leave define mode without creating the file, for when the file is streamed by some other writer,
+   * eg ucar.nc2.iosp.netcdf3.N3outputStreamWriter. Only for new netcdf-3 files.
+   * After this call, nothing can be written through this NetcdfFileWriter, and close() does nothing.
+   *
+   * @return the finished NetcdfFile object, holding the metadata only
+   */
+  public NetcdfFile createForStreaming() {
+    if (!defineMode)
+      throw new UnsupportedOperationException("not in define mode");
+    if (!isNewFile)
+      throw new UnsupportedOperationException("can only call createForStreaming on a new file");
+    if (version != Version.netcdf3)
+      throw new UnsupportedOperationException("can only stream netcdf3 files");
+
+    ncfile.finish();
+    defineMode = false;
+    spiw = null;
+    return ncfile;
+  }
+
   ////////////////////////////////////////////
   // redefine
 
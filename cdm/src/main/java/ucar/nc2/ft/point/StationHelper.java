@@ -51,6 +51,8 @@ import java.util.Map;
 public class StationHelper {
   private List<StationFeature> stations;
   private Map<String, StationFeature> stationHash;
+  private volatile StationRTree tree;  // made when first needed
+  private static final int MIN_TREE = 64; // use a tree for bounding box searches when there are at least this many stations
   private static final boolean debug = false;
 
   public StationHelper() {
@@ -61,6 +63,7 @@ public class StationHelper {
   public void addStation( StationFeature s) {
     stations.add(s);
     stationHash.put(s.getName(), s);
+    tree = null;
   }
 
   public void setStations( List<StationFeature> nstations) {
@@ -112,23 +115,26 @@ public class StationHelper {
 
   public List<Station> getStations(LatLonRect boundingBox) throws IOException {
     if (boundingBox == null) return getStations();
-    
-    LatLonPointImpl latlonPt = new LatLonPointImpl();
-    List<Station> result = new ArrayList<>();
-    for (StationFeature s : stations) {
-      latlonPt.set(s.getLatitude(), s.getLongitude());
-      if (boundingBox.contains(latlonPt))
-        result.add(s);
-    }
-    return result;
+    return new ArrayList<Station>(getStationFeatures(boundingBox));
   }
 
   public List<StationFeature> getStationFeatures(LatLonRect boundingBox) throws IOException {
     if (boundingBox == null) return stations;
 
+    // the tree only rules out stations, so the result is the same as without it
+    boolean[] maybe = null;
+    if (stations.size() >= MIN_TREE) {
+      StationRTree useTree = tree;
+      if (useTree == null)
+        tree = useTree = new StationRTree(stations);
+      maybe = useTree.find(boundingBox);
+    }
+
     LatLonPointImpl latlonPt = new LatLonPointImpl();
     List<StationFeature> result = new ArrayList<>();
-    for (StationFeature s : stations) {
+    for (int i = 0; i < stations.size(); i++) {
+      if (maybe != null && !maybe[i]) continue;
+      StationFeature s = stations.get(i);
       latlonPt.set(s.getLatitude(), s.getLongitude());
       if (boundingBox.contains(latlonPt))
         result.add(s);
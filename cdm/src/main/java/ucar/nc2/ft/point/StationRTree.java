@@ -0,0 +1,185 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.ft.point;
+
+import ucar.unidata.geoloc.LatLonPointImpl;
+import ucar.unidata.geoloc.LatLonRect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A packed R-tree of station locations, made with Sort-Tile-Recursive, to find the stations in a bounding box
+ * without looking at all of them. Immutable.
+ * Uses normalized lat/lon, as LatLonPointImpl does.
+ */
+class StationRTree {
+  static private final int NODE_SIZE = 16;
+  static private final double EPS = 1.0e-6;  // the tree may return extra stations, but never misses one
+
+  private final int n;
+  private final double[] lat, lon;   // of each station
+  private final int[] order;         // station indexes, in tree order
+  private final List<Integer> missing = new ArrayList<>(); // stations with NaN lat or lon, not in the tree
+  private final List<double[]> levels = new ArrayList<>(); // bottom up; each node is minLat, maxLat, minLon, maxLon
+
+  /**
+   * Constructor.
+   * @param stations make a tree of these
+   */
+  StationRTree(List<? extends StationFeature> stations) {
+    n = stations.size();
+    lat = new double[n];
+    lon = new double[n];
+    Integer[] idx = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      StationFeature s = stations.get(i);
+      lat[i] = LatLonPointImpl.latNormal(s.getLatitude());
+      lon[i] = LatLonPointImpl.lonNormal(s.getLongitude());
+      idx[i] = i;
+      if (Double.isNaN(lat[i]) || Double.isNaN(lon[i])) missing.add(i);
+    }
+
+    // sort by lon, cut into vertical slices, sort each slice by lat
+    Arrays.sort(idx, new Comparator<Integer>() {
+      public int compare(Integer o1, Integer o2) {
+        return Double.compare(lon[o1], lon[o2]);
+      }
+    });
+    int nleaves = (n + NODE_SIZE - 1) / NODE_SIZE;
+    int sliceSize = NODE_SIZE * (int) Math.ceil(Math.sqrt(nleaves));
+    for (int from = 0; from < n; from += sliceSize) {
+      Arrays.sort(idx, from, Math.min(n, from + sliceSize), new Comparator<Integer>() {
+        public int compare(Integer o1, Integer o2) {
+          return Double.compare(lat[o1], lat[o2]);
+        }
+      });
+    }
+    order = new int[n];
+    for (int i = 0; i < n; i++)
+      order[i] = idx[i];
+
+    // the leaf nodes, then the levels above
+    double[] nodes = new double[4 * nleaves];
+    for (int node = 0; node < nleaves; node++) {
+      int end = Math.min(n, (node + 1) * NODE_SIZE);
+      init(nodes, node);
+      for (int i = node * NODE_SIZE; i < end; i++)
+        extend(nodes, node, lat[order[i]], lat[order[i]], lon[order[i]], lon[order[i]]);
+    }
+    levels.add(nodes);
+
+    while (nodes.length > 4) {
+      int nchildren = nodes.length / 4;
+      int nparents = (nchildren + NODE_SIZE - 1) / NODE_SIZE;
+      double[] parents = new double[4 * nparents];
+      for (int node = 0; node < nparents; node++) {
+        int end = Math.min(nchildren, (node + 1) * NODE_SIZE);
+        init(parents, node);
+        for (int c = node * NODE_SIZE; c < end; c++)
+          extend(parents, node, nodes[4 * c], nodes[4 * c + 1], nodes[4 * c + 2], nodes[4 * c + 3]);
+      }
+      levels.add(parents);
+      nodes = parents;
+    }
+  }
+
+  private void init(double[] nodes, int node) {
+    nodes[4 * node] = Double.POSITIVE_INFINITY;
+    nodes[4 * node + 1] = Double.NEGATIVE_INFINITY;
+    nodes[4 * node + 2] = Double.POSITIVE_INFINITY;
+    nodes[4 * node + 3] = Double.NEGATIVE_INFINITY;
+  }
+
+  // the comparisons skip NaN
+  private void extend(double[] nodes, int node, double minLat, double maxLat, double minLon, double maxLon) {
+    if (minLat < nodes[4 * node]) nodes[4 * node] = minLat;
+    if (maxLat > nodes[4 * node + 1]) nodes[4 * node + 1] = maxLat;
+    if (minLon < nodes[4 * node + 2]) nodes[4 * node + 2] = minLon;
+    if (maxLon > nodes[4 * node + 3]) nodes[4 * node + 3] = maxLon;
+  }
+
+  /**
+   * Find the stations that may be inside the bounding box. The caller must check each station with
+   * LatLonRect.contains(), since the tree may return a few that are just outside.
+   *
+   * @param bb bounding box
+   * @return for each station, if it may be inside
+   */
+  boolean[] find(LatLonRect bb) {
+    boolean[] found = new boolean[n];
+    if (n == 0) return found;
+
+    double minLat = bb.getLowerLeftPoint().getLatitude() - EPS;
+    double maxLat = bb.getUpperRightPoint().getLatitude() + EPS;
+    double west = bb.getLowerLeftPoint().getLongitude() - EPS;
+    double east = bb.getUpperRightPoint().getLongitude() + EPS;
+
+    int top = levels.size() - 1;
+    if (bb.getWidth() >= 360.0) { // all longitudes
+      find(top, 0, minLat, maxLat, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, found);
+    } else if (bb.crossDateline()) {
+      find(top, 0, minLat, maxLat, west, Double.POSITIVE_INFINITY, found);
+      find(top, 0, minLat, maxLat, Double.NEGATIVE_INFINITY, east, found);
+    } else {
+      find(top, 0, minLat, maxLat, west, east, found);
+    }
+
+    for (int s : missing) // let the caller decide
+      found[s] = true;
+    return found;
+  }
+
+  private void find(int level, int node, double minLat, double maxLat, double minLon, double maxLon, boolean[] found) {
+    double[] nodes = levels.get(level);
+    if (nodes[4 * node] > maxLat || nodes[4 * node + 1] < minLat || nodes[4 * node + 2] > maxLon || nodes[4 * node + 3] < minLon)
+      return;
+
+    if (level == 0) {
+      int end = Math.min(n, (node + 1) * NODE_SIZE);
+      for (int i = node * NODE_SIZE; i < end; i++) {
+        int s = order[i];
+        if (lat[s] >= minLat && lat[s] <= maxLat && lon[s] >= minLon && lon[s] <= maxLon)
+          found[s] = true;
+      }
+    } else {
+      int nchildren = levels.get(level - 1).length / 4;
+      int end = Math.min(nchildren, (node + 1) * NODE_SIZE);
+      for (int c = node * NODE_SIZE; c < end; c++)
+        find(level - 1, c, minLat, maxLat, minLon, maxLon, found);
+    }
+  }
+}
@@ -713,6 +713,20 @@ public class NestedTable {
     return leaf.parent.getStructureDataIterator(cursor);  // the middle table
   }
 
+  // some of the leaf table rows, by record number; null if the leaf table cant read rows by record number
+  StructureDataIterator getLeafFeatureDataIterator(List<Integer> recnums) throws IOException {
+    return leaf.getStructureDataIteratorIndexed(recnums);
+  }
+
+  // the dataset location and last modified time, used by PointFeatureIndex
+  String getLocation() {
+    return ds.getLocation();
+  }
+
+  long getLastModified() {
+    return ds.getLastModified();
+  }
+
   // also called from StandardPointFeatureIterator
   StationFeature makeStation(StructureData stationData) {
     if (stnVE.isMissing(stationData)) return null;
@@ -0,0 +1,451 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.ft.point.standard;
+
+import ucar.nc2.ft.PointFeature;
+import ucar.nc2.ft.PointFeatureCollection;
+import ucar.nc2.ft.PointFeatureIterator;
+import ucar.nc2.ft.point.StationFeature;
+import ucar.nc2.time.CalendarDateRange;
+import ucar.nc2.util.DiskCache2;
+import ucar.unidata.geoloc.LatLonRect;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * An index of the observations in a point or station collection, so that subset() only reads the
+ * observations that are wanted, instead of reading and filtering all of them.
+ * <p>
+ * For each observation, the index has its record number in the leaf table and its time;
+ * point collections also have its lat/lon. Point observations are kept in record order, in blocks with
+ * their time and latitude range. Station observations are kept by station, with the time range of each station.
+ * <p>
+ * The index is made by reading the collection once, when it is first needed, and written to a file next to
+ * the dataset (or in the DiskCache2), which is used until the dataset changes.
+ * Only for tables that can read rows by record number. Off by default, see setEnabled().
+ */
+public class PointFeatureIndex {
+  static private final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(PointFeatureIndex.class);
+
+  static public final String SUFFIX = ".ptidx";
+  static private final int MAGIC = 0x50544958; // "PTIX"
+  static private final int VERSION = 1;
+  static private final int BLOCK_SIZE = 1024;  // number of point observations in a block
+
+  static private boolean enabled = false;
+  static private DiskCache2 diskCache;
+
+  /**
+   * Use indexes for subsetting point and station collections. Default is false.
+   * @param b use indexes
+   */
+  static synchronized public void setEnabled(boolean b) {
+    enabled = b;
+  }
+
+  static synchronized public boolean isEnabled() {
+    return enabled;
+  }
+
+  static synchronized public void setDiskCache2(DiskCache2 dc) {
+    diskCache = dc;
+  }
+
+  static synchronized public DiskCache2 getDiskCache2() {
+    if (diskCache == null)
+      diskCache = DiskCache2.getDefault();
+    return diskCache;
+  }
+
+  /**
+   * Get the index of a point collection: read it from the index file, or make it and write the index file.
+   *
+   * @param ft  the NestedTable of the collection
+   * @param pfc the collection
+   * @return the index, or null if the collection cant be indexed
+   * @throws IOException on read error
+   */
+  static PointFeatureIndex getPointIndex(NestedTable ft, PointFeatureCollection pfc) throws IOException {
+    if (ft.getNumberOfLevels() != 1 || ft.getLeafFeatureDataIterator(new ArrayList<Integer>()) == null)
+      return null;
+
+    PointFeatureIndex index = read(ft, false);
+    if (index != null) return index;
+
+    index = new PointFeatureIndex(false);
+    if (!index.addObs(pfc)) return null;
+    index.finish();
+    index.write(ft);
+    return index;
+  }
+
+  /**
+   * Get the index of a station collection: read it from the index file, or make it and write the index file.
+   *
+   * @param ft       the NestedTable of the collection
+   * @param stations the stations of the collection, each must be a PointFeatureCollection
+   * @return the index, or null if the collection cant be indexed
+   * @throws IOException on read error
+   */
+  static PointFeatureIndex getStationIndex(NestedTable ft, List<StationFeature> stations) throws IOException {
+    if (ft.getLeafFeatureDataIterator(new ArrayList<Integer>()) == null)
+      return null;
+
+    PointFeatureIndex index = read(ft, true);
+    if (index != null && index.hasStations(stations)) return index;
+
+    index = new PointFeatureIndex(true);
+    for (StationFeature stn : stations) {
+      if (index.stnMap.containsKey(stn.getName())) return null; // need unique names
+      index.addStation(stn.getName());
+      if (!index.addObs((PointFeatureCollection) stn)) return null;
+    }
+    index.finish();
+    index.write(ft);
+    return index;
+  }
+
+  ////////////////////////////////////////////////////////////////////////
+
+  private final boolean isStation;
+  private int nobs;
+  private int[] recnums = new int[BLOCK_SIZE];
+  private long[] times = new long[BLOCK_SIZE]; // msecs
+  private double[] lats, lons;                 // point only
+
+  // point: for each block, the range of time and latitude
+  private long[] blockMinTime, blockMaxTime;
+  private double[] blockMinLat, blockMaxLat;
+
+  // station: the observations of station i are start[i] to start[i+1]-1
+  private List<String> stnNames = new ArrayList<>();
+  private Map<String, Integer> stnMap = new HashMap<>();
+  private int[] start = new int[16];
+  private long[] stnMinTime, stnMaxTime;
+  private boolean[] stnSorted;
+
+  private PointFeatureIndex(boolean isStation) {
+    this.isStation = isStation;
+    if (!isStation) {
+      lats = new double[BLOCK_SIZE];
+      lons = new double[BLOCK_SIZE];
+    }
+  }
+
+  int getNobs() {
+    return nobs;
+  }
+
+  /**
+   * Find the point observations that may be in the subset, in record order.
+   * The caller must still filter the observations, the index only avoids reading the ones that are not wanted.
+   *
+   * @param bb        lat/lon bounding box, may be null
+   * @param dateRange date range, may be null
+   * @return record numbers in the leaf table
+   */
+  List<Integer> getRecnums(LatLonRect bb, CalendarDateRange dateRange) {
+    long first = (dateRange == null) ? Long.MIN_VALUE : dateRange.getStart().getMillis();
+    long last = (dateRange == null) ? Long.MAX_VALUE : dateRange.getEnd().getMillis();
+    double minLat = (bb == null) ? Double.NEGATIVE_INFINITY : bb.getLowerLeftPoint().getLatitude() - 1.0e-6;
+    double maxLat = (bb == null) ? Double.POSITIVE_INFINITY : bb.getUpperRightPoint().getLatitude() + 1.0e-6;
+
+    List<Integer> result = new ArrayList<>();
+    int nblocks = blockMinTime.length;
+    for (int b = 0; b < nblocks; b++) {
+      if (blockMaxTime[b] < first || blockMinTime[b] > last) continue;
+      if (bb != null && (blockMaxLat[b] < minLat || blockMinLat[b] > maxLat)) continue;
+
+      int end = Math.min(nobs, (b + 1) * BLOCK_SIZE);
+      for (int i = b * BLOCK_SIZE; i < end; i++) {
+        if (times[i] < first || times[i] > last) continue;
+        if (bb != null && !bb.contains(lats[i], lons[i])) continue;
+        result.add(recnums[i]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Find the observations of a station that may be in the date range, in the order of the station's iterator.
+   *
+   * @param stnName   station name
+   * @param dateRange date range, not null
+   * @return record numbers in the leaf table, or null if the station is not in the index
+   */
+  List<Integer> getStationRecnums(String stnName, CalendarDateRange dateRange) {
+    Integer stn = stnMap.get(stnName);
+    if (stn == null) return null;
+
+    long first = dateRange.getStart().getMillis();
+    long last = dateRange.getEnd().getMillis();
+    int from = start[stn];
+    int to = start[stn + 1];
+
+    List<Integer> result = new ArrayList<>();
+    if (from == to || stnMaxTime[stn] < first || stnMinTime[stn] > last)
+      return result;
+
+    if (stnSorted[stn]) {
+      from = lowerBound(from, to, first);
+      to = lowerBound(from, to, last == Long.MAX_VALUE ? last : last + 1);
+      for (int i = from; i < to; i++)
+        result.add(recnums[i]);
+
+    } else {
+      for (int i = from; i < to; i++)
+        if (times[i] >= first && times[i] <= last)
+          result.add(recnums[i]);
+    }
+    return result;
+  }
+
+  // first i in [from, to) with times[i] >= want, or to
+  private int lowerBound(int from, int to, long want) {
+    while (from < to) {
+      int mid = (from + to) >>> 1;
+      if (times[mid] < want) from = mid + 1;
+      else to = mid;
+    }
+    return from;
+  }
+
+  private boolean hasStations(List<StationFeature> stations) {
+    if (stations.size() != stnNames.size()) return false;
+    for (int i = 0; i < stations.size(); i++)
+      if (!stations.get(i).getName().equals(stnNames.get(i))) return false;
+    return true;
+  }
+
+  ////////////////////////////////////////////////////////////////////////
+  // make
+
+  private void addStation(String name) {
+    int n = stnNames.size();
+    if (n + 2 > start.length)
+      start = Arrays.copyOf(start, 2 * start.length);
+    stnMap.put(name, n);
+    stnNames.add(name);
+    start[n] = nobs;
+    start[n + 1] = nobs;
+  }
+
+  // add the observations of a collection; false if they dont have record numbers
+  private boolean addObs(PointFeatureCollection pfc) throws IOException {
+    try (PointFeatureIterator iter = pfc.getPointFeatureIterator()) {
+      while (iter.hasNext()) {
+        PointFeature pf = iter.next();
+        int recnum = StandardPointFeatureIterator.getRecnum(pf);
+        if (recnum < 0) return false;
+
+        if (nobs == recnums.length) {
+          int n = 2 * nobs;
+          recnums = Arrays.copyOf(recnums, n);
+          times = Arrays.copyOf(times, n);
+          if (!isStation) {
+            lats = Arrays.copyOf(lats, n);
+            lons = Arrays.copyOf(lons, n);
+          }
+        }
+        recnums[nobs] = recnum;
+        times[nobs] = pf.getObservationTimeAsCalendarDate().getMillis();
+        if (!isStation) {
+          lats[nobs] = pf.getLocation().getLatitude();
+          lons[nobs] = pf.getLocation().getLongitude();
+        }
+        nobs++;
+      }
+    }
+
+    if (isStation)
+      start[stnNames.size()] = nobs;
+    return true;
+  }
+
+  // compute the block and station ranges
+  private void finish() {
+    if (!isStation) {
+      int nblocks = (nobs + BLOCK_SIZE - 1) / BLOCK_SIZE;
+      blockMinTime = new long[nblocks];
+      blockMaxTime = new long[nblocks];
+      blockMinLat = new double[nblocks];
+      blockMaxLat = new double[nblocks];
+      for (int b = 0; b < nblocks; b++) {
+        long minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        int end = Math.min(nobs, (b + 1) * BLOCK_SIZE);
+        for (int i = b * BLOCK_SIZE; i < end; i++) {
+          minTime = Math.min(minTime, times[i]);
+          maxTime = Math.max(maxTime, times[i]);
+          if (lats[i] < minLat) minLat = lats[i]; // skips NaN
+          if (lats[i] > maxLat) maxLat = lats[i];
+        }
+        blockMinTime[b] = minTime;
+        blockMaxTime[b] = maxTime;
+        blockMinLat[b] = minLat;
+        blockMaxLat[b] = maxLat;
+      }
+
+    } else {
+      int nstns = stnNames.size();
+      stnMinTime = new long[nstns];
+      stnMaxTime = new long[nstns];
+      stnSorted = new boolean[nstns];
+      for (int s = 0; s < nstns; s++) {
+        long minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+        boolean sorted = true;
+        for (int i = start[s]; i < start[s + 1]; i++) {
+          minTime = Math.min(minTime, times[i]);
+          maxTime = Math.max(maxTime, times[i]);
+          if (i > start[s] && times[i] < times[i - 1]) sorted = false;
+        }
+        stnMinTime[s] = minTime;
+        stnMaxTime[s] = maxTime;
+        stnSorted[s] = sorted;
+      }
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////
+  // index file
+
+  // the dataset file, or null if its not a local file
+  static private File getDataFile(NestedTable ft) {
+    String location = ft.getLocation();
+    if (location == null) return null;
+    if (location.startsWith("file:")) location = location.substring(5);
+    File file = new File(location);
+    return file.exists() ? file : null;
+  }
+
+  static private PointFeatureIndex read(NestedTable ft, boolean isStation) {
+    File dataFile = getDataFile(ft);
+    if (dataFile == null) return null;
+    File indexFile = getDiskCache2().getExistingFileOrCache(dataFile.getPath() + SUFFIX);
+    if (indexFile == null) return null;
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+      if (in.readLong() != dataFile.lastModified() || in.readLong() != dataFile.length()) return null; // stale
+      if (in.readLong() != ft.getLastModified()) return null;
+      if (in.readBoolean() != isStation || !in.readUTF().equals(ft.getName())) return null;
+
+      PointFeatureIndex index = new PointFeatureIndex(isStation);
+      if (isStation) {
+        int nstns = in.readInt();
+        for (int s = 0; s < nstns; s++) {
+          index.addStation(in.readUTF());
+          index.nobs += in.readInt();
+          index.start[s + 1] = index.nobs;
+        }
+      } else {
+        index.nobs = in.readInt();
+      }
+
+      int n = index.nobs;
+      index.recnums = new int[n];
+      index.times = new long[n];
+      if (!isStation) {
+        index.lats = new double[n];
+        index.lons = new double[n];
+      }
+      for (int i = 0; i < n; i++) {
+        index.recnums[i] = in.readInt();
+        index.times[i] = in.readLong();
+        if (!isStation) {
+          index.lats[i] = in.readDouble();
+          index.lons[i] = in.readDouble();
+        }
+      }
+      index.finish();
+      return index;
+
+    } catch (IOException e) {
+      logger.warn("PointFeatureIndex: cant read {}: {}", indexFile.getPath(), e.getMessage());
+      return null;
+    }
+  }
+
+  // write to a temporary file and then rename it, since other threads may be reading the index file
+  private void write(NestedTable ft) {
+    File dataFile = getDataFile(ft);
+    if (dataFile == null) return;
+
+    File tmpFile = null;
+    try {
+      File indexFile = getDiskCache2().getFile(dataFile.getPath() + SUFFIX);
+      tmpFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getAbsoluteFile().getParentFile());
+
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(dataFile.lastModified());
+        out.writeLong(dataFile.length());
+        out.writeLong(ft.getLastModified());
+        out.writeBoolean(isStation);
+        out.writeUTF(ft.getName());
+
+        if (isStation) {
+          out.writeInt(stnNames.size());
+          for (int s = 0; s < stnNames.size(); s++) {
+            out.writeUTF(stnNames.get(s));
+            out.writeInt(start[s + 1] - start[s]);
+          }
+        } else {
+          out.writeInt(nobs);
+        }
+
+        for (int i = 0; i < nobs; i++) {
+          out.writeInt(recnums[i]);
+          out.writeLong(times[i]);
+          if (!isStation) {
+            out.writeDouble(lats[i]);
+            out.writeDouble(lons[i]);
+          }
+        }
+      }
+
+      Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      if (logger.isDebugEnabled()) logger.debug("PointFeatureIndex: wrote {} nobs={}", indexFile.getPath(), nobs);
+
+    } catch (IOException | RuntimeException e) {
+      logger.warn("PointFeatureIndex: cant write index for {}: {}", dataFile.getPath(), e.getMessage());
+      if (tmpFile != null && tmpFile.exists() && !tmpFile.delete())
+        logger.warn("PointFeatureIndex: cant delete {}", tmpFile.getPath());
+    }
+  }
+}
@@ -34,10 +34,16 @@
 package ucar.nc2.ft.point.standard;
 
 import java.io.IOException;
+import java.util.List;
 
+import ucar.ma2.StructureDataIterator;
+import ucar.nc2.ft.PointFeatureCollection;
 import ucar.nc2.ft.PointFeatureIterator;
 import ucar.nc2.ft.point.PointCollectionImpl;
+import ucar.nc2.ft.point.PointIteratorFiltered;
+import ucar.nc2.time.CalendarDateRange;
 import ucar.nc2.time.CalendarDateUnit;
+import ucar.unidata.geoloc.LatLonRect;
 
 /**
  * Implementation of PointFeatureCollection using a NestedTable
@@ -46,6 +52,8 @@ import ucar.nc2.time.CalendarDateUnit;
  */
 public class StandardPointCollectionImpl extends PointCollectionImpl {
   private NestedTable ft;
+  private PointFeatureIndex index;
+  private boolean indexChecked;
 
   StandardPointCollectionImpl(NestedTable ft, CalendarDateUnit timeUnit, String altUnits) {
     super(ft.getName(), timeUnit, altUnits);
@@ -61,4 +69,45 @@ public class StandardPointCollectionImpl extends PointCollectionImpl {
     return new StandardPointFeatureIterator(this, ft, timeUnit, ft.getObsDataIterator(tableData), tableData);
   }
 
+  // the index is made the first time its needed; null if not enabled or this collection cant be indexed
+  private synchronized PointFeatureIndex getIndex() throws IOException {
+    if (!indexChecked && PointFeatureIndex.isEnabled()) {
+      index = PointFeatureIndex.getPointIndex(ft, this);
+      indexChecked = true;
+    }
+    return index;
+  }
+
+  @Override
+  public PointFeatureCollection subset(LatLonRect boundingBox, CalendarDateRange dateRange) throws IOException {
+    if (boundingBox == null && dateRange == null)
+      return super.subset(boundingBox, dateRange);
+
+    PointFeatureIndex index = getIndex();
+    if (index == null)
+      return super.subset(boundingBox, dateRange);
+
+    List<Integer> recnums = index.getRecnums(boundingBox, dateRange);
+    if (recnums.size() > index.getNobs() / 4) // reading through the whole table is faster than reading most of it by recnum
+      return super.subset(boundingBox, dateRange);
+    return new IndexedSubset(this, boundingBox, dateRange, recnums);
+  }
+
+  // only reads the records that the index found
+  private class IndexedSubset extends PointCollectionSubset {
+    private final List<Integer> recnums;
+
+    IndexedSubset(PointCollectionImpl from, LatLonRect filter_bb, CalendarDateRange filter_date, List<Integer> recnums) {
+      super(from, filter_bb, filter_date);
+      this.recnums = recnums;
+    }
+
+    @Override
+    public PointFeatureIterator getPointFeatureIterator() throws IOException {
+      Cursor tableData = new Cursor(ft.getNumberOfLevels());
+      StructureDataIterator obsIter = ft.getLeafFeatureDataIterator(recnums);
+      return new PointIteratorFiltered(new StandardPointFeatureIterator(this, ft, timeUnit, obsIter, tableData), filter_bb, filter_date);
+    }
+  }
+
 }
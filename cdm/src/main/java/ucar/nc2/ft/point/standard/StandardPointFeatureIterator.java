@@ -87,6 +87,13 @@ public class StandardPointFeatureIterator extends PointIteratorFromStructureData
     return ft.isTimeMissing(this.cursor) || ft.isMissing(this.cursor);
   }
 
+  // the record number in the leaf table of a feature made by this class, else -1
+  static int getRecnum(PointFeature pf) {
+    if (pf instanceof StandardPointFeature)
+      return ((StandardPointFeature) pf).cursor.recnum[0];
+    return -1;
+  }
+
   private class StandardPointFeature extends PointFeatureImpl implements StationPointFeature, StationFeatureHas {
     protected Cursor cursor;
 
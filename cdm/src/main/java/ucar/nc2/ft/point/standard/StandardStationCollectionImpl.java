@@ -34,16 +34,19 @@
 package ucar.nc2.ft.point.standard;
 
 import java.io.IOException;
+import java.util.List;
 import javax.annotation.Nonnull;
 
 import ucar.ma2.StructureData;
 import ucar.ma2.StructureDataIterator;
 import ucar.nc2.ft.PointFeatureIterator;
 import ucar.nc2.ft.StationTimeSeriesFeature;
+import ucar.nc2.ft.point.PointIteratorFiltered;
 import ucar.nc2.ft.point.StationFeature;
 import ucar.nc2.ft.point.StationHelper;
 import ucar.nc2.ft.point.StationTimeSeriesCollectionImpl;
 import ucar.nc2.ft.point.StationTimeSeriesFeatureImpl;
+import ucar.nc2.time.CalendarDateRange;
 import ucar.nc2.time.CalendarDateUnit;
 
 /**
@@ -59,6 +62,8 @@ import ucar.nc2.time.CalendarDateUnit;
  */
 public class StandardStationCollectionImpl extends StationTimeSeriesCollectionImpl {
   private NestedTable ft;
+  private PointFeatureIndex index;
+  private boolean indexChecked;
 
   StandardStationCollectionImpl(NestedTable ft, CalendarDateUnit timeUnit, String altUnits) throws IOException {
     super(ft.getName(), timeUnit, altUnits);
@@ -96,6 +101,15 @@ public class StandardStationCollectionImpl extends StationTimeSeriesCollectionIm
     return stationHelper;
   }
 
+  // the index is made the first time its needed; null if not enabled or this collection cant be indexed
+  private synchronized PointFeatureIndex getIndex() throws IOException {
+    if (!indexChecked && PointFeatureIndex.isEnabled()) {
+      index = PointFeatureIndex.getStationIndex(ft, getStationHelper().getStationFeatures());
+      indexChecked = true;
+    }
+    return index;
+  }
+
   private class StandardStationFeatureImpl extends StationTimeSeriesFeatureImpl {
     int recnum;
     StructureData stationData;
@@ -110,14 +124,29 @@ public class StandardStationCollectionImpl extends StationTimeSeriesCollectionIm
 
     @Override
     public PointFeatureIterator getPointFeatureIterator() throws IOException {
+      Cursor cursor = makeCursor();
+      StructureDataIterator obsIter = ft.getLeafFeatureDataIterator(cursor);
+      return new StandardPointFeatureIterator(this, ft, timeUnit, obsIter, cursor);
+    }
+
+    private Cursor makeCursor() throws IOException {
       Cursor cursor = new Cursor(ft.getNumberOfLevels());
       cursor.recnum[1] = recnum;
       cursor.tableData[1] = stationData;
       cursor.currentIndex = 1;
       ft.addParentJoin(cursor); // there may be parent joins
+      return cursor;
+    }
 
-      StructureDataIterator obsIter = ft.getLeafFeatureDataIterator(cursor);
-      return new StandardPointFeatureIterator(this, ft, timeUnit, obsIter, cursor);
+    @Override
+    public StationTimeSeriesFeature subset(CalendarDateRange dateRange) throws IOException {
+      if (dateRange == null) return this;
+
+      PointFeatureIndex index = getIndex();
+      List<Integer> recnums = (index == null) ? null : index.getStationRecnums(getName(), dateRange);
+      if (recnums == null)
+        return super.subset(dateRange);
+      return new IndexedStationFeatureSubset(this, s, dateRange, recnums);
     }
 
     @Nonnull
@@ -127,4 +156,31 @@ public class StandardStationCollectionImpl extends StationTimeSeriesCollectionIm
     }
 
   }
+
+  // only reads the observations that the index found
+  private class IndexedStationFeatureSubset extends StationTimeSeriesFeatureImpl {
+    private final StandardStationFeatureImpl from;
+    private final CalendarDateRange filter_date;
+    private final List<Integer> recnums;
+
+    IndexedStationFeatureSubset(StandardStationFeatureImpl from, StationFeature s, CalendarDateRange filter_date, List<Integer> recnums) {
+      super(s, from.getTimeUnit(), from.getAltUnits(), -1);
+      this.from = from;
+      this.filter_date = filter_date;
+      this.recnums = recnums;
+    }
+
+    @Override
+    public PointFeatureIterator getPointFeatureIterator() throws IOException {
+      Cursor cursor = from.makeCursor();
+      StructureDataIterator obsIter = ft.getLeafFeatureDataIterator(recnums);
+      return new PointIteratorFiltered(new StandardPointFeatureIterator(this, ft, timeUnit, obsIter, cursor), null, filter_date);
+    }
+
+    @Nonnull
+    @Override
+    public StructureData getFeatureData() {
+      return from.getFeatureData();
+    }
+  }
 }
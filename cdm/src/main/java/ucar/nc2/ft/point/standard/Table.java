@@ -233,6 +233,18 @@ public abstract class Table {
    */
   abstract public StructureDataIterator getStructureDataIterator(Cursor cursor) throws IOException;
 
+  /**
+   * Iterate over some of the rows of this table, by record number.
+   * Only tables whose rows can be read by record number implement this.
+   *
+   * @param recnums record numbers, as returned by StructureDataIterator.getCurrentRecno()
+   * @return iterater over those rows, or null if not implemented
+   * @throws IOException on read error
+   */
+  public StructureDataIterator getStructureDataIteratorIndexed(List<Integer> recnums) throws IOException {
+    return null;
+  }
+
   String findCoordinateVariableName(CoordName coordName) {
     switch (coordName) {
       case Elev:
@@ -357,6 +369,12 @@ public abstract class Table {
       return new StructureDataIteratorMediated(struct.getStructureIterator(), new RestrictToColumns());
     }
 
+    @Override
+    public StructureDataIterator getStructureDataIteratorIndexed(List<Integer> recnums) throws IOException {
+      if (stype == TableConfig.StructureType.PsuedoStructure2D) return null;
+      return new StructureDataIteratorMediated(new StructureDataIteratorIndexed(struct, recnums), new RestrictToColumns());
+    }
+
     @Override
     public String getName() {
       return stype.toString() + "(" + struct.getShortName() + ")";
@@ -531,6 +549,11 @@ public abstract class Table {
       return new StructureDataIteratorLinked(struct, firstRecno, numrecs, null);
     }
 
+    @Override
+    public StructureDataIterator getStructureDataIteratorIndexed(List<Integer> recnums) throws IOException {
+      return new StructureDataIteratorIndexed(struct, recnums);
+    }
+
     @Override
     public String getName() {
       return "Contig(" + numRecordsVarName + ")";
@@ -593,6 +616,11 @@ public abstract class Table {
       return new StructureDataIteratorIndexed(struct, index);
     }
 
+    @Override
+    public StructureDataIterator getStructureDataIteratorIndexed(List<Integer> recnums) throws IOException {
+      return new StructureDataIteratorIndexed(struct, recnums);
+    }
+
     @Override
     public String getName() {
       return "Indexed(" + parentIndexName + ")";
@@ -699,6 +727,11 @@ public abstract class Table {
       return new StructureDataIteratorIndexed(struct, index);
     }
 
+    @Override
+    public StructureDataIterator getStructureDataIteratorIndexed(List<Integer> recnums) throws IOException {
+      return new StructureDataIteratorIndexed(struct, recnums);
+    }
+
     @Override
     public String getName() {
       return "ParentId(" + parentIdName + ")";
@@ -734,6 +767,11 @@ public abstract class Table {
       return new StructureDataIteratorLinked(struct, firstRecno, -1, next);
     }
 
+    @Override
+    public StructureDataIterator getStructureDataIteratorIndexed(List<Integer> recnums) throws IOException {
+      return new StructureDataIteratorIndexed(struct, recnums);
+    }
+
     @Override
     public String getName() {
       return "Linked(" + start + "->" + next + ")";
@@ -954,6 +992,11 @@ public abstract class Table {
       }
     }
 
+    @Override
+    public StructureDataIterator getStructureDataIteratorIndexed(List<Integer> recnums) throws IOException {
+      return null; // rows are read through the parent, not by record number
+    }
+
     @Override
     public String getName() {
       return "MultidimPseudo(" + outer.getShortName() + "," + inner.getShortName() + ")";
@@ -1008,6 +1051,11 @@ public abstract class Table {
       }
     }
 
+    @Override
+    public StructureDataIterator getStructureDataIteratorIndexed(List<Integer> recnums) throws IOException {
+      return null; // rows are read through the parent, not by record number
+    }
+
     @Override
     public String getName() {
       return "MultidimPsuedo(" + dim.getShortName() + "," + middle.getShortName() + "," + inner.getShortName() + ")";
@@ -1046,6 +1094,11 @@ public abstract class Table {
       }
     }
 
+    @Override
+    public StructureDataIterator getStructureDataIteratorIndexed(List<Integer> recnums) throws IOException {
+      return null; // rows are read through the parent, not by record number
+    }
+
     @Override
     public String getName() {
       return "MultidimStructure(" + struct.getFullName() + ")";
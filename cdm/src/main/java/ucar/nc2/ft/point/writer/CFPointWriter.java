@@ -375,6 +375,8 @@ public abstract class CFPointWriter implements Closeable {
   private Map<String, Variable> extraMap;  // added as variables just as they are
   protected List<Variable> extra;
 
+  private Map<Map<String, Variable>, RecordBatch> batches = new IdentityHashMap<>();  // key is the varMap of the structure
+
   protected LatLonRect llbb = null;
   protected CalendarDate minDate = null;
   protected CalendarDate maxDate = null;
@@ -736,13 +738,19 @@ public abstract class CFPointWriter implements Closeable {
       if (isExtendedModel) {
         if (s.isUnlimited())
           return writer.appendStructureData(s, sdata);  // can write it all at once along unlimited dimension
-        else {
+        else if (config.batchSize > 1) {
+          getBatch(s, varMap).addStructureData(recno, sdata);
+          return recno + 1;
+        } else {
           ArrayStructureW as = new ArrayStructureW(sdata.getStructureMembers(), new int[] {1});
           as.setStructureData(sdata, 0);
           writer.write(s, origin, as);  // can write it all at once along regular dimension
           return recno + 1;
         }
 
+      } else if (config.batchSize > 1) {
+        getBatch(s, varMap).addClassic(recno, sdata);
+
       } else {
         writeStructureDataClassic(varMap, origin, sdata);
       }
@@ -780,6 +788,190 @@ public abstract class CFPointWriter implements Closeable {
     return origin[0];
   }
 
+  private RecordBatch getBatch(Structure s, Map<String, Variable> varMap) {
+    RecordBatch batch = batches.get(varMap);
+    if (batch == null) {
+      batch = new RecordBatch(s, varMap);
+      batches.put(varMap, batch);
+    }
+    return batch;
+  }
+
+  /**
+   * Write out any records that are still buffered.
+   * Called by finish() and close().
+   */
+  protected void flushBatches() throws IOException {
+    try {
+      for (RecordBatch batch : batches.values())
+        batch.flush();
+
+    } catch (InvalidRangeException e) {
+      e.printStackTrace();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Buffers consecutive records of one structure, and writes them together:
+   * one section per variable for the classic model, one ArrayStructure for the extended model.
+   * The data is copied when it is added, since the caller may reuse the StructureData.
+   */
+  private class RecordBatch {
+    final Structure s;
+    final Map<String, Variable> varMap;
+    int start;  // recno of the first buffered record
+    int nrecs;  // number of buffered records
+
+    // classic model
+    List<Column> columns;
+    Array[] recData;
+
+    // extended model
+    StructureMembers members;
+    List<StructureData> recs;
+
+    RecordBatch(Structure s, Map<String, Variable> varMap) {
+      this.s = s;
+      this.varMap = varMap;
+    }
+
+    void addClassic(int recno, StructureData sdata) throws IOException, InvalidRangeException {
+      if (nrecs > 0 && recno != start + nrecs)
+        flush(); // not contiguous
+      if (columns == null)
+        makeColumns(sdata);
+
+      if (!convert(sdata)) { // doesnt look like the first record, so write it by itself
+        flush();
+        writeStructureDataClassic(varMap, new int[] {recno}, sdata);
+        return;
+      }
+
+      if (nrecs == 0) start = recno;
+      for (int i = 0; i < columns.size(); i++)
+        columns.get(i).set(nrecs, recData[i]);
+      if (++nrecs == config.batchSize)
+        flush();
+    }
+
+    private void makeColumns(StructureData sdata) {
+      columns = new ArrayList<>();
+      for (StructureMembers.Member m : sdata.getMembers()) {
+        Variable mv = varMap.get(m.getName());
+        if (mv == null) continue;
+        if (mv.getRank() == 0 || !mv.getDataType().getPrimitiveClassType().isPrimitive()) { // cant batch this structure
+          columns = Collections.emptyList();
+          recData = null;
+          return;
+        }
+        columns.add(new Column(m.getName(), mv, config.batchSize));
+      }
+      recData = new Array[columns.size()];
+    }
+
+    // put the data of each column into recData, converted as writeStructureDataClassic() does.
+    // return false if this record does not fit the columns.
+    private boolean convert(StructureData sdata) {
+      if (recData == null) return false;
+
+      int count = 0;
+      for (StructureMembers.Member m : sdata.getMembers())
+        if (varMap.containsKey(m.getName())) count++;
+      if (count != columns.size()) return false;
+
+      for (int i = 0; i < columns.size(); i++) {
+        Column col = columns.get(i);
+        StructureMembers.Member m = sdata.findMember(col.name);
+        if (m == null) return false;
+        Array org = sdata.getArray(m);
+        if (m.getDataType() == DataType.STRING)  // convert to ArrayChar
+          org = ArrayChar.makeFromStringArray((ArrayObject) org);
+        if (!col.fits(org)) return false;
+        recData[i] = org;
+      }
+      return true;
+    }
+
+    void addStructureData(int recno, StructureData sdata) throws IOException, InvalidRangeException {
+      if (nrecs > 0 && recno != start + nrecs)
+        flush(); // not contiguous
+      if (members == null) {
+        members = new StructureMembers(sdata.getStructureMembers());
+        recs = new ArrayList<>(config.batchSize);
+      }
+
+      if (nrecs == 0) start = recno;
+      recs.add(StructureDataDeep.copy(sdata, members));
+      if (++nrecs == config.batchSize)
+        flush();
+    }
+
+    void flush() throws IOException, InvalidRangeException {
+      if (nrecs == 0) return;
+
+      if (recs != null) {
+        ArrayStructureW as = new ArrayStructureW(members, new int[] {nrecs});
+        for (int i = 0; i < nrecs; i++)
+          as.setStructureData(recs.get(i), i);
+        writer.write(s, new int[] {start}, as);
+        recs.clear();
+
+      } else {
+        for (Column col : columns)
+          col.write(start, nrecs);
+      }
+      nrecs = 0;
+    }
+  }
+
+  // the values of one variable for a batch of records
+  private class Column {
+    final String name;
+    final Variable v;
+    final int[] recShape;   // shape of one record
+    final int recSize;      // number of values in one record
+    final Array data;       // shape (batchSize, recShape)
+    final boolean pad;      // strings may be shorter than recShape; the rest is zero, same as the default fill value
+
+    Column(String name, Variable v, int batchSize) {
+      this.name = name;
+      this.v = v;
+      int[] shape = v.getShape();
+      this.recShape = Arrays.copyOfRange(shape, 1, shape.length);
+      this.recSize = (int) Index.computeSize(recShape);
+      shape[0] = batchSize;
+      this.data = Array.factory(v.getDataType(), shape);
+      this.pad = (v.getDataType() == DataType.CHAR) && (v.findAttribute(CDM.FILL_VALUE) == null);
+    }
+
+    boolean fits(Array org) {
+      if (org.getElementType() != data.getElementType()) return false;
+      if (Arrays.equals(org.getShape(), recShape)) return true;
+      return pad && org.getRank() == 1 && recShape.length == 1 && org.getSize() <= recSize;
+    }
+
+    void set(int rec, Array org) {
+      int pos = rec * recSize;
+      int n = (int) org.getSize();
+      System.arraycopy(org.get1DJavaArray(org.getDataType()), 0, data.getStorage(), pos, n);
+      if (n < recSize)
+        Arrays.fill((char[]) data.getStorage(), pos + n, pos + recSize, (char) 0);
+    }
+
+    void write(int start, int nrecs) throws IOException, InvalidRangeException {
+      int[] origin = new int[recShape.length + 1];
+      origin[0] = start;  // the rest are 0
+      Array values = data;
+      if (nrecs < data.getShape()[0]) {
+        int[] shape = data.getShape();
+        shape[0] = nrecs;
+        values = data.sectionNoReduce(new int[shape.length], shape, null);
+      }
+      writer.write(v, origin, values);
+    }
+  }
+
 
   // keep track of the bounding box
   protected void trackBB(LatLonPoint loc, CalendarDate obsDate) {
@@ -797,6 +989,8 @@ public abstract class CFPointWriter implements Closeable {
   }
 
   public void finish() throws IOException {
+    flushBatches();
+
     if (llbb != null) {
       writer.updateAttribute(null, new Attribute(ACDD.LAT_MIN, llbb.getLowerLeftPoint().getLatitude()));
       writer.updateAttribute(null, new Attribute(ACDD.LAT_MAX, llbb.getUpperRightPoint().getLatitude()));
@@ -816,7 +1010,11 @@ public abstract class CFPointWriter implements Closeable {
 
   @Override
   public void close() throws IOException {
-    writer.close();
+    try {
+      flushBatches();
+    } finally {
+      writer.close();
+    }
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////////////////
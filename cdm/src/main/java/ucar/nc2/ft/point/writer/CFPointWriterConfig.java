@@ -44,10 +44,13 @@ import ucar.nc2.write.Nc4ChunkingDefault;
  * @since 6/23/2014
  */
 public class CFPointWriterConfig {
+  public static final int DEFAULT_BATCH_SIZE = 1000; // not used by default for the extended model (netcdf4)
+
   public NetcdfFileWriter.Version version;        // netcdf file version
   public Nc4Chunking chunking;                    // for netcdf-4
   public boolean noTimeCoverage = false;          // does not have a time dimension
   public int recDimensionLength = -1;             // do use unlimited dimension (for netcdf3), use fixed dimension of this length NOT USED
+  public int batchSize;                           // buffer this many records per structure and write them together; <= 1 writes each record
 
   public CFPointWriterConfig(NetcdfFileWriter.Version version) {
     this(version, new Nc4ChunkingDefault());  // The default chunker used in Nc4Iosp.
@@ -56,10 +59,16 @@ public class CFPointWriterConfig {
   public CFPointWriterConfig(NetcdfFileWriter.Version version, Nc4Chunking chunking) {
     this.version = version;
     this.chunking = chunking;
+    this.batchSize = version.isExtendedModel() ? 1 : DEFAULT_BATCH_SIZE;
   }
 
   public CFPointWriterConfig setNoTimeCoverage(boolean noTimeCoverage)  {
     this.noTimeCoverage = noTimeCoverage;
     return this;
   }
+
+  public CFPointWriterConfig setBatchSize(int batchSize)  {
+    this.batchSize = batchSize;
+    return this;
+  }
 }
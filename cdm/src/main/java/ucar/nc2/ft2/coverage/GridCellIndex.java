@@ -0,0 +1,247 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.ft2.coverage;
+
+import ucar.ma2.ArrayDouble;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.function.Predicate;
+
+/**
+ * A bucketed lat/lon index over the cells and edge points of a 2D (curvilinear) grid.
+ * The lat/lon extent is divided into about one bucket per 2 x 2 cells. Each cell is entered in every bucket that
+ * its bounding box overlaps, so a point lookup only tests the few cells of one bucket. Each bucket also keeps its edge
+ * points and their bounds, so a bounding box only examines the points of the buckets along its boundary.
+ * Cells and points with a missing (NaN) coordinate are not indexed.
+ * Longitudes must already be normalized to [lonMin, lonMin+360], as in HorizCoordSys2D.
+ */
+@Immutable
+class GridCellIndex {
+  private static final int CELLS_PER_BUCKET = 2; // along each side
+
+  private final ArrayDouble.D2 latEdge, lonEdge; // not modified
+  private final int nrows, ncols;  // number of cells; there are (nrows+1) x (ncols+1) edges
+  private final double latMin, latMax, lonMin, lonMax, dlat, dlon;
+  private final int nbLat, nbLon;
+
+  // the cells (row * ncols + col) in bucket b are cells[cellStart[b] .. cellStart[b+1])
+  private final int[] cellStart, cells;
+
+  // the edge points (row * (ncols+1) + col) in bucket b are points[pointStart[b] .. pointStart[b+1])
+  private final int[] pointStart, points;
+
+  // min row, max row, min col, max col of the edge points in each bucket
+  private final int[] pointIndexBounds;
+  // min lat, max lat, min lon, max lon of the edge points in each bucket
+  private final double[] pointCoordBounds;
+
+  /**
+   * @param latEdge lat edges, shape [nrows+1, ncols+1]
+   * @param lonEdge lon edges, same shape, normalized
+   */
+  GridCellIndex(ArrayDouble.D2 latEdge, ArrayDouble.D2 lonEdge, double latMin, double latMax, double lonMin, double lonMax) {
+    this.latEdge = latEdge;
+    this.lonEdge = lonEdge;
+    int[] shape = latEdge.getShape();
+    this.nrows = shape[0] - 1;
+    this.ncols = shape[1] - 1;
+    this.latMin = latMin;
+    this.latMax = latMax;
+    this.lonMin = lonMin;
+    this.lonMax = lonMax;
+    this.nbLat = Math.max(1, nrows / CELLS_PER_BUCKET);
+    this.nbLon = Math.max(1, ncols / CELLS_PER_BUCKET);
+    this.dlat = (latMax > latMin) ? (latMax - latMin) / nbLat : 1.0;
+    this.dlon = (lonMax > lonMin) ? (lonMax - lonMin) / nbLon : 1.0;
+    int nbuckets = nbLat * nbLon;
+
+    // cells: count per bucket, then fill
+    cellStart = new int[nbuckets + 1];
+    int[] range = new int[4];
+    for (int row = 0; row < nrows; row++)
+      for (int col = 0; col < ncols; col++) {
+        if (!cellBuckets(row, col, range)) continue;
+        for (int i = range[0]; i <= range[1]; i++)
+          for (int j = range[2]; j <= range[3]; j++)
+            cellStart[i * nbLon + j + 1]++;
+      }
+    for (int b = 0; b < nbuckets; b++)
+      cellStart[b + 1] += cellStart[b];
+
+    cells = new int[cellStart[nbuckets]];
+    int[] next = cellStart.clone();
+    for (int row = 0; row < nrows; row++)
+      for (int col = 0; col < ncols; col++) {
+        if (!cellBuckets(row, col, range)) continue;
+        for (int i = range[0]; i <= range[1]; i++)
+          for (int j = range[2]; j <= range[3]; j++)
+            cells[next[i * nbLon + j]++] = row * ncols + col;
+      }
+
+    // edge points: count per bucket and track the bucket bounds, then fill
+    pointStart = new int[nbuckets + 1];
+    pointIndexBounds = new int[4 * nbuckets];
+    pointCoordBounds = new double[4 * nbuckets];
+    for (int b = 0; b < nbuckets; b++) {
+      pointIndexBounds[4 * b] = Integer.MAX_VALUE;
+      pointIndexBounds[4 * b + 1] = -1;
+      pointIndexBounds[4 * b + 2] = Integer.MAX_VALUE;
+      pointIndexBounds[4 * b + 3] = -1;
+      pointCoordBounds[4 * b] = Double.MAX_VALUE;
+      pointCoordBounds[4 * b + 1] = -Double.MAX_VALUE;
+      pointCoordBounds[4 * b + 2] = Double.MAX_VALUE;
+      pointCoordBounds[4 * b + 3] = -Double.MAX_VALUE;
+    }
+
+    int[] pointBucket = new int[(nrows + 1) * (ncols + 1)];
+    for (int row = 0; row <= nrows; row++)
+      for (int col = 0; col <= ncols; col++) {
+        int p = row * (ncols + 1) + col;
+        double lat = latEdge.get(row, col);
+        double lon = lonEdge.get(row, col);
+        if (Double.isNaN(lat) || Double.isNaN(lon)) {
+          pointBucket[p] = -1;
+          continue;
+        }
+        int b = latBucket(lat) * nbLon + lonBucket(lon);
+        pointBucket[p] = b;
+        pointStart[b + 1]++;
+        pointIndexBounds[4 * b] = Math.min(pointIndexBounds[4 * b], row);
+        pointIndexBounds[4 * b + 1] = Math.max(pointIndexBounds[4 * b + 1], row);
+        pointIndexBounds[4 * b + 2] = Math.min(pointIndexBounds[4 * b + 2], col);
+        pointIndexBounds[4 * b + 3] = Math.max(pointIndexBounds[4 * b + 3], col);
+        pointCoordBounds[4 * b] = Math.min(pointCoordBounds[4 * b], lat);
+        pointCoordBounds[4 * b + 1] = Math.max(pointCoordBounds[4 * b + 1], lat);
+        pointCoordBounds[4 * b + 2] = Math.min(pointCoordBounds[4 * b + 2], lon);
+        pointCoordBounds[4 * b + 3] = Math.max(pointCoordBounds[4 * b + 3], lon);
+      }
+    for (int b = 0; b < nbuckets; b++)
+      pointStart[b + 1] += pointStart[b];
+
+    points = new int[pointStart[nbuckets]];
+    next = pointStart.clone();
+    for (int p = 0; p < pointBucket.length; p++)
+      if (pointBucket[p] >= 0) points[next[pointBucket[p]]++] = p;
+  }
+
+  // bucket range {minLat, maxLat, minLon, maxLon} of the cell's bounding box; false if a corner is missing
+  private boolean cellBuckets(int row, int col, int[] range) {
+    double lat0 = Double.MAX_VALUE, lat1 = -Double.MAX_VALUE, lon0 = Double.MAX_VALUE, lon1 = -Double.MAX_VALUE;
+    for (int i = row; i <= row + 1; i++)
+      for (int j = col; j <= col + 1; j++) {
+        double lat = latEdge.get(i, j);
+        double lon = lonEdge.get(i, j);
+        if (Double.isNaN(lat) || Double.isNaN(lon)) return false;
+        lat0 = Math.min(lat0, lat);
+        lat1 = Math.max(lat1, lat);
+        lon0 = Math.min(lon0, lon);
+        lon1 = Math.max(lon1, lon);
+      }
+    range[0] = latBucket(lat0);
+    range[1] = latBucket(lat1);
+    range[2] = lonBucket(lon0);
+    range[3] = lonBucket(lon1);
+    return true;
+  }
+
+  private int latBucket(double lat) {
+    int b = (int) ((lat - latMin) / dlat);
+    return Math.max(0, Math.min(b, nbLat - 1));
+  }
+
+  private int lonBucket(double lon) {
+    int b = (int) ((lon - lonMin) / dlon);
+    return Math.max(0, Math.min(b, nbLon - 1));
+  }
+
+  /**
+   * Find a cell containing the point, testing only the cells whose bounding box overlaps its bucket.
+   *
+   * @param wantLat   lat of point
+   * @param wantLon   normalized lon of point
+   * @param rectIndex set to the (row, col) of each candidate before it is tested; on success, the containing cell
+   * @param contains  is the point in the cell at rectIndex ?
+   * @return false if no cell contains the point
+   */
+  boolean findCell(double wantLat, double wantLon, int[] rectIndex, Predicate<int[]> contains) {
+    if (wantLat < latMin || wantLat > latMax || wantLon < lonMin || wantLon > lonMax) return false;
+    int b = latBucket(wantLat) * nbLon + lonBucket(wantLon);
+    for (int i = cellStart[b]; i < cellStart[b + 1]; i++) {
+      rectIndex[0] = cells[i] / ncols;
+      rectIndex[1] = cells[i] % ncols;
+      if (contains.test(rectIndex)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Extend bounds to include the (row, col) of every edge point inside the lat/lon box, boundaries included.
+   *
+   * @param bounds minRow, maxRow, minCol, maxCol; extended in place
+   */
+  void addPointBounds(double minLat, double maxLat, double minLon, double maxLon, int[] bounds) {
+    if (minLat > maxLat || minLon > maxLon) return;
+    if (maxLat < latMin || minLat > latMax || maxLon < lonMin || minLon > lonMax) return;
+
+    for (int i = latBucket(minLat), bLat1 = latBucket(maxLat); i <= bLat1; i++) {
+      for (int j = lonBucket(minLon), bLon1 = lonBucket(maxLon); j <= bLon1; j++) {
+        int b = i * nbLon + j;
+        if (pointStart[b] == pointStart[b + 1]) continue;
+
+        boolean allInside = pointCoordBounds[4 * b] >= minLat && pointCoordBounds[4 * b + 1] <= maxLat &&
+                pointCoordBounds[4 * b + 2] >= minLon && pointCoordBounds[4 * b + 3] <= maxLon;
+        if (allInside) {
+          bounds[0] = Math.min(bounds[0], pointIndexBounds[4 * b]);
+          bounds[1] = Math.max(bounds[1], pointIndexBounds[4 * b + 1]);
+          bounds[2] = Math.min(bounds[2], pointIndexBounds[4 * b + 2]);
+          bounds[3] = Math.max(bounds[3], pointIndexBounds[4 * b + 3]);
+          continue;
+        }
+
+        for (int k = pointStart[b]; k < pointStart[b + 1]; k++) {
+          int row = points[k] / (ncols + 1);
+          int col = points[k] % (ncols + 1);
+          double lat = latEdge.get(row, col);
+          double lon = lonEdge.get(row, col);
+          if ((lat >= minLat) && (lat <= maxLat) && (lon >= minLon) && (lon <= maxLon)) {
+            bounds[0] = Math.min(bounds[0], row);
+            bounds[1] = Math.max(bounds[1], row);
+            bounds[2] = Math.min(bounds[2], col);
+            bounds[3] = Math.max(bounds[3], col);
+          }
+        }
+      }
+    }
+  }
+}
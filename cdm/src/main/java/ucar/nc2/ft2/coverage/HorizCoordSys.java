@@ -38,7 +38,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.MAMath;
+import ucar.ma2.Range;
 import ucar.ma2.RangeIterator;
+import ucar.nc2.util.Misc;
 import ucar.nc2.util.Optional;
 import ucar.unidata.geoloc.*;
 
@@ -65,6 +67,21 @@ import java.util.List;
 public class HorizCoordSys {
   static private final Logger logger = LoggerFactory.getLogger(HorizCoordSys.class);
 
+  // lat/lon coordinates of projected grids, shared by all HorizCoordSys; null means dont cache
+  private static volatile LatLonCache latLonCache = new LatLonCache(LatLonCache.DEFAULT_MAX_BYTES);
+
+  /**
+   * Share the lat/lon coordinates of projected grids through this cache.
+   * @param cache use this cache; null turns caching off. Default is a cache of LatLonCache.DEFAULT_MAX_BYTES.
+   */
+  public static void setLatLonCache(LatLonCache cache) {
+    latLonCache = cache;
+  }
+
+  public static LatLonCache getLatLonCache() {
+    return latLonCache;
+  }
+
   public static HorizCoordSys factory(CoverageCoordAxis1D xaxis, CoverageCoordAxis1D yaxis, CoverageCoordAxis lataxis, CoverageCoordAxis lonaxis, CoverageTransform transform) {
     boolean isProjection = (xaxis != null) && (yaxis != null) && (transform != null);
     boolean hasLatLon = (lataxis != null) && (lonaxis != null);
@@ -158,8 +175,40 @@ public class HorizCoordSys {
 
   /////////////////////////////////////////////////////////////////////////////////////
 
+  // the last lat/lon point subset: all the coverages of a dataset share this HorizCoordSys,
+  // so a point is resolved to a grid index once, not once for each coverage
+  private volatile PointSubset lastPointSubset;
+
+  private static class PointSubset {
+    final double lat, lon;
+    final Optional<HorizCoordSys> result;
+
+    PointSubset(LatLonPoint latlon, Optional<HorizCoordSys> result) {
+      this.lat = latlon.getLatitude();
+      this.lon = latlon.getLongitude();
+      this.result = result;
+    }
+
+    boolean isSame(LatLonPoint latlon) {
+      return lat == latlon.getLatitude() && lon == latlon.getLongitude();
+    }
+  }
+
   public Optional<HorizCoordSys> subset(SubsetParams params) {
+    LatLonPoint latlon = (LatLonPoint) params.get(SubsetParams.latlonPoint);
+    if (latlon == null)
+      return subsetAxes(params);
+
+    // the point overrides the other horiz subset params, so the subset depends only on the point
+    PointSubset last = lastPointSubset;
+    if (last == null || !last.isSame(latlon)) {
+      last = new PointSubset(latlon, subsetAxes(params));
+      lastPointSubset = last;
+    }
+    return last.result;
+  }
 
+  private Optional<HorizCoordSys> subsetAxes(SubsetParams params) {
     LatLonRect llbb = (LatLonRect) params.get(SubsetParams.latlonBB);
     ProjectionRect projbb = (ProjectionRect) params.get(SubsetParams.projBB);
     LatLonPoint latlon = (LatLonPoint) params.get(SubsetParams.latlonPoint);
@@ -294,7 +343,7 @@ public class HorizCoordSys {
   public LatLonPoint getLatLon(int yindex, int xindex) {
     if (isProjection) {
       double x = xaxis.getCoordMidpoint(xindex);
-      double y = yaxis.getCoordMidpoint(xindex);
+      double y = yaxis.getCoordMidpoint(yindex);
       ProjectionImpl proj = transform.getProjection();
       return proj.projToLatLon(x, y);
     } else {
@@ -304,6 +353,74 @@ public class HorizCoordSys {
     }
   }
 
+  /**
+   * The lat/lon of each point of a projected grid, computed once and shared through the LatLonCache,
+   * if there is one and the grid fits in it.
+   *
+   * @return {lat, lon}, each of length ny * nx in row-major (y, x) order, must not be modified; null if not a projection
+   */
+  public double[][] getLatLonCoords() {
+    if (!isProjection) return null;
+    ProjectionImpl proj = transform.getProjection();
+    double[] x = getCoords(xaxis);
+    double[] y = getCoords(yaxis);
+    LatLonCache cache = latLonCache;
+    return (cache == null || !cache.fits(x.length, y.length)) ? LatLonCache.compute(proj, x, y) : cache.get(proj, x, y);
+  }
+
+  /**
+   * The lat/lon of each point of a subset of this projected grid. If the whole grid can be cached, they are copied
+   * by index from getLatLonCoords(), so that all subsets share the lat/lon of the whole grid; otherwise only the
+   * points of the subset are computed.
+   *
+   * @param subset a subset of this HorizCoordSys, eg from subset()
+   * @return {lat, lon} of the subset, each of length ny * nx in row-major (y, x) order; null if not a projection
+   */
+  public double[][] getLatLonCoords(HorizCoordSys subset) {
+    if (!isProjection || !subset.isProjection || !isSubsetOf(subset.xaxis, xaxis) || !isSubsetOf(subset.yaxis, yaxis) ||
+            !transform.getProjection().equals(subset.transform.getProjection()))
+      return subset.getLatLonCoords();
+
+    LatLonCache cache = latLonCache;
+    if (cache == null || !cache.fits(xaxis.getNcoords(), yaxis.getNcoords()))
+      return LatLonCache.compute(transform.getProjection(), getCoords(subset.xaxis), getCoords(subset.yaxis));
+
+    double[][] full = getLatLonCoords();
+    int nx = xaxis.getNcoords();
+    Range xr = subset.xaxis.getRange();
+    Range yr = subset.yaxis.getRange();
+    double[][] result = new double[2][xr.length() * yr.length()];
+    int k = 0;
+    for (int j = 0; j < yr.length(); j++) {
+      int row = (yr.first() + j * yr.stride()) * nx;
+      for (int i = 0; i < xr.length(); i++) {
+        int idx = row + xr.first() + i * xr.stride();
+        result[0][k] = full[0][idx];
+        result[1][k] = full[1][idx];
+        k++;
+      }
+    }
+    return result;
+  }
+
+  private static double[] getCoords(CoverageCoordAxis1D axis) {
+    double[] result = new double[axis.getNcoords()];
+    for (int i = 0; i < result.length; i++)
+      result[i] = axis.getCoordMidpoint(i);
+    return result;
+  }
+
+  // does sub have the coordinates of axis at the indexes of its range ?
+  private static boolean isSubsetOf(CoverageCoordAxis1D sub, CoverageCoordAxis1D axis) {
+    Range r = sub.getRange();
+    if (r.length() != sub.getNcoords() || r.last() >= axis.getNcoords()) return false;
+    for (int i = 0; i < r.length(); i++) {
+      if (!Misc.closeEnough(sub.getCoordMidpoint(i), axis.getCoordMidpoint(r.first() + i * r.stride())))
+        return false;
+    }
+    return true;
+  }
+
   /*
     longitude subset, after normalizing to start
     draw a circle, representing longitude values from start to start + 360.
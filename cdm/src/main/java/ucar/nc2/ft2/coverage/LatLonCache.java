@@ -0,0 +1,253 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package ucar.nc2.ft2.coverage;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import ucar.unidata.geoloc.ProjectionImpl;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Formatter;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Memory bounded cache of the lat/lon coordinates of projected grids, shared by all HorizCoordSys.
+ * Grids are keyed by the projection and the x and y coordinates, and evicted by size (in bytes).
+ * A grid that is not in the cache is computed once, even if several threads ask for it at the same time,
+ * with the array form of ProjectionImpl.projToLatLon() on blocks of rows in parallel.
+ * <p>
+ * The cached arrays are returned as is, so callers must not modify them.
+ */
+@ThreadSafe
+public class LatLonCache {
+  public static final long DEFAULT_MAX_BYTES = 100L * 1000 * 1000;
+  private static final int ENTRY_OVERHEAD = 100;      // rough size of the key and the cache entry, not counting the coordinates
+  private static final int BLOCK_POINTS = 64 * 1024;  // number of points computed by one task
+
+  private static ExecutorService computePool;  // shared by all caches
+
+  private static synchronized ExecutorService getComputePool() {
+    if (computePool == null) {
+      computePool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+              new ThreadFactoryBuilder().setNameFormat("LatLonCache-%d").setDaemon(true).build());
+    }
+    return computePool;
+  }
+
+  private final Cache<GridKey, double[][]> cache;
+  private final long maxBytes;
+
+  /**
+   * Constructor.
+   * @param maxBytes max size of the cached coordinates, in bytes.
+   */
+  public LatLonCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+    // one segment, since each segment only holds 1/concurrencyLevel of maxBytes, and there are few, large grids
+    this.cache = CacheBuilder.newBuilder()
+            .concurrencyLevel(1)
+            .maximumWeight(maxBytes)
+            .weigher(new Weigher<GridKey, double[][]>() {
+              public int weigh(GridKey key, double[][] value) {
+                return (int) Math.min(Integer.MAX_VALUE, weight(key.x.length, key.y.length));
+              }
+            })
+            .recordStats()
+            .build();
+  }
+
+  private static long weight(int nx, int ny) {
+    return 16L * nx * ny + 8L * (nx + ny) + ENTRY_OVERHEAD;
+  }
+
+  /**
+   * Can a grid of this size be kept in the cache? A larger one would be evicted as soon as it is added,
+   * after evicting everything else, so callers should compute it without the cache.
+   *
+   * @param nx number of x coordinates
+   * @param ny number of y coordinates
+   * @return true if it fits in maxBytes
+   */
+  public boolean fits(int nx, int ny) {
+    return weight(nx, ny) <= maxBytes;
+  }
+
+  /**
+   * Get the lat/lon of each point of a grid, computing them if they are not in the cache.
+   *
+   * @param proj the projection
+   * @param x    x coordinates of the grid; kept in the cache, so must not be modified afterwards
+   * @param y    y coordinates of the grid; kept in the cache, so must not be modified afterwards
+   * @return {lat, lon}, each of length ny * nx in row-major (y, x) order
+   */
+  public double[][] get(final ProjectionImpl proj, final double[] x, final double[] y) {
+    try {
+      return cache.get(new GridKey(proj, x, y), new Callable<double[][]>() {
+        public double[][] call() {
+          return compute(proj, x, y);
+        }
+      });
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Get the lat/lon of each point of a grid, if they are in the cache.
+   * @return {lat, lon} as in get(), or null if not in the cache
+   */
+  public double[][] getIfPresent(ProjectionImpl proj, double[] x, double[] y) {
+    return cache.getIfPresent(new GridKey(proj, x, y));
+  }
+
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  public long getSizeBytes() {
+    long total = 0;
+    for (double[][] value : cache.asMap().values())
+      total += 16L * value[0].length;
+    return total;
+  }
+
+  public void showStats(Formatter f) {
+    CacheStats stats = cache.stats();
+    f.format("LatLonCache maxBytes=%d grids=%d bytes=%d%n", maxBytes, cache.size(), getSizeBytes());
+    f.format("  hits=%d miss=%d hitRate=%f evictions=%d loadMsecs=%d%n", stats.hitCount(), stats.missCount(), stats.hitRate(),
+            stats.evictionCount(), stats.totalLoadTime() / 1000 / 1000);
+  }
+
+  /**
+   * Compute the lat/lon of each point of a grid, without caching.
+   * Large grids are split into blocks of rows, which are computed in parallel.
+   *
+   * @param proj the projection
+   * @param x    x coordinates of the grid
+   * @param y    y coordinates of the grid
+   * @return {lat, lon}, each of length ny * nx in row-major (y, x) order
+   */
+  public static double[][] compute(final ProjectionImpl proj, final double[] x, final double[] y) {
+    final double[][] result = new double[2][x.length * y.length];
+    if (x.length == 0) return result;
+
+    int rowsPerBlock = Math.max(1, BLOCK_POINTS / x.length);
+    int nblocks = (y.length + rowsPerBlock - 1) / rowsPerBlock;
+
+    List<Future<Void>> futures = new ArrayList<>();
+    int startRow = 0;
+    try {
+      ExecutorService pool = (nblocks > 1) ? getComputePool() : null;
+      for (int b = 0; b < nblocks - 1; b++) {
+        final int first = startRow;
+        final int last = first + rowsPerBlock;
+        futures.add(pool.submit(new Callable<Void>() {
+          public Void call() {
+            computeRows(proj, x, y, first, last, result);
+            return null;
+          }
+        }));
+        startRow = last;
+      }
+    } catch (RejectedExecutionException e) {
+      // pool was shut down; the calling thread does the rest
+    }
+    computeRows(proj, x, y, startRow, y.length, result);
+
+    for (Future<Void> f : futures) {
+      try {
+        f.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("LatLonCache interrupted", e);
+      } catch (ExecutionException e) {
+        throw Throwables.propagate(e.getCause());
+      }
+    }
+    return result;
+  }
+
+  // compute rows [first, last) of the grid into result
+  private static void computeRows(ProjectionImpl proj, double[] x, double[] y, int first, int last, double[][] result) {
+    int nx = x.length;
+    int n = (last - first) * nx;
+    double[][] from = new double[2][n];
+    int k = 0;
+    for (int row = first; row < last; row++) {
+      System.arraycopy(x, 0, from[0], k, nx);
+      Arrays.fill(from[1], k, k + nx, y[row]);
+      k += nx;
+    }
+    double[][] to = proj.projToLatLon(from, new double[2][n]);
+    System.arraycopy(to[0], 0, result[0], first * nx, n);
+    System.arraycopy(to[1], 0, result[1], first * nx, n);
+  }
+
+  @Immutable
+  private static class GridKey {
+    private final ProjectionImpl proj;
+    private final double[] x, y;
+    private final int hashCode;
+
+    GridKey(ProjectionImpl proj, double[] x, double[] y) {
+      this.proj = proj;
+      this.x = x;
+      this.y = y;
+      this.hashCode = 31 * (31 * proj.hashCode() + Arrays.hashCode(x)) + Arrays.hashCode(y);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      GridKey that = (GridKey) o;
+      return hashCode == that.hashCode && Arrays.equals(x, that.x) && Arrays.equals(y, that.y) && proj.equals(that.proj);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
@@ -165,6 +165,20 @@ public class SubsetParams {
     return this;
   }
 
+  public SubsetParams remove(String key) {
+    req.remove(key);
+    return this;
+  }
+
+  /**
+   * Shallow copy, eg to change some params for one read.
+   */
+  public SubsetParams copy() {
+    SubsetParams result = new SubsetParams();
+    result.req.putAll(req);
+    return result;
+  }
+
   public Object get(String key) {
      return req.get(key);
    }
@@ -33,22 +33,22 @@
  */
 package ucar.nc2.ft2.coverage.writer;
 
-import ucar.ma2.DataType;
-import ucar.ma2.InvalidRangeException;
-import ucar.ma2.Section;
+import ucar.ma2.*;
 import ucar.nc2.*;
 import ucar.nc2.constants.*;
 import ucar.nc2.ft2.coverage.*;
+import ucar.nc2.iosp.netcdf3.N3iosp;
+import ucar.nc2.iosp.netcdf3.N3outputStreamWriter;
 import ucar.nc2.time.CalendarDate;
 import ucar.nc2.util.Misc;
 import ucar.nc2.util.Optional;
 import ucar.unidata.geoloc.*;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.Formatter;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.OutputStream;
+import java.util.*;
 
 /**
  * Write CF Compliant Grid file from a Coverage.
@@ -66,6 +66,9 @@ public class CFGridCoverageWriter2 {
 
   static private final String BOUNDS = "_bounds";
   static private final String BOUNDS_DIM = "bounds_dim"; // dimension of length 2, can be used by any bounds coordinate
+  static private final String LAT = "lat";  // optional 2D lat/lon of a projection
+  static private final String LON = "lon";
+  static private final int STREAM_BUFFER_SIZE = 64 * 1000;
 
   /**
    * Write a netcdf/CF file from a CoverageDataset
@@ -90,6 +93,32 @@ public class CFGridCoverageWriter2 {
     return writer2.writeFile(gdsOrg, gridNames, subset, addLatLon, testSizeOnly, writer);
   }
 
+  /**
+   * Write a netcdf-3/CF file from a CoverageDataset directly to a stream, without a temporary file.
+   * The header and variable layout are computed up front from the subsetted coordinate systems,
+   * then the data is read and written in file order. A coverage larger than maxSlabBytes is read one
+   * coordinate of its outer dimension at a time, when that is a time, vertical or ensemble axis.
+   *
+   * @param gdsOrg       the CoverageDataset
+   * @param gridNames    the list of coverage names to be written, or null for all
+   * @param subset       defines the requested subset
+   * @param addLatLon    add 2D lat/lon coordinates if needed
+   * @param out          write to this stream. It is flushed, not closed.
+   * @param maxSlabBytes read coverages in pieces no larger than this, where possible
+   * @return total bytes written, or empty with an error message if nothing was written
+   * @throws IOException
+   * @throws InvalidRangeException
+   */
+  public static ucar.nc2.util.Optional<Long> writeStream(CoverageCollection gdsOrg, List<String> gridNames,
+                               SubsetParams subset,
+                               boolean addLatLon,
+                               OutputStream out,
+                               long maxSlabBytes) throws IOException, InvalidRangeException {
+
+    CFGridCoverageWriter2 writer2 = new CFGridCoverageWriter2();
+    return writer2.streamFile(gdsOrg, gridNames, subset, addLatLon, out, maxSlabBytes);
+  }
+
   private ucar.nc2.util.Optional<Long> writeFile(CoverageCollection gdsOrg, List<String> gridNames, SubsetParams subsetParams, boolean addLatLon, boolean testSizeOnly,
                                NetcdfFileWriter writer) throws IOException, InvalidRangeException {
 
@@ -99,11 +128,14 @@ public class CFGridCoverageWriter2 {
       return ucar.nc2.util.Optional.empty(opt.getErrorMessage());
 
     CoverageCollection subsetDataset = opt.get();
+    boolean latLon = needLatLon(subsetDataset, addLatLon);
 
     long total_size = 0;
     for (Coverage grid : subsetDataset.getCoverages()) {
       total_size += grid.getSizeInBytes();
     }
+    if (latLon)
+      total_size += getLatLonSizeInBytes(subsetDataset);
 
     if (testSizeOnly)
       return Optional.of(total_size);
@@ -114,6 +146,237 @@ public class CFGridCoverageWriter2 {
     boolean isLargeFile = isLargeFile(total_size);
     writer.setLargeFile(isLargeFile);
 
+    addMetadata(subsetDataset, writer, latLon);
+
+    // finish define mode
+    writer.create();
+
+    // write the coordinate data
+    for (CoverageCoordAxis axis : subsetDataset.getCoordAxes()) {
+      Variable v = writer.findVariable(axis.getName());
+      if (v != null) {
+        if (show) System.out.printf("CFGridCoverageWriter2 write axis %s%n", v.getNameAndDimensions());
+        writer.write(v, axis.getCoordsAsArray());
+      } else {
+        logger.error("CFGridCoverageWriter2 No variable for %s%n", axis.getName());
+      }
+
+      if (axis.isInterval()) {
+        Variable vb = writer.findVariable(axis.getName() + BOUNDS);
+        writer.write(vb, axis.getCoordBoundsAsArray());
+      }
+    }
+
+    if (latLon) {
+      Array[] latlon = makeLatLon(gdsOrg, subsetDataset);
+      writer.write(writer.findVariable(LAT), latlon[0]);
+      writer.write(writer.findVariable(LON), latlon[1]);
+    }
+
+    // write the grid data
+    for (Coverage grid : subsetDataset.getCoverages()) {
+      // we need to call readData on the original
+      Coverage gridOrg = gdsOrg.findCoverage(grid.getName());
+      GeoReferencedArray array = gridOrg.readData(subsetParams);
+
+      // test conform to whatever axis.getCoordsAsArray() returns
+      checkConformance(gridOrg, grid, array, gdsOrg.getName());
+
+      Variable v = writer.findVariable(grid.getName());
+      if (show) System.out.printf("CFGridCoverageWriter2 write grid %s%n", v.getNameAndDimensions());
+      writer.write(v, array.getData());
+    }
+
+    writer.close();
+
+    return Optional.of(total_size);
+  }
+
+  private ucar.nc2.util.Optional<Long> streamFile(CoverageCollection gdsOrg, List<String> gridNames, SubsetParams subsetParams, boolean addLatLon,
+                               OutputStream out, long maxSlabBytes) throws IOException, InvalidRangeException {
+
+    Optional<CoverageCollection> opt = CoverageSubsetter2.makeCoverageDatasetSubset(gdsOrg, gridNames, subsetParams);
+    if (!opt.isPresent())
+      return ucar.nc2.util.Optional.empty(opt.getErrorMessage());
+
+    CoverageCollection subsetDataset = opt.get();
+    boolean latLon = needLatLon(subsetDataset, addLatLon);
+
+    long total_size = 0;
+    for (Coverage grid : subsetDataset.getCoverages()) {
+      total_size += grid.getSizeInBytes();
+    }
+    if (latLon)
+      total_size += getLatLonSizeInBytes(subsetDataset);
+    boolean isLargeFile = isLargeFile(total_size);
+
+    // the writer is only used to build the metadata
+    NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, gdsOrg.getName());
+    addMetadata(subsetDataset, writer, latLon);
+    NetcdfFile ncfile = writer.createForStreaming();
+    Array[] latlon = latLon ? makeLatLon(gdsOrg, subsetDataset) : null;
+
+    DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(out, STREAM_BUFFER_SIZE));
+    N3outputStreamWriter n3writer = new N3outputStreamWriter(ncfile);
+    n3writer.setLargeFile(isLargeFile);
+    n3writer.writeHeader(stream, 0);
+
+    // write the data in the order of the variables in the file
+    for (Variable v : ncfile.getVariables()) {
+      CoverageCoordAxis axis = subsetDataset.findCoordAxis(v.getShortName());
+      Coverage grid = subsetDataset.findCoverage(v.getShortName());
+
+      if (axis != null) {
+        if (show) System.out.printf("CFGridCoverageWriter2 stream axis %s%n", v.getNameAndDimensions());
+        n3writer.writeNonRecordData(v, stream, axis.getCoordsAsArray());
+
+      } else if (v.getShortName().endsWith(BOUNDS) && (axis = findBoundedAxis(subsetDataset, v.getShortName())) != null) {
+        n3writer.writeNonRecordData(v, stream, axis.getCoordBoundsAsArray());
+
+      } else if (grid != null) {
+        if (show) System.out.printf("CFGridCoverageWriter2 stream grid %s%n", v.getNameAndDimensions());
+        Coverage gridOrg = gdsOrg.findCoverage(grid.getName());
+        streamGrid(gridOrg, grid, subsetParams, v, n3writer, stream, maxSlabBytes, gdsOrg.getName());
+
+      } else if (latLon && v.getShortName().equals(LAT)) {
+        n3writer.writeNonRecordData(v, stream, latlon[0]);
+
+      } else if (latLon && v.getShortName().equals(LON)) {
+        n3writer.writeNonRecordData(v, stream, latlon[1]);
+
+      } else {
+        // eg coordinate transform variables: filled, as NetcdfFileWriter does
+        Array fill = Array.factory(v.getDataType(), v.getShape());
+        Number fillValue = N3iosp.getFillValueDefault(v.getDataType());
+        if (fillValue != null) {
+          IndexIterator ii = fill.getIndexIterator();
+          while (ii.hasNext())
+            ii.setObjectNext(fillValue);
+        }
+        n3writer.writeNonRecordData(v, stream, fill);
+      }
+    }
+
+    stream.flush();
+    return Optional.of(n3writer.getFilePos());
+  }
+
+  // add 2D lat/lon coordinates only to a projection that doesnt already have lat/lon
+  private boolean needLatLon(CoverageCollection subsetDataset, boolean addLatLon) {
+    if (!addLatLon || !subsetDataset.getHorizCoordSys().getIsProjection()) return false;
+    for (CoverageCoordAxis axis : subsetDataset.getCoordAxes()) {
+      if (axis.getAxisType() == AxisType.Lat || axis.getAxisType() == AxisType.Lon) return false;
+      if (axis.getName().equals(LAT) || axis.getName().equals(LON)) return false;
+    }
+    return subsetDataset.findCoverage(LAT) == null && subsetDataset.findCoverage(LON) == null;
+  }
+
+  private long getLatLonSizeInBytes(CoverageCollection subsetDataset) {
+    HorizCoordSys hcs = subsetDataset.getHorizCoordSys();
+    return 2L * DataType.DOUBLE.getSize() * hcs.getXAxis().getNcoords() * hcs.getYAxis().getNcoords();
+  }
+
+  // the lat/lon of the subset, copied from those of the original grid, which are computed once and cached
+  private Array[] makeLatLon(CoverageCollection gdsOrg, CoverageCollection subsetDataset) {
+    HorizCoordSys hcs = subsetDataset.getHorizCoordSys();
+    double[][] latlon = gdsOrg.getHorizCoordSys().getLatLonCoords(hcs);
+    int[] shape = new int[]{hcs.getYAxis().getNcoords(), hcs.getXAxis().getNcoords()};
+    return new Array[]{Array.factory(DataType.DOUBLE, shape, latlon[0]), Array.factory(DataType.DOUBLE, shape, latlon[1])};
+  }
+
+  private CoverageCoordAxis findBoundedAxis(CoverageCollection gds, String boundsName) {
+    CoverageCoordAxis axis = gds.findCoordAxis(boundsName.substring(0, boundsName.length() - BOUNDS.length()));
+    return (axis != null && axis.isInterval()) ? axis : null;
+  }
+
+  private void streamGrid(Coverage gridOrg, Coverage grid, SubsetParams subsetParams, Variable v, N3outputStreamWriter n3writer,
+                          DataOutputStream stream, long maxSlabBytes, String where) throws IOException, InvalidRangeException {
+
+    List<SubsetParams> slabs = makeSlabs(gridOrg, grid, subsetParams, maxSlabBytes);
+    if (slabs == null) {
+      GeoReferencedArray array = gridOrg.readData(subsetParams);
+      checkConformance(gridOrg, grid, array, where);
+      n3writer.writeNonRecordData(v, stream, array.getData());
+      return;
+    }
+
+    // each slab is one coordinate of the outer dimension
+    long slabSize = new Section(grid.getCoordSys().getShape()).computeSize() / slabs.size();
+    for (SubsetParams slab : slabs) {
+      GeoReferencedArray array = gridOrg.readData(slab);
+      if (array.getData().getSize() != slabSize)
+        throw new IOException("CFGridCoverageWriter2 slab of " + grid.getName() + " has size " + array.getData().getSize()
+                + " expected " + slabSize + " " + where);
+      n3writer.writeNonRecordData(v, stream, array.getData());
+    }
+  }
+
+  /**
+   * Split the subset of a coverage along its outer dimension (ignoring those of length 1), one coordinate per slab,
+   * if the coverage is larger than maxSlabBytes and the outer dimension is a 1D time, vertical or ensemble axis.
+   * A slab is selected by coordinate value, so each one must resolve to its own coordinate in the original coverage,
+   * which is not the case if, eg, two intervals have the same midpoint.
+   * @return the subset for each slab in order, or null to read the coverage all at once
+   */
+  private List<SubsetParams> makeSlabs(Coverage gridOrg, Coverage grid, SubsetParams subsetParams, long maxSlabBytes) {
+    if (grid.getSizeInBytes() <= maxSlabBytes)
+      return null;
+
+    CoverageCoordSys csys = grid.getCoordSys();
+    CoverageCoordAxis outer = null;
+    for (CoverageCoordAxis axis : csys.getAxes()) {
+      if (axis.getDependenceType() == CoverageCoordAxis.DependenceType.independent && axis.getNcoords() > 1) {
+        outer = axis;  // leading dimensions of length 1 dont change the order of the data
+        break;
+      }
+    }
+    if (!(outer instanceof CoverageCoordAxis1D))
+      return null;
+    CoverageCoordAxis1D axis = (CoverageCoordAxis1D) outer;
+    CoverageCoordAxis orgAxis = gridOrg.getCoordSys().getAxis(axis.getName());
+    if (!(orgAxis instanceof CoverageCoordAxis1D))
+      return null;
+
+    List<SubsetParams> result = new ArrayList<>();
+    for (int i = 0; i < axis.getNcoords(); i++) {
+      SubsetParams slab = subsetParams.copy();
+      switch (axis.getAxisType()) {
+        case Time:
+          if (csys.getAxis(AxisType.RunTime) != null) return null; // LOOK time may depend on runtime
+          slab.remove(SubsetParams.timePresent);
+          slab.setTime(axis.makeDate(axis.getCoordMidpoint(i)));
+          break;
+        case GeoZ:
+        case Height:
+        case Pressure:
+          slab.setVertCoord(axis.getCoordMidpoint(i));
+          break;
+        case Ensemble:
+          slab.setEnsCoord(axis.getCoordMidpoint(i));
+          break;
+        default:
+          return null;
+      }
+      if (!resolvesTo(slab, (CoverageCoordAxis1D) orgAxis, axis, i))
+        return null;
+      result.add(slab);
+    }
+    return result;
+  }
+
+  // does the slab select just the ith coordinate of axis, when applied to orgAxis ?
+  private boolean resolvesTo(SubsetParams slab, CoverageCoordAxis1D orgAxis, CoverageCoordAxis1D axis, int i) {
+    Optional<CoverageCoordAxis> opt = orgAxis.subset(slab);
+    if (!opt.isPresent() || opt.get().getNcoords() != 1)
+      return false;
+    CoverageCoordAxis1D resolved = (CoverageCoordAxis1D) opt.get();
+    if (!axis.isInterval())
+      return Misc.closeEnough(resolved.getCoordMidpoint(0), axis.getCoordMidpoint(i));
+    return Misc.closeEnough(resolved.getCoordEdge1(0), axis.getCoordEdge1(i)) &&
+            Misc.closeEnough(resolved.getCoordEdge2(0), axis.getCoordEdge2(i));
+  }
+
+  private void addMetadata(CoverageCollection subsetDataset, NetcdfFileWriter writer, boolean addLatLon) {
     addGlobalAttributes(subsetDataset, writer);
 
     // each independent coordinate is a dimension
@@ -169,6 +432,24 @@ public class CFGridCoverageWriter2 {
       addVariableAttributes(v, grid.getAttributes());
     }
 
+    // 2D lat/lon of a projection
+    if (addLatLon) {
+      HorizCoordSys hcs = subsetDataset.getHorizCoordSys();
+      String dims = hcs.getYAxis().getName() + " " + hcs.getXAxis().getName();
+
+      Variable latVar = writer.addVariable(null, LAT, DataType.DOUBLE, dims);
+      latVar.addAttribute(new Attribute(CDM.UNITS, CDM.LAT_UNITS));
+      latVar.addAttribute(new Attribute(CDM.LONG_NAME, "latitude coordinate"));
+      latVar.addAttribute(new Attribute(CF.STANDARD_NAME, CF.LATITUDE));
+      latVar.addAttribute(new Attribute(_Coordinate.AxisType, AxisType.Lat.toString()));
+
+      Variable lonVar = writer.addVariable(null, LON, DataType.DOUBLE, dims);
+      lonVar.addAttribute(new Attribute(CDM.UNITS, CDM.LON_UNITS));
+      lonVar.addAttribute(new Attribute(CDM.LONG_NAME, "longitude coordinate"));
+      lonVar.addAttribute(new Attribute(CF.STANDARD_NAME, CF.LONGITUDE));
+      lonVar.addAttribute(new Attribute(_Coordinate.AxisType, AxisType.Lon.toString()));
+    }
+
     // coordTransforms
     for (CoverageTransform ct : subsetDataset.getCoordTransforms()) {
       Variable ctv = writer.addVariable(null, ct.getName(), DataType.INT, ""); // scalar coordinate transform variable - container for transform info
@@ -177,43 +458,6 @@ public class CFGridCoverageWriter2 {
     }
 
     addCFAnnotations(subsetDataset, writer, addLatLon);
-
-    // finish define mode
-    writer.create();
-
-    // write the coordinate data
-    for (CoverageCoordAxis axis : subsetDataset.getCoordAxes()) {
-      Variable v = writer.findVariable(axis.getName());
-      if (v != null) {
-        if (show) System.out.printf("CFGridCoverageWriter2 write axis %s%n", v.getNameAndDimensions());
-        writer.write(v, axis.getCoordsAsArray());
-      } else {
-        logger.error("CFGridCoverageWriter2 No variable for %s%n", axis.getName());
-      }
-
-      if (axis.isInterval()) {
-        Variable vb = writer.findVariable(axis.getName() + BOUNDS);
-        writer.write(vb, axis.getCoordBoundsAsArray());
-      }
-    }
-
-    // write the grid data
-    for (Coverage grid : subsetDataset.getCoverages()) {
-      // we need to call readData on the original
-      Coverage gridOrg = gdsOrg.findCoverage(grid.getName());
-      GeoReferencedArray array = gridOrg.readData(subsetParams);
-
-      // test conform to whatever axis.getCoordsAsArray() returns
-      checkConformance(gridOrg, grid, array, gdsOrg.getName());
-
-      Variable v = writer.findVariable(grid.getName());
-      if (show) System.out.printf("CFGridCoverageWriter2 write grid %s%n", v.getNameAndDimensions());
-      writer.write(v, array.getData());
-    }
-
-    writer.close();
-
-    return Optional.of(total_size);
   }
 
   private boolean isLargeFile(long total_size) {
@@ -276,7 +520,7 @@ public class CFGridCoverageWriter2 {
       Formatter sbuff = new Formatter();
       for (String s : grid.getCoordSys().getAxisNames())
         sbuff.format("%s ", s);
-      // if (addLatLon) sbuff.format("lat lon"); LOOK
+      if (addLatLon) sbuff.format("%s %s", LAT, LON);
       newV.addAttribute(new Attribute(CF.COORDINATES, sbuff.toString()));
 
       // add reference to coordinate transform variables
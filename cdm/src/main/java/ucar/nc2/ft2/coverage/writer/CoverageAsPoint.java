@@ -39,10 +39,10 @@ import java.util.List;
 import javax.annotation.Nonnull;
 
 import ucar.ma2.Array;
-import ucar.ma2.IndexIterator;
+import ucar.ma2.ArrayStructureMA;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.StructureData;
-import ucar.ma2.StructureDataScalar;
+import ucar.ma2.StructureMembers;
 import ucar.nc2.VariableSimpleIF;
 import ucar.nc2.VariableSimpleImpl;
 import ucar.nc2.constants.FeatureType;
@@ -62,9 +62,11 @@ import ucar.nc2.ft2.coverage.CoverageCoordAxis;
 import ucar.nc2.ft2.coverage.CoverageCoordAxis1D;
 import ucar.nc2.ft2.coverage.CoverageCoordSys;
 import ucar.nc2.ft2.coverage.GeoReferencedArray;
+import ucar.nc2.ft2.coverage.HorizCoordSys;
 import ucar.nc2.ft2.coverage.SubsetParams;
 import ucar.nc2.time.CalendarDateUnit;
 import ucar.nc2.util.Misc;
+import ucar.nc2.util.Optional;
 import ucar.unidata.geoloc.LatLonPointImpl;
 import ucar.unidata.util.StringUtil2;
 
@@ -82,6 +84,8 @@ public class CoverageAsPoint {
   private SubsetParams subset;
   private LatLonPointImpl latLonPoint;
   private CalendarDateUnit dateUnit;
+  private CoverageCoordAxis1D timeAxis;
+  private ArrayStructureMA rows;
 
   private class VarData {
     Coverage cov;
@@ -107,11 +111,18 @@ public class CoverageAsPoint {
     if (latLonPoint == null)
       throw new IllegalArgumentException("No latlon point");
 
+    // resolve the point to a grid index once; the coverages share the HorizCoordSys, which keeps it for their reads
+    Optional<HorizCoordSys> horizo = gcd.getHorizCoordSys().subset(subset);
+    if (!horizo.isPresent())
+      throw new IllegalArgumentException("Point " + latLonPoint + " is not in the grid: " + horizo.getErrorMessage());
+
     varData = new ArrayList<>(varNames.size());
     for (String varName : varNames) {
       Coverage cov = gcd.findCoverage(varName); // LOOK we should read all at once if possible
       if (cov != null) {
-        varData.add(new VarData(cov));
+        VarData vd = new VarData(cov);
+        if (vd.array == null) continue;
+        varData.add(vd);
 
         if (dateUnit == null) { // assume all have the same time unit, just use the first one
           CoverageCoordSys csys = cov.getCoordSys();
@@ -120,6 +131,35 @@ public class CoverageAsPoint {
         }
       }
     }
+    this.rows = makeRows();
+  }
+
+  // The data at the point, one row for each time, with a column for each variable.
+  // The columns are the arrays that were read, so rows are not copied as they are iterated.
+  // A station time series has one value per time, so other axes (eg vertical) must be subset to a single value.
+  private ArrayStructureMA makeRows() {
+    StructureMembers members = new StructureMembers("Coords");
+    int nrows = 0;
+    for (VarData vd : varData) {
+      Array data = vd.array.getData();
+      if (debug) System.out.printf("%s shape=%s%n", vd.cov.getName(), Misc.showInts(data.getShape()));
+      if (timeAxis == null) { // assume they are all the same (!)
+        nrows = (int) data.getSize();
+        CoverageCoordSys csys = vd.array.getCoordSysForData();
+        timeAxis = (CoverageCoordAxis1D) csys.getTimeAxis();   // LOOK may not be right
+        if (timeAxis == null)
+          throw new IllegalArgumentException("Coverage " + vd.cov.getName() + " has no time axis");
+        if (nrows != timeAxis.getNcoords())
+          throw new IllegalArgumentException("Coverage " + vd.cov.getName() + " has " + nrows + " values at the point but "
+                  + timeAxis.getNcoords() + " times; subset the other axes (eg the vertical level) to a single value");
+      } else if (data.getSize() != nrows) {
+        throw new IllegalArgumentException("Coverage " + vd.cov.getName() + " has " + data.getSize() + " values at the point, expected " + nrows);
+      }
+
+      StructureMembers.Member m = members.addMember(vd.cov.getName(), null, null, vd.cov.getDataType(), new int[0]);
+      m.setDataArray(Array.factory(vd.cov.getDataType(), new int[]{nrows}, data.get1DJavaArray(vd.cov.getDataType())));
+    }
+    return new ArrayStructureMA(members, new int[]{nrows});
   }
 
   public FeatureDatasetPoint asFeatureDatasetPoint() {
@@ -177,38 +217,9 @@ public class CoverageAsPoint {
       return new TimeseriesIterator();
     }
 
-    private class VarIter {
-      Coverage cov;
-      GeoReferencedArray geoA;
-      IndexIterator dataIter;
-
-      public VarIter(Coverage cov, GeoReferencedArray array, IndexIterator dataIter) {
-        this.cov = cov;
-        this.geoA = array;
-        this.dataIter = dataIter;
-      }
-    }
-
     private class TimeseriesIterator extends PointIteratorAbstract {
       int curr = 0;
-      int nvalues;
-      List<VarIter> varIters;
-      CoverageCoordAxis1D timeAxis;
-
-      TimeseriesIterator() {
-        varIters = new ArrayList<>();
-        for (VarData vd : varData) {
-          Array data = vd.array.getData();
-          if (debug) System.out.printf("%s shape=%s%n", vd.cov.getName(), Misc.showInts(data.getShape()));
-          varIters.add(new VarIter(vd.cov, vd.array, data.getIndexIterator()));
-          nvalues = (int) data.getSize();
-
-          if (timeAxis == null) { // assume they are all the same (!)
-            CoverageCoordSys csys = vd.array.getCoordSysForData();
-            timeAxis = (CoverageCoordAxis1D) csys.getTimeAxis();   // LOOK may not be right
-          }
-        }
-      }
+      int nvalues = (int) rows.getSize();
 
       @Override
       public boolean hasNext() {
@@ -220,11 +231,7 @@ public class CoverageAsPoint {
       @Override
       public PointFeature next() {
         double obsTime = timeAxis.getCoordMidpoint(curr);
-
-        StructureDataScalar coords = new StructureDataScalar("Coords");
-        for (VarIter vi : varIters) {
-          coords.addMember(vi.cov.getName(), null, null, vi.cov.getDataType(), (Number) vi.dataIter.getObjectNext());
-        }
+        StructureData coords = rows.getStructureData(curr);
         curr++;
         PointFeature pf = new MyPointFeature(MyStationFeature.this, obsTime, 0.0, timeUnit, coords);
         calcBounds(pf);
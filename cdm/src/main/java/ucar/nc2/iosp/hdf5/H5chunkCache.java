@@ -0,0 +1,192 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.iosp.hdf5;
+
+import java.nio.ByteBuffer;
+import java.util.Formatter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded LRU cache of decoded (unfiltered) HDF5 data chunks, one per open file.
+ * Chunks are keyed by their file position, which is unique within a file.
+ * The chunks of all files are kept in one LRU list, so that the total bytes of all open files is also bounded;
+ * when over the total, the least recently used chunks of any file are evicted.
+ * Cached buffers are shared, callers must only use duplicates of them.
+ * Thread-safe, since chunks may be decoded on worker threads.
+ */
+class H5chunkCache {
+  // shared by all files
+  private static final Object lock = new Object();
+  private static final LinkedHashMap<Key, ByteBuffer> lru = new LinkedHashMap<>(16, 0.75f, true); // access order
+  private static long maxTotalBytes = H5iosp.DEFAULT_TOTAL_CHUNK_CACHE_BYTES;
+  private static long totalBytes;
+
+  /**
+   * Set the maximum total bytes of the cached chunks of all open files.
+   * @param maxBytes maximum total bytes; if less than what is now cached, chunks are evicted on the next put
+   */
+  static void setMaxTotalBytes(long maxBytes) {
+    synchronized (lock) {
+      maxTotalBytes = maxBytes;
+    }
+  }
+
+  static long getTotalBytes() {
+    synchronized (lock) {
+      return totalBytes;
+    }
+  }
+
+  private static class Key {
+    final H5chunkCache cache;
+    final long filePos;
+
+    Key(H5chunkCache cache, long filePos) {
+      this.cache = cache;
+      this.filePos = filePos;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key key = (Key) o;
+      return cache == key.cache && filePos == key.filePos;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(cache) + Long.hashCode(filePos);
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////
+
+  private final long maxBytes;
+  private long nbytes;
+  private int nchunks, hits, misses, evictions;
+
+  /**
+   * Constructor.
+   * @param maxBytes maximum total bytes of the cached chunks of this file
+   */
+  H5chunkCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Find a decoded chunk.
+   * @param filePos file position of the (filtered) chunk
+   * @return shared decoded chunk, or null if not in the cache
+   */
+  ByteBuffer get(long filePos) {
+    synchronized (lock) {
+      ByteBuffer bb = lru.get(new Key(this, filePos));
+      if (bb == null) misses++;
+      else hits++;
+      return bb;
+    }
+  }
+
+  /**
+   * Add a decoded chunk, evicting the least recently used ones as needed.
+   * @param filePos file position of the (filtered) chunk
+   * @param bb decoded chunk, must not be modified after this call
+   */
+  void put(long filePos, ByteBuffer bb) {
+    long size = bb.capacity();
+    synchronized (lock) {
+      if (size > maxBytes || size > maxTotalBytes) return;
+
+      Key key = new Key(this, filePos);
+      ByteBuffer prev = lru.put(key, bb);
+      if (prev != null) {
+        nbytes -= prev.capacity();
+        totalBytes -= prev.capacity();
+        nchunks--;
+      }
+      nbytes += size;
+      totalBytes += size;
+      nchunks++;
+
+      // oldest first: this file's chunks while this file is over its limit, any chunk while all files are over
+      Iterator<Map.Entry<Key, ByteBuffer>> iter = lru.entrySet().iterator();
+      while ((nbytes > maxBytes || totalBytes > maxTotalBytes) && iter.hasNext()) {
+        Map.Entry<Key, ByteBuffer> entry = iter.next();
+        H5chunkCache owner = entry.getKey().cache;
+        if (entry.getKey().equals(key)) continue;
+        if (owner != this && totalBytes <= maxTotalBytes) continue;
+        long esize = entry.getValue().capacity();
+        owner.nbytes -= esize;
+        owner.nchunks--;
+        owner.evictions++;
+        totalBytes -= esize;
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * Remove the chunks of this file.
+   */
+  void clear() {
+    synchronized (lock) {
+      if (nchunks == 0) return;
+      Iterator<Map.Entry<Key, ByteBuffer>> iter = lru.entrySet().iterator();
+      while (iter.hasNext()) {
+        Map.Entry<Key, ByteBuffer> entry = iter.next();
+        if (entry.getKey().cache != this) continue;
+        totalBytes -= entry.getValue().capacity();
+        iter.remove();
+      }
+      nbytes = 0;
+      nchunks = 0;
+    }
+  }
+
+  long getSizeBytes() {
+    synchronized (lock) {
+      return nbytes;
+    }
+  }
+
+  void showStats(Formatter f) {
+    synchronized (lock) {
+      f.format("H5chunkCache: nchunks=%d bytes=%d max=%d hits=%d misses=%d evictions=%d; all files bytes=%d max=%d%n",
+              nchunks, nbytes, maxBytes, hits, misses, evictions, totalBytes, maxTotalBytes);
+    }
+  }
+}
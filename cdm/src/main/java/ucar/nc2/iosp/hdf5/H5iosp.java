@@ -71,6 +71,9 @@ public class H5iosp extends AbstractIOServiceProvider {
   static boolean debugVlen = false;
   static boolean debugStructure = false;
   static boolean useHdfEos = true;
+  static public final long DEFAULT_CHUNK_CACHE_BYTES = 32 * 1000 * 1000;        // per open file
+  static public final long DEFAULT_TOTAL_CHUNK_CACHE_BYTES = 128 * 1000 * 1000; // all open files
+  static long chunkCacheBytes = DEFAULT_CHUNK_CACHE_BYTES;
 
   static private org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(H5iosp.class);
 
@@ -115,11 +118,34 @@ public class H5iosp extends AbstractIOServiceProvider {
     useHdfEos = val;
   }
 
+  /**
+   * Configure the decoding of filtered (eg deflated) chunks. Affects files opened after this call.
+   *
+   * @param nthreads   number of threads used to decode chunks, shared by all files;
+   *                   if <= 1 (the default), decode on the calling thread
+   * @param cacheBytes maximum bytes of decoded chunks kept for each open file; if <= 0, dont cache
+   *                   (default DEFAULT_CHUNK_CACHE_BYTES)
+   * @param totalCacheBytes maximum bytes of decoded chunks kept for all open files (default DEFAULT_TOTAL_CHUNK_CACHE_BYTES)
+   */
+  public static void setChunkDecoding(int nthreads, long cacheBytes, long totalCacheBytes) {
+    H5tiledLayoutBB.setDecodeThreads(nthreads);
+    chunkCacheBytes = cacheBytes;
+    H5chunkCache.setMaxTotalBytes(totalCacheBytes);
+  }
+
+  /**
+   * Release the chunk decoding threads.
+   */
+  public static void shutdown() {
+    H5tiledLayoutBB.shutdown();
+  }
+
   //////////////////////////////////////////////////////////////////////////////////
 
   //private RandomAccessFile raf;
   private H5header headerParser;
   private boolean isEos;
+  private H5chunkCache chunkCache; // decoded filtered chunks, may be null
   boolean includeOriginalAttributes = false;
 
   /////////////////////////////////////////////////////////////////////////////
@@ -129,6 +155,8 @@ public class H5iosp extends AbstractIOServiceProvider {
     super.open(raf, ncfile, cancelTask);
     headerParser = new H5header(this.raf, ncfile, this);
     headerParser.read(null);
+    if (chunkCacheBytes > 0)
+      chunkCache = new H5chunkCache(chunkCacheBytes);
 
     // check if its an HDF5-EOS file
     Group eosInfo = ncfile.getRootGroup().findGroup(HdfEos.HDF5_GROUP);
@@ -163,7 +191,7 @@ public class H5iosp extends AbstractIOServiceProvider {
       if (debugFilter) System.out.println("read variable filtered " + v2.getFullName() + " vinfo = " + vinfo);
       assert vinfo.isChunked;
       ByteOrder bo = (vinfo.typeInfo.endian == 0) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
-      layout = new H5tiledLayoutBB(v2, wantSection, raf, vinfo.mfp.getFilters(), bo);
+      layout = new H5tiledLayoutBB(v2, wantSection, raf, vinfo.mfp.getFilters(), bo, chunkCache);
       if (vinfo.typeInfo.isVString) {
         data = readFilteredStringData((LayoutBB) layout);
       } else{
@@ -584,6 +612,7 @@ public class H5iosp extends AbstractIOServiceProvider {
   public void close() throws IOException {
     super.close();
     headerParser.close();
+    if (chunkCache != null) chunkCache.clear();
   }
 
   @Override
@@ -613,6 +642,7 @@ public class H5iosp extends AbstractIOServiceProvider {
       H5header detailParser = new H5header(raf, ncfile, this);
       detailParser.read(pw);
       f.format("%s", super.getDetailInfo());
+      if (chunkCache != null) chunkCache.showStats(f);
       f.format("%s", os.toString(CDM.UTF8));
 
     } catch (IOException e) {
@@ -34,40 +34,106 @@ package ucar.nc2.iosp.hdf5;
 
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import ucar.ma2.DataType;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Section;
 import ucar.nc2.Variable;
 import ucar.nc2.iosp.LayoutBB;
 import ucar.nc2.iosp.LayoutBBTiled;
-import ucar.nc2.util.IO;
 import ucar.unidata.io.RandomAccessFile;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * Iterator to read/write subsets of an array.
  * This calculates byte offsets for HD5 chunked datasets.
  * Assumes that the data is stored in chunks, indexed by a Btree.
  * for filtered data
+ * <p>
+ * Chunks that intersect the wanted section are read from the file serially on the calling thread,
+ * then decoded (inflate, shuffle, fletcher32) on the calling thread, or, if H5iosp.setChunkDecoding() asked for
+ * more than one thread, concurrently on a shared, bounded pool, a few chunks ahead of the consumer.
+ * Decoded chunks are kept in the file's H5chunkCache, if any.
  *
  * @author caron
  */
 class H5tiledLayoutBB implements LayoutBB {
+  // Copied from ArrayList.
+  private static final int MAX_ARRAY_LEN = Integer.MAX_VALUE - 8;
+
+  // decoding is CPU bound; the pool is shared by all files, and is off by default
+  private static int nDecodeThreads = 1;
+  private static ExecutorService decodePool;
+
+  // each thread reuses its own Inflater and scratch buffer
+  private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+    protected Inflater initialValue() {
+      return new Inflater();
+    }
+  };
+  private static final ThreadLocal<byte[][]> scratch = new ThreadLocal<byte[][]>() {
+    protected byte[][] initialValue() {
+      return new byte[1][];
+    }
+  };
+
+  /**
+   * Set the number of threads used to decode filtered chunks.
+   * @param nthreads number of threads shared by all files; if <= 1 (the default), decode on the calling thread.
+   */
+  static synchronized void setDecodeThreads(int nthreads) {
+    if (nthreads == nDecodeThreads) return;
+    nDecodeThreads = nthreads;
+    if (decodePool != null) {
+      decodePool.shutdown();
+      decodePool = null;
+    }
+  }
+
+  private static synchronized ExecutorService getDecodePool() {
+    if (nDecodeThreads <= 1) return null;
+    if (decodePool == null) {
+      decodePool = Executors.newFixedThreadPool(nDecodeThreads,
+              new ThreadFactoryBuilder().setNameFormat("H5chunkDecoder-%d").setDaemon(true).build());
+    }
+    return decodePool;
+  }
+
+  /**
+   * Release the decoding threads.
+   */
+  static synchronized void shutdown() {
+    if (decodePool != null) {
+      decodePool.shutdown();
+      decodePool = null;
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////
+
   private LayoutBBTiled delegate;
 
   private RandomAccessFile raf;
   private H5header.Filter[] filters;
   private ByteOrder byteOrder;
-                                                                                                     
+  private H5chunkCache chunkCache; // may be null
+  private ExecutorService pool;    // may be null
+  private int readAhead;           // number of chunks to read and decode ahead of the consumer
+
   private Section want;
   private int[] chunkSize; // from the StorageLayout message (exclude the elemSize)
   private int elemSize; // last dimension of the StorageLayout message
   private int nChunkDims;
+  private int chunkBytes; // size of an unfiltered chunk, or -1 if too big
 
   private boolean debug = false;
 
@@ -79,10 +145,13 @@ class H5tiledLayoutBB implements LayoutBB {
    * @param wantSection the wanted section of data, contains a List of Range objects. must be complete
    * @param raf the RandomAccessFile
    * @param filters set of filters that have been applied to the data
+   * @param byteOrder byte order of the data
+   * @param chunkCache cache of decoded chunks for this file, may be null
    * @throws InvalidRangeException if section invalid for this variable
    * @throws java.io.IOException   on io error
    */
-  H5tiledLayoutBB(Variable v2, Section wantSection, RandomAccessFile raf, H5header.Filter[] filters, ByteOrder byteOrder) throws InvalidRangeException, IOException {
+  H5tiledLayoutBB(Variable v2, Section wantSection, RandomAccessFile raf, H5header.Filter[] filters, ByteOrder byteOrder,
+                  H5chunkCache chunkCache) throws InvalidRangeException, IOException {
     wantSection = Section.fill(wantSection, v2.getShape());
 
     H5header.Vinfo vinfo = (H5header.Vinfo) v2.getSPobject();
@@ -92,6 +161,9 @@ class H5tiledLayoutBB implements LayoutBB {
     this.raf = raf;
     this.filters = filters;
     this.byteOrder = byteOrder;
+    this.chunkCache = chunkCache;
+    this.pool = getDecodePool();
+    this.readAhead = (pool == null) ? 1 : 2 * nDecodeThreads;
 
     // we have to translate the want section into the same rank as the storageSize, in order to be able to call
     // Section.intersect(). It appears that storageSize (actually msl.chunkSize) may have an extra dimension, reletive
@@ -108,6 +180,10 @@ class H5tiledLayoutBB implements LayoutBB {
     System.arraycopy(vinfo.storageSize, 0, chunkSize, 0, nChunkDims);
     this.elemSize = vinfo.storageSize[vinfo.storageSize.length - 1]; // last one is always the elements size
 
+    long nbytes = 1;
+    for (int size : vinfo.storageSize) nbytes *= size;
+    this.chunkBytes = (nbytes > 0 && nbytes <= MAX_ARRAY_LEN) ? (int) nbytes : -1;
+
     // create the data chunk iterator
     DataBTree.DataChunkIterator iter = vinfo.btree.getDataChunkIteratorFilter(this.want);
     DataChunkIterator dcIter = new DataChunkIterator(iter);
@@ -145,27 +221,33 @@ class H5tiledLayoutBB implements LayoutBB {
     return sbuff.toString();
   }
 
+  // reads ahead, so that chunks are decoded while the consumer is copying out earlier chunks
   private class DataChunkIterator implements LayoutBBTiled.DataChunkIterator {
     DataBTree.DataChunkIterator delegate;
+    ArrayDeque<DataChunk> pending = new ArrayDeque<>();
 
     DataChunkIterator(DataBTree.DataChunkIterator delegate) {
       this.delegate = delegate;
     }
 
     public boolean hasNext() {
-      return delegate.hasNext();
+      return !pending.isEmpty() || delegate.hasNext();
     }
 
     public LayoutBBTiled.DataChunk next() throws IOException {
-      return new DataChunk(delegate.next());
+      while (pending.size() < readAhead && delegate.hasNext()) {
+        DataChunk dc = new DataChunk(delegate.next());
+        if (dc.intersects()) dc.start(); // the others are skipped by LayoutBBTiled
+        pending.add(dc);
+      }
+      return pending.remove();
     }
   }
 
   private class DataChunk implements ucar.nc2.iosp.LayoutBBTiled.DataChunk {
-    // Copied from ArrayList.
-    private static final int MAX_ARRAY_LEN = Integer.MAX_VALUE - 8;
-
     DataBTree.DataChunk delegate;
+    ByteBuffer decoded;          // set when decoded on the calling thread, or found in the cache
+    Future<ByteBuffer> future;   // set when decoding on the pool
 
     DataChunk(DataBTree.DataChunk delegate) {
       this.delegate = delegate;
@@ -200,61 +282,169 @@ class H5tiledLayoutBB implements LayoutBB {
       return offset;
     }
 
+    boolean intersects() {
+      try {
+        return new Section(getOffset(), chunkSize).intersects(want);
+      } catch (InvalidRangeException e) {
+        return true; // let LayoutBBTiled deal with it
+      }
+    }
+
+    // called on the calling thread: check the cache, else read the raw bytes and start the decoding
+    void start() throws IOException {
+      if (chunkCache != null)
+        decoded = chunkCache.get(delegate.filePos);
+      if (decoded != null) return;
+
+      final byte[] data = readRaw();
+      if (pool == null) {
+        decoded = decode(data);
+        return;
+      }
+
+      try {
+        future = pool.submit(new Callable<ByteBuffer>() {
+          public ByteBuffer call() throws IOException {
+            return decode(data);
+          }
+        });
+      } catch (RejectedExecutionException e) { // pool was shut down
+        decoded = decode(data);
+      }
+    }
+
     public ByteBuffer getByteBuffer() throws IOException {
+      if (decoded == null && future == null)
+        start();
+
+      ByteBuffer bb = decoded;
+      if (bb == null) {
+        try {
+          bb = future.get();
+        } catch (InterruptedException e) {
+          future.cancel(true);
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted decoding HDF5 chunk at " + delegate.filePos);
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof IOException) throw (IOException) cause;
+          if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+          if (cause instanceof Error) throw (Error) cause;
+          throw new IOException(cause);
+        }
+      }
+
+      // cached buffers are shared, so always hand out a duplicate
+      ByteBuffer result = bb.duplicate();
+      result.order(byteOrder);
+      return result;
+    }
+
+    private byte[] readRaw() throws IOException {
       try {
-        // read the data
         byte[] data = new byte[delegate.size];
         raf.seek(delegate.filePos);
         raf.readFully(data);
+        return data;
+      } catch (OutOfMemoryError e) {
+        throw outOfMemory(e);
+      }
+    }
 
-      // apply filters backwards
-      for (int i = filters.length - 1; i >= 0; i--) {
-        H5header.Filter f = filters[i];
-        if (isBitSet(delegate.filterMask, i)) {
-          if (debug) System.out.println("skip for chunk " + delegate);
-          continue;
+    // may be called on a pool thread: must not touch the raf
+    private ByteBuffer decode(byte[] data) throws IOException {
+      try {
+        int len = data.length; // only the first len bytes of data are valid
+
+        // apply filters backwards
+        for (int i = filters.length - 1; i >= 0; i--) {
+          H5header.Filter f = filters[i];
+          if (isBitSet(delegate.filterMask, i)) {
+            if (debug) System.out.println("skip for chunk " + delegate);
+            continue;
+          }
+          if (f.id == 1) {
+            boolean inPlace = (i > 0) && hasFilter(2, i - 1); // will be shuffled next, so use the scratch buffer
+            data = inflate(data, len, inPlace);
+            len = inflatedLen;
+          } else if (f.id == 2) {
+            data = shuffle(data, len, f.data[0]);
+          } else if (f.id == 3) {
+            len = checkfletcher32(len);
+          /* }  else if (f.id == 307) {
+            data = unbzip2(data); */
+          } else
+            throw new RuntimeException("Unknown filter type="+f.id);
         }
-        if (f.id == 1) {
-          data = inflate(data);
-        } else if (f.id == 2) {
-          data = shuffle(data, f.data[0]);
-        } else if (f.id == 3) {
-          data = checkfletcher32(data);
-        /* }  else if (f.id == 307) {
-          data = unbzip2(data); */
-        } else
-          throw new RuntimeException("Unknown filter type="+f.id);
-      }
 
-        ByteBuffer result = ByteBuffer.wrap(data);
-        result.order(byteOrder);
+        if (data == scratch.get()[0]) // never hand out the scratch buffer
+          data = Arrays.copyOf(data, len);
+
+        ByteBuffer result = ByteBuffer.wrap(data, 0, len).slice();
+        if (chunkCache != null)
+          chunkCache.put(delegate.filePos, result);
         return result;
+
       } catch (OutOfMemoryError e) {
-        Error oom =  new OutOfMemoryError("Ran out of memory trying to read HDF5 filtered chunk. Either increase the " +
-                "JVM's heap size (use the -Xmx switch) or reduce the size of the dataset's chunks (use nccopy -c).");
-        oom.initCause(e);  // OutOfMemoryError lacks a constructor with a cause parameter.
-        throw oom;
+        throw outOfMemory(e);
       }
     }
 
+    private Error outOfMemory(OutOfMemoryError e) {
+      Error oom =  new OutOfMemoryError("Ran out of memory trying to read HDF5 filtered chunk. Either increase the " +
+              "JVM's heap size (use the -Xmx switch) or reduce the size of the dataset's chunks (use nccopy -c).");
+      oom.initCause(e);  // OutOfMemoryError lacks a constructor with a cause parameter.
+      return oom;
+    }
+
+    // is filter id applied at or before index last, and not skipped for this chunk?
+    private boolean hasFilter(int id, int last) {
+      for (int i = last; i >= 0; i--)
+        if (filters[i].id == id && !isBitSet(delegate.filterMask, i)) return true;
+      return false;
+    }
+
+    private int inflatedLen;
+
     /**
-     * inflate data
+     * inflate data, reusing this thread's Inflater
      *
      * @param compressed compressed data
-     * @return uncompressed data
+     * @param len number of valid bytes in compressed
+     * @param useScratch inflate into this thread's scratch buffer, else into a new array
+     * @return uncompressed data, the number of valid bytes is in inflatedLen
      * @throws IOException on I/O error
      */
-    private byte[] inflate(byte[] compressed) throws IOException {
-      // run it through the Inflator
-      ByteArrayInputStream in = new ByteArrayInputStream(compressed);
-      java.util.zip.InflaterInputStream inflater = new java.util.zip.InflaterInputStream(in);
-      ByteArrayOutputStream out = new ByteArrayOutputStream(
-              Math.min(8 * compressed.length, MAX_ARRAY_LEN));  // Fixes KXL-349288
-      IO.copy(inflater, out);
-
-      byte[] uncomp = out.toByteArray();
-      if (debug) System.out.println(" inflate bytes in= " + compressed.length + " bytes out= " + uncomp.length);
-      return uncomp;
+    private byte[] inflate(byte[] compressed, int len, boolean useScratch) throws IOException {
+      int size = (chunkBytes > 0) ? chunkBytes : Math.min(8 * len, MAX_ARRAY_LEN);  // Fixes KXL-349288
+      byte[][] scratchHolder = scratch.get();
+      byte[] out = useScratch ? scratchHolder[0] : null;
+      if (out == null || out.length < size) out = new byte[size];
+
+      Inflater inflater = inflaters.get();
+      inflater.reset();
+      inflater.setInput(compressed, 0, len);
+      int total = 0;
+      try {
+        while (!inflater.finished()) {
+          if (total == out.length) { // chunk is bigger than expected
+            if (out.length >= MAX_ARRAY_LEN)
+              throw new IOException("Inflated HDF5 chunk exceeds max array length");
+            out = Arrays.copyOf(out, (int) Math.min(2L * out.length, MAX_ARRAY_LEN));
+          }
+          int n = inflater.inflate(out, total, out.length - total);
+          if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+            throw new IOException("Unexpected end of ZLIB input in HDF5 chunk at " + delegate.filePos);
+          total += n;
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("Failed to inflate HDF5 chunk at " + delegate.filePos, e);
+      }
+
+      if (useScratch) scratchHolder[0] = out;
+      inflatedLen = total;
+      if (debug) System.out.println(" inflate bytes in= " + len + " bytes out= " + total);
+      return out;
     }
 
     /* private byte[] unbzip2(byte[] compressed) throws IOException {
@@ -278,25 +468,23 @@ class H5tiledLayoutBB implements LayoutBB {
       return out.toByteArray();
      } */
 
-     // just strip off the 4-byte fletcher32 checksum at the end
-    private byte[] checkfletcher32(byte[] org) throws IOException {
-      byte[] result = new byte[org.length-4];
-      System.arraycopy(org, 0, result, 0, result.length);
-      if (debug) System.out.println(" checkfletcher32 bytes in= " + org.length + " bytes out= " + result.length);
-      return result;
+    // just strip off the 4-byte fletcher32 checksum at the end, no copy needed
+    private int checkfletcher32(int len) throws IOException {
+      if (debug) System.out.println(" checkfletcher32 bytes in= " + len + " bytes out= " + (len - 4));
+      return len - 4;
     }
 
-    private byte[] shuffle(byte[] data, int n) throws IOException {
-      if (debug) System.out.println(" shuffle bytes in= " + data.length + " n= " + n);
+    private byte[] shuffle(byte[] data, int len, int n) throws IOException {
+      if (debug) System.out.println(" shuffle bytes in= " + len + " n= " + n);
 
-      assert data.length % n == 0;
+      assert len % n == 0;
       if (n <= 1) return data;
 
-      int m = data.length / n;
+      int m = len / n;
       int[] count = new int[n];
       for (int k = 0; k < n; k++) count[k] = k * m;
 
-      byte[] result = new byte[data.length];
+      byte[] result = new byte[len];
       /* for (int i = 0; i < data.length; i += n) {
         for (int k = 0; k < n; k++) {
           result[count[k]++] = data[i + k];
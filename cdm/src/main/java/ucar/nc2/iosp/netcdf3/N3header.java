@@ -49,7 +49,7 @@ import java.io.IOException;
 
 public class N3header {
   static private org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(N3header.class);
-  static private final long MAX_UNSIGNED_INT = 0x00000000ffffffffL;
+  static final long MAX_UNSIGNED_INT = 0x00000000ffffffffL;
 
   static final byte[] MAGIC = new byte[]{0x43, 0x44, 0x46, 0x01};
   static final byte[] MAGIC_LONG = new byte[]{0x43, 0x44, 0x46, 0x02}; // 64-bit offset format : only affects the variable offset value
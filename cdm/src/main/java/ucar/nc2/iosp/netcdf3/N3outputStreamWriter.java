@@ -112,20 +112,40 @@ public class N3outputStreamWriter extends N3streamWriter {
     }
   }
 
+  /**
+   * Write the data of a non-record variable, all at once or in consecutive pieces in index order.
+   * Variables must be written in the order they are in the file. The padding is written after the last piece.
+   *
+   * @param v      write data for this variable
+   * @param stream write to this stream
+   * @param data   all of the variable's data, or the next piece of it
+   * @throws IOException on write error
+   */
   public void writeNonRecordData(Variable v, DataOutputStream stream, Array data) throws IOException {
     Vinfo vinfo = vinfoMap.get(v);
     if (debugWriteData)
       System.out.println("Write " + v.getFullName() + " at filePos= " + filePos + " vinfo.offset= " + vinfo.offset);
-    if (filePos != vinfo.offset) throw new IllegalStateException();
+    long end = vinfo.offset + vinfo.vsize - vinfo.pad; // end of the data
+    if (filePos < vinfo.offset || filePos >= end)
+      throw new IllegalStateException("Write " + v.getFullName() + " at filePos= " + filePos + " vinfo.offset= " + vinfo.offset);
 
     filePos += writeData(v, stream, data);
-    if (vinfo.pad > 0) {
+    if (filePos > end)
+      throw new IllegalStateException("Wrote past the end of " + v.getFullName());
+    if (filePos == end && vinfo.pad > 0) {
       byte[] dummy = new byte[vinfo.pad];
       stream.write(dummy);
       filePos += vinfo.pad;
     }
   }
 
+  /**
+   * @return number of bytes written so far, including the header
+   */
+  public long getFilePos() {
+    return filePos;
+  }
+
   private int recno = 0;
   private boolean first = true;
 
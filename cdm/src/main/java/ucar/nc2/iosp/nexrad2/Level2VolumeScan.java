@@ -41,9 +41,15 @@ import static ucar.nc2.iosp.nexrad2.Level2Record.REFLECTIVITY_HIGH;
 import static ucar.nc2.iosp.nexrad2.Level2Record.VELOCITY_HIGH ;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
 
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import ucar.unidata.io.InMemoryRandomAccessFile;
 import ucar.unidata.io.bzip2.CBZip2InputStream;
 import ucar.unidata.io.bzip2.BZip2ReadException;
 
@@ -56,6 +62,10 @@ import ucar.unidata.io.bzip2.BZip2ReadException;
  * Documentation on Archive Level II data format can be found at:
  * <a href="http://www.ncdc.noaa.gov/oa/radar/leveliidoc.html">
  * http://www.ncdc.noaa.gov/oa/radar/leveliidoc.html</a>
+ * <p/>
+ * Compressed files are made of independent bzip2 blocks. By default the blocks are uncompressed one at a time
+ * into a DiskCache file. With a concurrency greater than one, the blocks are uncompressed on a shared pool and
+ * written out in order. If uncompressInMemory is set, the uncompressed file is kept in memory instead of on disk.
  *
  * @author caron
  * @author David Priegnitz
@@ -72,6 +82,54 @@ public class Level2VolumeScan {
   static public final String AR2V0007 = "AR2V0007";
 
   static private org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(Level2VolumeScan.class);
+
+  // parallel uncompress is off unless asked for; the pool is shared by all volume scans
+  private static int defaultConcurrency = 1;
+  private static boolean uncompressInMemory = false;
+  private static ExecutorService uncompressPool;
+
+  /**
+   * Set the number of bzip2 blocks uncompressed concurrently for one file. 1 (the default) uncompresses serially.
+   * @param n concurrency cap per file
+   */
+  public static synchronized void setDefaultConcurrency(int n) {
+    defaultConcurrency = Math.max(1, n);
+  }
+
+  public static synchronized int getDefaultConcurrency() {
+    return defaultConcurrency;
+  }
+
+  /**
+   * Keep uncompressed files in memory, rather than writing them to the DiskCache.
+   * @param b true to uncompress into memory; false (the default) uses the DiskCache.
+   */
+  public static synchronized void setUncompressInMemory(boolean b) {
+    uncompressInMemory = b;
+  }
+
+  public static synchronized boolean getUncompressInMemory() {
+    return uncompressInMemory;
+  }
+
+  private static synchronized ExecutorService getUncompressPool() {
+    if (uncompressPool == null) {
+      uncompressPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+              new ThreadFactoryBuilder().setNameFormat("Level2VolumeScan-%d").setDaemon(true).build());
+    }
+    return uncompressPool;
+  }
+
+  /**
+   * Stop the shared uncompress pool. Later files will start a new one.
+   */
+  public static synchronized void shutdown() {
+    if (uncompressPool != null) {
+      uncompressPool.shutdown();
+      uncompressPool = null;
+    }
+  }
+
   ////////////////////////////////////////////////////////////////////////////////////
 
   // Data file
@@ -149,7 +207,14 @@ public class Level2VolumeScan {
             || dataFormat.equals(AR2V0004) || dataFormat.equals(AR2V0006)  || dataFormat.equals(AR2V0007) ) {
       raf.skipBytes(4);
       String BZ = raf.readString(2);
-      if (BZ.equals("BZ")) {
+      if (BZ.equals("BZ") && getUncompressInMemory()) {
+        // uncompress into memory, no DiskCache file
+        RandomAccessFile uraf = uncompressInMemory(raf);
+        raf.close();
+        raf = uraf;
+        raf.order(RandomAccessFile.BIG_ENDIAN);
+
+      } else if (BZ.equals("BZ")) {
         RandomAccessFile uraf = null;
         File uncompressedFile = DiskCache.getFileStandardPolicy(raf.getLocation() + ".uncompress");
 
@@ -668,85 +733,7 @@ public class Level2VolumeScan {
     }
 
     try {
-        inputRaf.seek(0);
-        byte[] header = new byte[Level2Record.FILE_HEADER_SIZE];
-        int bytesRead = inputRaf.read(header);
-        if (bytesRead != header.length)
-        {
-            throw new IOException("Error reading NEXRAD2 header -- got " +
-                    bytesRead + " rather than" + header.length);
-        }
-        outputRaf.write(header);
-
-        boolean eof = false;
-        int numCompBytes;
-        byte[] ubuff = new byte[40000];
-        byte[] obuff = new byte[40000];
-
-        CBZip2InputStream cbzip2 = new CBZip2InputStream();
-        while (!eof) {
-            try {
-                numCompBytes = inputRaf.readInt();
-                if (numCompBytes == -1) {
-                    if (log.isDebugEnabled())
-                        log.debug("  done: numCompBytes=-1 ");
-                    break;
-                }
-            } catch (EOFException ee) {
-                log.debug("got EOFException");
-                break; // assume this is ok
-            }
-
-            if (log.isDebugEnabled()) {
-                log.debug("reading compressed bytes " + numCompBytes + " input starts at " + inputRaf.getFilePointer() + "; output starts at " + outputRaf.getFilePointer());
-
-            }
-          /*
-          * For some stupid reason, the last block seems to
-          * have the number of bytes negated.  So, we just
-          * assume that any negative number (other than -1)
-          * is the last block and go on our merry little way.
-          */
-            if (numCompBytes < 0) {
-                if (log.isDebugEnabled())
-                    log.debug("last block?" + numCompBytes);
-                numCompBytes = -numCompBytes;
-                eof = true;
-            }
-            byte[] buf = new byte[numCompBytes];
-            inputRaf.readFully(buf);
-            ByteArrayInputStream bis = new ByteArrayInputStream(buf, 2,
-                    numCompBytes - 2);
-
-            //CBZip2InputStream cbzip2 = new CBZip2InputStream(bis);
-            cbzip2.setStream(bis);
-            int total = 0;
-            int nread;
-          /*
-          while ((nread = cbzip2.read(ubuff)) != -1) {
-            dout2.write(ubuff, 0, nread);
-            total += nread;
-          }
-          */
-            try {
-                while ((nread = cbzip2.read(ubuff)) != -1) {
-                    if (total + nread > obuff.length) {
-                        byte[] temp = obuff;
-                        obuff = new byte[temp.length * 2];
-                        System.arraycopy(temp, 0, obuff, 0, temp.length);
-                    }
-                    System.arraycopy(ubuff, 0, obuff, total, nread);
-                    total += nread;
-                }
-                if (obuff.length >= 0) outputRaf.write(obuff, 0, total);
-            } catch (BZip2ReadException ioe) {
-                log.warn("Nexrad2IOSP.uncompress ", ioe);
-            }
-            float nrecords = (float) (total / 2432.0);
-            if (log.isDebugEnabled())
-                log.debug("  unpacked " + total + " num bytes " + nrecords + " records; ouput ends at " + outputRaf.getFilePointer());
-        }
-
+        uncompress(inputRaf, outputRaf);
         outputRaf.flush();
     } catch (IOException e) {
         if (outputRaf != null) outputRaf.close();
@@ -771,6 +758,213 @@ public class Level2VolumeScan {
     return outputRaf;
   }
 
+  /**
+   * Make an in-memory uncompressed version of the file.
+   *
+   * @param inputRaf file to uncompress
+   * @return raf of uncompressed file, with the same location as inputRaf
+   * @throws IOException on read error
+   */
+  private RandomAccessFile uncompressInMemory(RandomAccessFile inputRaf) throws IOException {
+    byte[] header = readHeader(inputRaf);
+    byte[][] ubuffs = uncompressAll(readCompressedBlocks(inputRaf));
+
+    // the uncompressed sizes are known, so the file is copied once into a buffer of exactly its size
+    long size = header.length;
+    for (byte[] ubuff : ubuffs)
+      if (ubuff != null) size += ubuff.length;
+    if (size > Integer.MAX_VALUE - 8)
+      throw new IOException("Uncompressed NEXRAD2 file " + inputRaf.getLocation() + " is too large to keep in memory: " + size + " bytes");
+
+    byte[] result = new byte[(int) size];
+    System.arraycopy(header, 0, result, 0, header.length);
+    int pos = header.length;
+    for (byte[] ubuff : ubuffs) {
+      if (ubuff == null) continue;
+      System.arraycopy(ubuff, 0, result, pos, ubuff.length);
+      pos += ubuff.length;
+    }
+    return new InMemoryRandomAccessFile(inputRaf.getLocation(), result);
+  }
+
+  // write the header and the uncompressed blocks, in order
+  private void uncompress(RandomAccessFile inputRaf, DataOutput out) throws IOException {
+    out.write(readHeader(inputRaf));
+
+    List<byte[]> blocks = readCompressedBlocks(inputRaf);
+    if (Math.min(getDefaultConcurrency(), blocks.size()) <= 1) {
+      // one block at a time, so only one is in memory
+      BlockUncompressor uncompressor = new BlockUncompressor();
+      for (byte[] block : blocks) {
+        byte[] ubuff = uncompressor.uncompress(block);
+        if (ubuff != null) out.write(ubuff);
+      }
+
+    } else {
+      for (byte[] ubuff : uncompressAll(blocks)) {
+        if (ubuff != null) out.write(ubuff);
+      }
+    }
+  }
+
+  private byte[] readHeader(RandomAccessFile inputRaf) throws IOException {
+    inputRaf.seek(0);
+    byte[] header = new byte[Level2Record.FILE_HEADER_SIZE];
+    int bytesRead = inputRaf.read(header);
+    if (bytesRead != header.length)
+    {
+        throw new IOException("Error reading NEXRAD2 header -- got " +
+                bytesRead + " rather than" + header.length);
+    }
+    return header;
+  }
+
+  // the uncompressed blocks in order, null for a bad block
+  private byte[][] uncompressAll(List<byte[]> blocks) throws IOException {
+    int concurrency = Math.min(getDefaultConcurrency(), blocks.size());
+    if (concurrency > 1)
+      return uncompressConcurrent(blocks, concurrency);
+
+    byte[][] result = new byte[blocks.size()][];
+    uncompressBlocks(blocks, result, new AtomicInteger());
+    return result;
+  }
+
+  // read the compressed blocks, without the 4 byte length
+  private List<byte[]> readCompressedBlocks(RandomAccessFile inputRaf) throws IOException {
+    List<byte[]> blocks = new ArrayList<>();
+    boolean eof = false;
+    int numCompBytes;
+    while (!eof) {
+        try {
+            numCompBytes = inputRaf.readInt();
+            if (numCompBytes == -1) {
+                if (log.isDebugEnabled())
+                    log.debug("  done: numCompBytes=-1 ");
+                break;
+            }
+        } catch (EOFException ee) {
+            log.debug("got EOFException");
+            break; // assume this is ok
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("reading compressed bytes " + numCompBytes + " input starts at " + inputRaf.getFilePointer());
+        }
+      /*
+      * For some stupid reason, the last block seems to
+      * have the number of bytes negated.  So, we just
+      * assume that any negative number (other than -1)
+      * is the last block and go on our merry little way.
+      */
+        if (numCompBytes < 0) {
+            if (log.isDebugEnabled())
+                log.debug("last block?" + numCompBytes);
+            numCompBytes = -numCompBytes;
+            eof = true;
+        }
+        byte[] buf = new byte[numCompBytes];
+        inputRaf.readFully(buf);
+        blocks.add(buf);
+    }
+    return blocks;
+  }
+
+  /*
+   * Uncompress the blocks on the shared pool. The calling thread also works, so the file is finished
+   * even when the pool is busy. Results are kept in block order.
+   */
+  private byte[][] uncompressConcurrent(final List<byte[]> blocks, int concurrency) throws IOException {
+    final byte[][] result = new byte[blocks.size()][];
+    final AtomicInteger next = new AtomicInteger();
+
+    List<Future<Void>> futures = new ArrayList<>(concurrency);
+    List<AtomicBoolean> started = new ArrayList<>(concurrency);
+    IOException failure = null;
+    try {
+      ExecutorService pool = getUncompressPool();
+      for (int i = 1; i < concurrency; i++) {
+        final AtomicBoolean claim = new AtomicBoolean();
+        futures.add(pool.submit(new Callable<Void>() {
+          public Void call() throws IOException {
+            if (claim.compareAndSet(false, true)) // else the file is already done
+              uncompressBlocks(blocks, result, next);
+            return null;
+          }
+        }));
+        started.add(claim);
+      }
+    } catch (RejectedExecutionException e) {
+      // pool was shut down; the calling thread does the rest
+    }
+
+    try {
+      uncompressBlocks(blocks, result, next);
+    } catch (IOException e) {
+      failure = e;
+    } finally {
+      next.set(blocks.size()); // on failure, stop the other workers after their current block
+    }
+
+    // wait for the workers, so every block is in place when we return
+    for (int i = 0; i < futures.size(); i++) {
+      if (started.get(i).compareAndSet(false, true)) continue; // never started, and now never will
+      try {
+        futures.get(i).get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        if (failure == null) failure = new InterruptedIOException("Level2VolumeScan uncompress interrupted");
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        Throwables.propagateIfPossible(cause, IOException.class);
+        if (failure == null) failure = new IOException(cause);
+      }
+    }
+    if (failure != null) throw failure;
+    return result;
+  }
+
+  // may be called on a pool thread
+  private void uncompressBlocks(List<byte[]> blocks, byte[][] result, AtomicInteger next) throws IOException {
+    BlockUncompressor uncompressor = new BlockUncompressor();
+    int i;
+    while ((i = next.getAndIncrement()) < blocks.size()) {
+      result[i] = uncompressor.uncompress(blocks.get(i));
+    }
+  }
+
+  // reuses its buffers and bzip2 decoder from block to block; not thread safe
+  private static class BlockUncompressor {
+    private final CBZip2InputStream cbzip2 = new CBZip2InputStream();
+    private final byte[] ubuff = new byte[40000];
+    private byte[] obuff = new byte[40000];
+
+    // return null if the block is bad
+    byte[] uncompress(byte[] buf) throws IOException {
+      ByteArrayInputStream bis = new ByteArrayInputStream(buf, 2, buf.length - 2);
+      cbzip2.setStream(bis);
+      int total = 0;
+      int nread;
+      try {
+          while ((nread = cbzip2.read(ubuff)) != -1) {
+              if (total + nread > obuff.length) {
+                  byte[] temp = obuff;
+                  obuff = new byte[temp.length * 2];
+                  System.arraycopy(temp, 0, obuff, 0, temp.length);
+              }
+              System.arraycopy(ubuff, 0, obuff, total, nread);
+              total += nread;
+          }
+      } catch (BZip2ReadException ioe) {
+          log.warn("Nexrad2IOSP.uncompress ", ioe);
+          return null;
+      }
+      if (log.isDebugEnabled())
+          log.debug("  unpacked " + total + " num bytes " + (total / 2432.0f) + " records");
+      return Arrays.copyOf(obuff, total);
+    }
+  }
+
   // check if compressed file seems ok
   static public long testValid(String ufilename) throws IOException {
     boolean lookForHeader = false;
@@ -32,6 +32,7 @@
  */
 package ucar.nc2.ncml;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.jdom2.Element;
 import thredds.filesystem.MFileOS;
 import thredds.filesystem.MFileOS7;
@@ -60,6 +61,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Superclass for NcML Aggregation.
@@ -132,12 +135,65 @@ public abstract class Aggregation {
       diskCache2.setAlwaysUseCache(true); // the persistence cache file has same name as the ncml - must put it into the cache else clobber ncml  7/31/2014
   }
 
-  // experimental multithreading
-  static protected Executor executor;
-  static public void setExecutor(Executor exec) {
+  // member reads of joinNew and joinExisting aggregations; serial unless asked for
+  static private int defaultConcurrency = 1;
+  static private int readThreads = 16;
+  static private ExecutorService readPool;
+  static protected Executor executor; // if set, used instead of readPool
+
+  /**
+   * Use this Executor for concurrent member reads, instead of the shared pool.
+   * It should be bounded; the number of reads per aggregation is still limited by the concurrency.
+   *
+   * @param exec executor, or null to use the shared pool
+   */
+  static public synchronized void setExecutor(Executor exec) {
     executor = exec;
   }
 
+  /**
+   * Set the default number of member files that one aggregation reads at once.
+   * Only joinNew and joinExisting aggregations read members concurrently.
+   *
+   * @param n concurrency cap per aggregation; if <= 1, members are read in turn on the calling thread.
+   */
+  static public synchronized void setDefaultConcurrency(int n) {
+    defaultConcurrency = Math.max(1, n);
+  }
+
+  static public synchronized int getDefaultConcurrency() {
+    return defaultConcurrency;
+  }
+
+  /**
+   * Set the number of threads in the shared pool used for concurrent member reads, for all aggregations.
+   * Takes effect the next time the pool is started.
+   *
+   * @param nthreads number of threads, at least 1
+   */
+  static public synchronized void setReadThreads(int nthreads) {
+    readThreads = Math.max(1, nthreads);
+  }
+
+  static protected synchronized Executor getReadExecutor() {
+    if (executor != null) return executor;
+    if (readPool == null) {
+      readPool = Executors.newFixedThreadPool(readThreads,
+              new ThreadFactoryBuilder().setNameFormat("AggregationReader-%d").setDaemon(true).build());
+    }
+    return readPool;
+  }
+
+  /**
+   * Stop the shared read pool. Later concurrent reads will start a new one.
+   */
+  static public synchronized void shutdown() {
+    if (readPool != null) {
+      readPool.shutdown();
+      readPool = null;
+    }
+  }
+
   static public void setTypicalDatasetMode(String mode) {
     if (mode.equalsIgnoreCase("random"))
       typicalDatasetMode = TypicalDataset.RANDOM;
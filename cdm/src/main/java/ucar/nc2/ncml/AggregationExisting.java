@@ -34,15 +34,8 @@
 package ucar.nc2.ncml;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
-import java.nio.channels.OverlappingFileLockException;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -262,6 +255,7 @@ public class AggregationExisting extends AggregationOuterDimension {
 
   /**
    * Persist info (ncoords, coordValues) from joinExisting, since that can be expensive to recreate.
+   * Only members that are new or have changed since the index was last written are added to it.
    *
    * @throws IOException
    */
@@ -273,88 +267,46 @@ public class AggregationExisting extends AggregationOuterDimension {
     if (cacheName == null) return;
     if (cacheName.startsWith("file:"))      // LOOK
       cacheName = cacheName.substring(5);
-    File cacheFile = diskCache2.getCacheFile(cacheName);
-    if (cacheFile == null) throw new IllegalStateException();
+    File indexFile = diskCache2.getCacheFile(cacheName + JoinExistingIndex.SUFFIX);
+    if (indexFile == null) throw new IllegalStateException();
 
-    // only write out if something changed after the cache file was last written, or if the file has been deleted
-    if (!cacheDirty && cacheFile.exists())
+    // only write out if something changed after the index was last written, or if the file has been deleted
+    if (!cacheDirty && indexFile.exists())
       return;
 
-    FileChannel channel = null;
-    try {
-      File dir = cacheFile.getParentFile();
-      if (!dir.exists()) {
-        if (!dir.mkdirs())
-          logger.error("Cant make cache directory= " + cacheFile);
+    List<JoinExistingIndex.Member> members = new ArrayList<>();
+    for (Dataset dataset : getDatasets()) {
+      DatasetOuterDimension dod = (DatasetOuterDimension) dataset;
+      if (dod.getId() == null) {
+        logger.warn("id is null");
+        continue;
       }
 
-      // Get a file channel for the file
-      FileOutputStream fos = new FileOutputStream(cacheFile);
-      channel = fos.getChannel();
-
-      // Try acquiring the lock without blocking. This method returns
-      // null or throws an exception if the file is already locked.
-      FileLock lock;
-      try {
-        lock = channel.tryLock();
-      } catch (OverlappingFileLockException e) {
-        // File is already locked in this thread or virtual machine
-        return; // give up
-      }
-      if (lock == null) return;
-
-      PrintWriter out = new PrintWriter(new OutputStreamWriter(fos, CDM.utf8Charset));
-      out.print("<?xml version='1.0' encoding='UTF-8'?>\n");
-      out.print("<aggregation xmlns='http://www.unidata.ucar.edu/namespaces/netcdf/ncml-2.2' version='3' ");
-      out.print("type='" + type + "' ");
-      if (dimName != null)
-        out.print("dimName='" + dimName + "' ");
-      if (datasetManager.getRecheck() != null)
-        out.print("recheckEvery='" + datasetManager.getRecheck() + "' ");
-      out.print(">\n");
-
-      List<Dataset> nestedDatasets = getDatasets();
-      for (Dataset dataset : nestedDatasets) {
-        DatasetOuterDimension dod = (DatasetOuterDimension) dataset;
-        if (dod.getId() == null) logger.warn("id is null");
-
-        out.print("  <netcdf id='" + dod.getId() + "' ");
-        out.print("ncoords='" + dod.getNcoords(null) + "' >\n");
-
-        for (CacheVar pv : cacheList) {
-          Array data = pv.getData(dod.getId());
-          if (data != null) {
-            out.print("    <cache varName='" + pv.varName + "' >");
-            while (data.hasNext())
-              out.printf("%s ", data.next());
-            out.print("</cache>\n");
-            if (logger.isDebugEnabled())
-              logger.debug(" wrote array = " + pv.varName + " nelems= " + data.getSize() + " for " + dataset.getLocation());
-          }
-        }
-        out.print("  </netcdf>\n");
+      MFile mfile = dod.getMFile();
+      JoinExistingIndex.Member member = new JoinExistingIndex.Member(dod.getId(),
+              (mfile == null) ? 0 : mfile.getLastModified(), dod.getNcoords(null));
+      for (CacheVar pv : cacheList) {
+        Array data = pv.getData(dod.getId());
+        if (data != null)
+          member.data.put(pv.varName, data);
       }
+      members.add(member);
+    }
 
-      out.print("</aggregation>\n");
-      out.close(); // this also closes the  channel and releases the lock
-
-      long time = datasetManager.getLastScanned();
-      if (time == 0) time = System.currentTimeMillis(); // no scans (eg all static) will have a 0
-
-      if (!cacheFile.setLastModified(time))
-        logger.warn("FAIL to set lastModified on {}", cacheFile.getPath());
-      cacheDirty = false;
+    if (!JoinExistingIndex.update(indexFile, members))
+      return; // someone else is writing it
+    cacheDirty = false;
 
-      if (logger.isDebugEnabled())
-        logger.debug("Aggregation persisted = " + cacheFile.getPath() + " lastModified= " + new Date(datasetManager.getLastScanned()));
+    // superseded by the index
+    File xmlFile = diskCache2.getCacheFile(cacheName);
+    if (xmlFile != null && xmlFile.exists() && !xmlFile.delete())
+      logger.warn("FAIL to delete old cache file {}", xmlFile.getPath());
 
-    } finally {
-      if (channel != null)
-        channel.close();
-    }
+    if (logger.isDebugEnabled())
+      logger.debug("Aggregation persisted = " + indexFile.getPath() + " nmembers= " + members.size());
   }
 
-  // read info from the persistent XML file, if it exists
+  // read info from the persistent index, if it exists
   protected void persistRead() {
     if (diskCache2 == null) return;
 
@@ -363,6 +315,66 @@ public class AggregationExisting extends AggregationOuterDimension {
     if (cacheName.startsWith("file:"))      // LOOK
       cacheName = cacheName.substring(5);
 
+    File indexFile = diskCache2.getCacheFile(cacheName + JoinExistingIndex.SUFFIX);
+    if (indexFile == null) throw new IllegalStateException();
+
+    JoinExistingIndex index = null;
+    try {
+      index = JoinExistingIndex.open(indexFile);
+    } catch (IOException e) {
+      logger.warn("Error reading aggregation index " + indexFile.getPath(), e);
+    }
+
+    if (index != null)
+      persistRead(index);
+    else
+      persistReadXml(cacheName); // written by an older version
+  }
+
+  private void persistRead(JoinExistingIndex index) {
+    for (Dataset ds : getDatasets()) {
+      DatasetOuterDimension dod = (DatasetOuterDimension) ds;
+      String id = dod.getId();
+      if (id == null || !index.contains(id)) continue;
+
+      JoinExistingIndex.Member member = index.find(id);
+      MFile mfile = dod.getMFile();
+      if (mfile != null && mfile.getLastModified() != member.lastModified) {  // skip datasets that have changed
+        if (logger.isDebugEnabled()) logger.debug(" dataset was changed= {}", mfile);
+        continue;
+      }
+      if (logger.isDebugEnabled()) logger.debug(" use cache for dataset= {}", id);
+
+      if (dod.ncoord == 0)
+        dod.ncoord = member.ncoords;
+
+      for (Map.Entry<String, Array> entry : member.data.entrySet()) {
+        CacheVar pv = findCacheVariable(entry.getKey());
+        if (pv == null) {
+          logger.warn("not a cache var=" + entry.getKey());
+          continue;
+        }
+
+        try {
+          Array data = entry.getValue();
+          if (data.getDataType() == DataType.STRING && pv.dtype != DataType.STRING) {
+            String[] vals = new String[(int) data.getSize()];
+            for (int i = 0; i < vals.length; i++)
+              vals[i] = (String) data.getObject(i);
+            data = Array.makeArray(pv.dtype, vals);
+          }
+          pv.putData(id, data);
+          countCacheUse++;
+
+        } catch (Exception e) {
+          logger.warn("Error reading cached data ", e);
+        }
+      }
+    }
+  }
+
+  // read info from the persistent XML file, if it exists
+  private void persistReadXml(String cacheName) {
     File cacheFile = diskCache2.getCacheFile(cacheName);
     if (cacheFile == null) throw new IllegalStateException();
     if (!cacheFile.exists())
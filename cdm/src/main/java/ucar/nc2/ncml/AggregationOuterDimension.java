@@ -42,11 +42,10 @@ import ucar.nc2.units.DateUnit;
 import ucar.nc2.util.CancelTask;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.*;
-import java.util.concurrent.Callable;
-import java.util.concurrent.CompletionService;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Superclass for Aggregations on the outer dimension: joinNew, joinExisting, Fmrc, FmrcSingle
@@ -66,6 +65,9 @@ public abstract class AggregationOuterDimension extends Aggregation implements P
   protected List<CacheVar> cacheList = new ArrayList<CacheVar>(); // promote global attribute to variable
   protected boolean timeUnitsChange = false;
 
+  private int concurrency = getDefaultConcurrency(); // member reads in flight at once, for all readers of this agg
+  private Semaphore readPermits;                      // lazy, has concurrency permits
+
   /**
    * Create an Aggregation for the given NetcdfDataset.
    * The following addXXXX methods are called, then finish(), before the object is ready for use.
@@ -90,6 +92,27 @@ public abstract class AggregationOuterDimension extends Aggregation implements P
   }
 
 
+  /**
+   * Set the number of member files this aggregation reads at once, for all readers together.
+   * Only joinNew and joinExisting read members concurrently.
+   *
+   * @param n concurrency cap; if <= 1, members are read in turn on the calling thread.
+   */
+  public synchronized void setConcurrency(int n) {
+    concurrency = Math.max(1, n);
+    readPermits = null; // reads in flight give back their permits to the old one
+  }
+
+  public synchronized int getConcurrency() {
+    return concurrency;
+  }
+
+  private synchronized Semaphore getReadPermits() {
+    if (readPermits == null)
+      readPermits = new Semaphore(concurrency);
+    return readPermits;
+  }
+
   /**
    * Add a name for a variableAgg element
    *
@@ -276,12 +299,13 @@ public abstract class AggregationOuterDimension extends Aggregation implements P
 
     List<Range> ranges = section.getRanges();
     Range joinRange = section.getRange(0);
-    List<Range> nestedSection = new ArrayList<>(ranges); // get copy
     List<Range> innerSection = ranges.subList(1, ranges.size());
+    int innerSize = (int) new Section(innerSection).computeSize();
 
     if (debug) System.out.println("   agg wants range=" + mainv.getFullName() + "(" + joinRange + ")");
 
-    // LOOK: could multithread here
+    // the part of each nested dataset that is wanted
+    List<MemberRead> reads = new ArrayList<>();
     List<Dataset> nestedDatasets = getDatasets();
     for (Dataset nested : nestedDatasets) {
       DatasetOuterDimension dod = (DatasetOuterDimension) nested;
@@ -291,14 +315,24 @@ public abstract class AggregationOuterDimension extends Aggregation implements P
       //if (debug)
       //  System.out.println("   agg use " + nested.aggStart + ":" + nested.aggEnd + " range= " + nestedJoinRange + " file " + nested.getLocation());
 
-      Array varData;
       if ((type == Type.joinNew) || (type == Type.forecastModelRunCollection)) {
-        varData = dod.read(mainv, cancelTask, innerSection);
+        reads.add(new MemberRead(dod, mainv, innerSection, cancelTask, destPos, innerSize));
+        destPos += innerSize;
       } else {
+        List<Range> nestedSection = new ArrayList<>(ranges); // get copy
         nestedSection.set(0, nestedJoinRange);
-        varData = dod.read(mainv, cancelTask, nestedSection);
+        int nestedSize = nestedJoinRange.length() * innerSize;
+        reads.add(new MemberRead(dod, mainv, nestedSection, cancelTask, destPos, nestedSize));
+        destPos += nestedSize;
       }
+    }
+
+    if (isConcurrent(reads.size()))
+      return readConcurrent(reads, sectionData, dtype, cancelTask) ? sectionData : null;
 
+    destPos = 0;
+    for (MemberRead read : reads) {
+      Array varData = read.read();
       if ((cancelTask != null) && cancelTask.isCancel())
         return null;
       varData = MAMath.convert(varData, dtype); // just in case it need to be converted
@@ -351,71 +385,174 @@ public abstract class AggregationOuterDimension extends Aggregation implements P
     int destPos = 0;
 
     List<Dataset> nestedDatasets = getDatasets();
-    if (executor != null) {
-      CompletionService<Result> completionService = new ExecutorCompletionService<>(executor);
+    if (isConcurrent(nestedDatasets.size())) {
+      // where each member goes: they are in order along the outer dimension
+      int[] shape = mainv.getShape();
+      int innerSize = (shape.length == 0 || shape[0] == 0) ? 0 : (int) (mainv.getSize() / shape[0]);
+      List<MemberRead> reads = new ArrayList<>(nestedDatasets.size());
+      for (Dataset vnested : nestedDatasets) {
+        int size = ((DatasetOuterDimension) vnested).getNcoords(cancelTask) * innerSize;
+        reads.add(new MemberRead(vnested, mainv, null, cancelTask, destPos, size));
+        destPos += size;
+      }
+      try {
+        return readConcurrent(reads, allData, dtype, cancelTask) ? allData : null;
+      } catch (InvalidRangeException e) { // no sections, so cant happen
+        throw new IllegalStateException(e);
+      }
+    }
 
-      int count = 0;
-      for (Dataset vnested : nestedDatasets)
-        completionService.submit(new ReaderTask(vnested, mainv, cancelTask, count++));
+    for (Dataset vnested : nestedDatasets) {
+      Array varData = vnested.read(mainv, cancelTask);
+      if ((cancelTask != null) && cancelTask.isCancel())
+        return null;
+      varData = MAMath.convert(varData, dtype); // just in case it need to be converted
 
-      try {
-        int n = nestedDatasets.size();
-        for (int i = 0; i < n; ++i) {
-          Result r = completionService.take().get();
-          if (r != null) {
-            r.data = MAMath.convert(r.data, dtype); // just in case it needs to be converted
-            int size = (int) r.data.getSize();
-            Array.arraycopy(r.data, 0, allData, size * r.index, size);
+      Array.arraycopy(varData, 0, allData, destPos, (int) varData.getSize());
+      destPos += varData.getSize();
+    }
+
+    return allData;
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////
+  // concurrent member reads
+
+  // set on a thread while it reads a member; a nested aggregation read there is done serially,
+  // so pool threads never wait on the pool
+  private static final ThreadLocal<Boolean> inMemberRead = new ThreadLocal<>();
+
+  // can these member reads be done concurrently? Fmrc members can be ragged, so their place in the result
+  // isnt known until they are read.
+  private boolean isConcurrent(int nreads) {
+    if (nreads < 2 || getConcurrency() <= 1)
+      return false;
+    if ((type != Type.joinNew) && (type != Type.joinExisting) && (type != Type.joinExistingOne))
+      return false;
+    return inMemberRead.get() == null;
+  }
+
+  /**
+   * Read the members on the read executor, at most getConcurrency() at a time for this aggregation,
+   * and copy each one into the result as it finishes.
+   * A read that is cancelled or fails leaves the members still being read to finish on their own;
+   * members not yet started are skipped. Member reads are not interrupted, since that would close
+   * the file channels of cached files.
+   *
+   * @return false if cancelled
+   */
+  private boolean readConcurrent(List<MemberRead> reads, Array result, DataType dtype, CancelTask cancelTask)
+          throws IOException, InvalidRangeException {
+    CompletionService<MemberRead> completion = new ExecutorCompletionService<>(getReadExecutor());
+    Semaphore permits = getReadPermits();
+    int done = 0;
+    try {
+      for (MemberRead read : reads) {
+        // wait for a permit, copying finished members meanwhile
+        while (!permits.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+          for (Future<MemberRead> f = completion.poll(); f != null; f = completion.poll(), done++) {
+            if (!copyMember(f, result, dtype, cancelTask)) return false;
           }
+          if ((cancelTask != null) && cancelTask.isCancel()) return false;
+        }
+        read.permits = permits;
+        try {
+          completion.submit(read);
+        } catch (RejectedExecutionException e) {
+          read.permits = null;
+          permits.release();
+          throw new IOException("Aggregation read executor rejected " + read.nested.getLocation(), e);
+        }
+        for (Future<MemberRead> f = completion.poll(); f != null; f = completion.poll(), done++) {
+          if (!copyMember(f, result, dtype, cancelTask)) return false;
         }
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
-      } catch (ExecutionException e) {
-        throw new IOException(e.getMessage());
       }
 
-    } else {
+      for (; done < reads.size(); done++) {
+        if (!copyMember(completion.take(), result, dtype, cancelTask)) return false;
+      }
+      return true;
 
-      for (Dataset vnested : nestedDatasets) {
-        Array varData = vnested.read(mainv, cancelTask);
-        if ((cancelTask != null) && cancelTask.isCancel())
-          return null;
-        varData = MAMath.convert(varData, dtype); // just in case it need to be converted
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted reading aggregation " + getLocation());
 
-        Array.arraycopy(varData, 0, allData, destPos, (int) varData.getSize());
-        destPos += varData.getSize();
-      }
+    } finally {
+      for (MemberRead read : reads)
+        read.abandon();
     }
+  }
 
-    return allData;
+  private boolean copyMember(Future<MemberRead> f, Array result, DataType dtype, CancelTask cancelTask)
+          throws IOException, InvalidRangeException, InterruptedException {
+    MemberRead read;
+    try {
+      read = f.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException) cause;
+      if (cause instanceof InvalidRangeException) throw (InvalidRangeException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      throw new IOException("Failed reading " + getLocation(), cause);
+    }
+    if ((cancelTask != null) && cancelTask.isCancel())
+      return false;
+
+    Array varData = MAMath.convert(read.data, dtype); // just in case it need to be converted
+    int size = (int) varData.getSize();
+    if (size != read.size) {
+      logger.warn("Aggregation {} member {} has {} values, expected {}", getLocation(), read.nested.getLocation(), size, read.size);
+      size = Math.min(size, read.size);
+    }
+    Array.arraycopy(varData, 0, result, read.destPos, size);
+    read.data = null;
+    return true;
   }
 
-  private static class ReaderTask implements Callable<Result> {
-    Dataset ds;
-    Variable mainv;
-    CancelTask cancelTask;
-    int index;
+  // one member's part of a read, and where it goes in the result
+  private static class MemberRead implements Callable<MemberRead> {
+    private static final int NEW = 0, RUNNING = 1, ABANDONED = 2;
+
+    final Dataset nested;
+    final Variable mainv;
+    final List<Range> section; // relative to the member, null means all of it
+    final CancelTask cancelTask;
+    final int destPos, size;   // in the result
+    final AtomicInteger state = new AtomicInteger(NEW);
+    volatile Semaphore permits; // held while submitted, released when done or abandoned
+    Array data;
 
-    ReaderTask(Dataset ds, Variable mainv, CancelTask cancelTask, int index) {
-      this.ds = ds;
+    MemberRead(Dataset nested, Variable mainv, List<Range> section, CancelTask cancelTask, int destPos, int size) {
+      this.nested = nested;
       this.mainv = mainv;
+      this.section = section;
       this.cancelTask = cancelTask;
-      this.index = index;
+      this.destPos = destPos;
+      this.size = size;
     }
 
-    public Result call() throws Exception {
-      Array data = ds.read(mainv, cancelTask);
-      return new Result(data, index);
+    Array read() throws IOException, InvalidRangeException {
+      return (section == null) ? nested.read(mainv, cancelTask) : nested.read(mainv, cancelTask, section);
     }
-  }
 
-  private static class Result {
-    Array data;
-    int index;
+    public MemberRead call() throws IOException, InvalidRangeException {
+      if (!state.compareAndSet(NEW, RUNNING))
+        return this; // abandoned before it started
+      inMemberRead.set(Boolean.TRUE);
+      try {
+        data = read();
+        return this;
+      } finally {
+        inMemberRead.remove();
+        permits.release();
+      }
+    }
 
-    Result(Array data, int index) {
-      this.data = data;
-      this.index = index;
+    // if not started, it never will be
+    void abandon() {
+      Semaphore p = permits;
+      if (p != null && state.compareAndSet(NEW, ABANDONED))
+        p.release();
     }
   }
 
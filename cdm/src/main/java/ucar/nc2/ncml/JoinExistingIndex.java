@@ -0,0 +1,466 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.ncml;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.IndexIterator;
+import ucar.nc2.constants.CDM;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Binary, append-only index of the per-member info of a joinExisting aggregation:
+ * ncoords and the cached coordinate (and promoted variable) values of each member,
+ * along with the member's lastModified.
+ * <p>
+ * The file is read into memory on open and only the record headers are scanned; a member's
+ * values are decoded when it is asked for. The file is not kept open or mapped, so it can be
+ * replaced by a rewrite (on Windows too). When members change, new records are appended,
+ * superseding earlier records with the same id. The file is rewritten (to a temp file, then
+ * renamed) when superseded records outnumber the live ones. A torn record at the end (eg from
+ * a crash during an append) ends the scan, and causes the next update to rewrite the file.
+ * <p>
+ * Updates hold a lock on a separate ".lock" file for both appends and rewrites. The index itself
+ * is replaced by a rewrite, so a lock on it would not keep out a writer that opened the old file.
+ * The lock file is deleted by its holder before the lock is released, so an updater that then gets
+ * the lock on the deleted file checks that it is still the one at the lock file's path.
+ * <p>
+ * Layout: "AGGX" version, then records of: int payloadLength, payload, int crc32(payload).
+ * Payload: id, long lastModified, int ncoords, short nvars, then for each var:
+ * varName, dataType, int nelems, values. Strings are int length + UTF-8 bytes.
+ * Numeric values are stored in their own type, everything else as strings.
+ */
+class JoinExistingIndex {
+  static private final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(JoinExistingIndex.class);
+
+  static final String SUFFIX = ".aggx";
+  static final String LOCK_SUFFIX = ".lock";
+  static private final byte[] MAGIC = {'A', 'G', 'G', 'X'};
+  static private final int VERSION = 1;
+  static private final int HEADER_SIZE = MAGIC.length + 4;
+
+  /**
+   * The info for one member of the aggregation.
+   */
+  static class Member {
+    final String id;
+    final long lastModified; // 0 if not known
+    final int ncoords;
+    final Map<String, Array> data = new LinkedHashMap<>(); // varName -> cached values
+
+    Member(String id, long lastModified, int ncoords) {
+      this.id = id;
+      this.lastModified = lastModified;
+      this.ncoords = ncoords;
+    }
+  }
+
+  /**
+   * Open and scan an existing index file.
+   *
+   * @param file the index file
+   * @return the index, or null if the file does not exist or is not a valid index
+   * @throws IOException on read error
+   */
+  static JoinExistingIndex open(File file) throws IOException {
+    if (!file.exists()) return null;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return scan(channel, file);
+    }
+  }
+
+  // read the whole file, so nothing refers to it after the channel is closed
+  static private JoinExistingIndex scan(FileChannel channel, File file) throws IOException {
+    long fileSize = channel.size();
+    if (fileSize < HEADER_SIZE) return null;
+    if (fileSize > Integer.MAX_VALUE) {
+      logger.warn("JoinExistingIndex {} too large, ignoring", file);
+      return null;
+    }
+    ByteBuffer bb = ByteBuffer.allocate((int) fileSize);
+    while (bb.hasRemaining() && channel.read(bb, bb.position()) >= 0);
+    bb.flip();
+    int size = bb.limit();
+    if (size < HEADER_SIZE) return null;
+    for (byte b : MAGIC)
+      if (bb.get() != b) return null;
+    if (bb.getInt() != VERSION) return null;
+
+    JoinExistingIndex index = new JoinExistingIndex(bb);
+    CRC32 crc = new CRC32();
+    int pos = HEADER_SIZE;
+    while (pos < size) {
+      if (size - pos < 8) break;
+      int len = bb.getInt(pos);
+      if (len <= 0 || len > size - pos - 8) break;
+      ByteBuffer payload = slice(bb, pos + 4, len);
+      crc.reset();
+      crc.update(payload);
+      if ((int) crc.getValue() != bb.getInt(pos + 4 + len)) break;
+      String id = getString(slice(bb, pos + 4, len));
+      index.offsets.put(id, pos + 4);
+      index.nrecords++;
+      pos += len + 8;
+    }
+    index.validLength = pos;
+    index.torn = pos < size;
+    if (index.torn)
+      logger.warn("JoinExistingIndex {} has a bad record at {}; ignoring the rest", file, pos);
+    return index;
+  }
+
+  /**
+   * Write the given members to the index, appending only those that are new or have changed.
+   * Does nothing if another process or thread is updating the index.
+   *
+   * @param file    the index file
+   * @param members all the current members of the aggregation
+   * @return false if the index was locked by someone else
+   * @throws IOException on write error
+   */
+  static boolean update(File file, List<Member> members) throws IOException {
+    File dir = file.getParentFile();
+    if (dir != null && !dir.exists() && !dir.mkdirs())
+      logger.error("Cant make cache directory= " + file);
+
+    Path lockPath = Paths.get(file.getPath() + LOCK_SUFFIX);
+    FileChannel lockChannel;
+    try {
+      lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    } catch (AccessDeniedException e) {
+      return false; // on Windows, the holder has deleted it but still has it open
+    }
+    try {
+      Object key = fileKey(lockPath);
+      if (key == null) return false; // deleted by the holder since we opened it
+      FileLock lock;
+      try {
+        lock = lockChannel.tryLock();
+      } catch (OverlappingFileLockException e) {
+        return false; // locked by this JVM
+      }
+      if (lock == null) return false;
+      // if we got the lock on a file that its holder has deleted, someone may hold a new one
+      if (!key.equals(fileKey(lockPath))) return false;
+
+      try {
+        updateLocked(file, members);
+      } finally {
+        Files.deleteIfExists(lockPath); // while still locked, so that it is not in use by anyone else
+      }
+      return true;
+    } finally {
+      lockChannel.close(); // releases the lock
+    }
+  }
+
+  // identifies the file at path, or null if there is none
+  static private Object fileKey(Path path) throws IOException {
+    try {
+      Object key = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+      return (key != null) ? key : Boolean.TRUE; // no file keys (eg Windows), where an open file can't be replaced
+    } catch (NoSuchFileException | AccessDeniedException e) { // AccessDenied: on Windows, deleted but still open
+      return null;
+    }
+  }
+
+  // caller holds the lock
+  static private void updateLocked(File file, List<Member> members) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      JoinExistingIndex old = scan(channel, file);
+      List<Member> changed = new ArrayList<>();
+      for (Member m : members) {
+        if (old == null || !old.isCurrent(m))
+          changed.add(m);
+      }
+      if (changed.isEmpty() && (old == null || !old.torn)) return;
+
+      boolean rewrite = (old == null) || old.torn || (old.nrecords + changed.size() > 2 * members.size() + 16);
+      if (!rewrite) {
+        // a reader that reads the file during the append stops at the partial record, so appending is safe
+        ByteBuffer buff = encode(changed);
+        long pos = old.validLength;
+        while (buff.hasRemaining())
+          pos += channel.write(buff, pos);
+        if (logger.isDebugEnabled())
+          logger.debug("JoinExistingIndex {} appended {} records", file, changed.size());
+        return;
+      }
+    }
+
+    // write all to a new file and rename, so that readers never see a partial file
+    Path temp = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName(), ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining())
+          channel.write(header);
+        ByteBuffer buff = encode(members);
+        while (buff.hasRemaining())
+          channel.write(buff);
+      }
+      Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+    if (logger.isDebugEnabled())
+      logger.debug("JoinExistingIndex {} rewrote {} records", file, members.size());
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////
+
+  private final ByteBuffer bb;
+  private final Map<String, Integer> offsets = new HashMap<>(); // id -> offset of latest payload
+  private int nrecords;     // including superseded records
+  private int validLength;  // end of the last good record
+  private boolean torn;     // there are bytes after the last good record
+
+  private JoinExistingIndex(ByteBuffer bb) {
+    this.bb = bb;
+  }
+
+  /**
+   * @return number of distinct members in the index
+   */
+  int size() {
+    return offsets.size();
+  }
+
+  /**
+   * @return number of records in the file, including superseded ones
+   */
+  int getRecordCount() {
+    return nrecords;
+  }
+
+  boolean contains(String id) {
+    return offsets.containsKey(id);
+  }
+
+  /**
+   * Decode the latest record for a member.
+   *
+   * @param id member id
+   * @return the member, or null if not in the index
+   */
+  Member find(String id) {
+    Integer offset = offsets.get(id);
+    if (offset == null) return null;
+    ByteBuffer in = payload(offset);
+    Member m = new Member(getString(in), in.getLong(), in.getInt());
+    int nvars = in.getShort();
+    for (int i = 0; i < nvars; i++) {
+      String varName = getString(in);
+      m.data.put(varName, getArray(in));
+    }
+    return m;
+  }
+
+  // true if the stored record has the same lastModified, ncoords, and cached variables as m
+  private boolean isCurrent(Member m) {
+    Integer offset = offsets.get(m.id);
+    if (offset == null) return false;
+    ByteBuffer in = payload(offset);
+    getString(in);
+    if (in.getLong() != m.lastModified || in.getInt() != m.ncoords) return false;
+    Set<String> varNames = new HashSet<>();
+    int nvars = in.getShort();
+    for (int i = 0; i < nvars; i++) {
+      varNames.add(getString(in));
+      skipArray(in);
+    }
+    return varNames.containsAll(m.data.keySet());
+  }
+
+  private ByteBuffer payload(int offset) {
+    return slice(bb, offset, bb.getInt(offset - 4));
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////
+  // encoding
+
+  static private ByteBuffer encode(List<Member> members) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream(1000 * members.size());
+    DataOutputStream out = new DataOutputStream(bout);
+    ByteArrayOutputStream pout = new ByteArrayOutputStream(1000);
+    DataOutputStream payload = new DataOutputStream(pout);
+    CRC32 crc = new CRC32();
+
+    for (Member m : members) {
+      pout.reset();
+      putString(payload, m.id);
+      payload.writeLong(m.lastModified);
+      payload.writeInt(m.ncoords);
+      payload.writeShort(m.data.size());
+      for (Map.Entry<String, Array> entry : m.data.entrySet()) {
+        putString(payload, entry.getKey());
+        putArray(payload, entry.getValue());
+      }
+      payload.flush();
+      byte[] bytes = pout.toByteArray();
+      crc.reset();
+      crc.update(bytes, 0, bytes.length);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+      out.writeInt((int) crc.getValue());
+    }
+    out.flush();
+    return ByteBuffer.wrap(bout.toByteArray());
+  }
+
+  static private void putArray(DataOutputStream out, Array data) throws IOException {
+    DataType dtype = storedType(DataType.getType(data));
+    putString(out, dtype.toString());
+    out.writeInt((int) data.getSize());
+    IndexIterator ii = data.getIndexIterator();
+    while (ii.hasNext()) {
+      switch (dtype) {
+        case DOUBLE: out.writeDouble(ii.getDoubleNext()); break;
+        case FLOAT: out.writeFloat(ii.getFloatNext()); break;
+        case LONG:
+        case ULONG: out.writeLong(ii.getLongNext()); break;
+        case INT:
+        case UINT: out.writeInt(ii.getIntNext()); break;
+        case SHORT:
+        case USHORT: out.writeShort(ii.getShortNext()); break;
+        case BYTE:
+        case UBYTE: out.writeByte(ii.getByteNext()); break;
+        default: putString(out, String.valueOf(ii.getObjectNext()));
+      }
+    }
+  }
+
+  static private Array getArray(ByteBuffer in) {
+    DataType dtype = DataType.getType(getString(in));
+    int n = in.getInt();
+    if (dtype == DataType.STRING) {
+      String[] vals = new String[n];
+      for (int i = 0; i < n; i++)
+        vals[i] = getString(in);
+      return Array.factory(DataType.STRING, new int[]{n}, vals);
+    }
+
+    Array data = Array.factory(dtype, new int[]{n});
+    IndexIterator ii = data.getIndexIterator();
+    for (int i = 0; i < n; i++) {
+      switch (dtype) {
+        case DOUBLE: ii.setDoubleNext(in.getDouble()); break;
+        case FLOAT: ii.setFloatNext(in.getFloat()); break;
+        case LONG:
+        case ULONG: ii.setLongNext(in.getLong()); break;
+        case INT:
+        case UINT: ii.setIntNext(in.getInt()); break;
+        case SHORT:
+        case USHORT: ii.setShortNext(in.getShort()); break;
+        case BYTE:
+        case UBYTE: ii.setByteNext(in.get()); break;
+        default: throw new IllegalStateException(dtype.toString());
+      }
+    }
+    return data;
+  }
+
+  static private void skipArray(ByteBuffer in) {
+    DataType dtype = DataType.getType(getString(in));
+    int n = in.getInt();
+    if (dtype == DataType.STRING) {
+      for (int i = 0; i < n; i++) {
+        int len = in.getInt();
+        in.position(in.position() + len);
+      }
+    } else {
+      in.position(in.position() + n * dtype.getSize());
+    }
+  }
+
+  static private DataType storedType(DataType dtype) {
+    if (dtype == null) return DataType.STRING;
+    switch (dtype) {
+      case DOUBLE:
+      case FLOAT:
+      case LONG:
+      case INT:
+      case SHORT:
+      case BYTE:
+      case ULONG:
+      case UINT:
+      case USHORT:
+      case UBYTE:
+        return dtype;
+      default:
+        return DataType.STRING;
+    }
+  }
+
+  static private void putString(DataOutputStream out, String s) throws IOException {
+    byte[] b = s.getBytes(CDM.utf8Charset);
+    out.writeInt(b.length);
+    out.write(b);
+  }
+
+  static private String getString(ByteBuffer in) {
+    int len = in.getInt();
+    byte[] b = new byte[len];
+    in.get(b);
+    return new String(b, CDM.utf8Charset);
+  }
+
+  static private ByteBuffer slice(ByteBuffer bb, int offset, int len) {
+    ByteBuffer dup = bb.duplicate();
+    dup.position(offset);
+    dup.limit(offset + len);
+    return dup.slice();
+  }
+
+}
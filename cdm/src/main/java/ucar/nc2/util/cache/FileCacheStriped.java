@@ -0,0 +1,704 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.util.cache;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import ucar.nc2.dataset.DatasetUrl;
+import ucar.nc2.time.CalendarDateFormatter;
+import ucar.nc2.util.CancelTask;
+import ucar.nc2.util.Misc;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A FileCache with striped bookkeeping, for many threads acquiring the same files.
+ * <p>
+ * Files are spread over a fixed number of stripes by hashKey. Each stripe has its own lock, which only guards the
+ * stripe's list of unlocked (idle) files; it is never held while opening, checking or closing a file.
+ * Acquire takes an idle file for the key, if any, otherwise opens a new one. Release puts it back on the idle list.
+ * <p>
+ * There is no stop-the-world cleanup. When the number of files goes over the softLimit, the thread calling
+ * acquire() or release() evicts a few of the least recently used idle files, one stripe at a time, and never more
+ * than hardLimit files are kept if hardLimit > 0. If period > 0, a shared scheduler thread trims the cache to
+ * minElements in the same incremental way.
+ * <p>
+ * Eviction is LRU within a stripe, and round-robin across stripes, which approximates a global LRU.
+ * The same rules as FileCache apply to the FileCacheable objects and hashKeys.
+ * Make sure you call shutdown() when exiting the program, in order to shut down the scheduler thread.
+ */
+@ThreadSafe
+public class FileCacheStriped implements FileCacheIF {
+  static protected final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(FileCacheStriped.class);
+  static protected final org.slf4j.Logger cacheLog = org.slf4j.LoggerFactory.getLogger("cacheLogger");
+
+  static final boolean debugPrint = false;
+  static private final int EVICT_PER_CALL = 4; // max number of files a caller thread evicts over the softLimit
+
+  static private ScheduledExecutorService scheduler;
+
+  /**
+   * You must call shutdown() to shut down the background thread in order to get a clean process shutdown.
+   */
+  public static synchronized void shutdown() {
+    if (scheduler != null)
+      scheduler.shutdownNow();
+    scheduler = null;
+  }
+
+  private static synchronized ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long period) {
+    if (scheduler == null) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("FileCacheStriped").setDaemon(true).build());
+    }
+    return scheduler.scheduleAtFixedRate(task, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////////////////
+
+  protected final String name;
+  protected final int softLimit, minElements, hardLimit;
+  protected final long period; // msecs
+
+  private final AtomicBoolean disabled = new AtomicBoolean(false);  // cache is disabled
+  private final Stripe[] stripes;
+  private final AtomicInteger evictCursor = new AtomicInteger(); // round robin over the stripes
+  private final ConcurrentHashMap<FileCacheable, CacheFile> files; // all files in the cache, locked or not
+  private final AtomicInteger nfiles = new AtomicInteger();
+  private ScheduledFuture<?> cleanupTask;
+
+  // stats
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong miss = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong changed = new AtomicLong();   // discarded because the file was modified
+  private final AtomicLong lockWaits = new AtomicLong(); // contended stripe locks
+  private final AtomicLong lockWaitNanos = new AtomicLong();
+  private final AtomicLong openNanos = new AtomicLong();
+  private ConcurrentHashMap<Object, Tracker> track;
+  private volatile boolean trackAll = false;
+
+  /**
+   * Constructor.
+   *
+   * @param name                of file cache
+   * @param minElementsInMemory keep this number in the cache
+   * @param softLimit           evict on the calling thread if it goes over this number.
+   * @param hardLimit           if > 0, evict down to this number on the calling thread when it goes over.
+   * @param period              if > 0, trim to minElementsInMemory every this number of seconds.
+   */
+  public FileCacheStriped(String name, int minElementsInMemory, int softLimit, int hardLimit, int period) {
+    this(name, minElementsInMemory, softLimit, hardLimit, period, 16);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param name                of file cache
+   * @param minElementsInMemory keep this number in the cache
+   * @param softLimit           evict on the calling thread if it goes over this number.
+   * @param hardLimit           if > 0, evict down to this number on the calling thread when it goes over.
+   * @param period              if > 0, trim to minElementsInMemory every this number of seconds.
+   * @param nstripes            number of independently locked stripes
+   */
+  public FileCacheStriped(String name, int minElementsInMemory, int softLimit, int hardLimit, int period, int nstripes) {
+    this.name = name;
+    this.minElements = minElementsInMemory;
+    this.softLimit = softLimit;
+    this.hardLimit = hardLimit;
+    this.period = (long) 1000 * period;
+
+    this.stripes = new Stripe[Math.max(1, nstripes)];
+    for (int i = 0; i < stripes.length; i++)
+      stripes[i] = new Stripe();
+    this.files = new ConcurrentHashMap<>(4 * Math.max(softLimit, 16), 0.75f, stripes.length);
+
+    if (period > 0) {
+      cleanupTask = scheduleAtFixedRate(new Runnable() {
+        public void run() {
+          if (disabled.get()) return;
+          try {
+            trim(minElements, Integer.MAX_VALUE);
+          } catch (Throwable t) {
+            log.error("FileCacheStriped " + name + " cleanup failed", t);
+          }
+        }
+      }, this.period);
+
+      if (cacheLog.isDebugEnabled())
+        cacheLog.debug("FileCacheStriped " + name + " cleanup every " + period + " secs");
+    }
+  }
+
+  /**
+   * Disable the cache, and force release all files.
+   * You must still call shutdown() before exiting the application.
+   */
+  @Override
+  public void disable() {
+    this.disabled.set(true);
+    if (cleanupTask != null) cleanupTask.cancel(false);
+    clearCache(true);
+  }
+
+  /**
+   * Enable the cache, with the current set of parameters.
+   */
+  @Override
+  public void enable() {
+    this.disabled.set(false);
+  }
+
+  @Override
+  public FileCacheable acquire(FileFactory factory, DatasetUrl durl) throws IOException {
+    return acquire(factory, durl.trueurl, durl, -1, null, null);
+  }
+
+  /**
+   * Acquire a FileCacheable from the cache, and lock it so no one else can use it.
+   * If not already in cache, open it the FileFactory, and put in cache.
+   * App should call FileCacheable.close when done, and the file is then released instead of closed.
+   *
+   * @param factory     use this factory to open the file if not in the cache; may not be null
+   * @param hashKey     unique key for this file. If null, the location will be used
+   * @param location    file location, may also used as the cache name, will be passed to the NetcdfFileFactory
+   * @param buffer_size RandomAccessFile buffer size, if <= 0, use default size
+   * @param cancelTask  user can cancel, ok to be null.
+   * @param spiObject   passed to the factory if object needs to be recreated
+   * @return FileCacheable corresponding to location.
+   * @throws IOException on error
+   */
+  @Override
+  public FileCacheable acquire(FileFactory factory, Object hashKey, DatasetUrl location,
+                               int buffer_size, CancelTask cancelTask, Object spiObject) throws IOException {
+    if (null == hashKey) hashKey = location.trueurl;
+    if (null == hashKey) throw new IllegalArgumentException();
+
+    Tracker t = null;
+    if (trackAll) {
+      t = new Tracker(hashKey);
+      Tracker prev = track.putIfAbsent(hashKey, t);
+      if (prev != null) t = prev;
+    }
+
+    FileCacheable ncfile = acquireCacheOnly(hashKey);
+    if (ncfile != null) {
+      hits.incrementAndGet();
+      if (t != null) t.hit.incrementAndGet();
+      return ncfile;
+    }
+    miss.incrementAndGet();
+    if (t != null) t.miss.incrementAndGet();
+
+    // open the file, no locks held
+    long start = System.nanoTime();
+    ncfile = factory.open(location, buffer_size, cancelTask, spiObject);
+    openNanos.addAndGet(System.nanoTime() - start);
+    if (cacheLog.isDebugEnabled())
+      cacheLog.debug("FileCacheStriped " + name + " acquire " + hashKey + " " + ncfile.getLocation());
+
+    // user may have canceled
+    if ((cancelTask != null) && (cancelTask.isCancel())) {
+      ncfile.close();
+      return null;
+    }
+
+    if (disabled.get()) return ncfile;
+
+    // the new file starts out locked, so it only goes on the idle list when released
+    CacheFile file = new CacheFile(ncfile, hashKey);
+    files.put(ncfile, file);
+    nfiles.incrementAndGet();
+
+    evictIfNeeded();
+    return ncfile;
+  }
+
+  private FileCacheable acquireCacheOnly(Object hashKey) {
+    if (disabled.get()) return null;
+
+    Stripe stripe = getStripe(hashKey);
+    while (true) {
+      CacheFile want;
+      stripe.lock();
+      try {
+        want = stripe.takeIdle(hashKey);
+      } finally {
+        stripe.lock.unlock();
+      }
+      if (want == null) return null; // no unlocked file in cache
+
+      if (want.ejected) { // ejected after it was released
+        remove(want);
+        continue;
+      }
+
+      // check if modified, discard if so
+      long lastModified = want.ncfile.getLastModified();
+      if (lastModified != want.lastModified) {
+        if (cacheLog.isDebugEnabled())
+          cacheLog.debug("FileCacheStriped " + name + ": acquire from cache " + hashKey + " " + want.ncfile.getLocation() + " was changed; discard");
+        changed.incrementAndGet();
+        remove(want);
+        continue;
+      }
+
+      try {
+        want.ncfile.reacquire(); // rehydrate
+      } catch (IOException ioe) {
+        if (cacheLog.isDebugEnabled())
+          cacheLog.debug("FileCacheStriped " + name + " acquire from cache " + hashKey + " " + want.ncfile.getLocation() +
+                  " failed: " + ioe.getMessage());
+        remove(want);
+        continue;
+      }
+
+      if (debugPrint) System.out.printf("  FileCacheStriped %s found in cache %s%n", name, hashKey);
+      return want.ncfile;
+    }
+  }
+
+  /**
+   * Release the file. This unlocks it, updates its lastAccessed date.
+   * Normally applications need not call this, just close the file as usual.
+   *
+   * @param ncfile release this file.
+   * @return true if file was in cache, false if it was not
+   */
+  @Override
+  public boolean release(FileCacheable ncfile) throws IOException {
+    if (ncfile == null) return false;
+
+    if (disabled.get()) {
+      ncfile.setFileCache(null); // prevent infinite loops
+      ncfile.close();
+      return false;
+    }
+
+    CacheFile file = files.get(ncfile);
+    if (file == null) return false;
+
+    if (file.ejected) { // ejected while in use
+      remove(file);
+      return true;
+    }
+
+    file.lastAccessed = System.currentTimeMillis();
+    file.countAccessed++;
+    file.ncfile.release();
+
+    // check ejected under the stripe lock, so that eject() either sees the file on the idle list or we see it ejected
+    boolean ejected;
+    Stripe stripe = getStripe(file.hashKey);
+    stripe.lock();
+    try {
+      ejected = file.ejected;
+      if (!ejected && !stripe.putIdle(file))
+        cacheLog.warn("FileCacheStriped " + name + " release " + ncfile.getLocation() + " not locked; hash= " + ncfile.hashCode());
+    } finally {
+      stripe.lock.unlock();
+    }
+
+    if (ejected) {
+      remove(file);
+      return true;
+    }
+
+    if (cacheLog.isDebugEnabled())
+      cacheLog.debug("FileCacheStriped " + name + " release " + ncfile.getLocation() + "; hash= " + ncfile.hashCode());
+    evictIfNeeded();
+    return true;
+  }
+
+  /**
+   * Remove all instances of object from the cache.
+   * Unlocked files are closed now, locked ones when they are released.
+   *
+   * @param hashKey the object
+   */
+  @Override
+  public void eject(Object hashKey) {
+    if (disabled.get()) return;
+
+    List<CacheFile> idle;
+    Stripe stripe = getStripe(hashKey);
+    stripe.lock();
+    try {
+      // marked under the lock that release() checks it under
+      for (CacheFile file : files.values()) {
+        if (file.hashKey.equals(hashKey)) file.ejected = true;
+      }
+      idle = stripe.takeAllIdle(hashKey);
+    } finally {
+      stripe.lock.unlock();
+    }
+
+    for (CacheFile file : idle)
+      remove(file);
+    if (debugPrint) System.out.println("  FileCacheStriped " + name + " eject " + hashKey);
+  }
+
+  /**
+   * Remove all cache entries, one stripe at a time.
+   *
+   * @param force if true, also close the files that are currently locked.
+   */
+  @Override
+  public void clearCache(boolean force) {
+    int count = 0;
+    for (Stripe stripe : stripes) {
+      List<CacheFile> idle;
+      stripe.lock();
+      try {
+        idle = stripe.takeAllIdle(null);
+      } finally {
+        stripe.lock.unlock();
+      }
+      for (CacheFile file : idle)
+        remove(file);
+      count += idle.size();
+    }
+
+    if (force) {
+      for (CacheFile file : files.values()) {
+        cacheLog.warn("FileCacheStriped " + name + " force close locked file= " + file);
+        remove(file);
+        count++;
+      }
+    }
+
+    if (cacheLog.isDebugEnabled())
+      cacheLog.debug("*FileCacheStriped " + name + " clearCache force= " + force + " deleted= " + count + " left=" + nfiles.get());
+  }
+
+  // evict on the calling thread
+  private void evictIfNeeded() {
+    if ((hardLimit > 0) && (nfiles.get() > hardLimit))
+      trim(hardLimit, Integer.MAX_VALUE);
+    else if ((softLimit > 0) && (nfiles.get() > softLimit))
+      trim(softLimit, EVICT_PER_CALL);
+  }
+
+  /**
+   * Evict least recently used unlocked files until there are no more than want files, or max have been evicted.
+   * Only one stripe is locked at a time, and files are closed with no lock held.
+   */
+  private void trim(int want, int max) {
+    int count = 0;
+    int emptyStripes = 0; // give up after a full pass with nothing to evict
+    while (count < max && nfiles.get() > want && emptyStripes < stripes.length) {
+      Stripe stripe = stripes[(evictCursor.getAndIncrement() & Integer.MAX_VALUE) % stripes.length];
+      CacheFile file;
+      stripe.lock();
+      try {
+        file = stripe.takeEldest();
+      } finally {
+        stripe.lock.unlock();
+      }
+      if (file == null) {
+        emptyStripes++;
+        continue;
+      }
+      emptyStripes = 0;
+      remove(file);
+      evictions.incrementAndGet();
+      count++;
+    }
+    if (count > 0 && cacheLog.isDebugEnabled())
+      cacheLog.debug("FileCacheStriped {} evicted {} now has {}", name, count, nfiles.get());
+  }
+
+  // file must be locked, ie not on an idle list
+  private void remove(CacheFile file) {
+    if (!file.removed.compareAndSet(false, true)) return;
+    files.remove(file.ncfile);
+    nfiles.decrementAndGet();
+    try {
+      file.ncfile.setFileCache(null); // unhook the caching
+      file.ncfile.close();
+    } catch (IOException e) {
+      log.error("FileCacheStriped " + name + " close failed on " + file.ncfile.getLocation(), e);
+    }
+    if (debugPrint) System.out.printf("  FileCacheStriped %s remove %s%n", name, file.ncfile.getLocation());
+  }
+
+  private Stripe getStripe(Object hashKey) {
+    int h = hashKey.hashCode();
+    h ^= (h >>> 16);
+    return stripes[(h & Integer.MAX_VALUE) % stripes.length];
+  }
+
+  ////////////////////////////////////////////////////////////////////////
+  // debugging and stats
+
+  private List<CacheFile> getSortedFiles() {
+    List<CacheFile> allFiles = new ArrayList<>(files.values());
+    Collections.sort(allFiles); // sort so oldest are on top
+    return allFiles;
+  }
+
+  /**
+   * Show individual cache entries, add to formatter.
+   *
+   * @param format add to this
+   */
+  @Override
+  public void showCache(Formatter format) {
+    format.format("%nFileCacheStriped %s (min=%d softLimit=%d hardLimit=%d scour=%d secs stripes=%d):%n", name, minElements,
+            softLimit, hardLimit, period / 1000, stripes.length);
+    format.format(" isLocked  accesses lastAccess                   location %n");
+    for (CacheFile file : getSortedFiles()) {
+      format.format("%8s %9d %s == %s %n", file.isLocked(), file.countAccessed,
+              CalendarDateFormatter.toDateTimeStringISO(file.lastAccessed), file.ncfile.getLocation());
+    }
+    showStats(format);
+  }
+
+  @Override
+  public List<String> showCache() {
+    List<CacheFile> allFiles = getSortedFiles();
+    List<String> result = new ArrayList<>(allFiles.size());
+    for (CacheFile file : allFiles)
+      result.add(file.toString());
+    return result;
+  }
+
+  /**
+   * Add stat report (hits, misses, evictions, lock waits, etc) to formatter.
+   *
+   * @param format add to this
+   */
+  @Override
+  public void showStats(Formatter format) {
+    int nidle = 0;
+    for (Stripe stripe : stripes) nidle += stripe.nidle; // racy read is fine here
+    long nmiss = miss.get();
+    long nwaits = lockWaits.get();
+    format.format("  hits= %d miss= %d nfiles= %d idle= %d evictions= %d changed= %d%n",
+            hits.get(), nmiss, nfiles.get(), nidle, evictions.get(), changed.get());
+    format.format("  lockWaits= %d avgWait= %.3f msecs; avgOpen= %.3f msecs%n", nwaits,
+            (nwaits == 0) ? 0.0 : lockWaitNanos.get() / 1.0e6 / nwaits,
+            (nmiss == 0) ? 0.0 : openNanos.get() / 1.0e6 / nmiss);
+  }
+
+  @Override
+  public void showTracking(Formatter format) {
+    if (track == null) return;
+    List<Tracker> all = new ArrayList<>(track.values());
+    Collections.sort(all);
+    int seq = 0;
+    int countAll = 0;
+    int countHits = 0;
+    int countMiss = 0;
+    format.format("%nTracking All files in cache %s%n", name);
+    format.format("    #    accum       hit    miss  file%n");
+    for (Tracker t : all) {
+      seq++;
+      int hit = t.hit.get();
+      int miss = t.miss.get();
+      countAll += hit + miss;
+      countHits += hit;
+      countMiss += miss;
+      format.format("%6d  %7d : %6d %6d %s%n", seq, countAll, hit, miss, t.key);
+    }
+    float r = (countAll == 0) ? 0 : ((float) countHits) / countAll;
+    format.format("  total=%7d : %6d %6d hit ratio=%f%n", countAll, countHits, countMiss, r);
+    showStats(format);
+  }
+
+  @Override
+  public void resetTracking() {
+    track = new ConcurrentHashMap<>(5000);
+    trackAll = true;
+    hits.set(0);
+    miss.set(0);
+    evictions.set(0);
+    changed.set(0);
+    lockWaits.set(0);
+    lockWaitNanos.set(0);
+    openNanos.set(0);
+  }
+
+  // debug
+  int getNumberOfFiles() {
+    return nfiles.get();
+  }
+
+  private static class Tracker implements Comparable<Tracker> {
+    final Object key;
+    final AtomicInteger hit = new AtomicInteger();
+    final AtomicInteger miss = new AtomicInteger();
+
+    private Tracker(Object key) {
+      this.key = key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Tracker tracker = (Tracker) o;
+      return key.equals(tracker.key);
+    }
+
+    @Override
+    public int hashCode() {
+      return key.hashCode();
+    }
+
+    @Override
+    public int compareTo(Tracker o) {
+      return Misc.compare(hit.get() + miss.get(), o.hit.get() + o.miss.get());
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////
+
+  // the unlocked files whose hashKey falls in this stripe
+  private class Stripe {
+    final ReentrantLock lock = new ReentrantLock();
+    @GuardedBy("lock")
+    final HashMap<Object, ArrayDeque<CacheFile>> idleByKey = new HashMap<>();
+    @GuardedBy("lock")
+    final LinkedHashSet<CacheFile> lru = new LinkedHashSet<>(); // oldest first
+    volatile int nidle;
+
+    void lock() {
+      if (lock.tryLock()) return;
+      long start = System.nanoTime();
+      lock.lock();
+      lockWaits.incrementAndGet();
+      lockWaitNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    CacheFile takeIdle(Object hashKey) {
+      ArrayDeque<CacheFile> idle = idleByKey.get(hashKey);
+      if (idle == null) return null;
+      CacheFile file = idle.pollFirst(); // most recently released
+      if (idle.isEmpty()) idleByKey.remove(hashKey);
+      if (file != null) {
+        lru.remove(file);
+        file.idle = false;
+        nidle = lru.size();
+      }
+      return file;
+    }
+
+    List<CacheFile> takeAllIdle(Object hashKey) {
+      List<CacheFile> result = new ArrayList<>();
+      if (hashKey == null) {
+        result.addAll(lru);
+        lru.clear();
+        idleByKey.clear();
+      } else {
+        ArrayDeque<CacheFile> idle = idleByKey.remove(hashKey);
+        if (idle != null) {
+          result.addAll(idle);
+          lru.removeAll(idle);
+        }
+      }
+      for (CacheFile file : result) file.idle = false;
+      nidle = lru.size();
+      return result;
+    }
+
+    CacheFile takeEldest() {
+      Iterator<CacheFile> iter = lru.iterator();
+      if (!iter.hasNext()) return null;
+      CacheFile file = iter.next();
+      iter.remove();
+      ArrayDeque<CacheFile> idle = idleByKey.get(file.hashKey);
+      if (idle != null) {
+        idle.remove(file);
+        if (idle.isEmpty()) idleByKey.remove(file.hashKey);
+      }
+      file.idle = false;
+      nidle = lru.size();
+      return file;
+    }
+
+    boolean putIdle(CacheFile file) {
+      if (file.idle) return false;
+      ArrayDeque<CacheFile> idle = idleByKey.get(file.hashKey);
+      if (idle == null) {
+        idle = new ArrayDeque<>(2);
+        idleByKey.put(file.hashKey, idle);
+      }
+      idle.addFirst(file);
+      lru.add(file);
+      file.idle = true;
+      nidle = lru.size();
+      return true;
+    }
+  }
+
+  private class CacheFile implements Comparable<CacheFile> {
+    final FileCacheable ncfile;
+    final Object hashKey;
+    final long lastModified;
+    final AtomicBoolean removed = new AtomicBoolean(false);
+    volatile boolean idle = false;   // on the idle list, guarded by the stripe lock
+    volatile boolean ejected = false;
+    volatile long lastAccessed;
+    volatile int countAccessed;
+
+    private CacheFile(FileCacheable ncfile, Object hashKey) {
+      this.ncfile = ncfile;
+      this.hashKey = hashKey;
+      this.lastModified = ncfile.getLastModified();
+      this.lastAccessed = System.currentTimeMillis();
+      ncfile.setFileCache(FileCacheStriped.this);
+      if (cacheLog.isDebugEnabled()) cacheLog.debug("FileCacheStriped " + name + " add to cache " + hashKey);
+    }
+
+    boolean isLocked() {
+      return !idle;
+    }
+
+    public String toString() {
+      return isLocked() + " " + countAccessed + " " + CalendarDateFormatter.toDateTimeStringISO(lastAccessed) + "   " + ncfile.getLocation();
+    }
+
+    public int compareTo(CacheFile o) {
+      return Long.compare(lastAccessed, o.lastAccessed);
+    }
+  }
+
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.unidata.io;
+
+import com.google.common.cache.*;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Formatter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size bounded cache of file blocks on local disk, that RandomAccessFile subclasses can consult before doing
+ * an expensive read (eg HTTPRandomAccessFile).
+ * <p>
+ * Blocks are keyed by the file location, its last modified date and length, and the block number, so a file that
+ * changes never matches the old blocks. Each block is kept in its own file, named by a hash of its key, in the
+ * cache directory. The least recently used blocks are deleted when the total size goes over maxBytes.
+ * The cache directory is reused by a later DiskBlockCache, so blocks survive a restart; the recently used order
+ * is then approximated by the block files' modification times.
+ */
+@ThreadSafe
+public class DiskBlockCache {
+  static private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DiskBlockCache.class);
+  private static final String SUFFIX = ".blk";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final int CONCURRENCY = 4;  // each cache segment gets 1/CONCURRENCY of maxBytes
+
+  /**
+   * Where the blocks come from on a cache miss.
+   */
+  public interface BlockSource {
+    /**
+     * Read from the underlying file.
+     * @return number of bytes read, less than len only at the end of the file.
+     */
+    int read(long pos, byte[] buff, int offset, int len) throws IOException;
+  }
+
+  private final File dir;
+  private final long maxBytes;
+  private final int blockSize;
+  private final Cache<String, Integer> cache;  // block file name -> size in bytes
+  private final AtomicLong bytesFromCache = new AtomicLong();
+  private final AtomicLong bytesFetched = new AtomicLong();
+
+  /**
+   * Constructor. Blocks already in dir are added to the cache, oldest first.
+   * @param dir keep the block files here; created if needed
+   * @param maxBytes max size of the block files, in bytes
+   * @param blockSize size of each block, in bytes
+   * @throws IOException if dir can't be created
+   */
+  public DiskBlockCache(String dir, long maxBytes, int blockSize) throws IOException {
+    this.dir = new File(dir);
+    this.maxBytes = maxBytes;
+    this.blockSize = blockSize;
+    if (!this.dir.exists() && !this.dir.mkdirs())
+      throw new IOException("DiskBlockCache cant create directory " + dir);
+
+    this.cache = CacheBuilder.newBuilder()
+            .concurrencyLevel(CONCURRENCY)
+            .maximumWeight(maxBytes)
+            .weigher(new Weigher<String, Integer>() {
+              public int weigh(String key, Integer size) {
+                return size;
+              }
+            })
+            .removalListener(new RemovalListener<String, Integer>() {
+              public void onRemoval(RemovalNotification<String, Integer> notification) {
+                if (notification.getCause() == RemovalCause.REPLACED) return; // same file was rewritten
+                File f = new File(DiskBlockCache.this.dir, notification.getKey());
+                if (f.exists() && !f.delete())
+                  log.warn("DiskBlockCache failed to delete {}", f.getPath());
+              }
+            })
+            .recordStats()
+            .build();
+
+    load();
+  }
+
+  private void load() {
+    File[] files = dir.listFiles();
+    if (files == null) return;
+    Arrays.sort(files, new Comparator<File>() {
+      public int compare(File f1, File f2) {
+        return Long.compare(f1.lastModified(), f2.lastModified());
+      }
+    });
+    for (File f : files) {
+      String name = f.getName();
+      if (name.endsWith(TEMP_SUFFIX)) {
+        if (!f.delete()) log.warn("DiskBlockCache failed to delete {}", f.getPath());  // left by a crash
+      } else if (name.endsWith(SUFFIX) && f.length() <= blockSize) {
+        cache.put(name, (int) f.length());
+      }
+    }
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Read through the cache. Blocks that are not in the cache are read from source, using one read for each
+   * run of missing blocks, and then added to the cache.
+   *
+   * @param location     the file location
+   * @param lastModified the file's last modified date; must identify this version of the file
+   * @param length       the file length
+   * @param pos          start here in the file
+   * @param buff         put data into this buffer
+   * @param offset       buffer offset
+   * @param len          this number of bytes
+   * @param source       reads from the file on a cache miss
+   * @return actual number of bytes read, less than len only at the end of the file
+   * @throws IOException on read error
+   */
+  public int read(String location, long lastModified, long length, long pos, byte[] buff, int offset, int len,
+                  BlockSource source) throws IOException {
+    long end = Math.min(pos + len, length);
+    if (end <= pos) return 0;
+
+    long firstBlock = pos / blockSize;
+    int nblocks = (int) ((end - 1) / blockSize - firstBlock + 1);
+    String[] names = new String[nblocks];
+    byte[][] blocks = new byte[nblocks][];
+    for (int i = 0; i < nblocks; i++) {
+      long blockNo = firstBlock + i;
+      names[i] = blockName(location, lastModified, length, blockNo);
+      blocks[i] = readBlock(names[i], (int) Math.min(blockSize, length - blockNo * blockSize));
+    }
+
+    // one read for each run of missing blocks
+    int i = 0;
+    while (i < nblocks) {
+      if (blocks[i] != null) {
+        i++;
+        continue;
+      }
+      int j = i;
+      while (j + 1 < nblocks && blocks[j + 1] == null) j++;
+
+      long runStart = (firstBlock + i) * blockSize;
+      long runEnd = Math.min((firstBlock + j + 1) * blockSize, length);
+      byte[] run = new byte[(int) (runEnd - runStart)];
+      readFully(source, runStart, run);
+      bytesFetched.addAndGet(run.length);
+
+      for (int k = i; k <= j; k++) {
+        int start = (k - i) * blockSize;
+        blocks[k] = Arrays.copyOfRange(run, start, Math.min(start + blockSize, run.length));
+        writeBlock(names[k], blocks[k]);
+      }
+      i = j + 1;
+    }
+
+    int done = 0;
+    for (long p = pos; p < end; ) {
+      byte[] block = blocks[(int) (p / blockSize - firstBlock)];
+      int inBlock = (int) (p % blockSize);
+      int n = (int) Math.min(block.length - inBlock, end - p);
+      System.arraycopy(block, inBlock, buff, offset + done, n);
+      done += n;
+      p += n;
+    }
+    return done;
+  }
+
+  private String blockName(String location, long lastModified, long length, long blockNo) {
+    return Hashing.sha1().newHasher()
+            .putString(location, StandardCharsets.UTF_8)
+            .putLong(lastModified)
+            .putLong(length)
+            .putInt(blockSize)
+            .putLong(blockNo)
+            .hash().toString() + SUFFIX;
+  }
+
+  // return null if not in the cache
+  private byte[] readBlock(String name, int size) {
+    Integer cached = cache.getIfPresent(name);
+    if (cached == null) return null;
+    try {
+      byte[] block = Files.readAllBytes(new File(dir, name).toPath());
+      if (block.length == size) {
+        bytesFromCache.addAndGet(size);
+        return block;
+      }
+    } catch (IOException ioe) {
+      // deleted by someone else, treat as a miss
+    }
+    cache.invalidate(name);
+    return null;
+  }
+
+  // write to a temporary file, then rename, so a reader never sees part of a block
+  private void writeBlock(String name, byte[] block) {
+    if (block.length > maxBytes / CONCURRENCY) return; // wont fit in a cache segment
+    File temp = null;
+    try {
+      temp = File.createTempFile("block", TEMP_SUFFIX, dir);
+      Files.write(temp.toPath(), block);
+      Files.move(temp.toPath(), new File(dir, name).toPath(), StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+      cache.put(name, block.length);
+    } catch (IOException ioe) {
+      log.warn("DiskBlockCache failed to write {}: {}", name, ioe.getMessage());
+      if (temp != null && temp.exists() && !temp.delete())
+        log.warn("DiskBlockCache failed to delete {}", temp.getPath());
+    }
+  }
+
+  private void readFully(BlockSource source, long pos, byte[] buff) throws IOException {
+    int done = 0;
+    while (done < buff.length) {
+      int n = source.read(pos + done, buff, done, buff.length - done);
+      if (n <= 0)
+        throw new EOFException("DiskBlockCache: file ended at " + (pos + done));
+      done += n;
+    }
+  }
+
+  /**
+   * Remove all blocks, and delete their files.
+   */
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  public long getSizeBytes() {
+    long total = 0;
+    for (Integer size : cache.asMap().values())
+      total += size;
+    return total;
+  }
+
+  public long getHitCount() {
+    return cache.stats().hitCount();
+  }
+
+  public long getMissCount() {
+    return cache.stats().missCount();
+  }
+
+  public void showStats(Formatter f) {
+    CacheStats stats = cache.stats();
+    f.format("DiskBlockCache dir=%s maxBytes=%d blockSize=%d blocks=%d bytes=%d%n", dir, maxBytes, blockSize,
+            cache.size(), getSizeBytes());
+    f.format("  hits=%d miss=%d hitRate=%f evictions=%d bytesFromCache=%d bytesFetched=%d%n", stats.hitCount(),
+            stats.missCount(), stats.hitRate(), stats.evictionCount(), bytesFromCache.get(), bytesFetched.get());
+  }
+}
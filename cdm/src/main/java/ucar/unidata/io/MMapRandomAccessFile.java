@@ -33,93 +33,263 @@
 package ucar.unidata.io;
 
 import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Use NIO MappedByteBuffer to implement a RandomAccessFile.
- * Limited to 2G size. Not currently used - NOT UP TO DATE DO NOT USE
+ * Use NIO MappedByteBuffers to implement a read-only RandomAccessFile.
+ * <p>
+ * The file is mapped in segments of 1 GB, so files larger than 2 GB are supported. Each segment overlaps the next
+ * by 64 MB, so that most reads that cross a segment boundary can still be served from a single segment.
+ * The buffer is filled from the mapping with a memory copy instead of a system call, and the array reads
+ * (eg readFloat(float[], int, int)) are served straight from the mapping, without going through the buffer.
+ * <p>
+ * The mappings are released when the file is closed (that is, when it is really closed, not just released to
+ * the file cache), as soon as no read on another thread is using them; reads started after close fail with an
+ * IOException. Do not use a MMapRandomAccessFile for files that may be truncated while open.
+ * Use RandomAccessFile.acquire(location, bufferSize, true) or RandomAccessFile.addMappedRoot() to get one.
+ *
  * @author john
  */
 public class MMapRandomAccessFile extends RandomAccessFile {
+  static private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(MMapRandomAccessFile.class);
+
+  static private final long SEGMENT_SIZE = 1L << 30;  // 1 GB
+  static private final long SEGMENT_OVERLAP = 1L << 26; // 64 MB
+
+  private volatile MappedByteBuffer[] segments;
+  private long mappedLength;
 
-  private MappedByteBuffer source;
+  // a mapping must not be unmapped while a read is using it, else the JVM crashes. So count the reads in flight,
+  // and unmap when the file is closed and the last one has finished.
+  private final AtomicInteger readers = new AtomicInteger();
+  private volatile boolean closed;
+  private final AtomicBoolean unmapped = new AtomicBoolean();
 
   /**
-    * Constructor for in-memory "files"
-    * @param location used as a name
-    * @param mode the open mode
-    * @throws java.io.IOException on error
-    */
+   * Constructor.
+   * @param location location of the file
+   * @param mode the open mode, must be "r"
+   * @throws java.io.IOException on error
+   */
   public MMapRandomAccessFile(String location, String mode) throws IOException {
-    super(location, mode, 1);
-    FileChannel channel = file.getChannel();
-    source = channel.map( readonly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, (long) 0, channel.size());
-    //channel.close();
+    this(location, defaultBufferSize);
+    if (!mode.equals("r")) {
+      close();
+      throw new IllegalArgumentException("MMapRandomAccessFile is read-only");
+    }
+  }
+
+  /**
+   * Constructor, read-only.
+   * @param location location of the file
+   * @param bufferSize size of the buffer used for scalar reads, if < 0 use default
+   * @throws java.io.IOException on error
+   */
+  public MMapRandomAccessFile(String location, int bufferSize) throws IOException {
+    super(location, "r", bufferSize);
+    try {
+      map();
+    } catch (IOException | RuntimeException e) {
+      super.close();
+      throw e;
+    }
+  }
 
-    bufferStart = 0;
-	  dataSize = (int) channel.size();
-	  dataEnd = channel.size();
-    filePosition = 0;
-    buffer = null;
-    endOfFile = false;
+  private void map() throws IOException {
+    FileChannel channel = file.getChannel();
+    mappedLength = channel.size();
+    int nsegs = (int) ((mappedLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+    segments = new MappedByteBuffer[nsegs];
+    for (int i = 0; i < nsegs; i++) {
+      long start = i * SEGMENT_SIZE;
+      long size = Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, mappedLength - start);
+      segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+    }
   }
 
+  @Override
+  public synchronized void close() throws IOException {
+    super.close();
+    if (file == null && segments != null) { // really closed, not just released to the cache
+      closed = true;
+      if (readers.get() == 0)
+        unmapAll();
+    }
+  }
 
-  public void flush() throws IOException {
-    if (bufferModified) {
-      source.force();
-      bufferModified = false;
+  // must be matched by endRead()
+  private void beginRead() throws IOException {
+    readers.incrementAndGet();
+    if (closed) {
+      endRead();
+      throw new IOException("MMapRandomAccessFile is closed: " + location);
     }
   }
 
-  public long length( ) {
-    return dataEnd;
+  private void endRead() {
+    if (readers.decrementAndGet() == 0 && closed)
+      unmapAll();
+  }
+
+  private void unmapAll() {
+    if (!unmapped.compareAndSet(false, true)) return;
+    MappedByteBuffer[] segs = segments;
+    segments = null;
+    for (MappedByteBuffer seg : segs)
+      unmap(seg);
+  }
+
+  @Override
+  public long length() {
+    return mappedLength;
+  }
+
+  // a view of the segment containing pos, positioned at pos; only call between beginRead() and endRead()
+  private ByteBuffer view(long pos) {
+    ByteBuffer bb = segments[(int) (pos / SEGMENT_SIZE)].duplicate();
+    bb.position((int) (pos % SEGMENT_SIZE));
+    return bb;
   }
 
-  public void seek( long pos ) {
-    filePosition = pos;
-    if( filePosition < dataEnd )
-      source.position((int) filePosition);
-    else
-      endOfFile = true;
+  /**
+   * Copy from the mapping, used to fill the buffer.
+   */
+  @Override
+  protected int read_(long pos, byte[] b, int offset, int len) throws IOException {
+    if (pos >= mappedLength) return -1;
+    len = (int) Math.min(len, mappedLength - pos);
+
+    beginRead();
+    try {
+      int done = 0;
+      while (done < len) {
+        ByteBuffer src = view(pos + done);
+        int n = Math.min(len - done, src.remaining());
+        src.get(b, offset + done, n);
+        done += n;
+      }
+    } finally {
+      endRead();
+    }
+    return len;
   }
 
-   public void unread( ) {
-     seek( filePosition-1);
-   }
+  /**
+   * Serve array reads straight from the mapping, if they lie within one segment.
+   */
+  @Override
+  protected ByteBuffer readDirect(long nbytes) throws IOException {
+    if (nbytes <= 0 || filePosition + nbytes > mappedLength) return null; // let the buffered read deal with EOF
+
+    beginRead();
+    ByteBuffer bb = view(filePosition);
+    if (nbytes > bb.remaining()) {
+      endRead();
+      return null;
+    }
+    bb.limit(bb.position() + (int) nbytes);
+    bb.order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    filePosition += nbytes;
+    return bb;
+  }
 
-  public int read() throws IOException {
-    // If the file position is within the data, return the byte...
-    if( filePosition < dataEnd ) {
-      filePosition++;
-      return source.get() & 0xff;
+  @Override
+  protected void doneDirect() {
+    endRead();
+  }
 
-    } else {
-       return -1;
+  @Override
+  public long readToByteChannel(WritableByteChannel dest, long offset, long nbytes) throws IOException {
+    long need = Math.min(nbytes, mappedLength - offset);
+    long done = 0;
+    beginRead();
+    try {
+      while (done < need) {
+        ByteBuffer src = view(offset + done);
+        if (src.remaining() > need - done)
+          src.limit(src.position() + (int) (need - done));
+        while (src.hasRemaining())
+          done += dest.write(src);
+      }
+    } finally {
+      endRead();
     }
+    return done;
+  }
+
+  @Override
+  public void flush() {
+    // read-only
   }
 
-   protected int readBytes( byte dst[], int offset, int length ) throws IOException {
-     if( endOfFile ) return -1;
+  @Override
+  public void write(int b) throws IOException {
+    throw new IOException("MMapRandomAccessFile is read-only");
+  }
+
+  @Override
+  public void writeBytes(byte b[], int off, int len) throws IOException {
+    throw new IOException("MMapRandomAccessFile is read-only");
+  }
+
+  ////////////////////////////////////////////////////////////////////
+  // Mappings are normally only released when the MappedByteBuffer is garbage collected, which may be much later than
+  // close, holding on to address space and (on Windows) file locks. So release them explicitly, using the
+  // JDK internal cleaner. If that is not available, fall back to the garbage collector.
+
+  static private Unmapper unmapper = makeUnmapper();
 
-     length = (int) Math.min( length, dataEnd - filePosition);
-     if (length > 0) {
-       source.get(dst, offset, length);
-       filePosition += length;
-     }
-     return length;
-   }
+  private interface Unmapper {
+    void unmap(ByteBuffer bb) throws Exception;
+  }
+
+  static private Unmapper makeUnmapper() {
+    try { // java 9 and later
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      final Object unsafe = theUnsafe.get(null);
+      return new Unmapper() {
+        public void unmap(ByteBuffer bb) throws Exception {
+          invokeCleaner.invoke(unsafe, bb);
+        }
+      };
+    } catch (Exception e) {
+      // fall through
+    }
 
-  public void write( int b ) throws IOException {
-     source.put( (byte)b);
-     filePosition++;
-     bufferModified = true;
+    try { // java 8
+      final Method cleanerMethod = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+      final Method cleanMethod = Class.forName("sun.misc.Cleaner").getMethod("clean");
+      return new Unmapper() {
+        public void unmap(ByteBuffer bb) throws Exception {
+          Object cleaner = cleanerMethod.invoke(bb);
+          if (cleaner != null) cleanMethod.invoke(cleaner);
+        }
+      };
+    } catch (Exception e) {
+      log.debug("MMapRandomAccessFile cannot unmap explicitly; mappings are released by the garbage collector");
+      return null;
+    }
   }
 
-  public void writeBytes( byte dst[], int offset, int length ) throws IOException {
-    source.put(dst, offset, length);
-    filePosition += length;
+  static private void unmap(MappedByteBuffer bb) {
+    if (unmapper == null) return;
+    try {
+      unmapper.unmap(bb);
+    } catch (Exception e) {
+      log.warn("MMapRandomAccessFile unmap failed; mappings are released by the garbage collector", e);
+      unmapper = null;
+    }
   }
 
-}
\ No newline at end of file
+}
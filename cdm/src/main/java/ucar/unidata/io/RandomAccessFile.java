@@ -44,9 +44,11 @@ import ucar.unidata.util.StringUtil2;
 
 import javax.annotation.concurrent.NotThreadSafe;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.WritableByteChannel;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -191,12 +193,47 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
   static private final ucar.nc2.util.cache.FileFactory factory = new FileFactory() {
     public FileCacheable open(DatasetUrl durl, int buffer_size, CancelTask cancelTask, Object iospMessage) throws IOException {
       String location = StringUtil2.replace(durl.trueurl, "\\", "/"); // canonicalize the name
-      RandomAccessFile result = new RandomAccessFile(location, "r", buffer_size);
+      RandomAccessFile result = (iospMessage == MAPPED) ? new MMapRandomAccessFile(location, buffer_size) :
+              new RandomAccessFile(location, "r", buffer_size);
       result.cacheState = 1;  // in use
       return result;
     }
   };
 
+  static private final Object MAPPED = new Object(); // tells the factory to memory map the file
+  static private final String MAPPED_KEY_PREFIX = "mmap:";
+
+  // files whose location starts with one of these are memory mapped by acquire()
+  static private final List<String> mappedRoots = new CopyOnWriteArrayList<>();
+
+  /**
+   * Memory map files under this directory when they are acquired, instead of reading through the buffer.
+   * Use for local files on fast storage.
+   *
+   * @param pathPrefix location prefix, eg a directory name
+   */
+  static public void addMappedRoot(String pathPrefix) {
+    mappedRoots.add(StringUtil2.replace(pathPrefix, "\\", "/"));
+  }
+
+  static public void clearMappedRoots() {
+    mappedRoots.clear();
+  }
+
+  /**
+   * Is this location under a directory added by addMappedRoot() ?
+   *
+   * @param location file location
+   * @return true if acquire() will memory map it
+   */
+  static public boolean isMappedLocation(String location) {
+    if (mappedRoots.isEmpty()) return false;
+    String want = StringUtil2.replace(location, "\\", "/");
+    for (String root : mappedRoots)
+      if (want.startsWith(root)) return true;
+    return false;
+  }
+
   static private FileCacheIF cache = null;
 
   static public synchronized void enableDefaultGlobalFileCache() {
@@ -214,6 +251,8 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
   }
 
   static public RandomAccessFile acquire(String location) throws IOException {
+    if (isMappedLocation(location))
+      return acquire(location, -1, true);
     if (cache == null)
       return new RandomAccessFile(location, "r");
     else
@@ -221,14 +260,32 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
   }
 
   static public RandomAccessFile acquire(String location, int buffer_size) throws IOException {
+    return acquire(location, buffer_size, isMappedLocation(location));
+  }
+
+  /**
+   * Acquire a read-only file, from the global file cache if enabled.
+   *
+   * @param location    file location
+   * @param buffer_size buffer size, if < 0 use default
+   * @param mapped      if true, memory map the file with MMapRandomAccessFile
+   * @return open file, call close() when done
+   * @throws IOException on open error
+   */
+  static public RandomAccessFile acquire(String location, int buffer_size, boolean mapped) throws IOException {
     if (cache == null)
-      return new RandomAccessFile(location, "r", buffer_size);
+      return mapped ? new MMapRandomAccessFile(location, buffer_size) : new RandomAccessFile(location, "r", buffer_size);
+    else if (mapped)
+      return (RandomAccessFile) cache.acquire(factory, MAPPED_KEY_PREFIX + location, new DatasetUrl(null, location), buffer_size, null, MAPPED);
     else
       return (RandomAccessFile) cache.acquire(factory, location, new DatasetUrl(null, location), buffer_size, null, null);
   }
 
   static public void eject(String location) {
-    if (cache != null) cache.eject(location);
+    if (cache != null) {
+      cache.eject(location);
+      cache.eject(MAPPED_KEY_PREFIX + location);
+    }
   }
 
   static public void shutdown() {
@@ -623,6 +680,27 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
     this.extendMode = true;
   }
 
+  /**
+   * Get the next nbytes as a ByteBuffer in the current byte order, without copying, and advance the file position.
+   * Used by the array reads, eg readFloat(float[], int, int). Subclasses that can do this (eg memory mapped files)
+   * override; the default returns null and the bytes are read through the buffer.
+   *
+   * If not null, the caller must call doneDirect() when it is finished with the buffer.
+   *
+   * @param nbytes number of bytes wanted
+   * @return buffer positioned at the current file position with nbytes remaining, or null if not available
+   * @throws IOException on read error
+   */
+  protected ByteBuffer readDirect(long nbytes) throws IOException {
+    return null;
+  }
+
+  /**
+   * Called when the caller is finished with the buffer returned by readDirect(), which must not be used after this.
+   */
+  protected void doneDirect() {
+  }
+
   //////////////////////////////////////////////////////////////////////////////////////////////
   // Read primitives.
   //
@@ -1134,6 +1212,15 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
    * @throws IOException on read error
    */
   public final void readShort(short[] pa, int start, int n) throws IOException {
+    ByteBuffer bb = readDirect(2L * n);
+    if (bb != null) {
+      try {
+        bb.asShortBuffer().get(pa, start, n);
+      } finally {
+        doneDirect();
+      }
+      return;
+    }
     for (int i = 0; i < n; i++) {
       pa[start + i] = readShort();
     }
@@ -1287,6 +1374,15 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
    * @throws IOException on read error
    */
   public final void readInt(int[] pa, int start, int n) throws IOException {
+    ByteBuffer bb = readDirect(4L * n);
+    if (bb != null) {
+      try {
+        bb.asIntBuffer().get(pa, start, n);
+      } finally {
+        doneDirect();
+      }
+      return;
+    }
     for (int i = 0; i < n; i++) {
       pa[start + i] = readInt();
     }
@@ -1353,6 +1449,15 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
    * @throws IOException on read error
    */
   public final void readLong(long[] pa, int start, int n) throws IOException {
+    ByteBuffer bb = readDirect(8L * n);
+    if (bb != null) {
+      try {
+        bb.asLongBuffer().get(pa, start, n);
+      } finally {
+        doneDirect();
+      }
+      return;
+    }
     for (int i = 0; i < n; i++) {
       pa[start + i] = readLong();
     }
@@ -1390,6 +1495,15 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
    * @throws IOException on read error
    */
   public final void readFloat(float[] pa, int start, int n) throws IOException {
+    ByteBuffer bb = readDirect(4L * n);
+    if (bb != null) {
+      try {
+        bb.asFloatBuffer().get(pa, start, n);
+      } finally {
+        doneDirect();
+      }
+      return;
+    }
     for (int i = 0; i < n; i++) {
       pa[start + i] = Float.intBitsToFloat(readInt());
     }
@@ -1427,6 +1541,15 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
    * @throws IOException on read error
    */
   public final void readDouble(double[] pa, int start, int n) throws IOException {
+    ByteBuffer bb = readDirect(8L * n);
+    if (bb != null) {
+      try {
+        bb.asDoubleBuffer().get(pa, start, n);
+      } finally {
+        doneDirect();
+      }
+      return;
+    }
     for (int i = 0; i < n; i++) {
       pa[start + i] = Double.longBitsToDouble(readLong());
     }
@@ -34,9 +34,11 @@
 package ucar.unidata.io.http;
 
 import org.apache.http.Header;
+import org.apache.http.client.utils.DateUtils;
 import ucar.httpservices.HTTPFactory;
 import ucar.httpservices.HTTPMethod;
 import ucar.httpservices.HTTPSession;
+import ucar.unidata.io.DiskBlockCache;
 import ucar.unidata.util.Urlencoded;
 
 import java.io.FileNotFoundException;
@@ -44,12 +46,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
+import java.util.Date;
 
 /**
  * Gives access to files over HTTP, using "Accept-Ranges" HTTP header to do random access.
  * This version uses a single instance of HttpClient, following performance guidelines at
  * http://jakarta.apache.org/commons/httpclient/performance.html
  * Plus other improvements.
+ * <p>
+ * If a DiskBlockCache is set, and the server sends a Last-Modified header, the blocks read are kept on local disk,
+ * so later opens of the same (unchanged) file read them from there.
  *
  * @author John Caron, based on work by Donald Denbo
  */
@@ -58,12 +64,26 @@ public class HTTPRandomAccessFile extends ucar.unidata.io.RandomAccessFile {
   static public final int defaultHTTPBufferSize = 20 * 1000;       // 20K
   static public final int maxHTTPBufferSize = 10 * 1000 * 1000;     // 10 M
   static private final boolean debug = false, debugDetails = false;
+  static private volatile DiskBlockCache blockCache;  // optional, shared by all instances
+
+  /**
+   * Keep the blocks read from remote files on local disk.
+   * @param cache use this cache; null (the default) turns block caching off.
+   */
+  static public void setBlockCache(DiskBlockCache cache) {
+    blockCache = cache;
+  }
+
+  static public DiskBlockCache getBlockCache() {
+    return blockCache;
+  }
 
   ///////////////////////////////////////////////////////////////////////////////////
 
   private String url;
   private HTTPSession session = null;
   private long total_length = 0;
+  private long lastModified = 0; // from the Last-Modified header, 0 if not sent
 
   public HTTPRandomAccessFile(String url) throws IOException {
     this(url, defaultHTTPBufferSize);
@@ -99,6 +119,12 @@ public class HTTPRandomAccessFile extends ucar.unidata.io.RandomAccessFile {
         throw new IOException("Server does not support byte Ranges");
       }
 
+      head = method.getResponseHeader("Last-Modified");
+      if (head != null) {
+        Date date = DateUtils.parseDate(head.getValue());
+        if (date != null) lastModified = date.getTime();
+      }
+
       head = method.getResponseHeader("Content-Length");
       if (head == null) {
         throw new IOException("Server does not support Content-Length");
@@ -198,6 +224,18 @@ public class HTTPRandomAccessFile extends ucar.unidata.io.RandomAccessFile {
    */
   @Override
   protected int read_(long pos, byte[] buff, int offset, int len) throws IOException {
+    DiskBlockCache cache = blockCache;
+    if (cache == null || lastModified <= 0 || total_length <= 0)
+      return readRemote(pos, buff, offset, len);
+
+    return cache.read(url, lastModified, total_length, pos, buff, offset, len, new DiskBlockCache.BlockSource() {
+      public int read(long pos, byte[] buff, int offset, int len) throws IOException {
+        return readRemote(pos, buff, offset, len);
+      }
+    });
+  }
+
+  private int readRemote(long pos, byte[] buff, int offset, int len) throws IOException {
     long end = pos + len - 1;
     if (end >= total_length)
       end = total_length - 1;
@@ -259,13 +297,12 @@ public class HTTPRandomAccessFile extends ucar.unidata.io.RandomAccessFile {
   }
 
   /**
-   * Always returns {@code 0L}, as we cannot easily determine the last time that a remote file was modified.
+   * Returns the Last-Modified header sent by the server when the file was opened.
    *
-   * @return  {@code 0L}, always.
+   * @return  the last modified date in msecs, or {@code 0L} if the server did not send it.
    */
-  // LOOK: An idea of how we might implement this: https://github.com/Unidata/thredds/pull/479#issuecomment-194562614
   @Override
   public long getLastModified() {
-    return 0;
+    return lastModified;
   }
 }
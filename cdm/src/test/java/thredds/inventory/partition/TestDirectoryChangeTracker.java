@@ -0,0 +1,207 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package thredds.inventory.partition;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.*;
+
+/**
+ * Test DirectoryChangeTracker on a temporary directory tree.
+ */
+public class TestDirectoryChangeTracker {
+  static private final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(TestDirectoryChangeTracker.class);
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Path root, a, b;
+  private DirectoryChangeTracker tracker;
+
+  @Before
+  public void setup() throws IOException {
+    root = tempFolder.getRoot().toPath().toAbsolutePath().normalize();
+    a = Files.createDirectory(root.resolve("a"));
+    b = Files.createDirectory(root.resolve("b"));
+    Files.createFile(a.resolve("old.grib2"));
+    Files.createFile(b.resolve("old.grib2"));
+
+    DirectoryStream.Filter<Path> filter = new DirectoryStream.Filter<Path>() {
+      public boolean accept(Path entry) throws IOException {
+        return !entry.getFileName().toString().endsWith(".gbx9");
+      }
+    };
+    tracker = new DirectoryChangeTracker(root, filter, logger);
+  }
+
+  @After
+  public void cleanup() throws IOException {
+    tracker.close();
+  }
+
+  // events arrive asynchronously; wait for a change in dir, then let the rest of the events arrive
+  private void waitForPending(Path dir) throws InterruptedException {
+    for (int i = 0; i < 100 && !tracker.hasChanges(dir); i++)
+      Thread.sleep(100);
+    Thread.sleep(200);
+  }
+
+  private DirectoryChangeTracker.Changes waitForChanges(Path dir) throws InterruptedException {
+    waitForPending(dir);
+    return tracker.takeChanges(0);
+  }
+
+  private DirectoryChangeTracker.DirectoryChanges find(DirectoryChangeTracker.Changes changes, Path dir) {
+    for (DirectoryChangeTracker.DirectoryChanges dc : changes.getDirectories())
+      if (dc.getDirectory().equals(dir)) return dc;
+    return null;
+  }
+
+  @Test
+  public void testNoChanges() throws Exception {
+    Thread.sleep(200);
+    DirectoryChangeTracker.Changes changes = tracker.takeChanges(0);
+    Assert.assertTrue(changes.isComplete());
+    Assert.assertTrue(changes.isEmpty());
+    Assert.assertFalse(changes.affects(root));
+  }
+
+  @Test
+  public void testAddFile() throws Exception {
+    Path added = Files.createFile(a.resolve("new.grib2"));
+    Files.createFile(a.resolve("new.grib2.gbx9")); // filtered out
+    DirectoryChangeTracker.Changes changes = waitForChanges(a);
+
+    Assert.assertTrue(changes.isComplete());
+    Assert.assertTrue(changes.affects(a));
+    Assert.assertTrue(changes.affects(root));
+    Assert.assertFalse(changes.affects(b));
+    DirectoryChangeTracker.DirectoryChanges dc = find(changes, a);
+    Assert.assertNotNull(dc);
+    Assert.assertTrue(dc.getAdded().contains(added));
+    Assert.assertEquals(1, dc.getAdded().size());
+
+    // taken
+    Assert.assertTrue(tracker.takeChanges(0).isEmpty());
+  }
+
+  @Test
+  public void testRemoveFile() throws Exception {
+    Files.delete(b.resolve("old.grib2"));
+    DirectoryChangeTracker.Changes changes = waitForChanges(b);
+
+    Assert.assertFalse(changes.affects(a));
+    DirectoryChangeTracker.DirectoryChanges dc = find(changes, b);
+    Assert.assertNotNull(dc);
+    Assert.assertTrue(dc.getRemoved().contains(b.resolve("old.grib2")));
+    Assert.assertTrue(dc.getAdded().isEmpty());
+  }
+
+  @Test
+  public void testNewDirectory() throws Exception {
+    Path c = Files.createDirectory(root.resolve("c"));
+    Path file = Files.createFile(c.resolve("new.grib2"));
+    DirectoryChangeTracker.Changes changes = waitForChanges(c);
+
+    Assert.assertTrue(changes.affects(c));
+    Assert.assertTrue(changes.affects(root));
+    Assert.assertFalse(changes.affects(a));
+    DirectoryChangeTracker.DirectoryChanges dc = find(changes, c);
+    Assert.assertNotNull(dc);
+    Assert.assertTrue(dc.getAdded().contains(file));
+
+    // the new directory is watched
+    Files.delete(file);
+    changes = waitForChanges(c);
+    dc = find(changes, c);
+    Assert.assertNotNull(dc);
+    Assert.assertTrue(dc.getRemoved().contains(file));
+  }
+
+  @Test
+  public void testRestore() throws Exception {
+    Path first = Files.createFile(a.resolve("first.grib2"));
+    DirectoryChangeTracker.Changes changes = waitForChanges(a);
+    Assert.assertTrue(changes.affects(a));
+
+    // the update failed; meanwhile another file arrived
+    changes.setFailed();
+    Assert.assertTrue(changes.isFailed());
+    Path second = Files.createFile(a.resolve("second.grib2"));
+    waitForPending(a);
+    tracker.restoreChanges(changes);
+
+    changes = tracker.takeChanges(0);
+    DirectoryChangeTracker.DirectoryChanges dc = find(changes, a);
+    Assert.assertNotNull(dc);
+    Assert.assertTrue(dc.getAdded().contains(first));
+    Assert.assertTrue(dc.getAdded().contains(second));
+    Assert.assertFalse(changes.affects(b));
+    Assert.assertTrue(tracker.takeChanges(0).isEmpty());
+  }
+
+  @Test
+  public void testRestoreAll() throws Exception {
+    Files.createFile(a.resolve("new.grib2"));
+    waitForPending(a);
+
+    // a full update takes everything
+    DirectoryChangeTracker.Changes changes = tracker.takeAll();
+    Assert.assertFalse(changes.isComplete());
+    Assert.assertTrue(changes.affects(b));
+    Assert.assertFalse(tracker.hasChanges(a));
+
+    // if it fails, the next update checks everything again
+    tracker.restoreChanges(changes);
+    Assert.assertFalse(tracker.takeChanges(0).isComplete());
+    Assert.assertTrue(tracker.takeChanges(0).isEmpty());
+  }
+
+  @Test
+  public void testOlderThan() throws Exception {
+    Files.createFile(a.resolve("new.grib2"));
+    waitForPending(a);
+
+    // too recent, so it stays in the tracker
+    DirectoryChangeTracker.Changes changes = tracker.takeChanges(60 * 1000);
+    Assert.assertTrue(changes.isEmpty());
+    Assert.assertTrue(tracker.hasChanges(a));
+
+    changes = tracker.takeChanges(0);
+    Assert.assertTrue(changes.affects(a));
+  }
+
+}
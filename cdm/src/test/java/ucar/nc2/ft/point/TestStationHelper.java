@@ -0,0 +1,54 @@
+package ucar.nc2.ft.point;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ucar.unidata.geoloc.LatLonPointImpl;
+import ucar.unidata.geoloc.LatLonRect;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * StationHelper bounding box searches must find the same stations as a linear search, in the same order.
+ */
+public class TestStationHelper {
+
+  @Test
+  public void testBoundingBox() throws IOException {
+    Random random = new Random(17);
+    List<StationFeature> stations = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      double lat = -90 + 180 * random.nextDouble();
+      double lon = -360 + 720 * random.nextDouble(); // not normalized
+      if (i % 97 == 0) lon = Double.NaN;
+      if (i % 89 == 0) lon = 180.0;
+      stations.add(new StationFeatureImpl("stn" + i, null, null, lat, lon, 0, 1, null));
+    }
+    StationHelper helper = new StationHelper();
+    helper.setStations(stations);
+
+    List<LatLonRect> boxes = new ArrayList<>();
+    boxes.add(new LatLonRect(new LatLonPointImpl(-10, -10), new LatLonPointImpl(10, 10)));
+    boxes.add(new LatLonRect(new LatLonPointImpl(-30, 170), new LatLonPointImpl(30, -170))); // crosses the dateline
+    boxes.add(new LatLonRect(new LatLonPointImpl(-90, -180), new LatLonPointImpl(90, 180)));
+    boxes.add(new LatLonRect(new LatLonPointImpl(0, 180), 5, 0));
+    boxes.add(new LatLonRect(new LatLonPointImpl(20, 100), 0, 0));
+    for (int i = 0; i < 100; i++)
+      boxes.add(new LatLonRect(new LatLonPointImpl(-90 + 180 * random.nextDouble(), -180 + 360 * random.nextDouble()),
+              60 * random.nextDouble(), 200 * random.nextDouble()));
+
+    for (LatLonRect bb : boxes)
+      Assert.assertEquals(bb.toString2(), find(stations, bb), helper.getStationFeatures(bb));
+  }
+
+  private List<StationFeature> find(List<StationFeature> stations, LatLonRect bb) {
+    List<StationFeature> result = new ArrayList<>();
+    for (StationFeature s : stations) {
+      if (bb.contains(new LatLonPointImpl(s.getLatitude(), s.getLongitude())))
+        result.add(s);
+    }
+    return result;
+  }
+}
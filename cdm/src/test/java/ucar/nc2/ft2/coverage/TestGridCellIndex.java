@@ -0,0 +1,150 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.ft2.coverage;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ucar.ma2.ArrayDouble;
+import ucar.ma2.MAMath;
+
+import java.util.Random;
+
+/**
+ * Compare GridCellIndex lookups with a brute force search, on a curvilinear grid with some missing points.
+ */
+public class TestGridCellIndex {
+  private static final int ny = 57, nx = 83;
+
+  private final ArrayDouble.D2 latEdge, lonEdge;
+  private final GridCellIndex index;
+  private final MAMath.MinMax latMinMax, lonMinMax;
+
+  public TestGridCellIndex() {
+    latEdge = new ArrayDouble.D2(ny + 1, nx + 1);
+    lonEdge = new ArrayDouble.D2(ny + 1, nx + 1);
+    for (int j = 0; j <= ny; j++)
+      for (int i = 0; i <= nx; i++) {
+        latEdge.set(j, i, 30 + 0.1 * j + 0.02 * i + 0.05 * Math.sin(i / 9.0));
+        lonEdge.set(j, i, -80 + 0.1 * i - 0.03 * j + 0.04 * Math.cos(j / 7.0));
+      }
+    latEdge.set(20, 30, Double.NaN);  // a land mask, say
+    lonEdge.set(20, 30, Double.NaN);
+
+    latMinMax = MAMath.getMinMax(latEdge);
+    lonMinMax = MAMath.getMinMax(lonEdge);
+    index = new GridCellIndex(latEdge, lonEdge, latMinMax.min, latMinMax.max, lonMinMax.min, lonMinMax.max);
+  }
+
+  @Test
+  public void testFindCell() {
+    Random r = new Random(17);
+    int[] rectIndex = new int[2];
+    int found = 0;
+    for (int k = 0; k < 5000; k++) {
+      double lat = latMinMax.min - 0.1 + r.nextDouble() * (latMinMax.max - latMinMax.min + 0.2);
+      double lon = lonMinMax.min - 0.1 + r.nextDouble() * (lonMinMax.max - lonMinMax.min + 0.2);
+
+      boolean want = false;
+      for (int row = 0; row < ny && !want; row++)
+        for (int col = 0; col < nx && !want; col++)
+          want = contains(lat, lon, row, col);
+
+      boolean ok = index.findCell(lat, lon, rectIndex, idx -> contains(lat, lon, idx[0], idx[1]));
+      Assert.assertEquals(lat + " " + lon, want, ok);
+      if (ok) {
+        Assert.assertTrue(contains(lat, lon, rectIndex[0], rectIndex[1]));
+        found++;
+      }
+    }
+    Assert.assertTrue(found > 1000);
+  }
+
+  @Test
+  public void testPointBounds() {
+    Random r = new Random(42);
+    for (int k = 0; k < 500; k++) {
+      double lat0 = latMinMax.min - 0.5 + r.nextDouble() * (latMinMax.max - latMinMax.min + 1.0);
+      double lon0 = lonMinMax.min - 0.5 + r.nextDouble() * (lonMinMax.max - lonMinMax.min + 1.0);
+      double lat1 = lat0 + r.nextDouble() * 3;
+      double lon1 = lon0 + r.nextDouble() * 4;
+
+      int[] want = new int[]{Integer.MAX_VALUE, -1, Integer.MAX_VALUE, -1};
+      for (int row = 0; row <= ny; row++)
+        for (int col = 0; col <= nx; col++) {
+          double lat = latEdge.get(row, col);
+          double lon = lonEdge.get(row, col);
+          if ((lat >= lat0) && (lat <= lat1) && (lon >= lon0) && (lon <= lon1)) {
+            want[0] = Math.min(want[0], row);
+            want[1] = Math.max(want[1], row);
+            want[2] = Math.min(want[2], col);
+            want[3] = Math.max(want[3], col);
+          }
+        }
+
+      int[] bounds = new int[]{Integer.MAX_VALUE, -1, Integer.MAX_VALUE, -1};
+      index.addPointBounds(lat0, lat1, lon0, lon1, bounds);
+      Assert.assertArrayEquals(want, bounds);
+    }
+  }
+
+  @Test
+  public void testWholeGrid() {
+    int[] bounds = new int[]{Integer.MAX_VALUE, -1, Integer.MAX_VALUE, -1};
+    index.addPointBounds(-90, 90, -180, 180, bounds);
+    Assert.assertArrayEquals(new int[]{0, ny, 0, nx}, bounds);
+  }
+
+  // same test as HorizCoordSys2D, except cells with a missing corner are never found
+  private boolean contains(double wantLat, double wantLon, int row, int col) {
+    double x1 = lonEdge.get(row, col);
+    double y1 = latEdge.get(row, col);
+    double x2 = lonEdge.get(row, col + 1);
+    double y2 = latEdge.get(row, col + 1);
+    double x3 = lonEdge.get(row + 1, col + 1);
+    double y3 = latEdge.get(row + 1, col + 1);
+    double x4 = lonEdge.get(row + 1, col);
+    double y4 = latEdge.get(row + 1, col);
+    if (Double.isNaN(x1 + y1 + x2 + y2 + x3 + y3 + x4 + y4)) return false;
+
+    boolean sign = detIsPositive(x1, y1, x2, y2, wantLon, wantLat);
+    if (sign != detIsPositive(x2, y2, x3, y3, wantLon, wantLat)) return false;
+    if (sign != detIsPositive(x3, y3, x4, y4, wantLon, wantLat)) return false;
+    if (sign != detIsPositive(x4, y4, x1, y1, wantLon, wantLat)) return false;
+    return true;
+  }
+
+  private boolean detIsPositive(double x0, double y0, double x1, double y1, double x2, double y2) {
+    return (x1 * y2 - y1 * x2 - x0 * y2 + y0 * x2 + x0 * y1 - y0 * x1) > 0;
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.ft2.coverage.writer;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.*;
+import ucar.nc2.*;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.ft2.coverage.*;
+import ucar.nc2.iosp.netcdf3.N3outputStreamWriter;
+import ucar.nc2.util.Optional;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compare CFGridCoverageWriter2.writeStream() with writing the file through NetcdfFileWriter,
+ * on a small CF grid made here: T(time, pressure, lat, lon), where time may be intervals.
+ */
+public class TestCFGridCoverageStream {
+  private static final int ntime = 5, nz = 3, nlat = 20, nlon = 30;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private File makeGrid() throws IOException, InvalidRangeException {
+    return makeGrid(null);
+  }
+
+  // if timeBounds is not null, time is an interval coordinate with these bounds and the midpoints as values
+  private File makeGrid(double[] timeBounds) throws IOException, InvalidRangeException {
+    File f = tempFolder.newFile("grid.nc");
+    NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, f.getPath());
+    writer.addGroupAttribute(null, new Attribute("Conventions", "CF-1.0"));
+    writer.addDimension(null, "time", ntime);
+    writer.addDimension(null, "pressure", nz);
+    writer.addDimension(null, "lat", nlat);
+    writer.addDimension(null, "lon", nlon);
+    Variable time = writer.addVariable(null, "time", DataType.DOUBLE, "time");
+    time.addAttribute(new Attribute("units", "hours since 2016-01-01T00:00:00Z"));
+    Variable bounds = null;
+    if (timeBounds != null) {
+      writer.addDimension(null, "nv", 2);
+      bounds = writer.addVariable(null, "time_bounds", DataType.DOUBLE, "time nv");
+      time.addAttribute(new Attribute("bounds", "time_bounds"));
+    }
+    Variable z = writer.addVariable(null, "pressure", DataType.FLOAT, "pressure");
+    z.addAttribute(new Attribute("units", "hPa"));
+    z.addAttribute(new Attribute("positive", "down"));
+    Variable lat = writer.addVariable(null, "lat", DataType.FLOAT, "lat");
+    lat.addAttribute(new Attribute("units", "degrees_north"));
+    Variable lon = writer.addVariable(null, "lon", DataType.FLOAT, "lon");
+    lon.addAttribute(new Attribute("units", "degrees_east"));
+    Variable t = writer.addVariable(null, "T", DataType.FLOAT, "time pressure lat lon");
+    t.addAttribute(new Attribute("units", "K"));
+    writer.create();
+
+    if (timeBounds == null) {
+      writer.write(time, Array.makeArray(DataType.DOUBLE, ntime, 0, 6));
+    } else {
+      double[] mids = new double[ntime];
+      for (int i = 0; i < ntime; i++)
+        mids[i] = (timeBounds[2 * i] + timeBounds[2 * i + 1]) / 2;
+      writer.write(time, Array.factory(DataType.DOUBLE, new int[] {ntime}, mids));
+      writer.write(bounds, Array.factory(DataType.DOUBLE, new int[] {ntime, 2}, timeBounds));
+    }
+    writer.write(z, Array.makeArray(DataType.FLOAT, nz, 1000, -250));
+    writer.write(lat, Array.makeArray(DataType.FLOAT, nlat, 30, 0.5));
+    writer.write(lon, Array.makeArray(DataType.FLOAT, nlon, -100, 0.5));
+    Array data = Array.factory(DataType.FLOAT, new int[] {ntime, nz, nlat, nlon});
+    for (int i = 0; i < data.getSize(); i++)
+      data.setFloat(i, 200 + i / 10.0f);
+    writer.write(t, data);
+    writer.close();
+    return f;
+  }
+
+  @Test
+  public void testStream() throws Exception {
+    compare(new SubsetParams().set(SubsetParams.timeAll, true), Long.MAX_VALUE);
+  }
+
+  @Test
+  public void testStreamSlabs() throws Exception {
+    // force reading one time at a time
+    compare(new SubsetParams().set(SubsetParams.timeAll, true), 1000);
+  }
+
+  @Test
+  public void testStreamVertSlabs() throws Exception {
+    // one time, so the outer dimension is pressure
+    SubsetParams params = new SubsetParams().setTime(ucar.nc2.time.CalendarDate.parseISOformat(null, "2016-01-01T12:00:00Z"));
+    compare(params, 1000);
+  }
+
+  @Test
+  public void testStreamDuplicateMidpoints() throws Exception {
+    // the first two intervals have the same midpoint, so they cant be read one at a time by coordinate value
+    double[] timeBounds = {0, 6, 2, 4, 6, 12, 12, 18, 12, 24};
+    compare(makeGrid(timeBounds), new SubsetParams().set(SubsetParams.timeAll, true), 1000);
+  }
+
+  @Test
+  public void testLargeFileHeader() throws Exception {
+    File grid = makeGrid();
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    try (NetcdfFile ncfile = NetcdfFile.open(grid.getPath())) {
+      DataOutputStream stream = new DataOutputStream(bout);
+      N3outputStreamWriter writer = new N3outputStreamWriter(ncfile);
+      writer.setLargeFile(true);
+      writer.writeHeader(stream, 0);
+      for (Variable v : ncfile.getVariables())
+        writer.writeNonRecordData(v, stream, v.read());
+      stream.flush();
+      Assert.assertEquals(bout.size(), writer.getFilePos());
+    }
+
+    byte[] streamed = bout.toByteArray();
+    Assert.assertEquals(2, streamed[3]); // CDF2
+    try (NetcdfFile want = NetcdfFile.open(grid.getPath());
+         NetcdfFile got = NetcdfFile.openInMemory("large.nc", streamed)) {
+      for (Variable wantVar : want.getVariables())
+        Assert.assertTrue(wantVar.getFullName(), MAMath.equals(wantVar.read(), got.findVariable(wantVar.getFullNameEscaped()).read()));
+    }
+  }
+
+  private void compare(SubsetParams params, long maxSlabBytes) throws Exception {
+    compare(makeGrid(), params, maxSlabBytes);
+  }
+
+  private void compare(File grid, SubsetParams params, long maxSlabBytes) throws Exception {
+    File fileOut = tempFolder.newFile("file.nc");
+    List<String> covs = Arrays.asList("T");
+    byte[] streamed;
+
+    try (FeatureDatasetCoverage cc = CoverageDatasetFactory.open(grid.getPath())) {
+      Assert.assertNotNull(cc);
+      CoverageCollection gcs = cc.findCoverageDataset(FeatureType.GRID);
+      Assert.assertNotNull(gcs);
+
+      NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, fileOut.getPath(), null);
+      Optional<Long> fileSize = CFGridCoverageWriter2.writeOrTestSize(gcs, covs, params, false, false, writer);
+      Assert.assertTrue(fileSize.isPresent());
+
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      Optional<Long> streamSize = CFGridCoverageWriter2.writeStream(gcs, covs, params, false, bout, maxSlabBytes);
+      Assert.assertTrue(streamSize.isPresent());
+      streamed = bout.toByteArray();
+      Assert.assertEquals(streamed.length, (long) streamSize.get());
+    }
+
+    try (NetcdfFile want = NetcdfFile.open(fileOut.getPath());
+         NetcdfFile got = NetcdfFile.openInMemory("stream.nc", streamed)) {
+      Assert.assertEquals(want.getDimensions().toString(), got.getDimensions().toString());
+      Assert.assertEquals(want.getVariables().size(), got.getVariables().size());
+      for (Variable wantVar : want.getVariables()) {
+        Variable gotVar = got.findVariable(wantVar.getFullNameEscaped());
+        Assert.assertNotNull(wantVar.getFullName(), gotVar);
+        Assert.assertEquals(wantVar.getNameAndDimensions(), gotVar.getNameAndDimensions());
+        Assert.assertEquals(wantVar.getDataType(), gotVar.getDataType());
+        Assert.assertEquals(wantVar.getAttributes().size(), gotVar.getAttributes().size());
+        Assert.assertTrue(wantVar.getFullName(), MAMath.equals(wantVar.read(), gotVar.read()));
+      }
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.iosp.hdf5;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Test the LRU of decoded HDF5 chunks
+ */
+public class TestH5chunkCache {
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+    H5chunkCache cache = new H5chunkCache(300);
+    cache.put(1, ByteBuffer.allocate(100));
+    cache.put(2, ByteBuffer.allocate(100));
+    cache.put(3, ByteBuffer.allocate(100));
+    Assert.assertNotNull(cache.get(1)); // 2 is now the oldest
+
+    cache.put(4, ByteBuffer.allocate(100));
+    Assert.assertNull(cache.get(2));
+    Assert.assertNotNull(cache.get(1));
+    Assert.assertNotNull(cache.get(3));
+    Assert.assertNotNull(cache.get(4));
+    Assert.assertEquals(300, cache.getSizeBytes());
+  }
+
+  @Test
+  public void testTooBig() {
+    H5chunkCache cache = new H5chunkCache(100);
+    cache.put(1, ByteBuffer.allocate(50));
+    cache.put(2, ByteBuffer.allocate(101));
+    Assert.assertNull(cache.get(2));
+    Assert.assertNotNull(cache.get(1));
+
+    cache.put(3, ByteBuffer.allocate(100));
+    Assert.assertNull(cache.get(1));
+    Assert.assertEquals(100, cache.getSizeBytes());
+
+    cache.clear();
+    Assert.assertEquals(0, cache.getSizeBytes());
+  }
+
+  @Test
+  public void testTotalLimit() {
+    H5chunkCache.setMaxTotalBytes(300); // the chunks other tests left in the cache are older, so evicted first
+    try {
+      H5chunkCache cache1 = new H5chunkCache(1000);
+      H5chunkCache cache2 = new H5chunkCache(1000);
+      cache1.put(1, ByteBuffer.allocate(100));
+      cache1.put(2, ByteBuffer.allocate(100));
+      cache2.put(1, ByteBuffer.allocate(100));
+      Assert.assertEquals(300, H5chunkCache.getTotalBytes());
+
+      cache2.put(2, ByteBuffer.allocate(100)); // evicts the oldest chunk of any file
+      Assert.assertEquals(100, cache1.getSizeBytes());
+      Assert.assertEquals(200, cache2.getSizeBytes());
+      Assert.assertEquals(300, H5chunkCache.getTotalBytes());
+      Assert.assertNull(cache1.get(1));
+      Assert.assertNotNull(cache1.get(2));
+      Assert.assertNotNull(cache2.get(1));
+      Assert.assertNotNull(cache2.get(2));
+
+      cache2.clear();
+      Assert.assertEquals(100, H5chunkCache.getTotalBytes());
+      Assert.assertNotNull(cache1.get(2));
+      cache1.clear();
+      Assert.assertEquals(0, H5chunkCache.getTotalBytes());
+
+    } finally {
+      H5chunkCache.setMaxTotalBytes(128 * 1000 * 1000);
+    }
+  }
+}
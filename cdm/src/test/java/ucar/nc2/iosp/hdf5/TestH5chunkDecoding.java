@@ -0,0 +1,139 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.iosp.hdf5;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Section;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import ucar.unidata.util.test.TestDir;
+
+import java.io.IOException;
+
+/**
+ * Read filtered chunked variables, decoding on the calling thread and on the decoding pool,
+ * with and without the chunk cache.
+ * hdf5Filters.h5 was written with ucar.nc2.bench.Hdf5Writer; edge chunks are partly outside the variables.
+ */
+public class TestH5chunkDecoding {
+  private static final String filename = TestDir.cdmLocalTestDataDir + "hdf5Filters.h5";
+  private static final String[] varNames = {"shuffle_deflate", "fletcher32", "shuffle_deflate_fletcher32"};
+  private static final int[] shape = {5, 40, 50};
+  private static final String[] sections = {null, "1:3,10:30,5:45", "4,0:39,24:25", "0:4:2,15,:"};
+
+  // the values written to each variable
+  private static float value(int index) {
+    return ((index / 13) % 251) * 0.5f + (index % 3);
+  }
+
+  @After
+  public void restoreDefaults() {
+    H5iosp.setChunkDecoding(1, 32 * 1000 * 1000, 128 * 1000 * 1000);
+  }
+
+  @Test
+  public void testSerial() throws IOException, InvalidRangeException {
+    check(1, 0);
+  }
+
+  @Test
+  public void testSerialCached() throws IOException, InvalidRangeException {
+    check(1, 32 * 1000 * 1000);
+  }
+
+  @Test
+  public void testParallel() throws IOException, InvalidRangeException {
+    check(4, 0);
+    Assert.assertTrue("no decoding threads", hasDecoderThread());
+  }
+
+  @Test
+  public void testParallelCached() throws IOException, InvalidRangeException {
+    check(4, 32 * 1000 * 1000);
+  }
+
+  @Test
+  public void testSerialEqualsParallel() throws IOException, InvalidRangeException {
+    for (String name : varNames) {
+      for (String spec : sections) {
+        H5iosp.setChunkDecoding(1, 0, 128 * 1000 * 1000);
+        float[] serial = read(name, spec);
+        H5iosp.setChunkDecoding(4, 0, 128 * 1000 * 1000);
+        float[] parallel = read(name, spec);
+        Assert.assertArrayEquals(name + " " + spec, serial, parallel, 0.0f);
+      }
+    }
+  }
+
+  private void check(int nthreads, long cacheBytes) throws IOException, InvalidRangeException {
+    H5iosp.setChunkDecoding(nthreads, cacheBytes, 128 * 1000 * 1000);
+    try (NetcdfFile ncfile = NetcdfFile.open(filename)) {
+      for (String name : varNames) {
+        Variable v = ncfile.findVariable(name);
+        Assert.assertNotNull(name, v);
+        for (int pass = 0; pass < 2; pass++) { // the second pass uses the cache, if any
+          for (String spec : sections) {
+            Section section = Section.fill((spec == null) ? null : new Section(spec), shape);
+            float[] data = (float[]) v.read(section).get1DJavaArray(float.class);
+
+            Section.Iterator iter = section.getIterator(shape);
+            int count = 0;
+            while (iter.hasNext()) {
+              int index = iter.next(null);
+              Assert.assertEquals(name + " " + spec + " " + index, value(index), data[count++], 0.0f);
+            }
+            Assert.assertEquals(data.length, count);
+          }
+        }
+      }
+    }
+  }
+
+  private float[] read(String name, String spec) throws IOException, InvalidRangeException {
+    try (NetcdfFile ncfile = NetcdfFile.open(filename)) {
+      Array data = ncfile.findVariable(name).read(spec == null ? new Section(shape) : new Section(spec));
+      return (float[]) data.get1DJavaArray(float.class);
+    }
+  }
+
+  private boolean hasDecoderThread() {
+    for (Thread t : Thread.getAllStackTraces().keySet())
+      if (t.getName().startsWith("H5chunkDecoder-")) return true;
+    return false;
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.ncml;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.*;
+import ucar.nc2.*;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.util.CancelTaskImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrent member reads of joinExisting and joinNew aggregations must give the same data as serial reads,
+ * for whole variables and strided sections, and keep to the per-aggregation concurrency.
+ */
+public class TestAggConcurrentRead {
+  static final int NFILES = 13, NY = 4, NX = 5;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicInteger maxActive = new AtomicInteger();
+  private ExecutorService pool;
+
+  private List<File> files = new ArrayList<>();
+
+  @Before
+  public void setup() throws Exception {
+    // count member reads running at once
+    pool = Executors.newFixedThreadPool(8);
+    Aggregation.setExecutor(new Executor() {
+      public void execute(final Runnable command) {
+        pool.execute(new Runnable() {
+          public void run() {
+            int n = active.incrementAndGet();
+            while (true) {
+              int max = maxActive.get();
+              if (n <= max || maxActive.compareAndSet(max, n)) break;
+            }
+            try {
+              command.run();
+            } finally {
+              active.decrementAndGet();
+            }
+          }
+        });
+      }
+    });
+  }
+
+  @After
+  public void cleanup() {
+    Aggregation.setExecutor(null);
+    Aggregation.setDefaultConcurrency(1);
+    pool.shutdownNow();
+  }
+
+  // joinExisting members have 1 to 3 times, so their places in the aggregation differ in size
+  private void writeMembers(boolean sameSize) throws IOException, InvalidRangeException {
+    int t = 0;
+    for (int i = 0; i < NFILES; i++) {
+      File f = tempFolder.newFile("member" + i + ".nc");
+      int ntimes = sameSize ? 2 : 1 + i % 3;
+      writeMember(f.getPath(), ntimes, t);
+      t += ntimes;
+      files.add(f);
+    }
+  }
+
+  private void writeMember(String location, int ntimes, int time0) throws IOException, InvalidRangeException {
+    NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, location);
+    writer.addDimension(null, "time", ntimes);
+    writer.addDimension(null, "y", NY);
+    writer.addDimension(null, "x", NX);
+    Variable time = writer.addVariable(null, "time", DataType.INT, "time");
+    writer.addVariableAttribute(time, new Attribute("units", "hours since 2016-01-01"));
+    Variable data = writer.addVariable(null, "data", DataType.FLOAT, "time y x");
+    writer.create();
+
+    Array times = Array.makeArray(DataType.INT, ntimes, time0, 1);
+    writer.write(time, times);
+    ArrayFloat.D3 vals = new ArrayFloat.D3(ntimes, NY, NX);
+    for (int t = 0; t < ntimes; t++)
+      for (int y = 0; y < NY; y++)
+        for (int x = 0; x < NX; x++)
+          vals.set(t, y, x, (time0 + t) * 100 + y * 10 + x);
+    writer.write(data, vals);
+    writer.close();
+  }
+
+  private NetcdfDataset open(String type) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<netcdf xmlns='http://www.unidata.ucar.edu/namespaces/netcdf/ncml-2.2'>\n");
+    if (type.equals("joinNew")) {
+      sb.append(" <aggregation dimName='member' type='joinNew'>\n");
+      sb.append("  <variableAgg name='data'/>\n");
+    } else {
+      sb.append(" <aggregation dimName='time' type='joinExisting'>\n");
+    }
+    for (File f : files)
+      sb.append("  <netcdf location='").append(f.toURI()).append("'/>\n");
+    sb.append(" </aggregation>\n</netcdf>\n");
+    return NcMLReader.readNcML(new StringReader(sb.toString()), null);
+  }
+
+  // read whole and in sections, serially and then concurrently
+  private void compare(String type, String... sections) throws Exception {
+    writeMembers(type.equals("joinNew"));
+    List<Array> serial = new ArrayList<>();
+    try (NetcdfDataset ncd = open(type)) {
+      Variable v = ncd.findVariable("data");
+      serial.add(v.read());
+      for (String s : sections)
+        serial.add(v.read(s));
+    }
+
+    Aggregation.setDefaultConcurrency(4);
+    try (NetcdfDataset ncd = open(type)) {
+      Variable v = ncd.findVariable("data");
+      ((AggregationOuterDimension) ncd.getAggregation()).setConcurrency(3); // overrides the default
+      List<Array> concurrent = new ArrayList<>();
+      concurrent.add(v.read());
+      for (String s : sections)
+        concurrent.add(v.read(s));
+
+      for (int i = 0; i < serial.size(); i++) {
+        Assert.assertArrayEquals(type + " " + i, (float[]) serial.get(i).get1DJavaArray(float.class),
+                (float[]) concurrent.get(i).get1DJavaArray(float.class), 0.0f);
+      }
+    }
+    Assert.assertTrue("member reads not done on the executor", maxActive.get() > 0);
+    Assert.assertTrue("too many member reads at once: " + maxActive.get(), maxActive.get() <= 3);
+  }
+
+  @Test
+  public void testJoinExisting() throws Exception {
+    compare("joinExisting", "2:20,1:3,0:4:2", "0:24:3,:,:", "5:6,:,1");
+  }
+
+  @Test
+  public void testJoinNew() throws Exception {
+    compare("joinNew", "1:11:2,:,:,:", "3:9,0,1:3,:");
+  }
+
+  @Test(timeout = 60000)
+  public void testCancel() throws Exception {
+    writeMembers(false);
+    Aggregation.setDefaultConcurrency(3);
+    try (NetcdfDataset ncd = open("joinExisting")) {
+      Variable v = ncd.findVariable("data");
+      CancelTaskImpl cancel = new CancelTaskImpl();
+      cancel.cancel();
+      AggregationOuterDimension agg = (AggregationOuterDimension) ncd.getAggregation();
+      Assert.assertNull(agg.reallyRead(v, new Section("0:20,0:3,0:4"), cancel));
+      // the permits held by abandoned reads come back
+      Assert.assertNotNull(agg.reallyRead(v, new Section("0:20,0:3,0:4"), null));
+    }
+  }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.ncml;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.*;
+import ucar.nc2.*;
+import ucar.nc2.util.DiskCache2;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * The joinExisting persistence index: members are appended when they change, a torn record at the end
+ * is ignored, concurrent rewrites leave a complete index, and a reopened aggregation uses the cached values
+ * of unchanged members only.
+ */
+public class TestAggExistingIndex {
+  static final int NFILES = 6;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @After
+  public void cleanup() {
+    Aggregation.setPersistenceCache(null);
+  }
+
+  private List<JoinExistingIndex.Member> makeMembers(int n) {
+    List<JoinExistingIndex.Member> members = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      JoinExistingIndex.Member m = new JoinExistingIndex.Member("member" + i, 1000 + i, 2);
+      m.data.put("time", Array.makeArray(DataType.DOUBLE, 2, 2 * i, 1));
+      m.data.put("name", Array.factory(DataType.STRING, new int[]{2}, new String[]{"a" + i, "b" + i}));
+      members.add(m);
+    }
+    return members;
+  }
+
+  @Test
+  public void testAppend() throws IOException {
+    File file = new File(tempFolder.getRoot(), "test" + JoinExistingIndex.SUFFIX);
+    List<JoinExistingIndex.Member> members = makeMembers(NFILES);
+    Assert.assertTrue(JoinExistingIndex.update(file, members));
+
+    JoinExistingIndex index = JoinExistingIndex.open(file);
+    Assert.assertEquals(NFILES, index.size());
+    Assert.assertEquals(NFILES, index.getRecordCount());
+    JoinExistingIndex.Member m = index.find("member3");
+    Assert.assertEquals(1003, m.lastModified);
+    Assert.assertEquals(2, m.ncoords);
+    Assert.assertArrayEquals(new double[]{6, 7}, (double[]) m.data.get("time").copyTo1DJavaArray(), 0.0);
+    Assert.assertEquals("b3", m.data.get("name").getObject(1));
+    Assert.assertNull(index.find("nosuch"));
+
+    // nothing changed
+    long length = file.length();
+    Assert.assertTrue(JoinExistingIndex.update(file, members));
+    Assert.assertEquals(length, file.length());
+
+    // one changed, one added: only those are appended
+    JoinExistingIndex.Member changed = new JoinExistingIndex.Member("member3", 2003, 1);
+    changed.data.put("time", Array.makeArray(DataType.DOUBLE, 1, 99, 1));
+    members.set(3, changed);
+    members.add(new JoinExistingIndex.Member("member" + NFILES, 1000 + NFILES, 3));
+    Assert.assertTrue(JoinExistingIndex.update(file, members));
+
+    index = JoinExistingIndex.open(file);
+    Assert.assertEquals(NFILES + 1, index.size());
+    Assert.assertEquals(NFILES + 2, index.getRecordCount());
+    m = index.find("member3");
+    Assert.assertEquals(2003, m.lastModified);
+    Assert.assertEquals(1, m.ncoords);
+    Assert.assertEquals(99.0, m.data.get("time").getDouble(0), 0.0);
+    Assert.assertEquals(3, index.find("member" + NFILES).ncoords);
+  }
+
+  @Test
+  public void testTornRecord() throws IOException {
+    File file = new File(tempFolder.getRoot(), "test" + JoinExistingIndex.SUFFIX);
+    List<JoinExistingIndex.Member> members = makeMembers(NFILES);
+    Assert.assertTrue(JoinExistingIndex.update(file, members));
+    long length = file.length();
+
+    // a partial record, as left by a crash during an append
+    try (FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write(new byte[]{0, 0, 0, 100, 1, 2, 3});
+    }
+    JoinExistingIndex index = JoinExistingIndex.open(file);
+    Assert.assertEquals(NFILES, index.size());
+    Assert.assertEquals("a5", index.find("member5").data.get("name").getObject(0));
+
+    // the next update rewrites the file
+    members.remove(0);
+    Assert.assertTrue(JoinExistingIndex.update(file, members));
+    index = JoinExistingIndex.open(file);
+    Assert.assertEquals(NFILES - 1, index.size());
+    Assert.assertEquals(NFILES - 1, index.getRecordCount());
+    Assert.assertFalse(index.contains("member0"));
+    Assert.assertTrue(file.length() < length);
+
+    // not an index
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write("<?xml version='1.0'?>".getBytes());
+    }
+    Assert.assertNull(JoinExistingIndex.open(file));
+  }
+
+  @Test
+  public void testLockedRewrite() throws Exception {
+    final File file = new File(tempFolder.getRoot(), "test" + JoinExistingIndex.SUFFIX);
+    final List<JoinExistingIndex.Member> members = makeMembers(NFILES);
+    Assert.assertTrue(JoinExistingIndex.update(file, members));
+    JoinExistingIndex before = JoinExistingIndex.open(file);
+
+    // the update lock is on a separate file, which is not replaced by a rewrite, and is deleted when done
+    File lockFile = new File(file.getPath() + JoinExistingIndex.LOCK_SUFFIX);
+    Assert.assertFalse(lockFile.exists());
+    try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+         FileLock lock = channel.lock()) {
+      Assert.assertFalse(JoinExistingIndex.update(file, makeMembers(NFILES - 1)));
+    }
+
+    // concurrent rewrites: each one leaves a complete index, and no temp files
+    final int nthreads = 4;
+    ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+    try {
+      List<Future<Void>> results = new ArrayList<>();
+      for (int t = 0; t < nthreads; t++) {
+        results.add(pool.submit(new Callable<Void>() {
+          public Void call() throws Exception {
+            for (int i = 0; i < 50; i++) {
+              List<JoinExistingIndex.Member> changed = makeMembers(NFILES);
+              changed.set(0, new JoinExistingIndex.Member("member0", 5000 + i, 2));
+              JoinExistingIndex.update(file, changed);
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> f : results)
+        f.get(60, TimeUnit.SECONDS);
+    } finally {
+      pool.shutdownNow();
+    }
+
+    JoinExistingIndex index = JoinExistingIndex.open(file);
+    Assert.assertEquals(NFILES, index.size());
+    Assert.assertTrue(index.find("member0").lastModified >= 5000);
+    Assert.assertEquals("b5", index.find("member5").data.get("name").getObject(1));
+    String[] temps = tempFolder.getRoot().list((dir, name) -> name.endsWith(".tmp"));
+    Assert.assertEquals(0, temps.length);
+    Assert.assertFalse(lockFile.exists());
+
+    // a reader of the replaced file still sees it
+    Assert.assertEquals(1000, before.find("member0").lastModified);
+  }
+
+  private void writeMember(File f, int time0) throws IOException, InvalidRangeException {
+    NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, f.getPath());
+    writer.addDimension(null, "time", 2);
+    Variable time = writer.addVariable(null, "time", DataType.INT, "time");
+    writer.addVariableAttribute(time, new Attribute("units", "hours since 2016-01-01"));
+    Variable data = writer.addVariable(null, "data", DataType.FLOAT, "time");
+    writer.create();
+    writer.write(time, Array.makeArray(DataType.INT, 2, time0, 1));
+    writer.write(data, Array.makeArray(DataType.FLOAT, 2, time0, 1));
+    writer.close();
+  }
+
+  private int[] readTimes(String ncml, String location) throws IOException {
+    try (NetcdfFile ncfile = NcMLReader.readNcML(new StringReader(ncml), location, null)) {
+      return (int[]) ncfile.findVariable("time").read().copyTo1DJavaArray();
+    }
+  }
+
+  @Test
+  public void testAggregationUsesIndex() throws Exception {
+    File dir = tempFolder.newFolder("data");
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < NFILES; i++) {
+      File f = new File(dir, "member" + i + ".nc");
+      writeMember(f, 10 * i);
+      files.add(f);
+    }
+    File cacheDir = tempFolder.newFolder("cache");
+    DiskCache2 cache = new DiskCache2(cacheDir.getPath(), false, 0, 0);
+    Aggregation.setPersistenceCache(cache);
+
+    String location = new File(tempFolder.getRoot(), "agg.ncml").getPath();
+    String ncml = "<netcdf xmlns='http://www.unidata.ucar.edu/namespaces/netcdf/ncml-2.2'>\n" +
+            " <aggregation dimName='time' type='joinExisting'>\n" +
+            "  <scan location='" + dir.getPath() + "' suffix='.nc'/>\n" +
+            " </aggregation>\n</netcdf>\n";
+
+    AggregationExisting.countCacheUse = 0;
+    int[] times = readTimes(ncml, location);
+    Assert.assertEquals(2 * NFILES, times.length);
+    Assert.assertEquals(0, AggregationExisting.countCacheUse);
+    File indexFile = cache.getCacheFile(location + JoinExistingIndex.SUFFIX);
+    Assert.assertTrue(indexFile.exists());
+    Assert.assertEquals(NFILES, JoinExistingIndex.open(indexFile).size());
+
+    // reopen: all members come from the index
+    Assert.assertArrayEquals(times, readTimes(ncml, location));
+    int perMember = AggregationExisting.countCacheUse / NFILES;
+    Assert.assertTrue(perMember > 0);
+    Assert.assertEquals(perMember * NFILES, AggregationExisting.countCacheUse);
+
+    // change one member: it is reread, and its record is appended
+    File changed = files.get(2);
+    writeMember(changed, 1000);
+    Assert.assertTrue(changed.setLastModified(changed.lastModified() + 10000));
+    AggregationExisting.countCacheUse = 0;
+    times = readTimes(ncml, location);
+    Assert.assertEquals(1000, times[4]);
+    Assert.assertEquals(1001, times[5]);
+    Assert.assertEquals(perMember * (NFILES - 1), AggregationExisting.countCacheUse);
+
+    JoinExistingIndex index = JoinExistingIndex.open(indexFile);
+    Assert.assertEquals(NFILES, index.size());
+    Assert.assertEquals(NFILES + 1, index.getRecordCount());
+    Assert.assertEquals(changed.lastModified(), index.find(changed.getPath()).lastModified);
+  }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.util.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+import thredds.client.catalog.ServiceType;
+import ucar.nc2.dataset.DatasetUrl;
+import ucar.nc2.util.CancelTask;
+
+import java.io.IOException;
+import java.util.Formatter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test FileCacheStriped bookkeeping, using FileCacheable objects that dont touch the file system.
+ */
+public class TestFileCacheStriped {
+
+  static class MyFile implements FileCacheable {
+    final String location;
+    FileCacheIF cache;
+    volatile boolean closed;
+    CountDownLatch releasing, ejected; // if set, release() waits for the file to be ejected
+
+    MyFile(String location) {
+      this.location = location;
+    }
+
+    public String getLocation() {
+      return location;
+    }
+
+    public void close() throws IOException {
+      if (cache != null && cache.release(this)) return;
+      closed = true;
+    }
+
+    public long getLastModified() {
+      return 0;
+    }
+
+    public void setFileCache(FileCacheIF fileCache) {
+      this.cache = fileCache;
+    }
+
+    public void release() throws IOException {
+      if (releasing != null) {
+        releasing.countDown();
+        try {
+          ejected.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+    }
+
+    public void reacquire() throws IOException {
+    }
+  }
+
+  final AtomicInteger opens = new AtomicInteger();
+
+  FileFactory factory = new FileFactory() {
+    public FileCacheable open(DatasetUrl location, int buffer_size, CancelTask cancelTask, Object iospMessage) throws IOException {
+      opens.incrementAndGet();
+      return new MyFile(location.trueurl);
+    }
+  };
+
+  DatasetUrl durl(String location) {
+    return new DatasetUrl(ServiceType.File, location);
+  }
+
+  @Test
+  public void testAcquireRelease() throws IOException {
+    FileCacheStriped cache = new FileCacheStriped("test", 0, 10, -1, -1);
+
+    FileCacheable f1 = cache.acquire(factory, durl("a"));
+    FileCacheable f2 = cache.acquire(factory, durl("a")); // f1 is locked, so open another
+    Assert.assertNotSame(f1, f2);
+    Assert.assertEquals(2, opens.get());
+
+    f1.close();
+    Assert.assertFalse(((MyFile) f1).closed);
+    FileCacheable f3 = cache.acquire(factory, durl("a"));
+    Assert.assertSame(f1, f3);
+    Assert.assertEquals(2, opens.get());
+    Assert.assertEquals(2, cache.getNumberOfFiles());
+
+    Formatter f = new Formatter();
+    cache.showStats(f);
+    Assert.assertTrue(f.toString().contains("hits= 1 miss= 2"));
+  }
+
+  @Test
+  public void testEvictOverSoftLimit() throws IOException {
+    FileCacheStriped cache = new FileCacheStriped("test", 0, 5, -1, -1, 2);
+    MyFile first = (MyFile) cache.acquire(factory, durl("file0"));
+    first.close();
+    for (int i = 1; i < 10; i++)
+      cache.acquire(factory, durl("file" + i)).close();
+
+    Assert.assertEquals(5, cache.getNumberOfFiles());
+    Assert.assertTrue(first.closed);
+  }
+
+  @Test
+  public void testLockedFilesAreNotEvicted() throws IOException {
+    FileCacheStriped cache = new FileCacheStriped("test", 0, 2, -1, -1);
+    MyFile[] all = new MyFile[5];
+    for (int i = 0; i < all.length; i++)
+      all[i] = (MyFile) cache.acquire(factory, durl("file" + i));
+    Assert.assertEquals(5, cache.getNumberOfFiles());
+    for (MyFile file : all)
+      Assert.assertFalse(file.closed);
+
+    for (MyFile file : all) file.close();
+    Assert.assertTrue(cache.getNumberOfFiles() <= 2);
+  }
+
+  @Test
+  public void testEject() throws IOException {
+    FileCacheStriped cache = new FileCacheStriped("test", 0, 10, -1, -1);
+    MyFile idle = (MyFile) cache.acquire(factory, durl("a"));
+    MyFile inUse = (MyFile) cache.acquire(factory, durl("a"));
+    idle.close();
+
+    cache.eject("a");
+    Assert.assertTrue(idle.closed);
+    Assert.assertFalse(inUse.closed);
+
+    inUse.close();
+    Assert.assertTrue(inUse.closed);
+    Assert.assertEquals(0, cache.getNumberOfFiles());
+  }
+
+  @Test
+  public void testEjectWhileReleasing() throws Exception {
+    FileCacheStriped cache = new FileCacheStriped("test", 0, 10, -1, -1);
+    final MyFile inUse = (MyFile) cache.acquire(factory, durl("a"));
+    inUse.releasing = new CountDownLatch(1);
+    inUse.ejected = new CountDownLatch(1);
+
+    Thread closer = new Thread(new Runnable() {
+      public void run() {
+        try {
+          inUse.close();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    closer.start();
+    inUse.releasing.await();
+    cache.eject("a");
+    inUse.ejected.countDown();
+    closer.join();
+
+    // the ejected file must not go back on the idle list
+    Assert.assertTrue(inUse.closed);
+    Assert.assertEquals(0, cache.getNumberOfFiles());
+    Assert.assertNotSame(inUse, cache.acquire(factory, durl("a")));
+  }
+
+  @Test
+  public void testClearCache() throws IOException {
+    FileCacheStriped cache = new FileCacheStriped("test", 0, 10, -1, -1);
+    MyFile idle = (MyFile) cache.acquire(factory, durl("a"));
+    MyFile inUse = (MyFile) cache.acquire(factory, durl("b"));
+    idle.close();
+
+    cache.clearCache(false);
+    Assert.assertTrue(idle.closed);
+    Assert.assertFalse(inUse.closed);
+    Assert.assertEquals(1, cache.getNumberOfFiles());
+
+    cache.clearCache(true);
+    Assert.assertTrue(inUse.closed);
+    Assert.assertEquals(0, cache.getNumberOfFiles());
+  }
+}
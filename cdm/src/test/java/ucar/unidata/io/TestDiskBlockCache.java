@@ -0,0 +1,138 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.unidata.io;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Read through a DiskBlockCache and compare with the source.
+ */
+public class TestDiskBlockCache {
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  // a file in memory that counts the bytes read
+  private static class CountingSource implements DiskBlockCache.BlockSource {
+    final byte[] data;
+    int nreads;
+    long nbytes;
+
+    CountingSource(int size) {
+      data = new byte[size];
+      new Random(size).nextBytes(data);
+    }
+
+    public int read(long pos, byte[] buff, int offset, int len) {
+      int n = (int) Math.min(len, data.length - pos);
+      System.arraycopy(data, (int) pos, buff, offset, n);
+      nreads++;
+      nbytes += n;
+      return n;
+    }
+  }
+
+  private void check(DiskBlockCache cache, CountingSource source, long lastModified, int pos, int len) throws IOException {
+    byte[] buff = new byte[len + 10];
+    int n = cache.read("http://server/file.nc", lastModified, source.data.length, pos, buff, 10, len, source);
+    int want = Math.max(0, Math.min(len, source.data.length - pos));
+    Assert.assertEquals(want, n);
+    for (int i = 0; i < n; i++)
+      Assert.assertEquals(source.data[pos + i], buff[10 + i]);
+  }
+
+  @Test
+  public void testReadThrough() throws IOException {
+    CountingSource source = new CountingSource(10 * 1000 + 17);
+    DiskBlockCache cache = new DiskBlockCache(tempFolder.newFolder().getPath(), 1000 * 1000, 1000);
+
+    check(cache, source, 1, 1500, 3000);  // blocks 1-4
+    Assert.assertEquals(1, source.nreads);
+    Assert.assertEquals(4000, source.nbytes);
+
+    check(cache, source, 1, 1000, 4000);  // all cached
+    check(cache, source, 1, 1999, 2);
+    Assert.assertEquals(1, source.nreads);
+
+    check(cache, source, 1, 0, 10 * 1000 + 17); // blocks 0 and 5-10, in two reads
+    Assert.assertEquals(3, source.nreads);
+    Assert.assertEquals(10 * 1000 + 17, source.nbytes);
+
+    check(cache, source, 1, 9990, 100);   // short last block
+    check(cache, source, 1, 20000, 100);  // past the end
+    Assert.assertEquals(3, source.nreads);
+    Assert.assertEquals(10 * 1000 + 17, cache.getSizeBytes());
+
+    check(cache, source, 2, 1500, 10);    // a new version of the file
+    Assert.assertEquals(4, source.nreads);
+  }
+
+  @Test
+  public void testPersistent() throws IOException {
+    String dir = tempFolder.newFolder().getPath();
+    CountingSource source = new CountingSource(8000);
+    DiskBlockCache cache = new DiskBlockCache(dir, 1000 * 1000, 1000);
+    check(cache, source, 1, 0, 8000);
+    Assert.assertEquals(1, source.nreads);
+
+    DiskBlockCache cache2 = new DiskBlockCache(dir, 1000 * 1000, 1000);
+    Assert.assertEquals(8000, cache2.getSizeBytes());
+    check(cache2, source, 1, 0, 8000);
+    Assert.assertEquals(1, source.nreads);
+    Assert.assertEquals(8, cache2.getHitCount());
+
+    cache2.clear();
+    Assert.assertEquals(0, new java.io.File(dir).list().length);
+  }
+
+  @Test
+  public void testEviction() throws IOException {
+    String dir = tempFolder.newFolder().getPath();
+    CountingSource source = new CountingSource(100 * 1000);
+    DiskBlockCache cache = new DiskBlockCache(dir, 20 * 1000, 1000);
+    for (int pos = 0; pos < 100 * 1000; pos += 5000)
+      check(cache, source, 1, pos, 5000);
+
+    Assert.assertTrue(cache.getSizeBytes() <= 20 * 1000);
+    Assert.assertEquals(cache.getSizeBytes() / 1000, new java.io.File(dir).list().length);
+
+    // evicted blocks are read again
+    check(cache, source, 1, 0, 100 * 1000);
+    Assert.assertTrue(source.nbytes >= 180 * 1000);
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.unidata.io;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Compare MMapRandomAccessFile with RandomAccessFile
+ */
+public class TestMMapRandomAccessFile {
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private File makeFile(int n) throws IOException {
+    File f = tempFolder.newFile();
+    try (RandomAccessFile raf = new RandomAccessFile(f.getPath(), "rw")) {
+      raf.writeInt(n);
+      for (int i = 0; i < n; i++)
+        raf.writeFloat(i * 1.5f);
+      for (int i = 0; i < n; i++)
+        raf.writeDouble(-i * 2.5);
+    }
+    return f;
+  }
+
+  @Test
+  public void testReadArrays() throws IOException {
+    int n = 10 * 1000;
+    File f = makeFile(n);
+
+    try (RandomAccessFile raf = new MMapRandomAccessFile(f.getPath(), "r")) {
+      raf.order(RandomAccessFile.BIG_ENDIAN);
+      Assert.assertEquals(4 + 12L * n, raf.length());
+      Assert.assertEquals(n, raf.readInt());
+
+      float[] fdata = new float[n];
+      raf.readFloat(fdata, 0, n);
+      for (int i = 0; i < n; i++)
+        Assert.assertEquals(i * 1.5f, fdata[i], 0.0f);
+
+      double[] ddata = new double[n];
+      raf.readDouble(ddata, 0, n);
+      for (int i = 0; i < n; i++)
+        Assert.assertEquals(-i * 2.5, ddata[i], 0.0);
+
+      // scalar reads after bulk reads
+      raf.seek(4 + 4 * 7);
+      Assert.assertEquals(7 * 1.5f, raf.readFloat(), 0.0f);
+      raf.seek(4 + 4L * n);
+      Assert.assertEquals(0.0, raf.readDouble(), 0.0);
+      Assert.assertEquals(-2.5, raf.readDouble(), 0.0);
+    }
+  }
+
+  @Test
+  public void testLittleEndian() throws IOException {
+    File f = tempFolder.newFile();
+    try (RandomAccessFile raf = new RandomAccessFile(f.getPath(), "rw")) {
+      raf.write(new byte[] {1, 0, 0, 0, 2, 0, 0, 0});
+    }
+
+    try (RandomAccessFile raf = new MMapRandomAccessFile(f.getPath(), "r")) {
+      raf.order(RandomAccessFile.LITTLE_ENDIAN);
+      int[] idata = new int[2];
+      raf.readInt(idata, 0, 2);
+      Assert.assertArrayEquals(new int[] {1, 2}, idata);
+    }
+  }
+
+  @Test
+  public void testReadToByteChannel() throws IOException {
+    int n = 100;
+    File f = makeFile(n);
+    try (RandomAccessFile raf = new MMapRandomAccessFile(f.getPath(), "r")) {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      long count = raf.readToByteChannel(Channels.newChannel(bos), 4, 4 * n);
+      Assert.assertEquals(4 * n, count);
+      Assert.assertEquals(4 * n, bos.size());
+    }
+  }
+
+  @Test
+  public void testCloseWhileReading() throws Exception {
+    final int n = 1000;
+    File f = makeFile(n);
+    final RandomAccessFile raf = new MMapRandomAccessFile(f.getPath(), "r");
+    final CountDownLatch reading = new CountDownLatch(1);
+    final CountDownLatch closed = new CountDownLatch(1);
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+    // a channel that waits for the file to be closed in the middle of the read
+    final WritableByteChannel dest = new WritableByteChannel() {
+      WritableByteChannel out = Channels.newChannel(bos);
+
+      public int write(ByteBuffer src) throws IOException {
+        reading.countDown();
+        try {
+          closed.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        return out.write(src);
+      }
+
+      public boolean isOpen() {
+        return true;
+      }
+
+      public void close() throws IOException {
+      }
+    };
+
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread reader = new Thread(new Runnable() {
+      public void run() {
+        try {
+          raf.readToByteChannel(dest, 4, 4 * n);
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }
+    });
+    reader.start();
+    reading.await();
+    raf.close();
+    closed.countDown();
+    reader.join();
+
+    // the read in flight finishes from the mapping, which is only released afterwards
+    Assert.assertNull(failure.get());
+    Assert.assertEquals(4 * n, bos.size());
+    ByteBuffer bb = ByteBuffer.wrap(bos.toByteArray());
+    for (int i = 0; i < n; i++)
+      Assert.assertEquals(i * 1.5f, bb.getFloat(), 0.0f);
+
+    try {
+      raf.readToByteChannel(Channels.newChannel(new ByteArrayOutputStream()), 0, 4);
+      Assert.fail("read after close");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test(expected = java.io.EOFException.class)
+  public void testEOF() throws IOException {
+    File f = makeFile(10);
+    try (RandomAccessFile raf = new MMapRandomAccessFile(f.getPath(), "r")) {
+      raf.seek(4);
+      raf.readFloat(new float[40], 0, 40);
+    }
+  }
+
+  @Test
+  public void testMappedRoot() throws IOException {
+    File f = makeFile(10);
+    RandomAccessFile.addMappedRoot(f.getParent());
+    try (RandomAccessFile raf = RandomAccessFile.acquire(f.getPath())) {
+      Assert.assertTrue(raf instanceof MMapRandomAccessFile);
+      raf.order(RandomAccessFile.BIG_ENDIAN);
+      Assert.assertEquals(10, raf.readInt());
+    } finally {
+      RandomAccessFile.clearMappedRoots();
+    }
+  }
+}
@@ -9,20 +9,28 @@ import dap4.core.data.DSPRegistry;
 import dap4.core.util.DapContext;
 import dap4.core.util.DapException;
 import dap4.dap4lib.DapCodes;
+import dap4.dap4lib.DapLog;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
- * Provide an LRU cache of DSPs.
+ * Provide an LRU cache of DSPs, keyed by path.
  * It is expected (for now) that this is only used on the server side.
- * The cache key is assumed to be the DSP object.
- * The cache is synchronized to avoid race conditions.
- * Note that we do not have to release because Java
- * uses garbage collection and entries will be purged
- * if the LRU cache is full.
+ * <p>
+ * The cache lock is only held for bookkeeping, never while a DSP is
+ * being opened or closed. If several requests ask for the same path
+ * at once, only one of them opens it; the others wait for that open,
+ * and requests for other paths are not held up at all.
+ * <p>
+ * Each open() must be matched by a release() once the request is done
+ * with the DSP. An entry that is evicted (or flushed) while in use is
+ * closed when its last user releases it; otherwise it is closed when
+ * it is evicted.
  * Singleton class
  */
 
@@ -32,10 +40,28 @@ abstract public class DapCache
     //////////////////////////////////////////////////
     // Constants
 
-    static final int MAXFILES = 100; // size of the cache
+    static final int MAXFILES = 100; // default size of the cache
 
     static public final String MATCHMETHOD = "dspMatch";
 
+    //////////////////////////////////////////////////
+    // Type Decls
+
+    static protected class Entry
+    {
+        final String path;
+        final CountDownLatch ready = new CountDownLatch(1); // counted down when the open finishes
+        DSP dsp = null;         // set once ready, unless the open failed
+        IOException failure = null;
+        int refcount = 0;       // guarded by lock
+        boolean evicted = false; // guarded by lock
+
+        Entry(String path)
+        {
+            this.path = path;
+        }
+    }
+
     //////////////////////////////////////////////////
     // Static variables
 
@@ -44,10 +70,27 @@ abstract public class DapCache
      */
     static public DSPRegistry dspregistry = new DSPRegistry();
 
+    static protected final Object lock = new Object();
+
     /**
      * Define an lru cache of known DSP objects: oldest first.
+     * Access order, so get() moves an entry to the end.
+     */
+    static protected LinkedHashMap<String, Entry> lru = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Entries handed out by open() and not yet released, by DSP identity.
      */
-    static protected List<DSP> lru = new ArrayList<DSP>();
+    static protected Map<DSP, Entry> inuse = new IdentityHashMap<>();
+
+    static protected int maxfiles = MAXFILES;
+
+    // statistics
+    static protected final AtomicLong hits = new AtomicLong();
+    static protected final AtomicLong misses = new AtomicLong();
+    static protected final AtomicLong failures = new AtomicLong();
+    static protected final AtomicLong evictions = new AtomicLong();
+    static protected final AtomicLong opennanos = new AtomicLong();
 
     // This should be set by any subclass
     static protected DSPFactory factory = null;
@@ -62,49 +105,255 @@ abstract public class DapCache
         return factory;
     }
 
-    static public synchronized DSP open(String path, DapContext cxt)
+    /**
+     * Set the maximum number of DSPs to keep open; default is 100.
+     * Takes effect on the next open().
+     *
+     * @param n maximum number of cached DSPs, must be > 0
+     */
+    static public void setMaxFiles(int n)
+    {
+        if(n <= 0)
+            throw new IllegalArgumentException("DapCache: maxfiles must be > 0");
+        synchronized (lock) {
+            maxfiles = n;
+        }
+    }
+
+    static public int getMaxFiles()
+    {
+        synchronized (lock) {
+            return maxfiles;
+        }
+    }
+
+    /**
+     * Get the DSP for a path, opening it if it is not in the cache.
+     * The caller must call release(dsp) when done with it.
+     *
+     * @param path the absolute path of the dataset
+     * @param cxt  the request context
+     * @return the open DSP
+     * @throws IOException if no DSP matches the path, or the open fails
+     */
+    static public DSP open(String path, DapContext cxt)
             throws IOException
     {
         assert cxt != null;
-        int lrusize = lru.size();
-        for(int i = lrusize - 1; i >= 0; i--) {
-            DSP dsp = lru.get(i);
-            String dsppath = dsp.getLocation();
-            if(dsppath.equals(path)) {
-                // move to the front of the queue to maintain LRU property
-                lru.remove(i);
-                lru.add(dsp);
-                return dsp;
+        Entry entry;
+        boolean opener = false;
+        synchronized (lock) {
+            entry = lru.get(path);
+            if(entry == null) {
+                entry = new Entry(path);
+                lru.put(path, entry);
+                opener = true;
+            }
+            entry.refcount++;
+        }
+
+        if(opener) {
+            misses.incrementAndGet();
+            long start = System.nanoTime();
+            DSP dsp = null;
+            try {
+                dsp = create(path, cxt);
+            } catch (IOException | RuntimeException e) {
+                failures.incrementAndGet();
+                entry.failure = (e instanceof IOException) ? (IOException) e : new DapException(e);
+            } finally {
+                opennanos.addAndGet(System.nanoTime() - start);
+                // The DSP must be in inuse before any waiter can see it,
+                // else a waiter's release() would not find its entry.
+                synchronized (lock) {
+                    if(dsp != null) {
+                        entry.dsp = dsp;
+                        inuse.put(dsp, entry);
+                    } else {
+                        if(entry.failure == null)
+                            entry.failure = new DapException("DapCache: cannot open " + path);
+                        // dont cache failures; the next request will try again
+                        if(lru.get(entry.path) == entry)
+                            lru.remove(entry.path);
+                        entry.refcount--;
+                    }
+                }
+                entry.ready.countDown();
+            }
+            if(entry.failure != null)
+                throw entry.failure;
+            evict();
+        } else {
+            hits.incrementAndGet();
+            try {
+                entry.ready.await();
+            } catch (InterruptedException e) {
+                release(entry);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("DapCache: interrupted waiting for " + path);
             }
+            if(entry.failure != null) {
+                release(entry);
+                throw entry.failure;
+            }
+        }
+        return entry.dsp;
+    }
+
+    /**
+     * Release a DSP obtained from open(). If it has been evicted and this
+     * was the last user, it is closed.
+     *
+     * @param dsp the DSP returned by open(); null is ignored
+     */
+    static public void release(DSP dsp)
+    {
+        if(dsp == null) return;
+        Entry entry;
+        synchronized (lock) {
+            entry = inuse.get(dsp);
+        }
+        if(entry == null) {
+            DapLog.warn("DapCache: release of unknown DSP: " + dsp.getLocation());
+            return;
         }
-        // No match found, create and initialize it.
-        // If cache is full, remove oldest entry
-        if(lrusize == MAXFILES) {
-            // make room
-            lru.remove(0);
-            CEConstraint.release(lru.get(0).getDMR());
+        release(entry);
+    }
+
+    static protected void release(Entry entry)
+    {
+        boolean close;
+        synchronized (lock) {
+            entry.refcount--;
+            close = entry.evicted && entry.refcount == 0 && entry.dsp != null;
+            if(close)
+                inuse.remove(entry.dsp);
         }
+        if(close)
+            close(entry);
+    }
+
+    static protected DSP create(String path, DapContext cxt)
+            throws IOException
+    {
         // Find dsp that can process this path
-        DSP dsp = dspregistry.findMatchingDSP(path,cxt);
+        DSP dsp = dspregistry.findMatchingDSP(path, cxt);
         if(dsp == null)
             throw new DapException("Resource has no matching DSP: " + path)
                     .setCode(DapCodes.SC_FORBIDDEN);
         dsp.setContext(cxt);
         dsp.open(path);
-        lru.add(dsp);
         return dsp;
     }
 
-    static synchronized public void flush() // for testing
+    /**
+     * If the cache is full, remove the oldest entries; close the ones not in use.
+     */
+    static protected void evict()
+    {
+        List<Entry> toclose = new ArrayList<>();
+        synchronized (lock) {
+            Iterator<Entry> iter = lru.values().iterator();
+            while(lru.size() > maxfiles && iter.hasNext()) {
+                Entry entry = iter.next();
+                iter.remove();
+                evictions.incrementAndGet();
+                if(evicted(entry))
+                    toclose.add(entry);
+            }
+        }
+        for(Entry entry : toclose)
+            close(entry);
+    }
+
+    // must hold lock; return true if the caller should close it
+    static protected boolean evicted(Entry entry)
+    {
+        entry.evicted = true;
+        if(entry.refcount > 0 || entry.dsp == null)
+            return false; // closed on the last release, or the open failed
+        inuse.remove(entry.dsp);
+        return true;
+    }
+
+    static protected void close(Entry entry)
+    {
+        try {
+            CEConstraint.release(entry.dsp.getDMR());
+            entry.dsp.close();
+        } catch (IOException e) {
+            DapLog.warn("DapCache: cannot close " + entry.path + ": " + e.getMessage());
+        }
+    }
+
+    static public void flush() // for testing
             throws Exception
     {
-        while(lru.size() > 0) {
-            DSP dsp = lru.get(0);
-            CEConstraint.release(dsp.getDMR());
-            dsp.close();
-            lru.remove(0);
+        List<Entry> toclose = new ArrayList<>();
+        synchronized (lock) {
+            for(Entry entry : lru.values()) {
+                if(evicted(entry))
+                    toclose.add(entry);
+            }
+            lru.clear();
         }
+        for(Entry entry : toclose)
+            close(entry);
     }
 
+    //////////////////////////////////////////////////
+    // Statistics
+
+    /**
+     * @return number of open() calls that found the path in the cache
+     */
+    static public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return number of open() calls that had to open the DSP
+     */
+    static public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return number of DSP opens that failed
+     */
+    static public long getFailureCount()
+    {
+        return failures.get();
+    }
+
+    static public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * @return total time spent opening DSPs, in nanoseconds
+     */
+    static public long getOpenTimeNanos()
+    {
+        return opennanos.get();
+    }
+
+    static public int size()
+    {
+        synchronized (lock) {
+            return lru.size();
+        }
+    }
+
+    static public String getStats()
+    {
+        long nopens = misses.get();
+        return String.format("DapCache: size=%d/%d hits=%d misses=%d failures=%d evictions=%d avgOpenMsecs=%.2f",
+                size(), getMaxFiles(), hits.get(), nopens, failures.get(), evictions.get(),
+                nopens == 0 ? 0.0 : opennanos.get() / 1.0e6 / nopens);
+    }
 
 } // DapCache
@@ -309,34 +309,38 @@ abstract public class DapController extends HttpServlet
         String realpath = getResourcePath(drq, drq.getDatasetPath());
 
         DSP dsp = DapCache.open(realpath, cxt);
-        DapDataset dmr = dsp.getDMR();
-
-        // Process any constraint view
-        CEConstraint ce = null;
-        String sce = drq.queryLookup(DapProtocol.CONSTRAINTTAG);
-        ce = CEConstraint.compile(sce, dmr);
-
-        // Provide a PrintWriter for capturing the DMR.
-        StringWriter sw = new StringWriter();
-        PrintWriter pw = new PrintWriter(sw);
-
-        // Get the DMR as a string
-        DMRPrinter dapprinter = new DMRPrinter(dmr,ce,pw);
-        dapprinter.print();
-        pw.close();
-        sw.close();
-
-        String sdmr = sw.toString();
-        if(DEBUG)
-            System.err.println("Sending: DMR:\n" + sdmr);
-
-        addCommonHeaders(drq);// Add relevant headers
-
-        // Wrap the outputstream with a Chunk writer
-        OutputStream out = drq.getOutputStream();
-        ChunkWriter cw = new ChunkWriter(out, RequestMode.DMR, this.byteorder);
-        cw.writeDMR(sdmr);
-        cw.close();
+        try {
+            DapDataset dmr = dsp.getDMR();
+
+            // Process any constraint view
+            CEConstraint ce = null;
+            String sce = drq.queryLookup(DapProtocol.CONSTRAINTTAG);
+            ce = CEConstraint.compile(sce, dmr);
+
+            // Provide a PrintWriter for capturing the DMR.
+            StringWriter sw = new StringWriter();
+            PrintWriter pw = new PrintWriter(sw);
+
+            // Get the DMR as a string
+            DMRPrinter dapprinter = new DMRPrinter(dmr,ce,pw);
+            dapprinter.print();
+            pw.close();
+            sw.close();
+
+            String sdmr = sw.toString();
+            if(DEBUG)
+                System.err.println("Sending: DMR:\n" + sdmr);
+
+            addCommonHeaders(drq);// Add relevant headers
+
+            // Wrap the outputstream with a Chunk writer
+            OutputStream out = drq.getOutputStream();
+            ChunkWriter cw = new ChunkWriter(out, RequestMode.DMR, this.byteorder);
+            cw.writeDMR(sdmr);
+            cw.close();
+        } finally {
+            DapCache.release(dsp);
+        }
     }
 
     /**
@@ -359,54 +363,58 @@ abstract public class DapController extends HttpServlet
         DSP dsp = DapCache.open(realpath, cxt);
         if(dsp == null)
             throw new IOException("No such file: " + drq.getResourcePath());
-        DapDataset dmr = dsp.getDMR();
-
-        // Process any constraint
-        CEConstraint ce = null;
-        String sce = drq.queryLookup(DapProtocol.CONSTRAINTTAG);
-        ce = CEConstraint.compile(sce, dmr);
-
-        StringWriter sw = new StringWriter();
-        PrintWriter pw = new PrintWriter(sw);
-
-        // Get the DMR as a string
-        DMRPrinter dapprinter = new DMRPrinter(dmr,ce,pw);
-        dapprinter.print();
-        pw.close();
-        sw.close();
-
-        String sdmr = sw.toString();
-        if(DEBUG)
-            System.err.println("Sending: Data DMR:\n" + sdmr);
-
-        // Wrap the outputstream with a Chunk writer
-        OutputStream out = drq.getOutputStream();
-        ChunkWriter cw = new ChunkWriter(out, RequestMode.DAP, this.byteorder);
-        cw.setWriteLimit(getBinaryWriteLimit());
-        cw.writeDMR(sdmr);
-        cw.flush();
-
-        addCommonHeaders(drq);
-
-        // Dump the databuffer part
-        switch (drq.getFormat()) {
-        case TEXT:
-        case XML:
-        case HTML:
-            throw new IOException("Unsupported return format: " + drq.getFormat());
-            /*
-            sw = new StringWriter();
-            DAPPrint dp = new DAPPrint(sw);
-            dp.print(dsp.getDataset(), ce);
-            break;
-                */
-        case NONE:
-        default:
-            DapSerializer writer = new DapSerializer(dsp, ce, cw, byteorder);
-            writer.write(dsp.getDMR());
+        try {
+            DapDataset dmr = dsp.getDMR();
+
+            // Process any constraint
+            CEConstraint ce = null;
+            String sce = drq.queryLookup(DapProtocol.CONSTRAINTTAG);
+            ce = CEConstraint.compile(sce, dmr);
+
+            StringWriter sw = new StringWriter();
+            PrintWriter pw = new PrintWriter(sw);
+
+            // Get the DMR as a string
+            DMRPrinter dapprinter = new DMRPrinter(dmr,ce,pw);
+            dapprinter.print();
+            pw.close();
+            sw.close();
+
+            String sdmr = sw.toString();
+            if(DEBUG)
+                System.err.println("Sending: Data DMR:\n" + sdmr);
+
+            // Wrap the outputstream with a Chunk writer
+            OutputStream out = drq.getOutputStream();
+            ChunkWriter cw = new ChunkWriter(out, RequestMode.DAP, this.byteorder);
+            cw.setWriteLimit(getBinaryWriteLimit());
+            cw.writeDMR(sdmr);
             cw.flush();
-            cw.close();
-            break;
+
+            addCommonHeaders(drq);
+
+            // Dump the databuffer part
+            switch (drq.getFormat()) {
+            case TEXT:
+            case XML:
+            case HTML:
+                throw new IOException("Unsupported return format: " + drq.getFormat());
+                /*
+                sw = new StringWriter();
+                DAPPrint dp = new DAPPrint(sw);
+                dp.print(dsp.getDataset(), ce);
+                break;
+                    */
+            case NONE:
+            default:
+                DapSerializer writer = new DapSerializer(dsp, ce, cw, byteorder);
+                writer.write(dsp.getDMR());
+                cw.flush();
+                cw.close();
+                break;
+            }
+        } finally {
+            DapCache.release(dsp);
         }
     }
 
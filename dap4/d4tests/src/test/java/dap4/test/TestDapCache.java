@@ -0,0 +1,221 @@
+package dap4.test;
+
+import dap4.core.data.DSP;
+import dap4.core.data.DSPRegistry;
+import dap4.core.util.DapContext;
+import dap4.core.util.DapException;
+import dap4.dap4lib.AbstractDSP;
+import dap4.servlet.DapCache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TestDapCache checks the DSP cache: one open per path
+ * under concurrent requests, eviction closes DSPs that
+ * are not in use, and failed opens are not cached.
+ * Uses a fake DSP, so no test data is needed.
+ */
+
+public class TestDapCache
+{
+    //////////////////////////////////////////////////
+    // Constants
+
+    static protected final String PREFIX = "/testdapcache/";
+
+    //////////////////////////////////////////////////
+    // Type Decls
+
+    static public class CountingDSP extends AbstractDSP
+    {
+        static final AtomicInteger opens = new AtomicInteger();
+        static final AtomicInteger closes = new AtomicInteger();
+        static volatile CountDownLatch slowgate = null; // open of a "slow" path waits on this
+
+        public CountingDSP()
+        {
+        }
+
+        public boolean dspMatch(String path, DapContext context)
+        {
+            return path.startsWith(PREFIX);
+        }
+
+        public DSP open(String path) throws DapException
+        {
+            opens.incrementAndGet();
+            try {
+                if(path.endsWith("slow") && !slowgate.await(10, TimeUnit.SECONDS))
+                    throw new DapException("timeout opening " + path);
+            } catch (InterruptedException e) {
+                throw new DapException(e);
+            }
+            if(path.endsWith("bad"))
+                throw new DapException("cannot open " + path);
+            setLocation(path);
+            return this;
+        }
+
+        public void close() throws IOException
+        {
+            closes.incrementAndGet();
+        }
+    }
+
+    //////////////////////////////////////////////////
+
+    @Before
+    public void setup() throws Exception
+    {
+        DapCache.flush();
+        DapCache.dspregistry.register(CountingDSP.class, DSPRegistry.FIRST);
+        CountingDSP.opens.set(0);
+        CountingDSP.closes.set(0);
+        CountingDSP.slowgate = new CountDownLatch(1);
+    }
+
+    @After
+    public void cleanup() throws Exception
+    {
+        DapCache.flush();
+        DapCache.setMaxFiles(100);
+        DapCache.dspregistry.unregister(CountingDSP.class);
+    }
+
+    //////////////////////////////////////////////////
+    // Junit test methods
+
+    @Test
+    public void testHit() throws Exception
+    {
+        long hits = DapCache.getHitCount();
+        DSP dsp1 = DapCache.open(PREFIX + "a", new DapContext());
+        DapCache.release(dsp1);
+        DSP dsp2 = DapCache.open(PREFIX + "a", new DapContext());
+        DapCache.release(dsp2);
+        Assert.assertSame(dsp1, dsp2);
+        Assert.assertEquals(1, CountingDSP.opens.get());
+        Assert.assertEquals(hits + 1, DapCache.getHitCount());
+    }
+
+    @Test
+    public void testConcurrentOpen() throws Exception
+    {
+        final int nthreads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+        try {
+            List<Future<DSP>> results = new ArrayList<>();
+            for(int i = 0; i < nthreads; i++) {
+                results.add(pool.submit(new Callable<DSP>()
+                {
+                    public DSP call() throws Exception
+                    {
+                        return DapCache.open(PREFIX + "slow", new DapContext());
+                    }
+                }));
+            }
+            // another path is not held up by the slow open
+            DSP other = DapCache.open(PREFIX + "other", new DapContext());
+            DapCache.release(other);
+
+            Thread.sleep(100);
+            Assert.assertEquals(2, CountingDSP.opens.get());
+            for(Future<DSP> f : results)
+                Assert.assertFalse(f.isDone());
+
+            CountingDSP.slowgate.countDown();
+            DSP first = results.get(0).get(10, TimeUnit.SECONDS);
+            for(Future<DSP> f : results) {
+                DSP dsp = f.get(10, TimeUnit.SECONDS);
+                Assert.assertSame(first, dsp);
+                DapCache.release(dsp);
+            }
+            Assert.assertEquals(2, CountingDSP.opens.get());
+        } finally {
+            CountingDSP.slowgate.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testEvict() throws Exception
+    {
+        DapCache.setMaxFiles(2);
+        DSP inuse = DapCache.open(PREFIX + "0", new DapContext());
+        DapCache.release(DapCache.open(PREFIX + "1", new DapContext()));
+        DapCache.release(DapCache.open(PREFIX + "2", new DapContext()));
+        // "0" was evicted, but it is still in use
+        Assert.assertEquals(2, DapCache.size());
+        Assert.assertEquals(0, CountingDSP.closes.get());
+        DapCache.release(inuse);
+        Assert.assertEquals(1, CountingDSP.closes.get());
+
+        // "1" is not in use, so it is closed when evicted
+        DapCache.release(DapCache.open(PREFIX + "3", new DapContext()));
+        Assert.assertEquals(2, CountingDSP.closes.get());
+        Assert.assertEquals(2, DapCache.size());
+
+        DapCache.flush();
+        Assert.assertEquals(4, CountingDSP.closes.get());
+        Assert.assertEquals(0, DapCache.size());
+    }
+
+    @Test
+    public void testConcurrentEvict() throws Exception
+    {
+        // many requests for a few paths in a small cache: every DSP that is opened must be closed
+        DapCache.setMaxFiles(2);
+        final int nthreads = 8;
+        final int nrequests = 500;
+        ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for(int t = 0; t < nthreads; t++) {
+                final int seed = t;
+                results.add(pool.submit(new Callable<Void>()
+                {
+                    public Void call() throws Exception
+                    {
+                        for(int i = 0; i < nrequests; i++) {
+                            DSP dsp = DapCache.open(PREFIX + ((seed + i) % 4), new DapContext());
+                            DapCache.release(dsp);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for(Future<Void> f : results)
+                f.get(60, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+        DapCache.flush();
+        Assert.assertEquals(0, DapCache.size());
+        Assert.assertTrue(CountingDSP.opens.get() > 0);
+        Assert.assertEquals(CountingDSP.opens.get(), CountingDSP.closes.get());
+    }
+
+    @Test
+    public void testFailure() throws Exception
+    {
+        for(int i = 0; i < 2; i++) {
+            try {
+                DapCache.open(PREFIX + "bad", new DapContext());
+                Assert.fail();
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        // failures are not cached
+        Assert.assertEquals(2, CountingDSP.opens.get());
+        Assert.assertEquals(0, DapCache.size());
+    }
+}
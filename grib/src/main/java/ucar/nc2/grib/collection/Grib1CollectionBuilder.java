@@ -34,7 +34,6 @@
 package ucar.nc2.grib.collection;
 
 import thredds.featurecollection.FeatureCollectionConfig;
-import thredds.inventory.CollectionUpdateType;
 import thredds.inventory.MCollection;
 import thredds.inventory.MFile;
 import ucar.coord.*;
@@ -46,7 +45,6 @@ import ucar.nc2.grib.grib2.Grib2Utils;
 import ucar.nc2.time.CalendarDate;
 import ucar.nc2.time.CalendarDateRange;
 import ucar.nc2.time.CalendarPeriod;
-import ucar.nc2.util.CloseableIterator;
 
 import java.io.File;
 import java.io.IOException;
@@ -77,42 +75,20 @@ public class Grib1CollectionBuilder extends GribCollectionBuilder {
   // each group has an arraylist of all records that belong to it.
   // for each group, call rectlizer to derive the coordinates and variables
   @Override
-  public List<Grib1CollectionWriter.Group> makeGroups(List<MFile> allFiles, boolean singleRuntime, Formatter errlog) throws IOException {
-    Map<GroupAndRuntime, Grib1CollectionWriter.Group> gdsMap = new HashMap<>();
+  public List<Grib1CollectionWriter.Group> makeGroups(final List<MFile> allFiles, final boolean singleRuntime, Formatter errlog) throws IOException {
+    final Map<GroupAndRuntime, Grib1CollectionWriter.Group> gdsMap = new HashMap<>();
 
     logger.debug("Grib2CollectionBuilder {}: makeGroups", name);
-    int fileno = 0;
-    GribRecordStats statsAll = new GribRecordStats(); // debugging
+    final GribRecordStats statsAll = new GribRecordStats(); // debugging
 
     logger.debug(" dcm={}", dcm);
 
     // place each record into its group
-    int totalRecords = 0;
-    try (CloseableIterator<MFile> iter = dcm.getFileIterator()) { // not sorted
-      if (iter == null)
-        return new ArrayList<>(); // empty
-
-      while (iter.hasNext()) {
-        MFile mfile = iter.next();
-        Grib1Index index;
-        try {
-          if (Grib.debugGbxIndexOnly) {
-            index = (Grib1Index) GribIndex.open(true, mfile);
-            if (index == null) continue;
-          } else {
-            // here is where gbx9 files get recreated
-            index = (Grib1Index) GribIndex.readOrCreateIndexFromSingleFile(true, mfile, CollectionUpdateType.test, logger);
-          }
-          allFiles.add(mfile);  // add on success
-
-        } catch (IOException ioe) {
-          logger.error("Grib2CollectionBuilder " + name + " : reading/Creating gbx9 index for file " + mfile.getPath() + " failed", ioe);
-          continue;
-        }
-        if (index == null) {
-          logger.error("Grib2CollectionBuilder " + name + " : reading/Creating gbx9 index for file " + mfile.getPath() + " failed");
-          continue;
-        }
+    readIndexes(new IndexVisitor() {
+      public void visit(MFile mfile, GribIndex gribIndex) throws IOException {
+        Grib1Index index = (Grib1Index) gribIndex;
+        int fileno = allFiles.size();
+        allFiles.add(mfile);  // add on success
 
         /* add all gcs to tracker
         for (Grib1SectionGridDefinition gds : index.getGds()) {
@@ -120,11 +96,8 @@ public class Grib1CollectionBuilder extends GribCollectionBuilder {
           if (gdsTrack.get(crc) == null) gdsTrack.put(crc, 0);
         } */
 
-        int n = index.getNRecords();
-        totalRecords += n;
-
         for (Grib1Record gr : index.getRecords()) { // we are using entire Grib1Record - likely this is the memory bottleneck for how big a collection can handle
-          if (this.cust == null) {
+          if (cust == null) {
             cust = Grib1Customizer.factory(gr, null);
             cust.setTimeUnitConverter(gribConfig.getTimeUnitConverter());
           }
@@ -150,10 +123,9 @@ public class Grib1CollectionBuilder extends GribCollectionBuilder {
           g.records.add(gr);
           g.runtimes.add(runtimeDate.getMillis());
         }
-        fileno++;
         statsAll.recordsTotal += index.getRecords().size();
       }
-    }
+    });
 
     // rectilyze each group independently
     List<Grib1CollectionWriter.Group> groups = new ArrayList<>(gdsMap.values());
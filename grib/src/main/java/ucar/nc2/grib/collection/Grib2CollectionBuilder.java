@@ -34,7 +34,6 @@
 package ucar.nc2.grib.collection;
 
 import thredds.featurecollection.FeatureCollectionConfig;
-import thredds.inventory.CollectionUpdateType;
 import thredds.inventory.MCollection;
 import thredds.inventory.MFile;
 import ucar.coord.*;
@@ -46,7 +45,6 @@ import ucar.nc2.grib.grib2.table.Grib2Customizer;
 import ucar.nc2.time.CalendarDate;
 import ucar.nc2.time.CalendarDateRange;
 import ucar.nc2.time.CalendarPeriod;
-import ucar.nc2.util.CloseableIterator;
 
 import java.io.File;
 import java.io.IOException;
@@ -78,48 +76,26 @@ class Grib2CollectionBuilder extends GribCollectionBuilder {
   // each group has an arraylist of all records that belong to it.
   // for each group, run rectlizer to derive the coordinates and variables
   @Override
-  public List<Grib2CollectionWriter.Group> makeGroups(List<MFile> allFiles, boolean singleRuntime, Formatter errlog) throws IOException {
-    Map<GroupAndRuntime, Grib2CollectionWriter.Group> gdsMap = new HashMap<>();
+  public List<Grib2CollectionWriter.Group> makeGroups(final List<MFile> allFiles, final boolean singleRuntime, Formatter errlog) throws IOException {
+    final Map<GroupAndRuntime, Grib2CollectionWriter.Group> gdsMap = new HashMap<>();
 
     logger.debug("Grib2CollectionBuilder {}: makeGroups", name);
-    int fileno = 0;
-    GribRecordStats statsAll = new GribRecordStats(); // debugging
+    final GribRecordStats statsAll = new GribRecordStats(); // debugging
+    final Grib2RecordCompactor compactor = new Grib2RecordCompactor(); // records share repeated sections
 
     logger.debug(" dcm={}", dcm);
 
     // place each record into its group
-    int totalRecords = 0;
-    try (CloseableIterator<MFile> iter = dcm.getFileIterator()) { // not sorted
-      if (iter == null)
-        return new ArrayList<>(); // empty
-
-      while (iter.hasNext()) {
-        MFile mfile = iter.next();
-        Grib2Index index;
-
-        try {
-          if (Grib.debugGbxIndexOnly) {
-             index = (Grib2Index) GribIndex.open(false, mfile);
-           } else {
-             // this is where gbx9 files get recreated
-             index = (Grib2Index) GribIndex.readOrCreateIndexFromSingleFile(false, mfile, CollectionUpdateType.test, logger);
-           }
-          allFiles.add(mfile);  // add on success
-
-        } catch (IOException ioe) {
-          logger.error("Grib2CollectionBuilder " + name + " : reading/Creating gbx9 index for file " + mfile.getPath() + " failed", ioe);
-          continue;
-        }
-        if (index == null) {
-          logger.error("Grib2CollectionBuilder " + name + " : reading/Creating gbx9 index for file " + mfile.getPath() + " failed");
-          continue;
-        }
-        int n = index.getNRecords();
-        totalRecords += n;
-
-        for (Grib2Record gr : index.getRecords()) { // we are using entire Grib2Record - memory limitations
-          if (this.cust == null) {
-            this.cust = Grib2Customizer.factory(gr);
+    readIndexes(new IndexVisitor() {
+      public void visit(MFile mfile, GribIndex gribIndex) throws IOException {
+        Grib2Index index = (Grib2Index) gribIndex;
+        int fileno = allFiles.size();
+        allFiles.add(mfile);  // add on success
+
+        for (Grib2Record gr : index.getRecords()) { // we are using entire Grib2Record, with repeated sections shared
+          compactor.compact(gr);
+          if (cust == null) {
+            cust = Grib2Customizer.factory(gr);
             cust.setTimeUnitConverter(gribConfig.getTimeUnitConverter());
           }
           if (filterIntervals(gr, gribConfig.intvFilter)) {
@@ -144,12 +120,10 @@ class Grib2CollectionBuilder extends GribCollectionBuilder {
           g.records.add(gr);
           g.runtimes.add(runtimeDate.getMillis());
         }
-        fileno++;
         statsAll.recordsTotal += index.getRecords().size();
       }
-    }
-
-    if (totalRecords == 0) {
+    });
+    if (statsAll.recordsTotal == 0) {
       logger.warn("No records found in files. Check Grib1/Grib2 for collection {}. If wrong, delete gbx9.", name);
       throw new IllegalStateException("No records found in dataset "+name);
     }
@@ -168,6 +142,7 @@ class Grib2CollectionBuilder extends GribCollectionBuilder {
 
     // debugging and validation
     if (logger.isDebugEnabled()) logger.debug(statsAll.show());
+    if (logger.isDebugEnabled()) logger.debug(compactor.show());
 
     return groups;
   }
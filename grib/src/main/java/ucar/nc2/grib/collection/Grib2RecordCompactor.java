@@ -0,0 +1,155 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.grib.collection;
+
+import ucar.nc2.grib.grib2.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Makes the Grib2Records of a collection share the sections that are the same in many of them,
+ * while the collection index is being built.
+ * <p>
+ * Each record read from a gbx9 has its own copy of every section. In a large collection most of them are
+ * repeated: all records of a run have the same identification section, all records of a file the same GDS
+ * (and every file has its own copy), and a given parameter/level/forecast time has the same PDS in every run.
+ * Keeping one instance of each distinct section (and of the parsed Grib2Pds) leaves each record holding
+ * little more than its own positions in the data file.
+ * <p>
+ * Not thread safe: use one per collection being built.
+ */
+class Grib2RecordCompactor {
+  private final Map<IdKey, Grib2SectionIdentification> ids = new HashMap<>();
+  private final Map<BytesKey, Grib2SectionGridDefinition> gdss = new HashMap<>();
+  private final Map<BytesKey, SharedPds> pdss = new HashMap<>();
+  private final Map<BytesKey, Grib2SectionLocalUse> luss = new HashMap<>();
+  private int nrecords;
+
+  private static class SharedPds {
+    final Grib2SectionProductDefinition pdss;
+    final Grib2Pds pds;
+
+    SharedPds(Grib2SectionProductDefinition pdss) {
+      this.pdss = pdss;
+      this.pds = pdss.getPDS();
+    }
+  }
+
+  /**
+   * Replace the sections of the record with equal ones already seen, if any.
+   *
+   * @param gr the record, modified in place
+   */
+  void compact(Grib2Record gr) {
+    nrecords++;
+
+    IdKey idKey = new IdKey(gr.getId());
+    Grib2SectionIdentification id = ids.get(idKey);
+    if (id == null) ids.put(idKey, gr.getId());
+    else gr.setId(id);
+
+    Grib2SectionGridDefinition gds = gr.getGDSsection();
+    if (gds != null) {
+      BytesKey key = new BytesKey(gds.getRawBytes());
+      Grib2SectionGridDefinition shared = gdss.get(key);
+      if (shared == null) gdss.put(key, gds);
+      else gr.setGdss(shared);
+    }
+
+    BytesKey pdsKey = new BytesKey(gr.getPDSsection().getRawBytes());
+    SharedPds pds = pdss.get(pdsKey);
+    if (pds == null) {
+      pds = new SharedPds(gr.getPDSsection());
+      pdss.put(pdsKey, pds);
+    }
+    gr.setPdss(pds.pdss, pds.pds);
+
+    if (gr.hasLocalUseSection()) {
+      BytesKey key = new BytesKey(gr.getLocalUseSection().getRawBytes());
+      Grib2SectionLocalUse lus = luss.get(key);
+      if (lus == null) luss.put(key, gr.getLocalUseSection());
+      else gr.setLus(lus);
+    }
+  }
+
+  public String show() {
+    return String.format("Grib2RecordCompactor: %d records share %d ids, %d gds, %d pds, %d lus",
+            nrecords, ids.size(), gdss.size(), pdss.size(), luss.size());
+  }
+
+  private static class BytesKey {
+    final byte[] bytes;
+    final int hash;
+
+    BytesKey(byte[] bytes) {
+      this.bytes = bytes;
+      this.hash = Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return (o instanceof BytesKey) && hash == ((BytesKey) o).hash && Arrays.equals(bytes, ((BytesKey) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static class IdKey {
+    final int[] vals;
+    final int hash;
+
+    IdKey(Grib2SectionIdentification id) {
+      this.vals = new int[]{id.getCenter_id(), id.getSubcenter_id(), id.getMaster_table_version(), id.getLocal_table_version(),
+              id.getSignificanceOfRT(), id.getYear(), id.getMonth(), id.getDay(), id.getHour(), id.getMinute(), id.getSecond(),
+              id.getProductionStatus(), id.getTypeOfProcessedData()};
+      this.hash = Arrays.hashCode(vals);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return (o instanceof IdKey) && hash == ((IdKey) o).hash && Arrays.equals(vals, ((IdKey) o).vals);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+}
@@ -45,10 +45,12 @@ import thredds.inventory.filter.StreamFilter;
 import thredds.inventory.partition.*;
 import ucar.nc2.constants.CDM;
 import ucar.nc2.dataset.DatasetUrl;
+import ucar.nc2.grib.GribIndex;
 import ucar.nc2.grib.GribIndexCache;
 import ucar.nc2.grib.grib1.Grib1RecordScanner;
 import ucar.nc2.grib.grib2.Grib2RecordScanner;
 import ucar.nc2.stream.NcStream;
+import ucar.nc2.units.TimeDuration;
 import ucar.nc2.util.CancelTask;
 import ucar.nc2.util.cache.FileCacheIF;
 import ucar.nc2.util.cache.FileCacheable;
@@ -59,12 +61,10 @@ import ucar.unidata.util.StringUtil2;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.Formatter;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -119,6 +119,111 @@ public class GribCdmIndex implements IndexReader {
 
   static public void shutdown() {
     if (gribCollectionCache != null) gribCollectionCache.clearCache(true);
+    GribCollectionBuilder.shutdown();
+    closeChangeTrackers();
+  }
+
+  /**
+   * Set the number of threads used to read or create the gbx9 indexes of the files in a collection,
+   * when its ncx index is (re)built. The files are still added to the collection in order.
+   * @param nthreads number of threads, shared by all collections; default 1, which indexes on the calling thread.
+   */
+  static public void setIndexThreads(int nthreads) {
+    GribCollectionBuilder.setIndexThreads(nthreads);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////////////////////////
+  // optionally watch the directories of a directory partition for changes
+
+  static private boolean watchDirectories = false;
+  static private final Map<String, DirectoryChangeTracker> changeTrackers = new HashMap<>();
+
+  /**
+   * Watch the directories of directory partitioned collections for changes, using the file system's WatchService.
+   * Then a test or testIndexOnly update only rescans the leaf directories that changed since the last update,
+   * and rebuilds the partition indexes above them. The first update of each collection always scans everything,
+   * as does the next update after the WatchService loses events. If a directory fails to update, its changes are
+   * kept, so that the next update tries it again.
+   * @param watch true to watch, false to stop watching
+   */
+  static public synchronized void setWatchDirectories(boolean watch) {
+    watchDirectories = watch;
+    if (!watch) closeChangeTrackers();
+  }
+
+  static private synchronized void closeChangeTrackers() {
+    for (DirectoryChangeTracker tracker : changeTrackers.values()) {
+      try {
+        tracker.close();
+      } catch (IOException e) {
+        classLogger.warn("failed to close DirectoryChangeTracker {}", tracker.getRoot(), e);
+      }
+    }
+    changeTrackers.clear();
+  }
+
+  // return the changes since the last call, or null if not watching. Changes that are not complete mean check everything.
+  static private synchronized DirectoryChangeTracker.Changes takeDirectoryChanges(FeatureCollectionConfig config, CollectionSpecParser specp,
+                                                                               Path rootPath, CollectionUpdateType updateType, Logger logger) {
+    if (!watchDirectories) return null;
+
+    DirectoryChangeTracker tracker = changeTrackers.get(config.collectionName);
+    if (tracker != null && !tracker.getRoot().equals(rootPath.toAbsolutePath().normalize())) {
+      try {
+        tracker.close();
+      } catch (IOException e) {
+        logger.warn("failed to close DirectoryChangeTracker {}", tracker.getRoot(), e);
+      }
+      tracker = null;
+    }
+
+    if (tracker == null) { // start watching; this update scans everything
+      final DirectoryStream.Filter<Path> specFilter = (specp.getFilter() == null) ? null : new StreamFilter(specp.getFilter(), specp.getFilterOnName());
+      DirectoryStream.Filter<Path> filter = new DirectoryStream.Filter<Path>() {
+        public boolean accept(Path entry) throws IOException {
+          String name = entry.getFileName().toString();
+          if (name.endsWith(GribIndex.GBX9_IDX) || name.contains(".ncx")) return false; // our own index files
+          return specFilter == null || specFilter.accept(entry);
+        }
+      };
+      try {
+        tracker = new DirectoryChangeTracker(rootPath, filter, logger);
+        changeTrackers.put(config.collectionName, tracker);
+      } catch (IOException e) {
+        logger.warn("Cant watch directories of {}: {}", config.collectionName, e.getMessage());
+        changeTrackers.remove(config.collectionName);
+        return null;
+      }
+      return tracker.takeAll();
+    }
+
+    if (updateType != CollectionUpdateType.test && updateType != CollectionUpdateType.testIndexOnly) {
+      return tracker.takeAll(); // these are included in this update
+    }
+
+    long olderThanMillis = 0;
+    if (config.olderThan != null) {
+      try {
+        olderThanMillis = (long) (1000 * new TimeDuration(config.olderThan).getValueInSeconds());
+      } catch (Exception e) {
+        logger.error(config.collectionName + ": Invalid time unit for olderThan = {}", config.olderThan);
+      }
+    }
+
+    DirectoryChangeTracker.Changes changes = tracker.takeChanges(olderThanMillis);
+    if (!changes.isComplete()) {
+      logger.info("updateGribCollection {} lost directory events or last update failed, check all directories", config.collectionName);
+      return changes;
+    }
+    logger.debug("updateGribCollection {} directory changes {}", config.collectionName, changes);
+    return changes;
+  }
+
+  // the update using these changes failed, so the next update must try them again
+  static private synchronized void restoreDirectoryChanges(FeatureCollectionConfig config, DirectoryChangeTracker.Changes changes) {
+    DirectoryChangeTracker tracker = changeTrackers.get(config.collectionName);
+    if (tracker != null)
+      tracker.restoreChanges(changes);
   }
 
   /////////////////////////////////////////////////////////////////////////////////////////////////
@@ -340,9 +445,20 @@ public class GribCdmIndex implements IndexReader {
       // LOOK assume wantSubdirs makes it into a Partition. Isnt there something better ??
       if (specp.wantSubdirs()) {  // its a partition
 
-        try (DirectoryPartition dpart = new DirectoryPartition(config, rootPath, true, new GribCdmIndex(logger), NCX_SUFFIX, logger)) {
-          dpart.putAuxInfo(FeatureCollectionConfig.AUX_CONFIG, config);
-          changed = updateDirectoryCollectionRecurse(isGrib1, dpart, config, updateType, logger);
+        DirectoryChangeTracker.Changes changes = takeDirectoryChanges(config, specp, rootPath, updateType, logger);
+        if (changes != null && changes.isEmpty()) {
+          changed = false;  // nothing happened in any directory since the last update
+
+        } else {
+          boolean ok = false;
+          try (DirectoryPartition dpart = new DirectoryPartition(config, rootPath, true, new GribCdmIndex(logger), NCX_SUFFIX, logger)) {
+            dpart.putAuxInfo(FeatureCollectionConfig.AUX_CONFIG, config);
+            changed = updateDirectoryCollectionRecurse(isGrib1, dpart, config, updateType, changes, logger);
+            ok = true;
+          } finally {
+            if (changes != null && (!ok || changes.isFailed()))
+              restoreDirectoryChanges(config, changes);
+          }
         }
 
       } else { // otherwise its a leaf directory
@@ -456,6 +572,7 @@ public class GribCdmIndex implements IndexReader {
   static private boolean updateDirectoryCollectionRecurse(boolean isGrib1, DirectoryPartition dpart,
                                                           FeatureCollectionConfig config,
                                                           CollectionUpdateType updateType,
+                                                          DirectoryChangeTracker.Changes changes,
                                                           Logger logger) throws IOException {
 
     if (debug) System.out.printf("GribCdmIndex.updateDirectoryCollectionRecurse %s %s%n", dpart.getRoot(), updateType);
@@ -466,10 +583,11 @@ public class GribCdmIndex implements IndexReader {
     // check the children partitions first
     if (updateType != CollectionUpdateType.testIndexOnly) {   // skip children on testIndexOnly
       for (MCollection part : dpart.makePartitions(updateType)) {
+        if (changes != null && !changes.affects(Paths.get(part.getRoot()))) continue; // nothing changed under it
         part.putAuxInfo(FeatureCollectionConfig.AUX_CONFIG, config);
         try {
           if (part instanceof DirectoryPartition) {   // LOOK if child partition fails, the parent partition doesnt know that - suckage
-            updateDirectoryCollectionRecurse(isGrib1, (DirectoryPartition) part, config, updateType, logger);
+            updateDirectoryCollectionRecurse(isGrib1, (DirectoryPartition) part, config, updateType, changes, logger);
           } else {
             Path partPath = Paths.get(part.getRoot());
             updateLeafCollection(isGrib1, config, updateType, false, logger, partPath); // LOOK why not using part ??
@@ -481,6 +599,7 @@ public class GribCdmIndex implements IndexReader {
         } catch (Throwable t) {
           logger.error("Error making partition " + part.getRoot(), t);
           dpart.removePartition(part);
+          if (changes != null) changes.setFailed(); // try it again on the next update
         }
       }   // loop over partitions
     }
@@ -501,6 +620,7 @@ public class GribCdmIndex implements IndexReader {
 
     } catch (Throwable t) {
       logger.error("Error making partition " + dpart.getRoot(), t);
+      if (changes != null) changes.setFailed();
       return false;
     }
   }
@@ -984,6 +1104,9 @@ public class GribCdmIndex implements IndexReader {
     @Parameter(names = {"-update", "--CollectionUpdateType"}, description = "Collection Update Type")
     public CollectionUpdateType updateType = CollectionUpdateType.always;
 
+    @Parameter(names = {"-indexThreads", "--indexThreads"}, description = "Number of threads used to read or create gbx9 files")
+    public int indexThreads = 1;
+
     @Parameter(names = {"-h", "--help"}, description = "Display this help and exit", help = true)
     public boolean help = false;
 
@@ -996,7 +1119,7 @@ public class GribCdmIndex implements IndexReader {
 
     private static class ParameterDescriptionComparator implements Comparator<ParameterDescription> {
       // Display parameters in this order in the usage information.
-      private final List<String> orderedParamNames = Arrays.asList("--featureCollection", "--CollectionUpdateType", "--help");
+      private final List<String> orderedParamNames = Arrays.asList("--featureCollection", "--CollectionUpdateType", "--indexThreads", "--help");
 
       @Override
       public int compare(ParameterDescription p0, ParameterDescription p1) {
@@ -1035,6 +1158,7 @@ public class GribCdmIndex implements IndexReader {
         return;
       }
 
+      setIndexThreads(cmdLine.indexThreads);
       Formatter errlog = new Formatter();
       try {
         FeatureCollectionConfigBuilder reader = new FeatureCollectionConfigBuilder(errlog);
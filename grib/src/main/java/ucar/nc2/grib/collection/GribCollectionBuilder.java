@@ -33,6 +33,7 @@
 
 package ucar.nc2.grib.collection;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import jdk.nashorn.internal.ir.annotations.Immutable;
 import thredds.featurecollection.FeatureCollectionConfig;
 import thredds.inventory.CollectionManager;
@@ -54,7 +55,9 @@ import ucar.unidata.util.StringUtil2;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Superclass to build indexes for collections of Grib files.
@@ -64,6 +67,48 @@ import java.util.*;
  */
 abstract class GribCollectionBuilder {
 
+  // scanning grib files to make gbx9 indexes is mostly CPU bound; the pool is shared by all collections
+  private static int indexThreads = 1;
+  private static ExecutorService indexPool;
+
+  /**
+   * Set the number of threads used to read or create the gbx9 indexes of the files in a collection.
+   * @param nthreads number of threads shared by all collections; if <= 1, index on the calling thread.
+   */
+  static synchronized void setIndexThreads(int nthreads) {
+    if (nthreads == indexThreads) return;
+    indexThreads = nthreads;
+    if (indexPool != null) {
+      indexPool.shutdown();
+      indexPool = null;
+    }
+  }
+
+  static synchronized int getIndexThreads() {
+    return indexThreads;
+  }
+
+  private static synchronized ExecutorService getIndexPool() {
+    if (indexThreads <= 1) return null;
+    if (indexPool == null) {
+      indexPool = Executors.newFixedThreadPool(indexThreads,
+              new ThreadFactoryBuilder().setNameFormat("GribIndexer-%d").setDaemon(true).build());
+    }
+    return indexPool;
+  }
+
+  /**
+   * Release the indexing threads.
+   */
+  static synchronized void shutdown() {
+    if (indexPool != null) {
+      indexPool.shutdown();
+      indexPool = null;
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////
+
   protected final MCollection dcm;
   protected final org.slf4j.Logger logger;
   protected final boolean isGrib1;
@@ -86,6 +131,142 @@ abstract class GribCollectionBuilder {
     this.directory = new File(dcm.getRoot());
   }
 
+  /**
+   * Called with the gbx9 index of each file of the collection, in the order of dcm.getFileIterator().
+   */
+  protected interface IndexVisitor {
+    void visit(MFile mfile, GribIndex index) throws IOException;
+  }
+
+  /**
+   * Read or create the gbx9 index of each file in the collection, and pass it to the visitor.
+   * With more than one index thread, the files are indexed concurrently, a bounded number ahead of
+   * the visitor, which is always called on this thread, in file order.
+   * Files whose index cannot be read or created are logged and skipped.
+   *
+   * @param visitor called for each good index
+   * @return number of files visited
+   * @throws IOException from the visitor, or if interrupted
+   */
+  protected int readIndexes(IndexVisitor visitor) throws IOException {
+    ExecutorService pool = getIndexPool();
+    int window = (pool == null) ? 0 : 2 * getIndexThreads();
+    Deque<IndexTask> pending = new ArrayDeque<>();
+    int nfiles = 0, nvisited = 0;
+    long start = System.currentTimeMillis();
+
+    try (CloseableIterator<MFile> iter = dcm.getFileIterator()) { // not sorted
+      if (iter == null)
+        return 0; // empty
+
+      while (iter.hasNext()) {
+        IndexTask task = new IndexTask(iter.next(), ++nfiles);
+        if (pool == null) {
+          task.run();
+          if (task.finish()) {
+            visitor.visit(task.mfile, task.index);
+            nvisited++;
+          }
+          continue;
+        }
+
+        try {
+          task.future = pool.submit(task);
+        } catch (RejectedExecutionException e) { // pool was shut down
+          task.run();
+        }
+        pending.add(task);
+        while (pending.size() >= window) {
+          if (take(pending, visitor)) nvisited++;
+        }
+      }
+      while (!pending.isEmpty()) {
+        if (take(pending, visitor)) nvisited++;
+      }
+
+    } finally {
+      for (IndexTask task : pending) { // only if the visitor failed
+        if (task.future != null)
+          task.future.cancel(false);
+      }
+    }
+
+    logger.info("GribCollectionBuilder {}: indexed {} files in {} msecs ({} threads)", name, nfiles,
+            System.currentTimeMillis() - start, Math.max(1, getIndexThreads()));
+    return nvisited;
+  }
+
+  // wait for the oldest task and visit it; return true if its index is good
+  private boolean take(Deque<IndexTask> pending, IndexVisitor visitor) throws IOException {
+    IndexTask task = pending.peek();
+    if (task.future != null) {
+      try {
+        task.future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("GribCollectionBuilder " + name + " interrupted");
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new IllegalStateException(cause);
+      }
+    }
+    pending.remove();
+    if (!task.finish()) return false;
+    visitor.visit(task.mfile, task.index);
+    return true;
+  }
+
+  // read or create the gbx9 for one file
+  private class IndexTask implements Callable<Void> {
+    final MFile mfile;
+    final int fileno;  // 1-based position in the collection
+    GribIndex index;
+    IOException failure;
+    Future<Void> future;
+
+    IndexTask(MFile mfile, int fileno) {
+      this.mfile = mfile;
+      this.fileno = fileno;
+    }
+
+    public Void call() {
+      run();
+      return null;
+    }
+
+    void run() {
+      try {
+        if (Grib.debugGbxIndexOnly)
+          index = GribIndex.open(isGrib1, mfile);
+        else
+          index = GribIndex.readOrCreateIndexFromSingleFile(isGrib1, mfile, CollectionUpdateType.test, logger); // this is where gbx9 files get recreated
+      } catch (IOException ioe) {
+        failure = ioe;
+      }
+    }
+
+    // log the outcome; return true if the index is good
+    boolean finish() {
+      String which = isGrib1 ? "Grib1CollectionBuilder " : "Grib2CollectionBuilder ";
+      if (failure != null) {
+        logger.error(which + name + " : reading/Creating gbx9 index for file " + mfile.getPath() + " failed", failure);
+        return false;
+      }
+      if (index == null) {
+        logger.error(which + name + " : reading/Creating gbx9 index for file " + mfile.getPath() + " failed");
+        return false;
+      }
+      logger.debug("  {} gbx9 {}: {} records", fileno, mfile.getPath(), index.getNRecords());
+      if (fileno % 1000 == 0)
+        logger.info("GribCollectionBuilder {}: {} files indexed", name, fileno);
+      return true;
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////
+
   public boolean updateNeeded(CollectionUpdateType ff) throws IOException {
     if (ff == CollectionUpdateType.never) return false;
     if (ff == CollectionUpdateType.always) return true;
@@ -34,6 +34,7 @@
 package ucar.nc2.grib.collection;
 
 import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ucar.coord.CoordinateTime2D;
@@ -55,11 +56,18 @@ import ucar.unidata.io.RandomAccessFile;
 
 import javax.annotation.concurrent.Immutable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Grib Data Reader.
  * Split from GribIosp, so can be used by GribCoverage.
+ * <p>
+ * By default records are read and decoded one at a time. With a concurrency greater than one, the sorted
+ * records are split into runs within a single file, and the runs are decoded on a shared pool, each worker
+ * using its own RandomAccessFile. Each record is written into its own slice of the result.
  *
  * @author caron
  * @since 4/6/11
@@ -85,13 +93,73 @@ public abstract class GribDataReader {
   static public String currentDataRafFilename;
   static boolean show = false;   // debug
 
+  // parallel decoding is off unless asked for; the pool is shared by all readers
+  private static int defaultConcurrency = 1;
+  private static ExecutorService decodePool;
+  private static volatile GribFieldCache fieldCache;  // optional, shared by all readers
+
+  /**
+   * Set the default number of records decoded concurrently by one read request. 1 (the default) reads serially.
+   * @param n concurrency cap per request
+   */
+  public static synchronized void setDefaultConcurrency(int n) {
+    defaultConcurrency = Math.max(1, n);
+  }
+
+  public static synchronized int getDefaultConcurrency() {
+    return defaultConcurrency;
+  }
+
+  private static synchronized ExecutorService getDecodePool() {
+    if (decodePool == null) {
+      decodePool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+              new ThreadFactoryBuilder().setNameFormat("GribDataReader-%d").setDaemon(true).build());
+    }
+    return decodePool;
+  }
+
+  /**
+   * Keep decoded fields in a shared cache, so hot fields are unpacked once.
+   * @param cache use this cache; null (the default) turns field caching off.
+   */
+  public static void setFieldCache(GribFieldCache cache) {
+    fieldCache = cache;
+  }
+
+  public static GribFieldCache getFieldCache() {
+    return fieldCache;
+  }
+
+  /**
+   * Stop the shared decoding pool. Later requests will start a new one.
+   */
+  public static synchronized void shutdown() {
+    if (decodePool != null) {
+      decodePool.shutdown();
+      decodePool = null;
+    }
+  }
+
   protected final GribCollectionImmutable gribCollection;
   private final GribCollectionImmutable.VariableIndex vindex;
   private List<DataRecord> records = new ArrayList<>();
+  private int concurrency;
+  private long collectionModified = -1; // for the field cache, set on first use
 
   protected GribDataReader(GribCollectionImmutable gribCollection, GribCollectionImmutable.VariableIndex vindex) {
     this.gribCollection = gribCollection;
     this.vindex = vindex;
+    this.concurrency = getDefaultConcurrency();
+  }
+
+  /**
+   * Override the default concurrency for this reader.
+   * @param concurrency max number of records decoded at once; 1 reads serially.
+   * @return this
+   */
+  public GribDataReader setConcurrency(int concurrency) {
+    this.concurrency = Math.max(1, concurrency);
+    return this;
   }
 
   /**
@@ -268,6 +336,10 @@ public abstract class GribDataReader {
    */
   private void read(DataReceiverIF dataReceiver) throws IOException {
     Collections.sort(records);
+    if (useConcurrent()) {
+      readConcurrent(dataReceiver, false);
+      return;
+    }
 
     int currFile = -1;
     RandomAccessFile rafData = null;
@@ -298,7 +370,7 @@ public abstract class GribDataReader {
           show(rafData, dr.record.pos + dr.record.drsOffset);
         }
 
-        float[] data = readData(rafData, dr);
+        float[] data = readDataCached(rafData, dr);
         GdsHorizCoordSys hcs = vindex.group.getGdsHorizCoordSys();
         dataReceiver.addData(data, dr.resultIndex, hcs.nx);
       }
@@ -315,6 +387,10 @@ public abstract class GribDataReader {
 
   private void readPartitioned(DataReceiverIF dataReceiver) throws IOException {
     Collections.sort(records);
+    if (useConcurrent()) {
+      readConcurrent(dataReceiver, true);
+      return;
+    }
 
     PartitionCollectionImmutable.DataRecord lastRecord = null;
     RandomAccessFile rafData = null;
@@ -344,7 +420,7 @@ public abstract class GribDataReader {
           show(rafData, dr.record.pos + dr.record.drsOffset);
         }
 
-        float[] data = readData(rafData, dr);
+        float[] data = readDataCached(rafData, dr);
         GdsHorizCoordSys hcs = dr.hcs;
         dataReceiver.addData(data, dr.resultIndex, hcs.nx);
       }
@@ -354,6 +430,122 @@ public abstract class GribDataReader {
     }
   }
 
+  // the returned array may be shared with the field cache, so it must not be modified
+  private float[] readDataCached(RandomAccessFile rafData, DataRecord dr) throws IOException {
+    GribFieldCache cache = fieldCache;
+    if (cache == null)
+      return readData(rafData, dr);
+
+    if (collectionModified < 0) collectionModified = gribCollection.getLastModified(); // may race, harmless
+    GribFieldCache.FieldKey key = new GribFieldCache.FieldKey(gribCollection.getLocation(), collectionModified,
+            rafData.getLocation(), dr.record.pos, dr.record.drsOffset);
+    float[] data = cache.get(key);
+    if (data == null) {
+      data = readData(rafData, dr);
+      cache.put(key, data);
+    }
+    return data;
+  }
+
+  // debugging and validation need the serial path
+  private boolean useConcurrent() {
+    if (concurrency <= 1 || records.size() <= 1) return false;
+    return !(Grib.debugIndexOnly || Grib.debugGbxIndexOnly || validator != null || show);
+  }
+
+  /*
+   * Split the sorted records into runs within one file, and decode the runs on the shared pool.
+   * The calling thread also works, so the request finishes even when the pool is busy.
+   */
+  private void readConcurrent(final DataReceiverIF dataReceiver, final boolean partitioned) throws IOException {
+    int maxRun = Math.max(1, records.size() / (2 * concurrency)); // a few runs per worker, to balance the load
+    final Queue<List<DataRecord>> runs = new ConcurrentLinkedQueue<>();
+    List<DataRecord> run = new ArrayList<>();
+    DataRecord last = null;
+    for (DataRecord dr : records) {
+      if (!run.isEmpty() && (run.size() >= maxRun || !usesSameFile(dr, last, partitioned))) {
+        runs.add(run);
+        run = new ArrayList<>();
+      }
+      run.add(dr);
+      last = dr;
+    }
+    runs.add(run);
+
+    int nworkers = Math.min(concurrency, runs.size());
+    List<Future<Void>> futures = new ArrayList<>(nworkers);
+    List<AtomicBoolean> started = new ArrayList<>(nworkers);
+    IOException failure = null;
+    try {
+      ExecutorService pool = getDecodePool();
+      for (int i = 1; i < nworkers; i++) {
+        final AtomicBoolean claim = new AtomicBoolean();
+        futures.add(pool.submit(new Callable<Void>() {
+          public Void call() throws IOException {
+            if (claim.compareAndSet(false, true)) // else the request is already done
+              readRuns(runs, dataReceiver, partitioned);
+            return null;
+          }
+        }));
+        started.add(claim);
+      }
+    } catch (RejectedExecutionException e) {
+      // pool was shut down; the calling thread does the rest
+    }
+
+    try {
+      readRuns(runs, dataReceiver, partitioned);
+    } catch (IOException e) {
+      failure = e;
+    } finally {
+      runs.clear(); // on failure, stop the other workers after their current run
+    }
+
+    // wait for the workers, so no raf is left open when we return
+    for (int i = 0; i < futures.size(); i++) {
+      if (started.get(i).compareAndSet(false, true)) continue; // never started, and now never will
+      try {
+        futures.get(i).get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        if (failure == null) failure = new InterruptedIOException("GribDataReader interrupted");
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        Throwables.propagateIfPossible(cause, IOException.class);
+        if (failure == null) failure = new IOException(cause);
+      }
+    }
+    if (failure != null) throw failure;
+  }
+
+  // may be called on a pool thread
+  private void readRuns(Queue<List<DataRecord>> runs, DataReceiverIF dataReceiver, boolean partitioned) throws IOException {
+    List<DataRecord> run;
+    while ((run = runs.poll()) != null) {
+      try (RandomAccessFile rafData = openDataRaf(run.get(0), partitioned)) {
+        for (DataRecord dr : run) {
+          if (dr.record.pos == GribCollectionMutable.MISSING_RECORD) continue;
+          float[] data = readDataCached(rafData, dr);
+          dataReceiver.addData(data, dr.resultIndex, dr.hcs.nx);
+        }
+      }
+    }
+  }
+
+  private RandomAccessFile openDataRaf(DataRecord dr, boolean partitioned) throws IOException {
+    if (partitioned) {
+      PartitionCollectionImmutable.DataRecord drp = (PartitionCollectionImmutable.DataRecord) dr;
+      return drp.usePartition.getRaf(drp.partno, dr.record.fileno);
+    }
+    return gribCollection.getDataRaf(dr.record.fileno);
+  }
+
+  private boolean usesSameFile(DataRecord dr, DataRecord last, boolean partitioned) {
+    if (partitioned)
+      return ((PartitionCollectionImmutable.DataRecord) dr).usesSameFile((PartitionCollectionImmutable.DataRecord) last);
+    return last != null && dr.record.fileno == last.record.fileno;
+  }
+
   static public class DataRecord implements Comparable<DataRecord> {
     int resultIndex; // index into the result array
     GribCollectionImmutable.Record record;
@@ -380,6 +572,10 @@ public abstract class GribDataReader {
     }
   }
 
+  /**
+   * Receives decoded records. With a concurrency greater than one, addData is called from several threads at once,
+   * each call with a different resultIndex. The data passed to addData may be shared, and must not be modified.
+   */
   public interface DataReceiverIF {
     void addData(float[] data, int resultIndex, int nx) throws IOException;
     void setDataToZero(); // only used when debugging with gbx/ncx only, to fake the data
@@ -0,0 +1,190 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.grib.collection;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Formatter;
+import java.util.Iterator;
+
+/**
+ * Memory bounded cache of decoded GRIB fields, shared by all GribCollections.
+ * Fields are keyed by the collection index (location and last modified), the data file, and the record position
+ * in the data file, and evicted by size (in bytes). A rewritten index never matches the old entries;
+ * call invalidate() to drop them right away.
+ * <p>
+ * On heap, the cached float[] is returned as is, so callers must not modify it.
+ * Off heap, each get() copies the field into a new float[].
+ */
+@ThreadSafe
+public class GribFieldCache {
+  private static final int ENTRY_OVERHEAD = 100; // rough size of the key and the cache entry
+  private static final int CONCURRENCY = 4;       // each cache segment gets 1/CONCURRENCY of maxBytes
+
+  private final Cache<FieldKey, Object> cache; // float[] or FloatBuffer
+  private final long maxBytes;
+  private final boolean offHeap;
+
+  /**
+   * Constructor.
+   * @param maxBytes max size of the cached fields, in bytes.
+   * @param offHeap keep fields in direct buffers, outside the Java heap.
+   */
+  public GribFieldCache(long maxBytes, boolean offHeap) {
+    this.maxBytes = maxBytes;
+    this.offHeap = offHeap;
+    this.cache = CacheBuilder.newBuilder()
+            .concurrencyLevel(CONCURRENCY)
+            .maximumWeight(maxBytes)
+            .weigher(new Weigher<FieldKey, Object>() {
+              public int weigh(FieldKey key, Object value) {
+                int n = (value instanceof float[]) ? ((float[]) value).length : ((FloatBuffer) value).capacity();
+                return 4 * n + ENTRY_OVERHEAD;
+              }
+            })
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * Get a decoded field.
+   * @return the field, or null if not in the cache
+   */
+  public float[] get(FieldKey key) {
+    Object value = cache.getIfPresent(key);
+    if (value == null) return null;
+    if (value instanceof float[]) return (float[]) value;
+
+    FloatBuffer fb = ((FloatBuffer) value).duplicate();
+    fb.rewind();
+    float[] result = new float[fb.capacity()];
+    fb.get(result);
+    return result;
+  }
+
+  /**
+   * Add a decoded field. Fields larger than a cache segment are not added.
+   */
+  public void put(FieldKey key, float[] data) {
+    if (4L * data.length + ENTRY_OVERHEAD > maxBytes / CONCURRENCY) return;
+    if (offHeap) {
+      FloatBuffer fb = ByteBuffer.allocateDirect(4 * data.length).asFloatBuffer();
+      fb.put(data);
+      cache.put(key, fb);
+    } else {
+      cache.put(key, data);
+    }
+  }
+
+  /**
+   * Remove all fields read through the named collection index.
+   * @param collectionIndex the collection's location, ie GribCollectionImmutable.getLocation()
+   */
+  public void invalidate(String collectionIndex) {
+    if (collectionIndex == null) return;
+    Iterator<FieldKey> iter = cache.asMap().keySet().iterator();
+    while (iter.hasNext()) {
+      if (iter.next().collection.equals(collectionIndex))
+        iter.remove();
+    }
+  }
+
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  public long getSizeBytes() {
+    long total = 0;
+    for (Object value : cache.asMap().values())
+      total += 4L * ((value instanceof float[]) ? ((float[]) value).length : ((FloatBuffer) value).capacity());
+    return total;
+  }
+
+  public void showStats(Formatter f) {
+    CacheStats stats = cache.stats();
+    f.format("GribFieldCache maxBytes=%d offHeap=%s fields=%d bytes=%d%n", maxBytes, offHeap, cache.size(), getSizeBytes());
+    f.format("  hits=%d miss=%d hitRate=%f evictions=%d%n", stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount());
+  }
+
+  /**
+   * Identifies one decoded field.
+   */
+  @Immutable
+  public static class FieldKey {
+    private final String collection; // collection index location
+    private final long collectionModified; // last modified of the collection index
+    private final String dataFile;   // data file location
+    private final long pos;          // start of the GRIB record
+    private final int drsOffset;     // offset of the data representation section, grib2 only
+
+    public FieldKey(String collection, long collectionModified, String dataFile, long pos, int drsOffset) {
+      this.collection = (collection == null) ? "" : collection;
+      this.collectionModified = collectionModified;
+      this.dataFile = dataFile;
+      this.pos = pos;
+      this.drsOffset = drsOffset;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      FieldKey that = (FieldKey) o;
+      return pos == that.pos && drsOffset == that.drsOffset && collectionModified == that.collectionModified &&
+              dataFile.equals(that.dataFile) && collection.equals(that.collection);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = collection.hashCode();
+      result = 31 * result + (int) (collectionModified ^ (collectionModified >>> 32));
+      result = 31 * result + dataFile.hashCode();
+      result = 31 * result + (int) (pos ^ (pos >>> 32));
+      result = 31 * result + drsOffset;
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return dataFile + "@" + pos;
+    }
+  }
+}
@@ -128,6 +128,13 @@ abstract class GribPartitionBuilder {
   public boolean createPartitionedIndex(CollectionUpdateType forcePartition, Formatter errlog) throws IOException {
     if (errlog == null) errlog = new Formatter(); // info will be discarded
 
+    // if partitions were only added at the end, merge them into the existing index
+    if (forcePartition != CollectionUpdateType.always) {
+      if (appendPartitions(forcePartition, errlog))
+        return true;
+      result = new PartitionCollectionMutable(result.name, result.directory, result.config, result.isGrib1, logger); // start over
+    }
+
     // create partitions from the partitionManager
     for (MCollection dcmp : partitionManager.makePartitions(forcePartition)) {
       dcmp.putAuxInfo(FeatureCollectionConfig.AUX_CONFIG, partitionManager.getAuxInfo(FeatureCollectionConfig.AUX_CONFIG));
@@ -179,12 +186,167 @@ abstract class GribPartitionBuilder {
     return writeIndex(result, errlog);
   }
 
+  /*
+   * Add new partitions to the existing partition index, without reading the partitions already in it.
+   * Only done when the existing partitions are unchanged, and the new ones sort after them, eg a new run in its own partition.
+   * The union coordinates in the existing index are merged with the coordinates of the new partitions.
+   * Return false if thats not possible, or if the result might not be the same as rebuilding from all the partitions.
+   */
+  private boolean appendPartitions(CollectionUpdateType forcePartition, Formatter errlog) throws IOException {
+    File idxFile = GribIndexCache.getExistingFileOrCache(partitionManager.getIndexFilename(GribCdmIndex.NCX_SUFFIX));
+    if (idxFile == null) return false;
+
+    long start = System.currentTimeMillis();
+    FeatureCollectionConfig config = (FeatureCollectionConfig) partitionManager.getAuxInfo(FeatureCollectionConfig.AUX_CONFIG);
+    PartitionCollectionMutable.Dataset ds2D = null;
+    try (GribCollectionMutable existing = GribCdmIndex.openMutableGCFromIndex(idxFile.getPath(), config, false, true, logger)) {
+      if (existing instanceof PartitionCollectionMutable)
+        ds2D = appendDataset2D((PartitionCollectionMutable) existing, forcePartition, errlog);
+    }
+    if (ds2D == null) {
+      logger.debug("  cant append to {}, rebuild the partition index", name);
+      return false;
+    }
+
+    if (ds2D.gctype == GribCollectionImmutable.Type.TwoD)
+      makeDatasetBest(ds2D, false);
+
+    boolean ok = writeIndex(result, errlog);
+    logger.info("GribPartitionBuilder appended to {} now {} partitions, took {} msecs", name, result.getPartitionSize(), System.currentTimeMillis() - start);
+    return ok;
+  }
+
+  private PartitionCollectionMutable.Dataset appendDataset2D(PartitionCollectionMutable existing, CollectionUpdateType forcePartition, Formatter f) throws IOException {
+    GribCollectionMutable.Dataset existing2D = existing.getDatasetCanonical();
+    if (existing2D.gctype != GribCollectionImmutable.Type.TwoD && existing2D.gctype != GribCollectionImmutable.Type.MRUTP)
+      return null;
+    if (existing.masterRuntime == null || existing.run2part == null || existing.run2part.length != existing.masterRuntime.getSize())
+      return null;
+
+    // the existing partitions are found by their filename reletive to the collection directory
+    Map<String, PartitionCollectionMutable.Partition> existingParts = new HashMap<>();
+    for (PartitionCollectionMutable.Partition part : existing.getPartitions())
+      existingParts.put(part.getFilename(), part);
+
+    int nexisting = 0;
+    for (MCollection dcmp : partitionManager.makePartitions(forcePartition)) {
+      dcmp.putAuxInfo(FeatureCollectionConfig.AUX_CONFIG, partitionManager.getAuxInfo(FeatureCollectionConfig.AUX_CONFIG));
+      String partIndexFilename = StringUtil2.replace(dcmp.getIndexFilename(GribCdmIndex.NCX_SUFFIX), '\\', "/");
+      PartitionCollectionMutable.Partition existingPart = existingParts.get(makeReletiveFilename(result, new File(partIndexFilename)));
+      if (existingPart == null) {
+        result.addPartition(dcmp);  // new partition
+        continue;
+      }
+      File partIndexFile = GribIndexCache.getExistingFileOrCache(partIndexFilename);
+      if (partIndexFile == null || partIndexFile.lastModified() != existingPart.getLastModified() || partIndexFile.length() != existingPart.fileSize)
+        return null;  // existing partition was changed
+      result.addPartition(dcmp, existingPart);
+      nexisting++;
+    }
+    int npart = result.getPartitionSize();
+    if (nexisting != existing.getPartitionSize() || npart == nexisting)
+      return null;  // partitions were deleted, or nothing was added
+
+    result.sortPartitions();
+    for (int partno = 0; partno < nexisting; partno++) {  // the new partitions must come after the existing ones
+      if (!makeReletiveFilename(result, result.getPartition(partno)).equals(existing.getPartition(partno).getFilename()))
+        return null;
+    }
+
+    // the canonical partition, as in createPartitionedIndex
+    PartitionCollectionMutable.Partition canon = result.getPartition(partitionManager.getProtoIndex(npart));
+    try (GribCollectionMutable gc = canon.makeGribCollection()) {
+      if (gc == null) return null;
+      result.copyInfo(gc);
+      result.isPartitionOfPartitions = (gc instanceof PartitionCollectionMutable);
+      result.dateRange = gc.dateRange;
+    }
+    if (result.isPartitionOfPartitions != existing.isPartitionOfPartitions)
+      return null;
+
+    FeatureCollectionConfig config = (FeatureCollectionConfig) partitionManager.getAuxInfo(FeatureCollectionConfig.AUX_CONFIG);
+    FeatureCollectionConfig.GribIntvFilter intvMap = (config != null) ? config.gribConfig.intvFilter : null;
+    PartitionCollectionMutable.Dataset ds2D = result.makeDataset(GribCollectionImmutable.Type.TwoD);
+
+    // the existing groups come first, with their union over the existing partitions
+    Map<Object, GroupPartitions> groupMap = new HashMap<>(40);  // gdsHashObject, GroupPartition
+    CalendarDateRange dateRangeAll = null;
+    for (GribCollectionMutable.GroupGC g : existing2D.groups) {
+      GroupPartitions gs = new GroupPartitions(ds2D.addGroupCopy(g), npart);
+      gs.existingGroup = g;
+      groupMap.put(g.getGdsHash(), gs);
+      CalendarDateRange range = g.getCalendarDateRange();
+      if (range != null)
+        dateRangeAll = (dateRangeAll == null) ? range : dateRangeAll.extend(range);
+    }
+    CoordinateBuilder runtimeAllBuilder = new CoordinateRuntime.Builder2(null);
+    runtimeAllBuilder.addAll(existing.masterRuntime);
+
+    // the union coordinates may cover a wider date range than the existing partitions did, so if it overlaps
+    // a new partition, we dont know if the partitions overlap; let the full rebuild decide
+    boolean rangeOverlaps = (existing2D.gctype != GribCollectionImmutable.Type.MRUTP);
+    List<CoordinateRuntime> masterRuntimes = new ArrayList<>();
+    for (int partno = nexisting; partno < npart; partno++) {
+      try (GribCollectionMutable gc = result.getPartition(partno).makeGribCollection()) {
+        if (gc == null) return null;
+        runtimeAllBuilder.addAll(gc.masterRuntime);
+        masterRuntimes.add(gc.masterRuntime);
+
+        if (!rangeOverlaps) {
+          if (dateRangeAll != null && dateRangeAll.intersects(gc.dateRange)) return null;
+          dateRangeAll = (dateRangeAll == null) ? gc.dateRange : dateRangeAll.extend(gc.dateRange);
+        }
+
+        int groupIdx = 0;
+        for (GribCollectionMutable.GroupGC g : gc.getDatasetCanonical().groups) { // for each group in the partition
+          GroupPartitions gs = groupMap.get(g.getGdsHash());
+          if (gs == null) {
+            gs = new GroupPartitions(ds2D.addGroupCopy(g), npart);
+            groupMap.put(g.getGdsHash(), gs);
+          }
+          gs.componentGroups[partno] = g;
+          gs.componentGroupIndex[partno] = groupIdx++;
+        }
+      }
+    }
+
+    result.masterRuntime = (CoordinateRuntime) runtimeAllBuilder.finish();
+    if (result.isPartitionOfPartitions) // cache calendar dates for efficiency
+      CoordinateTimeAbstract.cdf = new CalendarDateFactory(result.masterRuntime);
+    ds2D.gctype = rangeOverlaps ? GribCollectionImmutable.Type.TwoD : GribCollectionImmutable.Type.MRUTP;
+
+    // run2part: existing runs keep their partition, unless a new partition has the same runtime
+    result.run2part = new int[result.masterRuntime.getSize()];
+    int runIdx = 0;
+    for (Object val : existing.masterRuntime.getValues())
+      result.run2part[result.masterRuntime.getIndex(val)] = existing.run2part[runIdx++];
+    int partIdx = nexisting;
+    for (CoordinateRuntime partRuntime : masterRuntimes) {
+      for (Object val : partRuntime.getValues())
+        result.run2part[result.masterRuntime.getIndex(val)] = partIdx;
+      partIdx++;
+    }
+
+    try {
+      for (GroupPartitions gp : groupMap.values()) {
+        gp.nexisting = nexisting;
+        if (!makeGroupVariables(gp, ds2D, intvMap, f))
+          return null;
+      }
+    } finally {
+      CoordinateTimeAbstract.cdf = null;
+    }
+    return ds2D;
+  }
+
   // each dataset / group has one of these, across all partitions
   private class GroupPartitions {
     GribCollectionMutable.GroupGC resultGroup;
     GribCollectionMutable.GroupGC[] componentGroups; // one for each partition; may be null if group is not in the partition
     int[] componentGroupIndex;                 // one for each partition; the index into the partition.ds2d.groups() array
     int npart;
+    GribCollectionMutable.GroupGC existingGroup; // when appending: the group in the existing index, may be null
+    int nexisting;                               // when appending: the number of partitions in the existing index
 
     GroupPartitions(GribCollectionMutable.GroupGC resultGroup, int npart) {
       this.resultGroup = resultGroup;
@@ -196,6 +358,10 @@ abstract class GribPartitionBuilder {
     void makeVariableIndexPartitioned() {
       // find unique variables across all partitions
       Map<GribCollectionMutable.VariableIndex, GribCollectionMutable.VariableIndex> varMap = new HashMap<>(2 * resultGroup.variList.size());
+      if (existingGroup != null) {
+        for (GribCollectionMutable.VariableIndex vi : existingGroup.variList)
+          varMap.put(vi, vi);
+      }
       for (GribCollectionMutable.GroupGC group : componentGroups) {
         if (group == null) continue;
         for (GribCollectionMutable.VariableIndex vi : group.variList)
@@ -294,101 +460,145 @@ abstract class GribPartitionBuilder {
     }
 
     // do each horiz group
-    for (GroupPartitions gp : groupPartitions) {
-      GribCollectionMutable.GroupGC resultGroup = gp.resultGroup;
-      gp.makeVariableIndexPartitioned();
+    try {
+      for (GroupPartitions gp : groupPartitions) {
+        if (!makeGroupVariables(gp, ds2D, intvMap, f))
+          return null;
+      }
+    } finally {
+      CoordinateTimeAbstract.cdf = null;
+    }
+    return ds2D;
+  }
 
-      String gname = resultGroup.getId();
-      // String gdesc = resultGroup.getDescription();
+  // make the partitioned variables of one group, and their union coordinates; return false on failure
+  private boolean makeGroupVariables(GroupPartitions gp, PartitionCollectionMutable.Dataset ds2D,
+                                     FeatureCollectionConfig.GribIntvFilter intvMap, Formatter f) {
+    GribCollectionMutable.GroupGC resultGroup = gp.resultGroup;
+    int npart = gp.npart;
+    gp.makeVariableIndexPartitioned();
+
+    String gname = resultGroup.getId();
+    // String gdesc = resultGroup.getDescription();
+
+    // variables already in the index keep their partitions
+    if (gp.existingGroup != null) {
+      for (GribCollectionMutable.VariableIndex vi : gp.existingGroup.variList) {
+        PartitionCollectionMutable.VariableIndexPartitioned vip = (PartitionCollectionMutable.VariableIndexPartitioned) resultGroup.findVariableByHash(vi);
+        vip.setExistingPartitions((PartitionCollectionMutable.VariableIndexPartitioned) vi);
+      }
+    }
 
-      // for each partition in this gorup
-      for (int partno = 0; partno < npart; partno++) {
-        GribCollectionMutable.GroupGC group = gp.componentGroups[partno];
-        if (group == null) {  // missing group in this partition
+    // for each partition in this gorup
+    for (int partno = 0; partno < npart; partno++) {
+      GribCollectionMutable.GroupGC group = gp.componentGroups[partno];
+      if (group == null) {  // missing group in this partition
+        if (partno >= gp.nexisting)
           f.format(" INFO canonical group %s not in partition %s%n", gname, result.getPartition(partno).getName());
-          continue;
-        }
-        int groupIdx = gp.componentGroupIndex[partno];
-
-        // for each variable in this Partition, add reference to it in the vip
-        for (int varIdx = 0; varIdx < group.variList.size(); varIdx++) {
-          GribCollectionMutable.VariableIndex vi = group.variList.get(varIdx);
-          //int flag = 0;
-          PartitionCollectionMutable.VariableIndexPartitioned vip = (PartitionCollectionMutable.VariableIndexPartitioned) resultGroup.findVariableByHash(vi);
-          vip.addPartition(partno, groupIdx, varIdx, vi.ndups, vi.nrecords, vi.nmissing, vi);
-        } // loop over variable
-      } // loop over partition
-
-      // each VariableIndexPartitioned now has its list of PartitionForVariable
-
-      // overall set of unique coordinates
-      boolean isDense = false; // (config != null) && "dense".equals(config.gribConfig.getParameter("CoordSys"));  // for now, assume non-dense
-      CoordinateSharer sharify = new CoordinateSharer(isDense, logger);
-
-      // for each variable, create union of coordinates across the partitions
-      for (GribCollectionMutable.VariableIndex viResult : resultGroup.variList) {
-        PartitionCollectionMutable.VariableIndexPartitioned vip = (PartitionCollectionMutable.VariableIndexPartitioned) viResult;
-        vip.finish(); // create the SA, remove list LOOK, could do it differently
-
-        // loop over partitions, make union coordinate; also time filter the intervals
-        CoordinatePartitionUnionizer unionizer = new CoordinatePartitionUnionizer(viResult, intvMap, logger);
+        continue;
+      }
+      int groupIdx = gp.componentGroupIndex[partno];
+
+      // for each variable in this Partition, add reference to it in the vip
+      for (int varIdx = 0; varIdx < group.variList.size(); varIdx++) {
+        GribCollectionMutable.VariableIndex vi = group.variList.get(varIdx);
+        //int flag = 0;
+        PartitionCollectionMutable.VariableIndexPartitioned vip = (PartitionCollectionMutable.VariableIndexPartitioned) resultGroup.findVariableByHash(vi);
+        vip.addPartition(partno, groupIdx, varIdx, vi.ndups, vi.nrecords, vi.nmissing, vi);
+      } // loop over variable
+    } // loop over partition
+
+    // each VariableIndexPartitioned now has its list of PartitionForVariable
+
+    // overall set of unique coordinates
+    boolean isDense = false; // (config != null) && "dense".equals(config.gribConfig.getParameter("CoordSys"));  // for now, assume non-dense
+    CoordinateSharer sharify = new CoordinateSharer(isDense, logger);
+
+    // for each variable, create union of coordinates across the partitions
+    for (GribCollectionMutable.VariableIndex viResult : resultGroup.variList) {
+      PartitionCollectionMutable.VariableIndexPartitioned vip = (PartitionCollectionMutable.VariableIndexPartitioned) viResult;
+      vip.finish(); // create the SA, remove list LOOK, could do it differently
+
+      // loop over partitions, make union coordinate; also time filter the intervals
+      CoordinatePartitionUnionizer unionizer = new CoordinatePartitionUnionizer(viResult, intvMap, logger);
+      GribCollectionMutable.VariableIndex viExisting = (gp.existingGroup == null) ? null : gp.existingGroup.findVariableByHash(viResult);
+      try {
+        if (viExisting != null)
+          unionizer.addCoords(viExisting.getCoordinates(), null); // the union over the existing partitions
         for (int partno = 0; partno < npart; partno++) {
           GribCollectionMutable.GroupGC group = gp.componentGroups[partno];
           if (group == null) continue; // tolerate missing groups
           GribCollectionMutable.VariableIndex vi = group.findVariableByHash(viResult);
           if (vi == null) continue; // tolerate missing variables
-          try {
-            PartitionCollectionMutable.Partition part = ds2D.gctype.isUniqueTime() ? null : result.getPartition(partno);
-            unionizer.addCoords(vi.getCoordinates(), part);
-          } catch (IllegalStateException e) {
-            logger.error(e.getMessage() + " on dataset " + name);
-            return null;
-          }
+          PartitionCollectionMutable.Partition part = ds2D.gctype.isUniqueTime() ? null : result.getPartition(partno);
+          unionizer.addCoords(vi.getCoordinates(), part);
         }  // loop over partition
+      } catch (IllegalStateException e) {
+        logger.error(e.getMessage() + " on dataset " + name);
+        return false;
+      }
 
-        viResult.coords = unionizer.finish();  // the viResult coordinates have been ortho/regularized
-        sharify.addCoords(viResult.coords);
-      } // loop over variable
-
-      // create a list of common coordinates, put them into the group, and now variables just reference those by index
-      sharify.finish();
-      resultGroup.coords = sharify.getUnionCoords();
-
-      // debug
-      List<CoordinateTime2D> time2DCoords = new ArrayList<>();
-      Map<CoordinateRuntime, CoordinateRuntime> runtimes = new HashMap<>();
-      for (Coordinate coord : resultGroup.coords) {
-        Coordinate.Type type = coord.getType();
-        switch (type) {
-          case runtime:
-            CoordinateRuntime reftime = (CoordinateRuntime) coord;
-            runtimes.put(reftime, reftime);
-            break;
-
-          case time2D:
-            CoordinateTime2D t2d = (CoordinateTime2D) coord;
-            time2DCoords.add(t2d);
-            break;
-        }
+      viResult.coords = unionizer.finish();  // the viResult coordinates have been ortho/regularized
+      if (viExisting != null && !isTime2DMergeExact(viExisting.getCoordinates(), viResult.coords)) {
+        logger.debug("  cant append to {}: time2D of {} changed shape", name, viResult.id());
+        return false;
       }
-      for (CoordinateTime2D t2d : time2DCoords) {
-        CoordinateRuntime runtime2D = t2d.getRuntimeCoordinate();
-        CoordinateRuntime runtime = runtimes.get(runtime2D);
-        if (runtime == null)
-          logger.warn("HEY assignRuntimeNames failed on {} group {}", t2d.getName(), resultGroup.getId());
-      } // end debug
-
-
-      for (GribCollectionMutable.VariableIndex viResult : resultGroup.variList) {
-        // redo the variables against the shared coordinates
-        viResult.coordIndex = sharify.reindex2shared(viResult.coords); // ok
-        viResult.coords = null; // dont use anymore, now use coordIndex into group coordinates
+      sharify.addCoords(viResult.coords);
+    } // loop over variable
+
+    // create a list of common coordinates, put them into the group, and now variables just reference those by index
+    sharify.finish();
+    resultGroup.coords = sharify.getUnionCoords();
+
+    // debug
+    List<CoordinateTime2D> time2DCoords = new ArrayList<>();
+    Map<CoordinateRuntime, CoordinateRuntime> runtimes = new HashMap<>();
+    for (Coordinate coord : resultGroup.coords) {
+      Coordinate.Type type = coord.getType();
+      switch (type) {
+        case runtime:
+          CoordinateRuntime reftime = (CoordinateRuntime) coord;
+          runtimes.put(reftime, reftime);
+          break;
+
+        case time2D:
+          CoordinateTime2D t2d = (CoordinateTime2D) coord;
+          time2DCoords.add(t2d);
+          break;
       }
+    }
+    for (CoordinateTime2D t2d : time2DCoords) {
+      CoordinateRuntime runtime2D = t2d.getRuntimeCoordinate();
+      CoordinateRuntime runtime = runtimes.get(runtime2D);
+      if (runtime == null)
+        logger.warn("HEY assignRuntimeNames failed on {} group {}", t2d.getName(), resultGroup.getId());
+    } // end debug
+
+
+    for (GribCollectionMutable.VariableIndex viResult : resultGroup.variList) {
+      // redo the variables against the shared coordinates
+      viResult.coordIndex = sharify.reindex2shared(viResult.coords); // ok
+      viResult.coords = null; // dont use anymore, now use coordIndex into group coordinates
+    }
 
-    } // loop over groups
+    return true;
+  }
 
-    CoordinateTimeAbstract.cdf = null;
-    return ds2D;
+  /*
+   * An orthogonal or regular time2D does not keep the times of each runtime, so the union of an existing time2D with new
+   * partitions is only the same as the union over all partitions if the result is still orthogonal, or regular.
+   */
+  static private boolean isTime2DMergeExact(List<Coordinate> existing, List<Coordinate> merged) {
+    CoordinateTime2D before = null, after = null;
+    for (Coordinate coord : existing)
+      if (coord instanceof CoordinateTime2D) before = (CoordinateTime2D) coord;
+    for (Coordinate coord : merged)
+      if (coord instanceof CoordinateTime2D) after = (CoordinateTime2D) coord;
+    if (before == null || after == null) return before == after;
+
+    if (before.isOrthogonal()) return after.isOrthogonal();
+    if (before.isRegular()) return after.isOrthogonal() || after.isRegular();
+    return true;
   }
 
 
@@ -579,9 +789,12 @@ abstract class GribPartitionBuilder {
   }
 
   private String makeReletiveFilename(PartitionCollectionMutable pc, PartitionCollectionMutable.Partition part) {
+    return makeReletiveFilename(pc, new File(part.getDirectory(), part.getFilename()));
+  }
+
+  private String makeReletiveFilename(PartitionCollectionMutable pc, File partFile) {
     Path topDir = pc.directory.toPath();
-    Path partPath = new File(part.getDirectory(), part.getFilename()).toPath();
-    Path pathRelative = topDir.relativize(partPath);
+    Path pathRelative = topDir.relativize(partFile.toPath());
     return StringUtil2.replace(pathRelative.toString(), '\\', "/");
   }
 
@@ -130,6 +130,22 @@ public class PartitionCollectionMutable extends GribCollectionMutable {
       this.nmissing += nmissing;
     }
 
+    // only used by PartitionBuilder when appending partitions to an existing index, before any addPartition()
+    // keep the partitions of the variable in the existing index, and its stats
+    void setExistingPartitions(VariableIndexPartitioned existing) {
+      partList = new ArrayList<>(nparts);
+      int lastPartno = -1;
+      for (int i = 0; i < existing.nparts; i++) {
+        int partno = existing.partnoSA.get(i);
+        if (partno <= lastPartno) break; // partnos are increasing; the rest of the list is not used
+        partList.add(new PartitionForVariable2D(partno, existing.groupnoSA.get(i), existing.varnoSA.get(i)));
+        lastPartno = partno;
+      }
+      this.ndups = existing.ndups;
+      this.nrecords = existing.nrecords;
+      this.nmissing = existing.nmissing;
+    }
+
     @Override
     public String toStringComplete() {
       Formatter sb = new Formatter();
@@ -407,6 +423,15 @@ public class PartitionCollectionMutable extends GribCollectionMutable {
     }
   }
 
+  // a partition that is already in the index and has not changed; it is not opened
+  void addPartition(MCollection dcm, Partition fromIndex) {
+    Partition partition = new Partition(dcm);
+    partition.lastModified = fromIndex.lastModified;
+    partition.fileSize = fromIndex.fileSize;
+    partition.partitionDate = fromIndex.partitionDate;
+    partitions.add(partition);
+  }
+
   public void sortPartitions() {
     Collections.sort(partitions);
     partitions = Collections.unmodifiableList(partitions);
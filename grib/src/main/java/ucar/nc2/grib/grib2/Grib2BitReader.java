@@ -0,0 +1,106 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.grib.grib2;
+
+import java.io.EOFException;
+
+/**
+ * Reads bit packed unsigned integers from an in-memory data section, a 64-bit word at a time.
+ * The buffer must have at least 8 bytes past the end of the data, so a word can always be read.
+ */
+final class Grib2BitReader {
+  static final int PAD = 8; // bytes needed past the end of the data
+
+  private final byte[] buf;
+  private final long limitBits; // number of valid bits in buf
+  private long bitPos;
+
+  /**
+   * @param buf  data, followed by PAD bytes
+   * @param nbytes number of valid bytes of data
+   */
+  Grib2BitReader(byte[] buf, int nbytes) {
+    this.buf = buf;
+    this.limitBits = 8L * nbytes;
+  }
+
+  /**
+   * Read the next nb bits as an unsigned int.
+   * @param nb number of bits, 0 <= nb <= 32. For nb = 0, returns 0 and reads nothing.
+   */
+  int bits(int nb) throws EOFException {
+    if (nb == 0) return 0;
+    if (bitPos + nb > limitBits) throw new EOFException("GRIB2 data section too short");
+    int shift = 64 - (int) (bitPos & 7) - nb;
+    long word = word((int) (bitPos >>> 3));
+    bitPos += nb;
+    return (int) ((word >>> shift) & ((1L << nb) - 1));
+  }
+
+  /**
+   * Read n values of nb bits each into dest[off, off+n).
+   * @param nb number of bits, 0 <= nb <= 32. For nb = 0, fills with 0.
+   */
+  void unpack(int nb, int[] dest, int off, int n) throws EOFException {
+    if (nb == 0) {
+      java.util.Arrays.fill(dest, off, off + n, 0);
+      return;
+    }
+    if (bitPos + (long) nb * n > limitBits) throw new EOFException("GRIB2 data section too short");
+
+    long mask = (1L << nb) - 1;
+    long pos = bitPos;
+    for (int i = off, end = off + n; i < end; i++) {
+      long word = word((int) (pos >>> 3));
+      dest[i] = (int) ((word >>> (64 - (int) (pos & 7) - nb)) & mask);
+      pos += nb;
+    }
+    bitPos = pos;
+  }
+
+  /**
+   * Skip to the next byte boundary, if not already on one.
+   */
+  void alignByte() {
+    bitPos = (bitPos + 7) & ~7L;
+  }
+
+  // big endian
+  private long word(int i) {
+    byte[] b = buf;
+    return ((long) b[i] << 56) | ((long) (b[i + 1] & 0xff) << 48) | ((long) (b[i + 2] & 0xff) << 40) |
+            ((long) (b[i + 3] & 0xff) << 32) | ((long) (b[i + 4] & 0xff) << 24) | ((b[i + 5] & 0xff) << 16) |
+            ((b[i + 6] & 0xff) << 8) | (b[i + 7] & 0xff);
+  }
+}
@@ -46,6 +46,8 @@ import java.io.InputStream;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Reads the data from one grib2 record.
@@ -78,6 +80,14 @@ public class Grib2DataReader2 {
 
   private int bitmapIndicator;
   private byte[] bitmap;
+  private UnpackBuffers buffers; // if null, getData() borrows a set from the pool
+
+  // by default, scratch arrays are borrowed from a pool shared by all threads, which keeps at most POOL_SIZE sets
+  // of at most POOL_RETAINED_BYTES each (enough for about a 0.25 degree global grid), so that the memory kept
+  // does not grow with the number of threads or the largest field ever decoded
+  private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+  private static final long POOL_RETAINED_BYTES = 8 * 1000 * 1000;
+  private static final BlockingQueue<UnpackBuffers> bufferPool = new ArrayBlockingQueue<>(POOL_SIZE);
 
   public Grib2DataReader2(int dataTemplate, int totalNPoints, int dataNPoints, int scanMode, int nx, long startPos, int dataLength) {
     this.dataTemplate = dataTemplate;
@@ -89,6 +99,16 @@ public class Grib2DataReader2 {
     this.dataLength = dataLength;
   }
 
+  /**
+   * Unpack into these scratch arrays, instead of the calling thread's.
+   * @param buffers reuse these; must not be used by another thread at the same time.
+   * @return this
+   */
+  public Grib2DataReader2 setBuffers(UnpackBuffers buffers) {
+    this.buffers = buffers;
+    return this;
+  }
+
   /*
   Code Table Code table 5.0 - Data representation template number (5.0)
     0: Grid point data - simple packing
@@ -118,28 +138,41 @@ public class Grib2DataReader2 {
 
     raf.seek(startPos+5); // skip past first 5 bytes in data section, now ready to read
 
+    boolean pooled = (buffers == null);
+    if (pooled) {
+      buffers = bufferPool.poll();
+      if (buffers == null) buffers = new UnpackBuffers(POOL_RETAINED_BYTES);
+    }
+
     float[] data;
-    switch (dataTemplate) {
-      case 0:
-        data = getData0(raf, (Grib2Drs.Type0) gdrs);
-        break;
-      case 2:
-        data = getData2(raf, (Grib2Drs.Type2) gdrs);
-        break;
-      case 3:
-        data = getData3(raf, (Grib2Drs.Type3) gdrs);
-        break;
-      case 40:
-        data = getData40(raf, (Grib2Drs.Type40) gdrs);
-        break;
-      case 41:
-        data = getData41(raf, (Grib2Drs.Type0) gdrs);
-        break;
-      case 50002:
-        data = getData50002(raf, (Grib2Drs.Type50002) gdrs);
-        break;
-      default:
-        throw new UnsupportedOperationException("Unsupported DRS type = " + dataTemplate);
+    try {
+      switch (dataTemplate) {
+        case 0:
+          data = getData0(raf, (Grib2Drs.Type0) gdrs);
+          break;
+        case 2:
+          data = getData2(raf, (Grib2Drs.Type2) gdrs);
+          break;
+        case 3:
+          data = getData3(raf, (Grib2Drs.Type3) gdrs);
+          break;
+        case 40:
+          data = getData40(raf, (Grib2Drs.Type40) gdrs);
+          break;
+        case 41:
+          data = getData41(raf, (Grib2Drs.Type0) gdrs);
+          break;
+        case 50002:
+          data = getData50002(raf, (Grib2Drs.Type50002) gdrs);
+          break;
+        default:
+          throw new UnsupportedOperationException("Unsupported DRS type = " + dataTemplate);
+      }
+    } finally {
+      if (pooled) {
+        bufferPool.offer(buffers); // dropped if the pool is full
+        buffers = null;
+      }
     }
 
     //int scanMode = gds.getGds().getScanMode();
@@ -221,44 +254,22 @@ public class Grib2DataReader2 {
 
   // Grid point data - simple packing
   private float[] getData0(RandomAccessFile raf, Grib2Drs.Type0 gdrs) throws IOException {
-    int nb = gdrs.numberOfBits;
-    int D = gdrs.decimalScaleFactor;
-    float DD = (float) java.lang.Math.pow((double) 10, (double) D);
+    float DD = (float) java.lang.Math.pow((double) 10, (double) gdrs.decimalScaleFactor);
     float R = gdrs.referenceValue;
-    int E = gdrs.binaryScaleFactor;
-    float EE = (float) java.lang.Math.pow( 2.0, (double) E);
+    float EE = (float) java.lang.Math.pow( 2.0, (double) gdrs.binaryScaleFactor);
 
-    // LOOK: can # datapoints differ from bitmap and data ?
     // dataPoints are number of points encoded, it could be less than the
     // totalNPoints in the grid record if bitMap is used, otherwise equal
-    float[] data = new float[totalNPoints];
+    int npacked = (bitmap == null) ? totalNPoints : countBits(bitmap, totalNPoints);
 
     //  Y * 10**D = R + (X1 + X2) * 2**E
-    //   E = binary scale factor
-    //   D = decimal scale factor
-    //   R = reference value
     //   X1 = 0
     //   X2 = scaled encoded value
-    //   data[ i ] = (R + ( X1 + X2) * EE)/DD ;
-
-    BitReader reader = new BitReader(raf, startPos+5);
-    if (bitmap == null) {
-      for (int i = 0; i < totalNPoints; i++) {
-        //data[ i ] = (R + ( X1 + X2) * EE)/DD ;
-        data[i] = (R + reader.bits2UInt(nb) * EE) / DD;
-      }
-    } else {
-      for (int i = 0; i < totalNPoints; i++) {
-        if ((bitmap[i / 8] & GribNumbers.bitmask[i % 8]) != 0) {
-          data[i] = (R + reader.bits2UInt(nb) * EE) / DD;
-        } else {
-          data[i] = staticMissingValue;
-          //data[i] = R / DD;
-        }
-      }
-    }
+    Grib2BitReader reader = readDataSection(raf);
+    int[] X2 = buffers().getValues(npacked);
+    reader.unpack(gdrs.numberOfBits, X2, 0, npacked);
 
-    return data;
+    return expand(X2, null, npacked, R, EE, DD, staticMissingValue);
   }
 
   /*
@@ -301,95 +312,70 @@ public class Grib2DataReader2 {
       return nGroups0(bitmapIndicator, ref_val, mv);
     }
 
-    BitReader reader = new BitReader(raf, startPos+5);
+    UnpackBuffers buffers = buffers();
+    Grib2BitReader reader = readDataSection(raf);
 
     // 6-xx  Get reference values for groups (X1's)
-    int[] X1 = new int[NG];
-    int nb = gdrs.numberOfBits;
-    if (nb != 0) {
-      for (int i = 0; i < NG; i++)
-        X1[i] = (int) reader.bits2UInt(nb);
-    }
+    int[] X1 = buffers.getGroupRefs(NG);
+    reader.unpack(gdrs.numberOfBits, X1, 0, NG);
 
     // [xx +1 ]-yy Get number of bits used to encode each group
-    int[] NB = new int[NG];
-    nb = gdrs.bitsGroupWidths;
-    if (nb != 0) {
-      reader.incrByte();
-      for (int i = 0; i < NG; i++)
-        NB[i] = (int) reader.bits2UInt(nb);
-    }
+    int[] NB = buffers.getGroupWidths(NG);
+    reader.alignByte();
+    reader.unpack(gdrs.bitsGroupWidths, NB, 0, NG);
+    for (int i = 0; i < NG; i++)
+      NB[i] += gdrs.referenceGroupWidths;
 
     // [yy +1 ]-zz Get the scaled group lengths using formula
     //     Ln = ref + Kn * len_inc, where n = 1-NG,
     //          ref = referenceGroupLength, and  len_inc = lengthIncrement
-
-    int[] L = new int[NG];
-    int ref = gdrs.referenceGroupLength;
-    int len_inc = gdrs.lengthIncrement;
-    nb = gdrs.bitsScaledGroupLength;
-
-    reader.incrByte();
+    int[] L = buffers.getGroupLengths(NG);
+    reader.alignByte();
+    reader.unpack(gdrs.bitsScaledGroupLength, L, 0, NG);
     for (int i = 0; i < NG; i++)
-      L[i] = ref + (int) reader.bits2UInt(nb) * len_inc;
+      L[i] = gdrs.referenceGroupLength + L[i] * gdrs.lengthIncrement;
     L[NG - 1] = gdrs.lengthLastGroup; // enter Length of Last Group
 
+    int npacked = 0;
+    for (int i = 0; i < NG; i++)
+      npacked += L[i];
 
-    float[] data = new float[totalNPoints];
-
-    // [zz +1 ]-nn get X2 values and calculate the results Y using formula
-
-//              Y = R + [(X1 + X2) * (2 ** E) * (10 ** D)]
-//               WHERE:
-//                     Y = THE VALUE WE ARE UNPACKING
-//                     R = THE REFERENCE VALUE (FIRST ORDER MINIMA)
-//                    X1 = THE PACKED VALUE
-//                    X2 = THE SECOND ORDER MINIMA
-//                     E = THE BINARY SCALE FACTOR
-//                     D = THE DECIMAL SCALE FACTOR
+    // [zz +1 ]-nn get X2 values; X1 + X2 is kept for the non-missing values
+    int[] X = buffers.getValues(npacked);
+    byte[] missing = (mvm == 0) ? null : buffers.getMissing(npacked);
     int count = 0;
-    reader.incrByte();
+    int dataSize = 0;
+    reader.alignByte();
     for (int i = 0; i < NG; i++) {
-      for (int j = 0; j < L[i]; j++) {
-        if (NB[i] == 0) {
-          if (mvm == 0) {  // X2 = 0
-            data[count++] = (R + X1[i] * EE) / DD;
-          } else { //if (mvm == 1) || (mvm == 2 )
-            data[count++] = mv;
-          }
-        } else {
-          int X2 = (int) reader.bits2UInt(NB[i]);
-          if (mvm == 0) {
-            data[count++] = (R + (X1[i] + X2) * EE) / DD;
-          } else { //if (mvm == 1) || (mvm == 2 )
-            // X2 is also set to missing value if all bits set to 1's
-            if (X2 == bitsmv1[NB[i]]) {
-              data[count++] = mv;
-            } else {
-              data[count++] = (R + (X1[i] + X2) * EE) / DD;
-            }
+      int nb = NB[i];
+      int len = L[i];
+      reader.unpack(nb, X, count, len);
+
+      if (mvm == 0) {
+        for (int j = count; j < count + len; j++)
+          X[dataSize++] = X[j] + X1[i];
+
+      } else if (nb == 0) { // mvm == 1 or 2: constant groups are missing
+        Arrays.fill(missing, count, count + len, (byte) 1);
+
+      } else {  // X2 is missing if all bits set to 1's
+        int msng = (int) ((1L << nb) - 1);
+        for (int j = count; j < count + len; j++) {
+          if (X[j] == msng) {
+            missing[j] = 1;
+          } else {
+            missing[j] = 0;
+            X[dataSize++] = X[j] + X1[i];
           }
         }
-      }  // end for j
-    }  // end for i
-
-    if (bitmap != null) {
-      int idx = 0;
-      float[] tmp = new float[totalNPoints];
-      for (int i = 0; i < totalNPoints; i++) {
-        if ((bitmap[i / 8] & GribNumbers.bitmask[i % 8]) != 0) {
-          tmp[i] = data[idx++];
-        } else {
-          tmp[i] = mv;
-        }
       }
-      data = tmp;
+      count += len;
     }
 
-    return data;
+    //  Y = (R + (X1 + X2) * (2 ** E) ) / (10 ** D)
+    return expand(X, missing, npacked, R, EE, DD, mv);
   }
 
-
   /* from wgrib unpk_complex():
 
     p = sec[5];                               // drs
@@ -479,7 +465,8 @@ public class Grib2DataReader2 {
       return nGroups0(bitmapIndicator, ref_val, mv);
     }
 
-    BitReader reader = new BitReader(raf, startPos+5);
+    UnpackBuffers buffers = buffers();
+    Grib2BitReader reader = readDataSection(raf);
 
     int ival1 = 0;
     int ival2 = 0;
@@ -487,249 +474,272 @@ public class Grib2DataReader2 {
 
     // [6-ww]   1st values of undifferenced scaled values and minimums
     int os = gdrs.orderSpatial;
-    int nbitsd = gdrs.descriptorSpatial;
-    int sign;
     // ds is number of bytes, convert to bits -1 for sign bit
-    nbitsd = nbitsd * 8;
+    int nbitsd = gdrs.descriptorSpatial * 8;
     if (nbitsd > 0) {         // first order spatial differencing g1 and gMin
-      sign = (int) reader.bits2UInt(1);
-      ival1 = (int) reader.bits2UInt(nbitsd - 1);
-      if (sign == 1) {
-        ival1 = -ival1;
-      }
+      int sign = reader.bits(1);
+      ival1 = reader.bits(nbitsd - 1);
+      if (sign == 1) ival1 = -ival1;
+
       if (os == 2) {  //second order spatial differencing h1, h2, hMin
-        sign = (int) reader.bits2UInt(1);
-        ival2 = (int) reader.bits2UInt(nbitsd - 1);
-        if (sign == 1) {
-          ival2 = -ival2;
-        }
-      }
-      sign = (int) reader.bits2UInt(1);
-      minsd = (int) reader.bits2UInt(nbitsd - 1);
-      if (sign == 1) {
-        minsd = -minsd;
+        sign = reader.bits(1);
+        ival2 = reader.bits(nbitsd - 1);
+        if (sign == 1) ival2 = -ival2;
       }
 
+      sign = reader.bits(1);
+      minsd = reader.bits(nbitsd - 1);
+      if (sign == 1) minsd = -minsd;
+
     } else {
-      float[] data = new float[totalNPoints];
-      for (int i = 0; i < totalNPoints; i++) data[i] = mv;
-      return data;
+      return missingData(mv);
     }
 
     // [ww +1]-xx  Get reference values for groups (X1's)
-    // X1 == gref
-    int[] X1 = new int[NG]; // initialized to zero
-    int nb = gdrs.numberOfBits;
-    if (nb != 0) {
-      reader.incrByte();
-      for (int i = 0; i < NG; i++) {
-        X1[i] = (int) reader.bits2UInt(nb);
-      }
-    }
+    int[] X1 = buffers.getGroupRefs(NG);
+    reader.alignByte();
+    reader.unpack(gdrs.numberOfBits, X1, 0, NG);
 
     // [xx +1 ]-yy Get number of bits used to encode each group
-    // NB == gwidth
-    int[] NB = new int[NG]; // initialized to zero
-    nb = gdrs.bitsGroupWidths;
-    if (nb != 0) {
-      reader.incrByte();
-      for (int i = 0; i < NG; i++) {
-        NB[i] = (int) reader.bits2UInt(nb);
-      }
-    }
-
-    int referenceGroupWidths = gdrs.referenceGroupWidths;
-    for (int i = 0; i < NG; i++) {
-      NB[i] += referenceGroupWidths;
-    }
+    int[] NB = buffers.getGroupWidths(NG);
+    reader.alignByte();
+    reader.unpack(gdrs.bitsGroupWidths, NB, 0, NG);
+    for (int i = 0; i < NG; i++)
+      NB[i] += gdrs.referenceGroupWidths;
 
     // [yy +1 ]-zz Get the scaled group lengths using formula
     //     Ln = ref + Kn * len_inc, where n = 1-NG,
     //          ref = referenceGroupLength, and  len_inc = lengthIncrement
-
-    int[] L = new int[NG];   // initialized to zero
-    int referenceGroupLength = gdrs.referenceGroupLength;
-    nb = gdrs.bitsScaledGroupLength;
-    int len_inc = gdrs.lengthIncrement;
-
-    if (nb != 0) {
-      reader.incrByte();
-      for (int i = 0; i < NG; i++) {
-        L[i] = (int) reader.bits2UInt(nb);
-      }
-    }
+    int[] L = buffers.getGroupLengths(NG);
+    reader.alignByte();
+    reader.unpack(gdrs.bitsScaledGroupLength, L, 0, NG);
+    for (int i = 0; i < NG; i++)
+      L[i] = L[i] * gdrs.lengthIncrement + gdrs.referenceGroupLength;
+    L[NG - 1] = gdrs.lengthLastGroup; //enter Length of Last Group
 
     int totalL = 0;
-    for (int i = 0; i < NG; i++) {
-      L[i] = L[i] * len_inc + referenceGroupLength;
+    for (int i = 0; i < NG; i++)
       totalL += L[i];
-    }
-    totalL -= L[NG - 1];
-    totalL += gdrs.lengthLastGroup;
-
-    //enter Length of Last Group
-    L[NG - 1] = gdrs.lengthLastGroup;
 
     // test
     if (mvm != 0) {
       if (totalL != totalNPoints) {
         log.warn("NPoints != gds.nPts: " + totalL +"!="+ totalNPoints);
-        float[] data = new float[totalNPoints];
-        for (int i = 0; i < totalNPoints; i++)
-          data[i] = mv;
-        return data;
+        return missingData(mv);
       }
     } else {
       if (totalL != dataNPoints) {
         log.warn("NPoints != drs.nPts: " + totalL +"!="+ totalNPoints);
-        float[] data = new float[totalNPoints];
-        for (int i = 0; i < totalNPoints; i++)
-          data[i] = mv;
-        return data;
+        return missingData(mv);
       }
     }
 
-   float[] data = new float[totalNPoints];
-
-    // [zz +1 ]-nn get X2 values and calculate the results Y using formula
-//      formula used to create values,  Y * 10**D = R + (X1 + X2) * 2**E
-
-//               Y = (R + (X1 + X2) * (2 ** E) ) / (10 ** D)]
-//               WHERE:
-//                     Y = THE VALUE WE ARE UNPACKING
-//                     R = THE REFERENCE VALUE (FIRST ORDER MINIMA)
-//                    X1 = THE PACKED VALUE
-//                    X2 = THE SECOND ORDER MINIMA
-//                     E = THE BINARY SCALE FACTOR
-//                     D = THE DECIMAL SCALE FACTOR
+    // [zz +1 ]-nn get X2 values; X1 + X2 is kept for the non-missing values, in order
+    int[] X = buffers.getValues(totalL);
+    byte[] missing = (mvm == 0) ? null : buffers.getMissing(totalL);
     int count = 0;
-    reader.incrByte();
     int dataSize = 0;
-    boolean[] dataBitMap = null;
-    if (mvm == 0) {
-      for (int i = 0; i < NG; i++) {
-        if (NB[i] != 0) {
-          for (int j = 0; j < L[i]; j++)
-            data[count++] = (int) reader.bits2UInt(NB[i]) + X1[i];
-        } else {
-          for (int j = 0; j < L[i]; j++)
-            data[count++] = X1[i];
-        }
-      }  // end for i
-
-    } else if (mvm == 1 || mvm == 2) {
-      // don't add missing values into data but keep track of them in dataBitMap
-      dataBitMap = new boolean[totalNPoints];
-      dataSize = 0;
-      for (int i = 0; i < NG; i++) {
-        if (NB[i] != 0) {
-          int msng1 = bitsmv1[NB[i]];
-          int msng2 = msng1 - 1;
-          for (int j = 0; j < L[i]; j++) {
-            data[count] = (int) reader.bits2UInt(NB[i]);
-            if (data[count] == msng1 || mvm == 2 && data[count] == msng2) {
-              dataBitMap[count] = false;
-            } else {
-              dataBitMap[count] = true;
-              data[dataSize++] = data[count] + X1[i];
-            }
-            count++;
-          }
-        } else {  // (NB[i] == 0
-          int msng1 = bitsmv1[gdrs.numberOfBits];
-          int msng2 = msng1 - 1;
-          if (X1[i] == msng1) {
-            for (int j = 0; j < L[i]; j++)
-              dataBitMap[count++] = false;
-            //data[count++] = X1[i];
-          } else if (mvm == 2 && X1[i] == msng2) {
-            for (int j = 0; j < L[i]; j++)
-              dataBitMap[count++] = false;
+    reader.alignByte();
+    for (int i = 0; i < NG; i++) {
+      int nb = NB[i];
+      int len = L[i];
+
+      if (mvm == 0) {
+        reader.unpack(nb, X, count, len);
+        for (int j = count; j < count + len; j++)
+          X[dataSize++] = X[j] + X1[i];
+
+      } else if (nb != 0) {
+        // don't add missing values into X but keep track of them in missing
+        int msng1 = (int) ((1L << nb) - 1);
+        int msng2 = msng1 - 1;
+        reader.unpack(nb, X, count, len);
+        for (int j = count; j < count + len; j++) {
+          int x2 = X[j];
+          if (x2 == msng1 || mvm == 2 && x2 == msng2) {
+            missing[j] = 1;
           } else {
-            for (int j = 0; j < L[i]; j++) {
-              dataBitMap[count] = true;
-              data[dataSize++] = X1[i];
-              count++;
-            }
+            missing[j] = 0;
+            X[dataSize++] = x2 + X1[i];
           }
         }
-      }  // end for i
+
+      } else {  // constant group
+        int msng1 = (int) ((1L << gdrs.numberOfBits) - 1);
+        int msng2 = msng1 - 1;
+        if (X1[i] == msng1 || mvm == 2 && X1[i] == msng2) {
+          Arrays.fill(missing, count, count + len, (byte) 1);
+        } else {
+          Arrays.fill(missing, count, count + len, (byte) 0);
+          Arrays.fill(X, dataSize, dataSize + len, X1[i]);
+          dataSize += len;
+        }
+      }
+      count += len;
     }
 
-    // first order spatial differencing
+    // spatial differencing, on the non-missing values
     if (os == 1) {   // g1 and gMin
       // encoded by G(n) = F(n) - F(n -1 )
       // decoded by F(n) = G(n) + F(n -1 )
-      // data[] at this point contains G0, G1, G2, ....
-      data[0] = ival1;
-      int itemp;
-      if (mvm == 0) {           // no missing values
-        itemp = totalNPoints;
-      } else {
-        itemp = dataSize;
-      }
-      for (int i = 1; i < itemp; i++) {
-        data[i] += minsd;
-        data[i] = data[i] + data[i - 1];
-      }
+      if (dataSize > 0) X[0] = ival1;
+      for (int i = 1; i < dataSize; i++)
+        X[i] += minsd + X[i - 1];
+
     } else if (os == 2) { // 2nd order
-      data[0] = ival1;
-      data[1] = ival2;
-      int itemp;
-      if (mvm == 0) {           // no missing values
-        itemp = totalNPoints;
+      if (dataSize > 0) X[0] = ival1;
+      if (dataSize > 1) X[1] = ival2;
+      for (int i = 2; i < dataSize; i++)
+        X[i] += minsd + (2 * X[i - 1]) - X[i - 2];
+    }
+
+    //  Y = (R + (X1 + X2) * (2 ** E) ) / (10 ** D)
+    return expand(X, missing, totalL, R, EE, DD, mv);
+  }
+
+  private float[] missingData(float mv) {
+    float[] data = new float[totalNPoints];
+    Arrays.fill(data, mv);
+    return data;
+  }
+
+  /*
+   * Scale the packed values and put them at their grid points.
+   * @param X  the scaled integers of the non-missing packed values, in order
+   * @param missing if not null, missing[k] != 0 when the kth packed value is missing
+   * @param npacked number of packed values, including missing ones
+   */
+  private float[] expand(int[] X, byte[] missing, int npacked, float R, float EE, float DD, float mv) {
+    float[] data = new float[totalNPoints];
+    int k = 0; // next packed value
+    int x = 0; // next non-missing value
+    for (int i = 0; i < totalNPoints; i++) {
+      if (bitmap != null && (bitmap[i >> 3] & GribNumbers.bitmask[i & 7]) == 0) {
+        data[i] = mv;
+      } else if (k >= npacked) {
+        data[i] = mv;  // not enough packed values
+      } else if (missing != null && missing[k++] != 0) {
+        data[i] = mv;
       } else {
-        itemp = dataSize;
-      }
-      for (int i = 2; i < itemp; i++) {
-        data[i] += minsd;
-        data[i] = data[i] + (2 * data[i - 1]) - data[i - 2];
+        if (missing == null) k++;
+        data[i] = (R + X[x++] * EE) / DD;
       }
     }
+    return data;
+  }
+
+  // number of bits set in the first n bits of the bitmap
+  private static int countBits(byte[] bitmap, int n) {
+    int count = 0;
+    int nbytes = n / 8;
+    for (int i = 0; i < nbytes; i++)
+      count += Integer.bitCount(bitmap[i] & 0xff);
+    for (int i = nbytes * 8; i < n; i++)
+      if ((bitmap[i >> 3] & GribNumbers.bitmask[i & 7]) != 0) count++;
+    return count;
+  }
+
+  private Grib2BitReader readDataSection(RandomAccessFile raf) throws IOException {
+    int nbytes = dataLength - 5;
+    byte[] buf = buffers().getSection(nbytes + Grib2BitReader.PAD);
+    raf.seek(startPos + 5);
+    raf.readFully(buf, 0, nbytes);
+    return new Grib2BitReader(buf, nbytes);
+  }
+
+  private UnpackBuffers buffers() {
+    if (buffers == null) // not called from getData()
+      buffers = new UnpackBuffers(POOL_RETAINED_BYTES);
+    return buffers;
+  }
+
+  /**
+   * Reusable scratch arrays for unpacking simple and complex packed data. Not thread safe: use one per thread.
+   */
+  public static class UnpackBuffers {
+    private final long maxRetainedBytes; // arrays that dont fit are used once and not kept
+    private long retainedBytes;
+    private byte[] section, missing;
+    private int[] values, groupRefs, groupWidths, groupLengths;
+
+    public UnpackBuffers() {
+      this(Long.MAX_VALUE);
+    }
 
-    // formula used to create values,  Y * 10**D = R + (X1 + X2) * 2**E
+    /**
+     * @param maxRetainedBytes only keep arrays up to this many bytes in all
+     */
+    public UnpackBuffers(long maxRetainedBytes) {
+      this.maxRetainedBytes = maxRetainedBytes;
+    }
 
-    //               Y = (R + (X1 + X2) * (2 ** E) ) / (10 ** D)]
-//               WHERE:
-//                     Y = THE VALUE WE ARE UNPACKING
-//                     R = THE REFERENCE VALUE (FIRST ORDER MINIMA)
-//                    X1 = THE PACKED VALUE
-//                    X2 = THE SECOND ORDER MINIMA
-//                     E = THE BINARY SCALE FACTOR
-//                     D = THE DECIMAL SCALE FACTOR
+    /**
+     * @return number of bytes in the arrays that are kept
+     */
+    public long getRetainedBytes() {
+      return retainedBytes;
+    }
+
+    // can an array of oldBytes be replaced by one of newBytes ?
+    private boolean retain(long oldBytes, long newBytes) {
+      if (retainedBytes - oldBytes + newBytes > maxRetainedBytes) return false;
+      retainedBytes += newBytes - oldBytes;
+      return true;
+    }
 
-    if (mvm == 0) {  // no missing values
-      for (int i = 0; i < data.length; i++) {
-        data[i] = (R + (data[i] * EE)) / DD;
+    byte[] getSection(int n) {
+      byte[] result = section;
+      if (result == null || result.length < n) {
+        result = new byte[n];
+        if (retain(section == null ? 0 : section.length, n)) section = result;
       }
-    } else if (mvm == 1 || mvm == 2) {         // missing value == 1  || missing value == 2
-      int count2 = 0;
-      float[] tmp = new float[totalNPoints];
-      for (int i = 0; i < data.length; i++) {
-        if (dataBitMap[i]) {
-          tmp[i] = (R + (data[count2++] * EE)) / DD;
-        } else { // mvm = 1 or 2
-          tmp[i] = mv;
-        }
+      return result;
+    }
+
+    byte[] getMissing(int n) {
+      byte[] result = missing;
+      if (result == null || result.length < n) {
+        result = new byte[n];
+        if (retain(missing == null ? 0 : missing.length, n)) missing = result;
       }
-      data = tmp;
+      return result;
     }
 
-    // bit map is used
-    if (bitmap != null) {
-      int idx = 0;
-      float[] tmp = new float[totalNPoints];
-      for (int i = 0; i < totalNPoints; i++) {
-        if ((bitmap[i / 8] & GribNumbers.bitmask[i % 8]) != 0) {
-          tmp[i] = data[idx++];
-        } else {
-          tmp[i] = mv;
-        }
+    int[] getValues(int n) {
+      int[] result = values;
+      if (result == null || result.length < n) {
+        result = new int[n];
+        if (retain(values == null ? 0 : 4L * values.length, 4L * n)) values = result;
       }
-      data = tmp;
+      return result;
     }
 
-    return data;
+    int[] getGroupRefs(int n) {
+      int[] result = groupRefs;
+      if (result == null || result.length < n) {
+        result = new int[n];
+        if (retain(groupRefs == null ? 0 : 4L * groupRefs.length, 4L * n)) groupRefs = result;
+      }
+      return result;
+    }
+
+    int[] getGroupWidths(int n) {
+      int[] result = groupWidths;
+      if (result == null || result.length < n) {
+        result = new int[n];
+        if (retain(groupWidths == null ? 0 : 4L * groupWidths.length, 4L * n)) groupWidths = result;
+      }
+      return result;
+    }
+
+    int[] getGroupLengths(int n) {
+      int[] result = groupLengths;
+      if (result == null || result.length < n) {
+        result = new int[n];
+        if (retain(groupLengths == null ? 0 : 4L * groupLengths.length, 4L * n)) groupLengths = result;
+      }
+      return result;
+    }
   }
 
   // Grid point data - JPEG 2000 code stream format
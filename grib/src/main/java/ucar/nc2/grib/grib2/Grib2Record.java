@@ -52,7 +52,7 @@ public class Grib2Record {
 
   //////////////////////////////////////////////////////////////
   private final Grib2SectionIndicator is;
-  private final Grib2SectionIdentification id;
+  private Grib2SectionIdentification id;
   private Grib2SectionLocalUse lus; // local use section
   private Grib2SectionGridDefinition gdss;
   private Grib2SectionProductDefinition pdss;
@@ -212,6 +212,24 @@ public class Grib2Record {
 
   public void setPdss(Grib2SectionProductDefinition pdss) {
     this.pdss = pdss;
+    this.pds2 = null;
+  }
+
+  //////////////////////////////////////////
+  // setters used to share sections between records, see Grib2RecordCompactor
+
+  public void setId(Grib2SectionIdentification id) {
+    this.id = id;
+  }
+
+  /**
+   * Set the PDS section along with its already parsed Grib2Pds, which may be shared with other records.
+   * @param pdss the PDS section
+   * @param pds2 must equal pdss.getPDS()
+   */
+  public void setPdss(Grib2SectionProductDefinition pdss, Grib2Pds pds2) {
+    this.pdss = pdss;
+    this.pds2 = pds2;
   }
 
   public void setDrs(Grib2SectionDataRepresentation drs) {
@@ -0,0 +1,99 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.grib.collection;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import thredds.filesystem.MFileOS;
+import thredds.inventory.CollectionUpdateType;
+import ucar.nc2.grib.GribIndex;
+import ucar.nc2.grib.grib2.Grib2Index;
+import ucar.nc2.grib.grib2.Grib2Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Records of different files share their equal sections after compaction, and still describe the same data.
+ */
+public class TestGrib2RecordCompactor {
+  static private final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(TestGrib2RecordCompactor.class);
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private List<Grib2Record> readRecords(String name) throws IOException {
+    File f = new File(tempFolder.getRoot(), name);
+    Files.copy(new File("../grib/src/test/data/cosmo-eu.grib2").toPath(), f.toPath());
+    Grib2Index index = (Grib2Index) GribIndex.readOrCreateIndexFromSingleFile(false, new MFileOS(f), CollectionUpdateType.test, logger);
+    return index.getRecords();
+  }
+
+  @Test
+  public void testShared() throws IOException {
+    List<Grib2Record> recordsA = readRecords("a.grib2");
+    List<Grib2Record> recordsB = readRecords("b.grib2");
+    Assert.assertTrue(recordsA.size() > 0);
+    Assert.assertEquals(recordsA.size(), recordsB.size());
+
+    Grib2Record a = recordsA.get(0);
+    Grib2Record b = recordsB.get(0);
+    Assert.assertNotSame(a.getGDSsection(), b.getGDSsection());
+    Assert.assertNotSame(a.getPDSsection(), b.getPDSsection());
+    int param = b.getPDS().getParameterNumber();
+    long dataPos = b.getDataSection().getStartingPosition();
+
+    Grib2RecordCompactor compactor = new Grib2RecordCompactor();
+    for (Grib2Record gr : recordsA)
+      compactor.compact(gr);
+    for (Grib2Record gr : recordsB)
+      compactor.compact(gr);
+
+    Assert.assertSame(a.getId(), b.getId());
+    Assert.assertSame(a.getGDSsection(), b.getGDSsection());
+    Assert.assertSame(a.getPDSsection(), b.getPDSsection());
+    Assert.assertSame(a.getPDS(), b.getPDS());
+    Assert.assertEquals(param, b.getPDS().getParameterNumber());
+    Assert.assertEquals(a.getReferenceDate(), b.getReferenceDate());
+
+    // positions are still each record's own
+    Assert.assertNotSame(a.getDataSection(), b.getDataSection());
+    Assert.assertEquals(dataPos, b.getDataSection().getStartingPosition());
+  }
+
+}
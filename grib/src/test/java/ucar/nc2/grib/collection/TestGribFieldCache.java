@@ -0,0 +1,96 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.grib.collection;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Formatter;
+
+public class TestGribFieldCache {
+
+  private GribFieldCache.FieldKey key(String collection, long modified, long pos) {
+    return new GribFieldCache.FieldKey(collection, modified, "/data/file.grib2", pos, 16);
+  }
+
+  @Test
+  public void testGetPut() {
+    GribFieldCache cache = new GribFieldCache(1000 * 1000, false);
+    float[] data = new float[] {1, 2, Float.NaN};
+    Assert.assertNull(cache.get(key("gc", 1, 0)));
+    cache.put(key("gc", 1, 0), data);
+    Assert.assertSame(data, cache.get(key("gc", 1, 0)));
+    Assert.assertNull(cache.get(key("gc", 1, 100)));
+    Assert.assertNull(cache.get(key("gc", 2, 0)));  // index was rewritten
+  }
+
+  @Test
+  public void testOffHeap() {
+    GribFieldCache cache = new GribFieldCache(1000 * 1000, true);
+    float[] data = new float[] {1, 2, Float.NaN};
+    cache.put(key("gc", 1, 0), data);
+    float[] got = cache.get(key("gc", 1, 0));
+    Assert.assertNotSame(data, got);
+    Assert.assertArrayEquals(data, got, 0.0f);
+    Assert.assertEquals(12, cache.getSizeBytes());
+  }
+
+  @Test
+  public void testEviction() {
+    GribFieldCache cache = new GribFieldCache(100 * 1000, false);
+    for (int i = 0; i < 100; i++)
+      cache.put(key("gc", 1, i), new float[1000]);
+    Assert.assertTrue(cache.getSizeBytes() <= 100 * 1000);
+    Assert.assertNotNull(cache.get(key("gc", 1, 99)));
+
+    cache.put(key("gc", 1, 999), new float[30 * 1000]);  // bigger than a cache segment
+    Assert.assertNull(cache.get(key("gc", 1, 999)));
+  }
+
+  @Test
+  public void testInvalidate() {
+    GribFieldCache cache = new GribFieldCache(1000 * 1000, false);
+    cache.put(key("gc1", 1, 0), new float[10]);
+    cache.put(key("gc1", 1, 1), new float[10]);
+    cache.put(key("gc2", 1, 0), new float[10]);
+    cache.invalidate("gc1");
+    Assert.assertNull(cache.get(key("gc1", 1, 0)));
+    Assert.assertNull(cache.get(key("gc1", 1, 1)));
+    Assert.assertNotNull(cache.get(key("gc2", 1, 0)));
+
+    Formatter f = new Formatter();
+    cache.showStats(f);
+    Assert.assertTrue(f.toString().contains("fields=1"));
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.grib.collection;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import thredds.filesystem.MFileOS;
+import thredds.inventory.CollectionList;
+import thredds.inventory.MFile;
+import ucar.coord.CoordinateRuntime;
+import ucar.nc2.grib.GribIndex;
+import ucar.nc2.time.CalendarDateRange;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+
+/**
+ * gbx9 indexes made on several threads are visited in file order, on the calling thread,
+ * the same as when they are made serially.
+ */
+public class TestGribIndexParallel {
+  static private final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(TestGribIndexParallel.class);
+  static final String[] sources = {"../grib/src/test/data/cosmo-eu.grib2", "../grib/src/test/data/rap-native.grib2"};
+  static final int NFILES = 25;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @After
+  public void cleanup() {
+    GribCdmIndex.setIndexThreads(1);
+  }
+
+  private List<MFile> makeFiles(int bad) throws IOException {
+    List<MFile> files = new ArrayList<>();
+    for (int i = 0; i < NFILES; i++) {
+      File f = new File(tempFolder.getRoot(), String.format("member%02d.grib2", i));
+      if (i == bad) {
+        try (FileOutputStream out = new FileOutputStream(f)) {
+          out.write("not a grib file".getBytes());
+        }
+      } else {
+        Files.copy(new File(sources[i % sources.length]).toPath(), f.toPath());
+      }
+      files.add(new MFileOS(f));
+    }
+    return files;
+  }
+
+  private List<String> visit(List<MFile> files) throws IOException {
+    final List<String> visited = new ArrayList<>();
+    final Thread caller = Thread.currentThread();
+    CollectionList dcm = new CollectionList("test", tempFolder.getRoot().getPath(), files, logger);
+
+    GribCollectionBuilder builder = new GribCollectionBuilder(false, "test", dcm, logger) {
+      protected List<? extends Group> makeGroups(List<MFile> allFiles, boolean singleRuntime, Formatter errlog) {
+        return null;
+      }
+
+      protected boolean writeIndex(String name, String indexFilepath, CoordinateRuntime masterRuntime,
+                                   List<? extends Group> groups, List<MFile> files, CalendarDateRange dateRange) {
+        return false;
+      }
+    };
+
+    int n = builder.readIndexes(new GribCollectionBuilder.IndexVisitor() {
+      public void visit(MFile mfile, GribIndex index) {
+        Assert.assertSame(caller, Thread.currentThread());
+        visited.add(mfile.getName() + " " + index.getNRecords());
+      }
+    });
+    Assert.assertEquals(visited.size(), n);
+    return visited;
+  }
+
+  @Test
+  public void testSameAsSerial() throws IOException {
+    List<MFile> files = makeFiles(-1);
+    List<String> serial = visit(files);
+    Assert.assertEquals(NFILES, serial.size());
+    for (int i = 0; i < NFILES; i++)
+      Assert.assertTrue(serial.get(i), serial.get(i).startsWith(String.format("member%02d.grib2", i)));
+
+    // remake the gbx9 files in parallel
+    for (MFile mfile : files)
+      Assert.assertTrue(new File(mfile.getPath() + GribIndex.GBX9_IDX).delete());
+    GribCdmIndex.setIndexThreads(4);
+    Assert.assertEquals(serial, visit(files));
+    for (MFile mfile : files)
+      Assert.assertTrue(new File(mfile.getPath() + GribIndex.GBX9_IDX).exists());
+
+    // and read them back
+    Assert.assertEquals(serial, visit(files));
+  }
+
+  @Test
+  public void testBadFile() throws IOException {
+    List<MFile> files = makeFiles(7);
+    for (int nthreads : new int[]{1, 4}) {
+      GribCdmIndex.setIndexThreads(nthreads);
+      try {
+        visit(files);
+        Assert.fail();
+      } catch (RuntimeException e) {
+        Assert.assertTrue(e.getMessage(), e.getMessage().contains("member07.grib2"));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.grib.collection;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import thredds.featurecollection.FeatureCollectionConfig;
+import thredds.featurecollection.FeatureCollectionType;
+import thredds.inventory.CollectionUpdateType;
+import ucar.ma2.Array;
+import ucar.ma2.MAMath;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+/**
+ * Adding a run in a new directory partition appends it to the partition index;
+ * the result must be the same as rebuilding the index from all the partitions.
+ */
+public class TestGribPartitionAppend {
+  static private final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(TestGribPartitionAppend.class);
+  static final String cosmo = "../grib/src/test/data/cosmo-eu.grib2";   // one record, template 4.0, hours
+  static final String rap = "../grib/src/test/data/rap-native.grib2";    // a different grid, also template 4.0, hours
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  // one directory per run
+  private File makeRun(File root, int day, int... hours) throws IOException {
+    File dir = new File(root, String.format("run%02d", day));
+    Assert.assertTrue(dir.mkdirs());
+    for (int hour : hours)
+      writeRecord(cosmo, day, hour, new File(dir, String.format("fc%03d.grib2", hour)));
+    return dir;
+  }
+
+  // copy the source record, with reference time 2010-03-day 00Z and the given forecast hour
+  private void writeRecord(String source, int day, int hour, File file) throws IOException {
+    ByteBuffer bb = ByteBuffer.wrap(Files.readAllBytes(new File(source).toPath()));
+    int sect1 = 16;
+    bb.putShort(sect1 + 12, (short) 2010);
+    bb.put(sect1 + 14, (byte) 3);
+    bb.put(sect1 + 15, (byte) day);
+    bb.put(sect1 + 16, (byte) 0);
+    int pos = sect1;
+    while (bb.get(pos + 4) != 4)             // find section 4
+      pos += bb.getInt(pos);
+    bb.putInt(pos + 18, hour);
+    Files.write(file.toPath(), bb.array());
+  }
+
+  private FeatureCollectionConfig makeConfig(File root) {
+    return new FeatureCollectionConfig(root.getName(), "test/" + root.getName(), FeatureCollectionType.GRIB2,
+            root.getPath() + "/**/.*grib2$", null, null, null, "directory", null);
+  }
+
+  private File makeCollection(String name, int nruns, int... hours) throws IOException {
+    File root = tempFolder.newFolder(name);
+    for (int day = 1; day <= nruns; day++)
+      makeRun(root, day, hours);
+    return root;
+  }
+
+  private void update(File root, CollectionUpdateType updateType) throws IOException {
+    Assert.assertTrue(GribCdmIndex.updateGribCollection(makeConfig(root), updateType, logger));
+  }
+
+  private String indexFilename(File root) {
+    return new File(root, root.getName() + GribCdmIndex.NCX_SUFFIX).getPath();
+  }
+
+  // same partitions, groups, coordinates and partitioned variables in the index
+  private void compareIndex(File append, File rebuild) throws IOException {
+    FeatureCollectionConfig config = new FeatureCollectionConfig();
+    try (GribCollectionMutable gc1 = GribCdmIndex.openMutableGCFromIndex(indexFilename(append), config, false, false, logger);
+         GribCollectionMutable gc2 = GribCdmIndex.openMutableGCFromIndex(indexFilename(rebuild), config, false, false, logger)) {
+      PartitionCollectionMutable pc1 = (PartitionCollectionMutable) gc1;
+      PartitionCollectionMutable pc2 = (PartitionCollectionMutable) gc2;
+      Assert.assertEquals(pc2.getPartitionSize(), pc1.getPartitionSize());
+      for (int i = 0; i < pc2.getPartitionSize(); i++)
+        Assert.assertEquals(pc2.getPartition(i).getFilename().replace(rebuild.getName(), ""),
+                pc1.getPartition(i).getFilename().replace(append.getName(), ""));
+      Assert.assertEquals(pc2.masterRuntime, pc1.masterRuntime);
+      Assert.assertArrayEquals(pc2.run2part, pc1.run2part);
+
+      Assert.assertEquals(pc2.datasets.size(), pc1.datasets.size());
+      for (int i = 0; i < pc2.datasets.size(); i++) {
+        GribCollectionMutable.Dataset ds1 = pc1.datasets.get(i);
+        GribCollectionMutable.Dataset ds2 = pc2.datasets.get(i);
+        Assert.assertEquals(ds2.gctype, ds1.gctype);
+        Assert.assertEquals(ds2.groups.size(), ds1.groups.size());
+        for (int j = 0; j < ds2.groups.size(); j++) {
+          GribCollectionMutable.GroupGC g1 = ds1.groups.get(j);
+          GribCollectionMutable.GroupGC g2 = ds2.groups.get(j);
+          Assert.assertEquals(g2.getGdsHash(), g1.getGdsHash());
+          Assert.assertEquals(g2.variList.size(), g1.variList.size());
+          for (GribCollectionMutable.VariableIndex vi2 : g2.variList) {
+            PartitionCollectionMutable.VariableIndexPartitioned v1 = (PartitionCollectionMutable.VariableIndexPartitioned) g1.findVariableByHash(vi2);
+            PartitionCollectionMutable.VariableIndexPartitioned v2 = (PartitionCollectionMutable.VariableIndexPartitioned) vi2;
+            Assert.assertNotNull(vi2.toStringShort(), v1);
+            Assert.assertEquals(v2.getCoordinates(), v1.getCoordinates());
+            Assert.assertEquals(v2.nrecords, v1.nrecords);
+            Assert.assertEquals(v2.nparts, v1.nparts);
+            for (int k = 0; k < v2.nparts; k++) {
+              Assert.assertEquals(v2.partnoSA.get(k), v1.partnoSA.get(k));
+              Assert.assertEquals(v2.groupnoSA.get(k), v1.groupnoSA.get(k));
+              Assert.assertEquals(v2.varnoSA.get(k), v1.varnoSA.get(k));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  // same index, and the same variables, shapes and values
+  private void compare(File append, File rebuild) throws IOException {
+    compareIndex(append, rebuild);
+    try (NetcdfFile nc1 = NetcdfFile.open(indexFilename(append));
+         NetcdfFile nc2 = NetcdfFile.open(indexFilename(rebuild))) {
+      Assert.assertEquals(nc2.getVariables().size(), nc1.getVariables().size());
+      for (Variable v2 : nc2.getVariables()) {
+        Variable v1 = nc1.findVariable(v2.getFullNameEscaped());
+        Assert.assertNotNull(v2.getFullName(), v1);
+        Assert.assertArrayEquals(v2.getFullName(), v2.getShape(), v1.getShape());
+        Array a1 = v1.read();
+        Array a2 = v2.read();
+        Assert.assertTrue(v2.getFullName(), MAMath.fuzzyEquals(a1, a2));
+      }
+    }
+  }
+
+  private void checkAppend(int[] hours, int[] newHours) throws IOException {
+    File append = makeCollection("append", 3, hours);
+    update(append, CollectionUpdateType.always);
+    makeRun(append, 4, newHours);
+    update(append, CollectionUpdateType.test);
+
+    File rebuild = makeCollection("rebuild", 3, hours);
+    makeRun(rebuild, 4, newHours);
+    update(rebuild, CollectionUpdateType.always);
+
+    compare(append, rebuild);
+  }
+
+  @Test
+  public void testAppendUniqueTimes() throws IOException {
+    checkAppend(new int[] {0, 3, 6}, new int[] {0, 3, 6});
+  }
+
+  @Test
+  public void testAppendOverlappingRuns() throws IOException {
+    checkAppend(new int[] {0, 24, 48}, new int[] {0, 24, 48});
+  }
+
+  @Test
+  public void testAppendNotOrthogonal() throws IOException {
+    checkAppend(new int[] {0, 24, 48}, new int[] {0, 12});
+  }
+
+  @Test
+  public void testAppendNewGroup() throws IOException {
+    File append = makeCollection("append", 3, 0, 24);
+    update(append, CollectionUpdateType.always);
+    File dir = makeRun(append, 4, 0, 24);
+    writeRecord(rap, 4, 0, new File(dir, "rap.grib2"));
+    update(append, CollectionUpdateType.test);
+
+    File rebuild = makeCollection("rebuild", 4, 0, 24);
+    writeRecord(rap, 4, 0, new File(rebuild, "run04/rap.grib2"));
+    update(rebuild, CollectionUpdateType.always);
+
+    compareIndex(append, rebuild); // NetcdfFile cant open a partition with two groups
+  }
+
+  @Test
+  public void testExistingPartitionChanged() throws IOException {
+    File append = makeCollection("append", 3, 0, 24);
+    update(append, CollectionUpdateType.always);
+    makeRun(append, 4, 0, 24);
+    Files.delete(new File(append, "run02/fc024.grib2").toPath());
+    update(append, CollectionUpdateType.test);
+
+    File rebuild = makeCollection("rebuild", 4, 0, 24);
+    Files.delete(new File(rebuild, "run02/fc024.grib2").toPath());
+    update(rebuild, CollectionUpdateType.always);
+
+    compare(append, rebuild);
+  }
+
+}
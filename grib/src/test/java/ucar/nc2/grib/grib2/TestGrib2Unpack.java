@@ -0,0 +1,526 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.nc2.grib.grib2;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ucar.unidata.io.InMemoryRandomAccessFile;
+import ucar.unidata.io.RandomAccessFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Unpack simple and complex packed data (templates 5.0, 5.2, 5.3) from messages written here,
+ * and from a real template 5.2 record.
+ */
+public class TestGrib2Unpack {
+  private static final int nx = 37, ny = 23, npts = nx * ny;
+  private static final int GROUP = 10;
+  private static final String complexFile = "../grib/src/test/data/complex_packing.grib2"; // one record, template 5.2
+
+  @Test
+  public void testSimplePacking() throws IOException {
+    int[] scaled = makeField(12345, 1000);
+    check(simple(scaled, null, 2.5f, -1, 1), scaled, null, 2.5f, -1, 1);
+  }
+
+  @Test
+  public void testSimplePackingBitmap() throws IOException {
+    int[] scaled = makeField(12345, 1000);
+    boolean[] present = makePresent(5);
+    check(simple(scaled, present, 0f, 0, 0), scaled, present, 0f, 0, 0);
+  }
+
+  @Test
+  public void testSimplePackingConstant() throws IOException {
+    int[] scaled = new int[npts];  // 0 bits per value
+    check(simple(scaled, null, 7f, 0, 0), scaled, null, 7f, 0, 0);
+  }
+
+  @Test
+  public void testComplexPacking() throws IOException {
+    int[] scaled = makeField(999, 300);
+    check(complex(2, 0, scaled, null, 1.0f, 0, 0), scaled, null, 1.0f, 0, 0);
+  }
+
+  @Test
+  public void testComplexPackingMissing() throws IOException {
+    int[] scaled = makeField(999, 300);
+    boolean[] present = makePresent(7);
+    check(complex(2, 0, scaled, present, -3.5f, 1, 2), scaled, present, -3.5f, 1, 2);
+  }
+
+  @Test
+  public void testSpatialDifferencing() throws IOException {
+    int[] scaled = makeField(4242, 5000);
+    check(complex(3, 1, scaled, null, 0f, 0, 1), scaled, null, 0f, 0, 1);
+    check(complex(3, 2, scaled, null, 0f, -2, 0), scaled, null, 0f, -2, 0);
+  }
+
+  @Test
+  public void testSpatialDifferencingMissing() throws IOException {
+    int[] scaled = makeField(4242, 5000);
+    boolean[] present = makePresent(7);
+    check(complex(3, 1, scaled, present, 10f, 0, 0), scaled, present, 10f, 0, 0);
+    check(complex(3, 2, scaled, present, 10f, 0, 0), scaled, present, 10f, 0, 0);
+  }
+
+  @Test
+  public void testReuseBuffers() throws IOException {
+    // a small message after a big one must not see leftovers
+    int[] big = makeField(1, 100000);
+    int[] small = new int[npts];
+    small[3] = 1;
+    check(complex(3, 2, big, null, 0f, 0, 0), big, null, 0f, 0, 0);
+    check(complex(3, 1, small, null, 0f, 0, 0), small, null, 0f, 0, 0);
+    check(simple(small, null, 0f, 0, 0), small, null, 0f, 0, 0);
+  }
+
+  @Test
+  public void testGroupWidthReference() throws IOException {
+    int[] scaled = makeField(31, 2000);
+    boolean[] present = makePresent(7);
+    check(complex(2, 0, scaled, null, 0f, 0, 0, groups(npts, nx), 2), scaled, null, 0f, 0, 0);
+    check(complex(2, 0, scaled, present, 0f, 0, 0, groups(npts, nx), 2), scaled, present, 0f, 0, 0);
+    check(complex(3, 1, scaled, null, 0f, 0, 0, groups(npts, nx), 2), scaled, null, 0f, 0, 0);
+    check(complex(3, 2, scaled, present, 0f, 0, 0, groups(npts, nx), 2), scaled, present, 0f, 0, 0);
+  }
+
+  @Test
+  public void testVariableGroupLengths() throws IOException {
+    int[] scaled = makeField(77, 700);
+    boolean[] present = makePresent(5);
+    int[] lengths = groups(npts, 4, 10, 6, 16, 4, 30); // reference 4, increment 2
+    check(complex(2, 0, scaled, null, 1f, 0, 1, lengths, 0), scaled, null, 1f, 0, 1);
+    check(complex(2, 0, scaled, present, 1f, 0, 1, lengths, 1), scaled, present, 1f, 0, 1);
+    check(complex(3, 1, scaled, null, 1f, 0, 1, lengths, 0), scaled, null, 1f, 0, 1);
+    check(complex(3, 2, scaled, present, 1f, 0, 1, lengths, 1), scaled, present, 1f, 0, 1);
+  }
+
+  @Test
+  public void testSpatialDifferencingLargeValues() throws IOException {
+    // values beyond float precision must be integrated exactly
+    int[] scaled = makeField(5, 1 << 26);
+    check(complex(3, 1, scaled, null, 0f, 0, 0), scaled, null, 0f, 0, 0);
+    check(complex(3, 2, scaled, null, 0f, 0, 0), scaled, null, 0f, 0, 0);
+  }
+
+  @Test
+  public void testTruncatedDataSection() throws IOException {
+    int[] scaled = makeField(999, 300);
+    byte[] message = complex(2, 0, scaled, null, 0f, 0, 0);
+    // shorten section 7 but keep the bytes in the file, so only its length says where it ends
+    int sec7 = message.length - sectionLength(message, message.length);
+    writeInt(message, sec7, sectionLength(message, message.length) - 20);
+    try {
+      read(message, npts, nx);
+      Assert.fail("read past the end of the data section");
+    } catch (EOFException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRetainedBytes() {
+    Grib2DataReader2.UnpackBuffers buffers = new Grib2DataReader2.UnpackBuffers(1000);
+    buffers.getValues(25);
+    Assert.assertEquals(100, buffers.getRetainedBytes());
+    buffers.getValues(250);
+    Assert.assertEquals(1000, buffers.getRetainedBytes());
+    buffers.getGroupRefs(10);  // over the limit, used once
+    Assert.assertEquals(1000, buffers.getRetainedBytes());
+    buffers.getValues(2000);
+    Assert.assertEquals(1000, buffers.getRetainedBytes());
+    Assert.assertEquals(250, buffers.getValues(1).length); // the retained array is still used
+  }
+
+  // a real template 5.2 record, with variable group lengths; values from the reader before unpacking was reworked
+  @Test
+  public void testRealComplexPacking() throws IOException {
+    float[] data = readReal();
+    Assert.assertEquals(739297, data.length);
+    int nmissing = 0;
+    double sum = 0;
+    for (float val : data) {
+      if (Float.isNaN(val)) nmissing++;
+      else sum += val;
+    }
+    Assert.assertEquals(48308, nmissing);
+    Assert.assertEquals(11955253.0, sum, 0.0);
+    Assert.assertTrue(Float.isNaN(data[0]));
+    Assert.assertEquals(19.0f, data[data.length / 2], 0.0f);
+  }
+
+  // the real record written again with spatial differencing must give the same values
+  @Test
+  public void testRealSpatialDifferencing() throws IOException {
+    float[] data = readReal();
+    int[] scaled = new int[data.length];
+    boolean[] present = new boolean[data.length];
+    for (int i = 0; i < data.length; i++) {
+      present[i] = !Float.isNaN(data[i]);
+      if (present[i]) scaled[i] = Math.round(data[i]); // R = 0, E = 0, D = 0
+    }
+    int[] lengths = groups(data.length, 7, 19, 11, 3, 40);
+    Assert.assertArrayEquals(data, read(complex(3, 1, scaled, present, 0f, 0, 0, lengths, 0), data.length, realNx), 0.0f);
+    Assert.assertArrayEquals(data, read(complex(3, 2, scaled, present, 0f, 0, 0, lengths, 0), data.length, realNx), 0.0f);
+  }
+
+  ///////////////////////////////////////////////////////////////////
+
+  private int realNx;
+
+  private float[] readReal() throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(complexFile, "r")) {
+      Grib2RecordScanner scan = new Grib2RecordScanner(raf);
+      Assert.assertTrue(scan.hasNext());
+      Grib2Record gr = scan.next();
+      Assert.assertEquals(2, gr.getDataRepresentationSection().getDataTemplate());
+      Grib2Drs.Type2 drs = (Grib2Drs.Type2) gr.getDataRepresentationSection().getDrs(raf);
+      Assert.assertTrue(drs.bitsScaledGroupLength > 0);
+      Assert.assertEquals(0f, drs.referenceValue, 0.0f);
+      Assert.assertEquals(0, drs.binaryScaleFactor);
+      Assert.assertEquals(0, drs.decimalScaleFactor);
+      realNx = gr.getGDS().getNxRaw();
+
+      // sections 5, 6, 7 are read as they are, so the scan mode is not applied
+      long start = gr.getDataRepresentationSection().getStartingPosition();
+      long end = gr.getDataSection().getStartingPosition() + gr.getDataSection().getMsgLength();
+      byte[] message = new byte[(int) (end - start)];
+      raf.seek(start);
+      raf.readFully(message);
+      return read(message, gr.getGDSsection().getNumberPoints(), realNx);
+    }
+  }
+
+  // smooth field plus noise, like real data
+  private int[] makeField(long seed, int range) {
+    Random r = new Random(seed);
+    int[] result = new int[npts];
+    for (int j = 0; j < ny; j++)
+      for (int i = 0; i < nx; i++)
+        result[j * nx + i] = (int) (range * (1 + Math.sin(i / 5.0) * Math.cos(j / 7.0))) + r.nextInt(5);
+    return result;
+  }
+
+  private boolean[] makePresent(int every) {
+    boolean[] result = new boolean[npts];
+    for (int i = 0; i < npts; i++)
+      result[i] = (i % every) != 3;
+    return result;
+  }
+
+  private void check(byte[] message, int[] scaled, boolean[] present, float R, int E, int D) throws IOException {
+    float DD = (float) java.lang.Math.pow((double) 10, (double) D);
+    float EE = (float) java.lang.Math.pow(2.0, (double) E);
+    float[] expect = new float[npts];
+    for (int i = 0; i < npts; i++)
+      expect[i] = (present == null || present[i]) ? (R + scaled[i] * EE) / DD : Float.NaN;
+    Assert.assertArrayEquals(expect, read(message, npts, nx), 0.0f);
+  }
+
+  // decode sections 5, 6, 7
+  private float[] read(byte[] message, int totalNPoints, int nx) throws IOException {
+    try (RandomAccessFile raf = new InMemoryRandomAccessFile("test", message)) {
+      raf.order(RandomAccessFile.BIG_ENDIAN);
+      Grib2SectionDataRepresentation drs = new Grib2SectionDataRepresentation(raf);
+      Grib2SectionBitMap bms = new Grib2SectionBitMap(raf);
+      Grib2SectionData dataSection = new Grib2SectionData(raf);
+      Grib2DataReader2 reader = new Grib2DataReader2(drs.getDataTemplate(), totalNPoints, drs.getDataPoints(), 0, nx,
+              dataSection.getStartingPosition(), dataSection.getMsgLength());
+      return reader.getData(raf, bms, drs.getDrs(raf));
+    }
+  }
+
+  // sections 5, 6, 7 with simple packing; present != null means a bitmap
+  private byte[] simple(int[] scaled, boolean[] present, float R, int E, int D) throws IOException {
+    int max = 0, count = 0;
+    for (int i = 0; i < npts; i++) {
+      if (present != null && !present[i]) continue;
+      max = Math.max(max, scaled[i]);
+      count++;
+    }
+    int nb = bits(max);
+
+    BitWriter data = new BitWriter();
+    for (int i = 0; i < npts; i++)
+      if (present == null || present[i]) data.write(scaled[i], nb);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+    out.writeInt(21);
+    out.write(5);
+    out.writeInt(count);
+    out.writeShort(0);
+    writeType0(out, R, E, D, nb);
+    writeBitmap(out, present);
+    writeData(out, data.toBytes());
+    return bos.toByteArray();
+  }
+
+  // sections 5, 6, 7 with complex packing (template 2) or spatial differencing (template 3);
+  // missing values (present[i] false) use missing value management 1
+  private byte[] complex(int template, int order, int[] scaled, boolean[] present, float R, int E, int D) throws IOException {
+    return complex(template, order, scaled, present, R, E, D, groups(scaled.length, GROUP), 0);
+  }
+
+  // groups have the given lengths, and group widths are sent less refWidth
+  private byte[] complex(int template, int order, int[] scaled, boolean[] present, float R, int E, int D,
+                         int[] lengths, int refWidth) throws IOException {
+    int npts = scaled.length;
+
+    // the non-missing values, in order
+    int n = 0;
+    int[] f = new int[npts];
+    for (int i = 0; i < npts; i++)
+      if (present == null || present[i]) f[n++] = scaled[i];
+
+    // spatial differences, less their minimum; the first order values are sent separately
+    int[] v = new int[n];
+    int min = Integer.MAX_VALUE;
+    for (int i = order; i < n; i++) {
+      v[i] = (order == 1) ? f[i] - f[i - 1] : (order == 2) ? f[i] - 2 * f[i - 1] + f[i - 2] : f[i];
+      min = Math.min(min, v[i]);
+    }
+    if (order == 0) min = 0;
+    for (int i = order; i < n; i++)
+      v[i] -= min;
+
+    // back to all points, then split into groups
+    int[] x = new int[npts];
+    int k = 0;
+    for (int i = 0; i < npts; i++)
+      x[i] = (present == null || present[i]) ? v[k++] : -1;
+
+    int ng = lengths.length;
+    int[] start = new int[ng + 1];
+    for (int g = 0; g < ng; g++)
+      start[g + 1] = start[g] + lengths[g];
+    Assert.assertEquals(npts, start[ng]);
+
+    int[] ref = new int[ng];
+    int[] width = new int[ng];
+    int maxRef = 0, maxWidth = 0;
+    for (int g = 0; g < ng; g++) {
+      int lo = Integer.MAX_VALUE, hi = 0;
+      for (int i = start[g]; i < start[g + 1]; i++) {
+        if (x[i] < 0) continue;
+        lo = Math.min(lo, x[i]);
+        hi = Math.max(hi, x[i]);
+      }
+      if (lo > hi) {  // all missing: a constant group, filled in below
+        ref[g] = -1;
+        width[g] = refWidth;
+        continue;
+      }
+      ref[g] = lo;
+      width[g] = bits(present != null ? hi - lo + 1 : hi - lo); // all ones is missing in any group
+      Assert.assertTrue("group width below reference", width[g] >= refWidth);
+      maxRef = Math.max(maxRef, lo);
+      maxWidth = Math.max(maxWidth, width[g]);
+    }
+    int nbRef = bits(maxRef + 1); // all ones is a missing constant group
+    for (int g = 0; g < ng; g++)
+      if (ref[g] < 0) ref[g] = (1 << nbRef) - 1;
+    int nbWidth = bits(maxWidth - refWidth);
+
+    // scaled group lengths: Ln = refLength + Kn * increment; the last group has its true length
+    int refLength = Integer.MAX_VALUE, increment = 0, maxScaled = 0;
+    for (int g = 0; g < ng - 1; g++)
+      refLength = Math.min(refLength, lengths[g]);
+    if (ng == 1) refLength = lengths[0];
+    for (int g = 0; g < ng - 1; g++)
+      increment = gcd(increment, lengths[g] - refLength);
+    if (increment == 0) increment = 1;
+    for (int g = 0; g < ng - 1; g++)
+      maxScaled = Math.max(maxScaled, (lengths[g] - refLength) / increment);
+    int nbLength = bits(maxScaled);
+    int nbytesd = 4;
+
+    BitWriter data = new BitWriter();
+    if (template == 3) {
+      writeSigned(data, f[0], 8 * nbytesd);
+      if (order == 2) writeSigned(data, f[1], 8 * nbytesd);
+      writeSigned(data, min, 8 * nbytesd);
+      data.align();
+    }
+    for (int g = 0; g < ng; g++)
+      data.write(ref[g], nbRef);
+    data.align();
+    for (int g = 0; g < ng; g++)
+      data.write(width[g] - refWidth, nbWidth);
+    data.align();
+    for (int g = 0; g < ng; g++)
+      data.write((g == ng - 1) ? 0 : (lengths[g] - refLength) / increment, nbLength);
+    data.align();
+    for (int g = 0; g < ng; g++) {
+      for (int i = start[g]; i < start[g + 1]; i++) {
+        long val = (x[i] < 0) ? (1L << width[g]) - 1 : x[i] - ref[g];
+        data.write(val, width[g]);
+      }
+    }
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+    out.writeInt(template == 3 ? 49 : 47);
+    out.write(5);
+    out.writeInt(npts);
+    out.writeShort(template);
+    writeType0(out, R, E, D, nbRef);
+    out.write(1);                                 // splitting method
+    out.write(present == null ? 0 : 1);           // missing value management
+    out.writeFloat(0);
+    out.writeFloat(0);
+    out.writeInt(ng);
+    out.write(refWidth);                          // reference for group widths
+    out.write(nbWidth);
+    out.writeInt(refLength);                      // reference for group lengths
+    out.write(increment);                         // length increment
+    out.writeInt(lengths[ng - 1]);                // true length of last group
+    out.write(nbLength);                          // bits for scaled group lengths
+    if (template == 3) {
+      out.write(order);
+      out.write(nbytesd);
+    }
+    writeBitmap(out, null);
+    writeData(out, data.toBytes());
+    return bos.toByteArray();
+  }
+
+  // group lengths taken in turn from pattern, until there are npts points
+  private static int[] groups(int npts, int... pattern) {
+    int[] result = new int[npts];
+    int ng = 0, total = 0;
+    while (total < npts) {
+      int len = Math.min(pattern[ng % pattern.length], npts - total);
+      result[ng++] = len;
+      total += len;
+    }
+    return Arrays.copyOf(result, ng);
+  }
+
+  // length of the section that ends at end, found by walking the sections from the start
+  private static int sectionLength(byte[] message, int end) {
+    int pos = 0;
+    while (true) {
+      int len = readInt(message, pos);
+      if (pos + len == end) return len;
+      pos += len;
+    }
+  }
+
+  private static int readInt(byte[] b, int pos) {
+    return ((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16) | ((b[pos + 2] & 0xff) << 8) | (b[pos + 3] & 0xff);
+  }
+
+  private static void writeInt(byte[] b, int pos, int val) {
+    b[pos] = (byte) (val >>> 24);
+    b[pos + 1] = (byte) (val >>> 16);
+    b[pos + 2] = (byte) (val >>> 8);
+    b[pos + 3] = (byte) val;
+  }
+
+  private static int gcd(int a, int b) {
+    return (b == 0) ? a : gcd(b, a % b);
+  }
+
+  private void writeType0(DataOutputStream out, float R, int E, int D, int nb) throws IOException {
+    out.writeFloat(R);
+    out.writeShort(E < 0 ? 0x8000 | -E : E);  // sign and magnitude
+    out.writeShort(D < 0 ? 0x8000 | -D : D);
+    out.write(nb);
+    out.write(0);
+  }
+
+  private void writeBitmap(DataOutputStream out, boolean[] present) throws IOException {
+    if (present == null) {
+      out.writeInt(6);
+      out.write(6);
+      out.write(255);
+      return;
+    }
+    BitWriter bits = new BitWriter();
+    for (boolean b : present) bits.write(b ? 1 : 0, 1);
+    byte[] bitmap = bits.toBytes();
+    out.writeInt(6 + bitmap.length);
+    out.write(6);
+    out.write(0);
+    out.write(bitmap);
+  }
+
+  private void writeData(DataOutputStream out, byte[] data) throws IOException {
+    out.writeInt(5 + data.length);
+    out.write(7);
+    out.write(data);
+  }
+
+  private void writeSigned(BitWriter w, int val, int nb) {
+    w.write(val < 0 ? 1 : 0, 1);
+    w.write(Math.abs(val), nb - 1);
+  }
+
+  private static int bits(int val) {
+    return 32 - Integer.numberOfLeadingZeros(val);
+  }
+
+  private static class BitWriter {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private int acc, nacc;
+
+    void write(long val, int nb) {
+      for (int i = nb - 1; i >= 0; i--) {
+        acc = (acc << 1) | (int) ((val >>> i) & 1);
+        if (++nacc == 8) {
+          out.write(acc);
+          acc = 0;
+          nacc = 0;
+        }
+      }
+    }
+
+    void align() {
+      if (nacc > 0) write(0, 8 - nacc);
+    }
+
+    byte[] toBytes() {
+      align();
+      return out.toByteArray();
+    }
+  }
+}
@@ -41,6 +41,10 @@
 package opendap.dap;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 
 /**
  * A helper class for <code>DVector</code>.  It allows <code>DVector</code>,
@@ -254,6 +258,243 @@ abstract public class PrimitiveVector extends DAPNode implements ClientIO
      */
     abstract public PrimitiveVector subset(int start, int stop, int stride);
 
+    //////////////////////////////////////////////////
+    // Bulk XDR encoding and decoding for the primitive subclasses.
+    // Values are converted a buffer at a time (XDR is big-endian, as is
+    // ByteBuffer), and each buffer goes to the stream in a single write,
+    // rather than one writeXXX() / readXXX() call per value.
+
+    /**
+     * Largest buffer used to convert a vector; bigger vectors are done in pieces.
+     */
+    static protected final int XDR_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Allocate a conversion buffer, no bigger than needed for nelems values.
+     *
+     * @param nelems   number of values to convert
+     * @param elemSize size in bytes of one encoded value
+     * @return a big-endian buffer holding a whole number of values
+     */
+    static protected ByteBuffer xdrBuffer(int nelems, int elemSize) {
+        int n = Math.max(1, Math.min(nelems, XDR_BUFFER_SIZE / elemSize));
+        return ByteBuffer.allocate(n * elemSize);
+    }
+
+    /**
+     * Number of indices in start, start+stride, ... <= stop.
+     */
+    static protected int count(int start, int stop, int stride) {
+        return (stop < start) ? 0 : 1 + (stop - start) / stride;
+    }
+
+    static private void progress(StatusUI statusUI, int nbytes) throws DataReadException {
+        if (statusUI != null) {
+            statusUI.incrementByteCount(nbytes);
+            if (statusUI.userCancelled())
+                throw new DataReadException("User cancelled");
+        }
+    }
+
+    /**
+     * Write vals[start], vals[start+stride], ... vals[stop] as XDR floats.
+     */
+    static protected void writeFloats(DataOutputStream sink, float[] vals, int start, int stop, int stride)
+            throws IOException {
+        int count = count(start, stop, stride);
+        ByteBuffer bb = xdrBuffer(count, 4);
+        FloatBuffer fb = bb.asFloatBuffer();
+        for (int i = start; count > 0; ) {
+            int len = Math.min(fb.capacity(), count);
+            fb.clear();
+            if (stride == 1) {
+                fb.put(vals, i, len);
+                i += len;
+            } else {
+                for (int k = 0; k < len; k++, i += stride)
+                    fb.put(vals[i]);
+            }
+            sink.write(bb.array(), 0, len * 4);
+            count -= len;
+        }
+    }
+
+    /**
+     * Write vals[start], vals[start+stride], ... vals[stop] as XDR doubles.
+     */
+    static protected void writeDoubles(DataOutputStream sink, double[] vals, int start, int stop, int stride)
+            throws IOException {
+        int count = count(start, stop, stride);
+        ByteBuffer bb = xdrBuffer(count, 8);
+        DoubleBuffer db = bb.asDoubleBuffer();
+        for (int i = start; count > 0; ) {
+            int len = Math.min(db.capacity(), count);
+            db.clear();
+            if (stride == 1) {
+                db.put(vals, i, len);
+                i += len;
+            } else {
+                for (int k = 0; k < len; k++, i += stride)
+                    db.put(vals[i]);
+            }
+            sink.write(bb.array(), 0, len * 8);
+            count -= len;
+        }
+    }
+
+    /**
+     * Write vals[start], vals[start+stride], ... vals[stop] as XDR ints.
+     */
+    static protected void writeInts(DataOutputStream sink, int[] vals, int start, int stop, int stride)
+            throws IOException {
+        int count = count(start, stop, stride);
+        ByteBuffer bb = xdrBuffer(count, 4);
+        IntBuffer ib = bb.asIntBuffer();
+        for (int i = start; count > 0; ) {
+            int len = Math.min(ib.capacity(), count);
+            ib.clear();
+            if (stride == 1) {
+                ib.put(vals, i, len);
+                i += len;
+            } else {
+                for (int k = 0; k < len; k++, i += stride)
+                    ib.put(vals[i]);
+            }
+            sink.write(bb.array(), 0, len * 4);
+            count -= len;
+        }
+    }
+
+    /**
+     * Write vals[start], vals[start+stride], ... vals[stop] as XDR ints
+     * (DAP2 sends 16-bit values as 32-bit ints, sign extended).
+     */
+    static protected void writeShorts(DataOutputStream sink, short[] vals, int start, int stop, int stride)
+            throws IOException {
+        int count = count(start, stop, stride);
+        ByteBuffer bb = xdrBuffer(count, 4);
+        IntBuffer ib = bb.asIntBuffer();
+        for (int i = start; count > 0; ) {
+            int len = Math.min(ib.capacity(), count);
+            ib.clear();
+            for (int k = 0; k < len; k++, i += stride)
+                ib.put(vals[i]);
+            sink.write(bb.array(), 0, len * 4);
+            count -= len;
+        }
+    }
+
+    /**
+     * Write vals[start], vals[start+stride], ... vals[stop] as XDR opaque
+     * bytes, padded with zeros to a multiple of four bytes.
+     */
+    static protected void writeBytes(DataOutputStream sink, byte[] vals, int start, int stop, int stride)
+            throws IOException {
+        int count = count(start, stop, stride);
+        if (stride == 1) {
+            sink.write(vals, start, count);
+        } else {
+            byte[] buf = xdrBuffer(count, 1).array();
+            for (int i = start, left = count; left > 0; ) {
+                int len = Math.min(buf.length, left);
+                for (int k = 0; k < len; k++, i += stride)
+                    buf[k] = vals[i];
+                sink.write(buf, 0, len);
+                left -= len;
+            }
+        }
+        int modFour = count % 4;
+        if (modFour != 0)
+            sink.write(new byte[4 - modFour]);
+    }
+
+    /**
+     * Read vals.length XDR floats into vals.
+     */
+    static protected void readFloats(DataInputStream source, float[] vals, StatusUI statusUI)
+            throws IOException, DataReadException {
+        ByteBuffer bb = xdrBuffer(vals.length, 4);
+        FloatBuffer fb = bb.asFloatBuffer();
+        for (int i = 0; i < vals.length; ) {
+            int len = Math.min(fb.capacity(), vals.length - i);
+            source.readFully(bb.array(), 0, len * 4);
+            fb.clear();
+            fb.get(vals, i, len);
+            i += len;
+            progress(statusUI, len * 4);
+        }
+    }
+
+    /**
+     * Read vals.length XDR doubles into vals.
+     */
+    static protected void readDoubles(DataInputStream source, double[] vals, StatusUI statusUI)
+            throws IOException, DataReadException {
+        ByteBuffer bb = xdrBuffer(vals.length, 8);
+        DoubleBuffer db = bb.asDoubleBuffer();
+        for (int i = 0; i < vals.length; ) {
+            int len = Math.min(db.capacity(), vals.length - i);
+            source.readFully(bb.array(), 0, len * 8);
+            db.clear();
+            db.get(vals, i, len);
+            i += len;
+            progress(statusUI, len * 8);
+        }
+    }
+
+    /**
+     * Read vals.length XDR ints into vals.
+     */
+    static protected void readInts(DataInputStream source, int[] vals, StatusUI statusUI)
+            throws IOException, DataReadException {
+        ByteBuffer bb = xdrBuffer(vals.length, 4);
+        IntBuffer ib = bb.asIntBuffer();
+        for (int i = 0; i < vals.length; ) {
+            int len = Math.min(ib.capacity(), vals.length - i);
+            source.readFully(bb.array(), 0, len * 4);
+            ib.clear();
+            ib.get(vals, i, len);
+            i += len;
+            progress(statusUI, len * 4);
+        }
+    }
+
+    /**
+     * Read vals.length XDR ints into vals, truncating each to 16 bits.
+     */
+    static protected void readShorts(DataInputStream source, short[] vals, StatusUI statusUI)
+            throws IOException, DataReadException {
+        ByteBuffer bb = xdrBuffer(vals.length, 4);
+        IntBuffer ib = bb.asIntBuffer();
+        for (int i = 0; i < vals.length; ) {
+            int len = Math.min(ib.capacity(), vals.length - i);
+            source.readFully(bb.array(), 0, len * 4);
+            ib.clear();
+            for (int k = 0; k < len; k++)
+                vals[i++] = (short) ib.get();
+            progress(statusUI, len * 4);
+        }
+    }
+
+    /**
+     * Read vals.length XDR opaque bytes into vals, and skip the padding
+     * to a multiple of four bytes.
+     */
+    static protected void readBytes(DataInputStream source, byte[] vals, StatusUI statusUI)
+            throws IOException, DataReadException {
+        for (int i = 0; i < vals.length; ) {
+            int len = Math.min(XDR_BUFFER_SIZE, vals.length - i);
+            source.readFully(vals, i, len);
+            i += len;
+            progress(statusUI, len);
+        }
+        int modFour = vals.length % 4;
+        if (modFour != 0) {
+            source.readFully(new byte[4 - modFour]);
+            progress(statusUI, 4 - modFour);
+        }
+    }
+
     /**
      * Returns a clone of this <code>PrimitiveVector</code>.
      * See DAPNode.cloneDag()
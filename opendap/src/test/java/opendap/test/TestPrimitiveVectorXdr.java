@@ -0,0 +1,177 @@
+/*
+ * Copyright 1998-2016 University Corporation for Atmospheric Research/Unidata
+ *
+ *  Portions of this software were developed by the Unidata Program at the
+ *  University Corporation for Atmospheric Research.
+ *
+ *  Access and use of this software shall impose the following obligations
+ *  and understandings on the user. The user is granted the right, without
+ *  any fee or cost, to use, copy, modify, alter, enhance and distribute
+ *  this software, and any derivative works thereof, and its supporting
+ *  documentation for any purpose whatsoever, provided that this entire
+ *  notice appears in all copies of the software, derivative works and
+ *  supporting documentation.  Further, UCAR requests that the user credit
+ *  UCAR/Unidata in any publications that result from the use of this
+ *  software or in any product that includes this software. The names UCAR
+ *  and/or Unidata, however, may not be used in any advertising or publicity
+ *  to endorse or promote any products or commercial entity unless specific
+ *  written permission is obtained from UCAR/Unidata. The user also
+ *  understands that UCAR/Unidata is not obligated to provide the user with
+ *  any support, consulting, training or assistance of any kind with regard
+ *  to the use, operation and performance of this software nor to provide
+ *  the user with any updates, revisions, new versions or "bug fixes."
+ *
+ *  THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ *  INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ *  FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ *  NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ *  WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package opendap.test;
+
+import opendap.dap.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Check the bulk XDR encoding of primitive vectors against the one value
+ * at a time DataOutputStream encoding, for whole vectors and strided
+ * subsets, and that it reads back the same values.
+ * The length is large enough to need several conversion buffers, and not
+ * a multiple of four, so bytes need padding.
+ */
+public class TestPrimitiveVectorXdr {
+  static final int N = 100003;
+  static final int START = 3, STOP = N - 2, STRIDE = 7;
+
+  interface Reference {
+    void write(DataOutputStream out, int i) throws IOException;
+  }
+
+  private final Random random = new Random(17);
+
+  private byte[] encode(Reference ref, int start, int stop, int stride, int elemSize) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+    int count = 0;
+    for (int i = start; i <= stop; i += stride, count++)
+      ref.write(out, i);
+    if (elemSize == 1 && count % 4 != 0)
+      out.write(new byte[4 - count % 4]);
+    out.flush();
+    return bos.toByteArray();
+  }
+
+  private byte[] externalize(PrimitiveVector pv, int start, int stop, int stride) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+    if (start < 0) {
+      pv.externalize(out);
+    } else if (pv instanceof Float32PrimitiveVector) {
+      ((Float32PrimitiveVector) pv).externalize(out, start, stop, stride);
+    } else if (pv instanceof Float64PrimitiveVector) {
+      ((Float64PrimitiveVector) pv).externalize(out, start, stop, stride);
+    } else if (pv instanceof Int32PrimitiveVector) {
+      ((Int32PrimitiveVector) pv).externalize(out, start, stop, stride);
+    } else if (pv instanceof Int16PrimitiveVector) {
+      ((Int16PrimitiveVector) pv).externalize(out, start, stop, stride);
+    } else {
+      ((BytePrimitiveVector) pv).externalize(out, start, stop, stride);
+    }
+    out.flush();
+    Assert.assertEquals(bos.size(), out.size());
+    return bos.toByteArray();
+  }
+
+  private void check(PrimitiveVector pv, PrimitiveVector back, Reference ref, int elemSize) throws Exception {
+    byte[] expected = encode(ref, 0, N - 1, 1, elemSize);
+    byte[] bytes = externalize(pv, -1, 0, 0);
+    Assert.assertArrayEquals(expected, bytes);
+
+    Assert.assertArrayEquals(encode(ref, START, STOP, STRIDE, elemSize), externalize(pv, START, STOP, STRIDE));
+    Assert.assertArrayEquals(encode(ref, START, START, STRIDE, elemSize), externalize(pv, START, START, STRIDE));
+
+    back.setLength(N);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    back.deserialize(in, null, null);
+    Assert.assertEquals(-1, in.read());
+    Assert.assertArrayEquals(expected, externalize(back, -1, 0, 0));
+  }
+
+  @Test
+  public void testFloat32() throws Exception {
+    final float[] vals = new float[N];
+    for (int i = 0; i < N; i++)
+      vals[i] = (float) random.nextGaussian();
+    vals[5] = Float.NaN;
+    PrimitiveVector pv = new Float32PrimitiveVector(new DFloat32("f"));
+    pv.setInternalStorage(vals);
+    check(pv, new Float32PrimitiveVector(new DFloat32("f")), new Reference() {
+      public void write(DataOutputStream out, int i) throws IOException {
+        out.writeFloat(vals[i]);
+      }
+    }, 4);
+  }
+
+  @Test
+  public void testFloat64() throws Exception {
+    final double[] vals = new double[N];
+    for (int i = 0; i < N; i++)
+      vals[i] = random.nextGaussian();
+    PrimitiveVector pv = new Float64PrimitiveVector(new DFloat64("d"));
+    pv.setInternalStorage(vals);
+    check(pv, new Float64PrimitiveVector(new DFloat64("d")), new Reference() {
+      public void write(DataOutputStream out, int i) throws IOException {
+        out.writeDouble(vals[i]);
+      }
+    }, 8);
+  }
+
+  @Test
+  public void testInt32() throws Exception {
+    final int[] vals = new int[N];
+    for (int i = 0; i < N; i++)
+      vals[i] = random.nextInt();
+    PrimitiveVector pv = new UInt32PrimitiveVector(new DUInt32("u"));
+    pv.setInternalStorage(vals);
+    check(pv, new Int32PrimitiveVector(new DInt32("i")), new Reference() {
+      public void write(DataOutputStream out, int i) throws IOException {
+        out.writeInt(vals[i]);
+      }
+    }, 4);
+  }
+
+  @Test
+  public void testInt16() throws Exception {
+    final short[] vals = new short[N];
+    for (int i = 0; i < N; i++)
+      vals[i] = (short) random.nextInt();
+    PrimitiveVector pv = new UInt16PrimitiveVector(new DUInt16("u"));
+    pv.setInternalStorage(vals);
+    check(pv, new Int16PrimitiveVector(new DInt16("s")), new Reference() {
+      public void write(DataOutputStream out, int i) throws IOException {
+        out.writeInt((int) vals[i]);
+      }
+    }, 4);
+  }
+
+  @Test
+  public void testByte() throws Exception {
+    final byte[] vals = new byte[N];
+    random.nextBytes(vals);
+    PrimitiveVector pv = new BytePrimitiveVector(new DByte("b"));
+    pv.setInternalStorage(vals);
+    check(pv, new BytePrimitiveVector(new DByte("b")), new Reference() {
+      public void write(DataOutputStream out, int i) throws IOException {
+        out.writeByte(vals[i]);
+      }
+    }, 1);
+  }
+}
@@ -141,6 +141,16 @@ public class Tdm {
     tdmLogger.info(" TDM nthreads= {}", n);
   }
 
+  public void setIndexThreads(int n) {
+    GribCdmIndex.setIndexThreads(n);
+    tdmLogger.info(" TDM indexThreads= {}", n);
+  }
+
+  public void setWatchDirectories(boolean watch) {
+    GribCdmIndex.setWatchDirectories(watch);
+    tdmLogger.info(" TDM watchDirectories= {}", watch);
+  }
+
   public void setForceOnStartup(boolean forceOnStartup) {
     this.forceOnStartup = forceOnStartup;
   }
@@ -455,6 +465,12 @@ public class Tdm {
     @Parameter(names = {"-nthreads"}, description = "number of threads", required = false)
     public int nthreads = 1;
 
+    @Parameter(names = {"-indexThreads"}, description = "number of threads used to read or create gbx9 files, shared by all the collections being indexed", required = false)
+    public int indexThreads = 1;
+
+    @Parameter(names = {"-watch"}, description = "watch the directories of directory partitions, and only rescan the ones that changed", required = false)
+    public boolean watch;
+
     @Parameter(names = {"-showOnly"}, description = "show collections and exit", required = false)
     public boolean showOnly;
 
@@ -525,6 +541,12 @@ public class Tdm {
         if (cmdLine.nthreads != 0)
           app.setNThreads(cmdLine.nthreads);
 
+        if (cmdLine.indexThreads > 1)
+          app.setIndexThreads(cmdLine.indexThreads);
+
+        if (cmdLine.watch)
+          app.setWatchDirectories(true);
+
         if (cmdLine.showOnly)
           app.setShowOnly(true);
 
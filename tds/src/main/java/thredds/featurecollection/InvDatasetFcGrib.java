@@ -50,6 +50,8 @@ import ucar.nc2.ft2.coverage.CoverageCollection;
 import ucar.nc2.grib.GdsHorizCoordSys;
 import ucar.nc2.grib.collection.GribCdmIndex;
 import ucar.nc2.grib.collection.GribCollectionImmutable;
+import ucar.nc2.grib.collection.GribDataReader;
+import ucar.nc2.grib.collection.GribFieldCache;
 import ucar.nc2.grib.collection.PartitionCollectionImmutable;
 import ucar.nc2.time.CalendarDate;
 import ucar.nc2.time.CalendarDateRange;
@@ -175,6 +177,9 @@ public class InvDatasetFcGrib extends InvDatasetFeatureCollection {
         logger.error("InvDatasetFcGrib.updateCollection failed " + this.config);
 
       logger.debug("{}: GribCollection object was recreated", name);
+      GribFieldCache fieldCache = GribDataReader.getFieldCache();
+      if (fieldCache != null && previous != null)
+        fieldCache.invalidate(previous.getLocation()); // decoded fields from the old index
       if (previous != null)
         previous.close();                 // LOOK may be another thread using - other thread will fail
       if (previousLatest != null) previousLatest.close();
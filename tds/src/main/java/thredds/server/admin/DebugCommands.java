@@ -49,7 +49,9 @@ import javax.servlet.http.HttpServletResponse;
 
 import ucar.nc2.grib.collection.GribCdmIndex;
 import ucar.nc2.util.cache.FileCacheIF;
+import ucar.unidata.io.DiskBlockCache;
 import ucar.unidata.io.RandomAccessFile;
+import ucar.unidata.io.http.HTTPRandomAccessFile;
 
 /**
  * A Singleton class instantiated by Spring, to populate the Debug methods in the
@@ -163,6 +165,13 @@ public class DebugCommands {
           fc.showCache(f);
         }
 
+        DiskBlockCache blockCache = HTTPRandomAccessFile.getBlockCache();
+        if (blockCache == null) f.format("%nHTTPBlockCache : turned off%n");
+        else {
+          f.format("%n%n");
+          blockCache.showStats(f);
+        }
+
         e.pw.flush();
       }
     };
@@ -56,8 +56,16 @@ import thredds.server.ncss.format.FormatsAvailabilityService;
 import thredds.server.ncss.format.SupportedFormat;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.ft.point.standard.PointFeatureIndex;
+import ucar.nc2.ft2.coverage.HorizCoordSys;
+import ucar.nc2.ft2.coverage.LatLonCache;
 import ucar.nc2.grib.GribIndexCache;
 import ucar.nc2.grib.collection.GribCdmIndex;
+import ucar.nc2.grib.collection.GribDataReader;
+import ucar.nc2.grib.collection.GribFieldCache;
+import ucar.nc2.iosp.bufr.BufrIosp2;
+import ucar.nc2.iosp.hdf5.H5iosp;
+import ucar.nc2.iosp.nexrad2.Level2VolumeScan;
 import ucar.nc2.jni.netcdf.Nc4Iosp;
 import ucar.nc2.ncml.Aggregation;
 import ucar.nc2.stream.CdmRemote;
@@ -66,7 +74,10 @@ import ucar.nc2.util.DebugFlagsImpl;
 import ucar.nc2.util.DiskCache;
 import ucar.nc2.util.DiskCache2;
 import ucar.nc2.util.cache.FileCache;
+import ucar.nc2.util.cache.FileCacheStriped;
+import ucar.unidata.io.DiskBlockCache;
 import ucar.unidata.io.RandomAccessFile;
+import ucar.unidata.io.http.HTTPRandomAccessFile;
 import ucar.util.prefs.PreferencesExt;
 import ucar.util.prefs.XMLStore;
 
@@ -304,6 +315,13 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     Aggregation.setTypicalDatasetMode(typicalDataset);
     startupLog.info("TdsInit: Aggregation.setTypicalDatasetMode= " + typicalDataset);
 
+    // files of one joinExisting / joinNew aggregation read at once; default is serial
+    int aggConcurrency = ThreddsConfig.getInt("Aggregation.concurrency", 1);
+    Aggregation.setDefaultConcurrency(aggConcurrency);
+    Aggregation.setReadThreads(ThreddsConfig.getInt("Aggregation.readThreads", 16));
+    if (aggConcurrency > 1)
+      startupLog.info("TdsInit: Aggregation.concurrency= " + aggConcurrency);
+
     ////////////////////////////////////////////////////////////////
     // Disk Caching
     String dir;
@@ -334,6 +352,19 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     Aggregation.setPersistenceCache(aggCache);
     startupLog.info("TdsInit: AggregationCache= " + dir + " scour = " + scourSecs + " maxAgeSecs = " + maxAgeSecs);
 
+    // blocks of remote files read over HTTP, kept on local disk; default is no cache
+    if (ThreddsConfig.getBoolean("HTTPBlockCache.use", false)) {
+      dir = ThreddsConfig.get("HTTPBlockCache.dir", new File(tdsContext.getThreddsDirectory(), "/cache/httpBlocks/").getPath());
+      long blockCacheBytes = ThreddsConfig.getBytes("HTTPBlockCache.maxSize", (long) 1000 * 1000 * 1000);  // default 1 Gbyte
+      int blockSize = (int) ThreddsConfig.getBytes("HTTPBlockCache.blockSize", 1000 * 1000);           // default 1 Mbyte
+      try {
+        HTTPRandomAccessFile.setBlockCache(new DiskBlockCache(dir, blockCacheBytes, blockSize));
+        startupLog.info("TdsInit: HTTPBlockCache= " + dir + " maxSize = " + blockCacheBytes + " blockSize = " + blockSize);
+      } catch (IOException ioe) {
+        startupLog.error("TdsInit: HTTPBlockCache turned off, cant use directory " + dir, ioe);
+      }
+    }
+
     /* 4.3.15: grib index file placement, using DiskCache2  */
     String gribIndexDir = ThreddsConfig.get("GribIndex.dir", new File(tdsContext.getThreddsDirectory(), "/cache/grib/").getPath());
     Boolean gribIndexAlwaysUse = ThreddsConfig.getBoolean("GribIndex.alwaysUse", false);
@@ -348,6 +379,59 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     GribIndexCache.setDiskCache2(gribCache);
     startupLog.info("TdsInit: GribIndex=" + gribCache);
 
+    // number of GRIB records decoded concurrently by one request; default is serial
+    int gribConcurrency = ThreddsConfig.getInt("GribDecoding.concurrency", 1);
+    GribDataReader.setDefaultConcurrency(gribConcurrency);
+    if (gribConcurrency > 1)
+      startupLog.info("TdsInit: GribDecoding.concurrency= " + gribConcurrency);
+
+    // decoded GRIB fields shared by all requests; default is no cache
+    long gribFieldCacheBytes = ThreddsConfig.getBytes("GribDecoding.fieldCacheSize", 0);
+    if (gribFieldCacheBytes > 0) {
+      boolean offHeap = ThreddsConfig.getBoolean("GribDecoding.fieldCacheOffHeap", false);
+      GribDataReader.setFieldCache(new GribFieldCache(gribFieldCacheBytes, offHeap));
+      startupLog.info("TdsInit: GribDecoding.fieldCacheSize= " + gribFieldCacheBytes + " offHeap= " + offHeap);
+    }
+
+    // 2D lat/lon of projected coverages, shared by all NCSS requests that ask for them; size <= 0 turns it off
+    long latLonCacheBytes = ThreddsConfig.getBytes("NetcdfSubsetService.latLonCacheSize", LatLonCache.DEFAULT_MAX_BYTES);
+    HorizCoordSys.setLatLonCache(latLonCacheBytes > 0 ? new LatLonCache(latLonCacheBytes) : null);
+    startupLog.info("TdsInit: NetcdfSubsetService.latLonCacheSize= " + latLonCacheBytes);
+
+    // compressed NEXRAD level II files; default is to uncompress serially into the DiskCache
+    int nexradConcurrency = ThreddsConfig.getInt("Nexrad2.uncompressConcurrency", 1);
+    boolean nexradInMemory = ThreddsConfig.getBoolean("Nexrad2.uncompressInMemory", false);
+    Level2VolumeScan.setDefaultConcurrency(nexradConcurrency);
+    Level2VolumeScan.setUncompressInMemory(nexradInMemory);
+    if (nexradConcurrency > 1 || nexradInMemory)
+      startupLog.info("TdsInit: Nexrad2.uncompressConcurrency= " + nexradConcurrency + " uncompressInMemory= " + nexradInMemory);
+
+    // BUFR messages decoded concurrently when iterating over the observations of a file; default is serial
+    int bufrDecodeThreads = ThreddsConfig.getInt("Bufr.decodeThreads", 1);
+    BufrIosp2.setDecodeThreads(bufrDecodeThreads);
+    if (bufrDecodeThreads > 1)
+      startupLog.info("TdsInit: Bufr.decodeThreads= " + bufrDecodeThreads);
+
+    // filtered (eg deflated) HDF5 and netCDF-4 chunks; default is to decode serially, with a decoded chunk cache
+    int hdf5DecodeThreads = ThreddsConfig.getInt("HDF5.chunkDecodeThreads", 1);
+    long hdf5ChunkCacheBytes = ThreddsConfig.getBytes("HDF5.chunkCacheSize", H5iosp.DEFAULT_CHUNK_CACHE_BYTES);
+    long hdf5TotalCacheBytes = ThreddsConfig.getBytes("HDF5.chunkCacheTotalSize", H5iosp.DEFAULT_TOTAL_CHUNK_CACHE_BYTES);
+    H5iosp.setChunkDecoding(hdf5DecodeThreads, hdf5ChunkCacheBytes, hdf5TotalCacheBytes);
+    startupLog.info("TdsInit: HDF5.chunkDecodeThreads= " + hdf5DecodeThreads + " chunkCacheSize= " + hdf5ChunkCacheBytes +
+            " chunkCacheTotalSize= " + hdf5TotalCacheBytes);
+
+    // time and location index of point and station datasets, used for subsetting; default is no index
+    if (ThreddsConfig.getBoolean("PointIndex.use", false)) {
+      String pointIndexDir = ThreddsConfig.get("PointIndex.dir", new File(tdsContext.getThreddsDirectory(), "/cache/pointIndex/").getPath());
+      int pointIndexScourSecs = ThreddsConfig.getSeconds("PointIndex.scour", 0);
+      int pointIndexMaxAgeSecs = ThreddsConfig.getSeconds("PointIndex.maxAge", 90 * 24 * 60 * 60);
+      DiskCache2 pointIndexCache = new DiskCache2(pointIndexDir, false, pointIndexMaxAgeSecs / 60, pointIndexScourSecs / 60);
+      pointIndexCache.setAlwaysUseCache(ThreddsConfig.getBoolean("PointIndex.alwaysUse", false));
+      PointFeatureIndex.setDiskCache2(pointIndexCache);
+      PointFeatureIndex.setEnabled(true);
+      startupLog.info("TdsInit: PointIndex=" + pointIndexCache);
+    }
+
     // LOOK just create the diskCache here and send it in
     ncssDiskCache.init();
 
@@ -394,18 +478,30 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     min = ThreddsConfig.getInt("RandomAccessFile.minFiles", 400);
     max = ThreddsConfig.getInt("RandomAccessFile.maxFiles", 500);
     secs = ThreddsConfig.getSeconds("RandomAccessFile.scour", 11 * 60);
+    String cacheType = ThreddsConfig.get("RandomAccessFile.cacheType", "default");
     if (max > 0) {
-      RandomAccessFile.setGlobalFileCache(new FileCache("RandomAccessFile", min, max, -1, secs));
-      startupLog.info("TdsInit: RandomAccessFile.initPartitionCache= [" + min + "," + max + "] scour = " + secs);
+      if (cacheType.equalsIgnoreCase("striped"))
+        RandomAccessFile.setGlobalFileCache(new FileCacheStriped("RandomAccessFile", min, max, -1, secs));
+      else
+        RandomAccessFile.setGlobalFileCache(new FileCache("RandomAccessFile", min, max, -1, secs));
+      startupLog.info("TdsInit: RandomAccessFile.initPartitionCache= [" + min + "," + max + "] scour = " + secs + " type = " + cacheType);
+    }
+    for (String root : ThreddsConfig.getRootList("mappedFileRoot")) {
+      RandomAccessFile.addMappedRoot(root);
+      startupLog.info("TdsInit: RandomAccessFile.addMappedRoot= " + root);
     }
 
     // NetcdfFileCache : default is allow 100 - 150 open files, cleanup every 12 minutes
     min = ThreddsConfig.getInt("NetcdfFileCache.minFiles", 100);
     max = ThreddsConfig.getInt("NetcdfFileCache.maxFiles", 150);
     secs = ThreddsConfig.getSeconds("NetcdfFileCache.scour", 12 * 60);
+    cacheType = ThreddsConfig.get("NetcdfFileCache.cacheType", "default");
     if (max > 0) {
-      NetcdfDataset.initNetcdfFileCache(min, max, secs);
-      startupLog.info("TdsInit: NetcdfDataset.initNetcdfFileCache= [" + min + "," + max + "] scour = " + secs);
+      if (cacheType.equalsIgnoreCase("striped"))
+        NetcdfDataset.initNetcdfFileCache(new FileCacheStriped("NetcdfFileCache", min, max, -1, secs));
+      else
+        NetcdfDataset.initNetcdfFileCache(min, max, secs);
+      startupLog.info("TdsInit: NetcdfDataset.initNetcdfFileCache= [" + min + "," + max + "] scour = " + secs + " type = " + cacheType);
     }
 
     // GribCollection partitions: default is allow 100 - 150 objects, cleanup every 13 minutes
@@ -472,6 +568,8 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
     if (cdmDiskCacheTimer != null)
       cdmDiskCacheTimer.cancel();
     FileCache.shutdown();              // this handles background threads for all instances of FileCache
+    FileCacheStriped.shutdown();       // same for FileCacheStriped
+    Aggregation.shutdown();            // concurrent aggregation reads
     DiskCache2.exit();                // this handles background threads for all instances of DiskCache2
     thredds.inventory.bdb.MetadataManager.closeAll();
     executor.shutdownNow();
@@ -489,6 +587,10 @@ public class TdsInit implements ApplicationListener<ContextRefreshedEvent>, Disp
 
     // memory caches
     GribCdmIndex.shutdown();
+    GribDataReader.shutdown();
+    Level2VolumeScan.shutdown();
+    H5iosp.shutdown();
+    BufrIosp2.shutdown();
     datasetManager.setDatasetTracker(null); // closes the existing tracker
 
     collectionUpdater.shutdown();
@@ -85,6 +85,7 @@ import java.util.Random;
 @RequestMapping("/ncss/grid")
 public class NcssGridController extends AbstractNcssController {
   static private final short ESTIMATED_COMPRESION_RATE = 4;  // Compression rate used to estimate the filesize of netcdf4 compressed files
+  static private final long DEFAULT_STREAM_SLAB_SIZE = 50 * 1000 * 1000; // read coverages in pieces of this many bytes when streaming
 
   @Autowired
   private AllowedServices allowedServices;
@@ -137,9 +138,6 @@ public class NcssGridController extends AbstractNcssController {
                 " have different vertical levels. Grid requests with vertCoord must have variables with same vertical levels.");
       }
 
-    String responseFile = getResponseFileName(datasetPath, version);
-    File netcdfResult = makeCFNetcdfFile(gcd, responseFile, params, version);
-
     // filename download attachment
     String suffix = version.getSuffix();
     int pos = datasetPath.lastIndexOf("/");
@@ -152,6 +150,14 @@ public class NcssGridController extends AbstractNcssController {
     HttpHeaders httpHeaders = new HttpHeaders();
     httpHeaders.set(ContentType.HEADER, sf.getMimeType());
     httpHeaders.set(Constants.Content_Disposition, Constants.setContentDispositionValue(filename));
+
+    if (version == NetcdfFileWriter.Version.netcdf3 && ThreddsConfig.getBoolean("NetcdfSubsetService.streamNetcdf3", false)) {
+      streamCFNetcdf3(res, httpHeaders, gcd, params);
+      return;
+    }
+
+    String responseFile = getResponseFileName(datasetPath, version);
+    File netcdfResult = makeCFNetcdfFile(gcd, responseFile, params, version);
     setResponseHeaders(res, httpHeaders);
 
     IO.copyFileB(netcdfResult, res.getOutputStream(), 60000);
@@ -165,11 +171,44 @@ public class NcssGridController extends AbstractNcssController {
 
     NetcdfFileWriter writer = NetcdfFileWriter.createNew(version, responseFilename, null); // default chunking - let user control at some point
     SubsetParams subset = params.makeSubset(gcd);
+    checkMaxFileDownloadSize(gcd, params, subset, version);
+
+    // write the file
+    Optional<Long> estimatedSizeo = CFGridCoverageWriter2.writeOrTestSize(gcd, params.getVar(), subset, params.isAddLatLon(), false, writer);
+    if (!estimatedSizeo.isPresent())
+      throw new InvalidRangeException("Request contains no data: " + estimatedSizeo.getErrorMessage());
+
+    return new File(responseFilename);
+  }
+
+  /**
+   * Write a netcdf-3 response directly to the client, without making a file first.
+   * The data is read in pieces of at most NetcdfSubsetService.streamSlabSize bytes, where possible.
+   */
+  private void streamCFNetcdf3(HttpServletResponse res, HttpHeaders httpHeaders, CoverageCollection gcd, NcssGridParamsBean params)
+          throws NcssException, InvalidRangeException, ParseException, IOException {
+
+    SubsetParams subset = params.makeSubset(gcd);
+    checkMaxFileDownloadSize(gcd, params, subset, NetcdfFileWriter.Version.netcdf3);
+
+    setResponseHeaders(res, httpHeaders);
+    long maxSlabBytes = ThreddsConfig.getBytes("NetcdfSubsetService.streamSlabSize", DEFAULT_STREAM_SLAB_SIZE);
+    Optional<Long> sizeo = CFGridCoverageWriter2.writeStream(gcd, params.getVar(), subset, params.isAddLatLon(), res.getOutputStream(), maxSlabBytes);
+    if (!sizeo.isPresent())
+      throw new InvalidRangeException("Request contains no data: " + sizeo.getErrorMessage());
+
+    res.flushBuffer();
+    res.getOutputStream().close();
+    res.setStatus(HttpServletResponse.SC_OK);
+  }
+
+  // Test maxFileDownloadSize
+  private void checkMaxFileDownloadSize(CoverageCollection gcd, NcssGridParamsBean params, SubsetParams subset, NetcdfFileWriter.Version version)
+          throws InvalidRangeException, IOException {
 
-    // Test maxFileDownloadSize
     long maxFileDownloadSize = ThreddsConfig.getBytes("NetcdfSubsetService.maxFileDownloadSize", -1L);
     if (maxFileDownloadSize > 0) {
-      Optional<Long> estimatedSizeo = CFGridCoverageWriter2.writeOrTestSize(gcd, params.getVar(), subset, params.isAddLatLon(), true, writer);
+      Optional<Long> estimatedSizeo = CFGridCoverageWriter2.writeOrTestSize(gcd, params.getVar(), subset, params.isAddLatLon(), true, null);
       if (!estimatedSizeo.isPresent())
         throw new InvalidRangeException("Request contains no data: " + estimatedSizeo.getErrorMessage());
 
@@ -180,13 +219,6 @@ public class NcssGridController extends AbstractNcssController {
       if (estimatedSize > maxFileDownloadSize)
         throw new RequestTooLargeException("NCSS response too large = " + estimatedSize + " max = " + maxFileDownloadSize);
     }
-
-    // write the file
-    Optional<Long> estimatedSizeo = CFGridCoverageWriter2.writeOrTestSize(gcd, params.getVar(), subset, params.isAddLatLon(), false, writer);
-    if (!estimatedSizeo.isPresent())
-      throw new InvalidRangeException("Request contains no data: " + estimatedSizeo.getErrorMessage());
-
-    return new File(responseFilename);
   }
 
   private String getResponseFileName(String requestPathInfo, NetcdfFileWriter.Version version) {